@@ -3,6 +3,8 @@ package com.dianping.pigeon.compress;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -10,13 +12,18 @@ import java.util.zip.GZIPOutputStream;
  * @author qi.yin
  *         2016/06/05  下午6:02.
  */
-public class GZipCompress implements Compress {
+public class GZipCompress implements StreamCompress {
 
     /**
      * default buffer size
      */
     private static final int BUFFER_SIZE = 256;
 
+    /**
+     * inflater/deflater input buffer size of the streaming variants
+     */
+    private static final int STREAM_BUFFER_SIZE = 8192;
+
     public byte[] compress(byte[] array) throws IOException {
         if (array == null) {
             return null;
@@ -55,4 +62,34 @@ public class GZipCompress implements Compress {
         return out.toByteArray();
     }
 
+    @Override
+    public void compress(byte[] buf, int offset, int length, OutputStream out) throws IOException {
+        UnclosedGZIPOutputStream gzip = new UnclosedGZIPOutputStream(out, STREAM_BUFFER_SIZE);
+        try {
+            gzip.write(buf, offset, length);
+            gzip.finish();
+        } finally {
+            gzip.end();
+        }
+    }
+
+    @Override
+    public InputStream unCompress(byte[] buf, int offset, int length) throws IOException {
+        return new GZIPInputStream(new ByteArrayInputStream(buf, offset, length), STREAM_BUFFER_SIZE);
+    }
+
+    /**
+     * releases the native deflater without closing the target stream
+     */
+    private static class UnclosedGZIPOutputStream extends GZIPOutputStream {
+
+        UnclosedGZIPOutputStream(OutputStream out, int size) throws IOException {
+            super(out, size);
+        }
+
+        void end() {
+            def.end();
+        }
+    }
+
 }
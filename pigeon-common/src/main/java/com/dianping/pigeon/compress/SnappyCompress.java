@@ -2,13 +2,16 @@ package com.dianping.pigeon.compress;
 
 import org.xerial.snappy.Snappy;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * @author qi.yin
  *         2016/06/05  下午6:02.
  */
-public class SnappyCompress implements Compress {
+public class SnappyCompress implements StreamCompress {
 
     @Override
     public byte[] compress(byte[] buf) throws IOException {
@@ -25,4 +28,19 @@ public class SnappyCompress implements Compress {
         }
         return Snappy.uncompress(buf);
     }
+
+    @Override
+    public void compress(byte[] buf, int offset, int length, OutputStream out) throws IOException {
+        // snappy blocks are not streamable, compress once into an exactly bounded array
+        byte[] compressed = new byte[Snappy.maxCompressedLength(length)];
+        int compressedLength = Snappy.compress(buf, offset, length, compressed, 0);
+        out.write(compressed, 0, compressedLength);
+    }
+
+    @Override
+    public InputStream unCompress(byte[] buf, int offset, int length) throws IOException {
+        byte[] uncompressed = new byte[Snappy.uncompressedLength(buf, offset, length)];
+        Snappy.uncompress(buf, offset, length, uncompressed, 0);
+        return new ByteArrayInputStream(uncompressed);
+    }
 }
@@ -0,0 +1,31 @@
+package com.dianping.pigeon.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 不经过中间数组的压缩，未实现的Compress仍按byte[]压缩
+ */
+public interface StreamCompress extends Compress {
+
+    /**
+     * 压缩buf[offset, offset + length)，直接写入out
+     *
+     * @param buf
+     * @param offset
+     * @param length
+     * @param out
+     */
+    void compress(byte[] buf, int offset, int length, OutputStream out) throws IOException;
+
+    /**
+     * 解压缩buf[offset, offset + length)，返回的流读取时才解压，用完需要close
+     *
+     * @param buf
+     * @param offset
+     * @param length
+     * @return
+     */
+    InputStream unCompress(byte[] buf, int offset, int length) throws IOException;
+}
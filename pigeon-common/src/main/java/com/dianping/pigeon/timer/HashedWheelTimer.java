@@ -0,0 +1,387 @@
+package com.dianping.pigeon.timer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dianping.pigeon.log.Logger;
+import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.threadpool.DefaultThreadFactory;
+
+/**
+ * hashed wheel timer, scheduling and cancelling a timeout are both O(1).
+ *
+ * timeouts are handed over to the single worker thread through a lock free
+ * queue and expired once per tick, so the accuracy is one tick duration.
+ */
+public class HashedWheelTimer {
+
+	private static final Logger logger = LoggerLoader.getLogger(HashedWheelTimer.class);
+
+	private static final int WORKER_STATE_INIT = 0;
+	private static final int WORKER_STATE_STARTED = 1;
+	private static final int WORKER_STATE_SHUTDOWN = 2;
+
+	private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<WheelTimeout> STATE_UPDATER = (AtomicIntegerFieldUpdater) AtomicIntegerFieldUpdater
+			.newUpdater(WheelTimeout.class, "state");
+
+	private final AtomicInteger workerState = new AtomicInteger(WORKER_STATE_INIT);
+	private final Worker worker = new Worker();
+	private final Thread workerThread;
+	private final long tickDuration;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final Queue<WheelTimeout> timeouts = new ConcurrentLinkedQueue<WheelTimeout>();
+	private final Queue<WheelTimeout> cancelledTimeouts = new ConcurrentLinkedQueue<WheelTimeout>();
+	private final CountDownLatch startTimeInitialized = new CountDownLatch(1);
+	private volatile long startTime;
+
+	private final AtomicLong pendingTimeouts = new AtomicLong();
+	private final AtomicLong expiredTimeouts = new AtomicLong();
+	private final AtomicLong cancelledCount = new AtomicLong();
+	private volatile long lastTickLag;
+	private volatile long maxTickLag;
+
+	public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+		}
+		if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+			throw new IllegalArgumentException("ticksPerWheel must be in (0, 2^30]: " + ticksPerWheel);
+		}
+		int normalized = 1;
+		while (normalized < ticksPerWheel) {
+			normalized <<= 1;
+		}
+		this.wheel = new Bucket[normalized];
+		for (int i = 0; i < normalized; i++) {
+			this.wheel[i] = new Bucket();
+		}
+		this.mask = normalized - 1;
+		this.tickDuration = unit.toNanos(tickDuration);
+		if (this.tickDuration >= Long.MAX_VALUE / normalized) {
+			throw new IllegalArgumentException("tickDuration is too long: " + tickDuration + " " + unit);
+		}
+		this.workerThread = new DefaultThreadFactory(name).newThread(worker);
+	}
+
+	public void start() {
+		switch (workerState.get()) {
+		case WORKER_STATE_INIT:
+			if (workerState.compareAndSet(WORKER_STATE_INIT, WORKER_STATE_STARTED)) {
+				workerThread.start();
+			}
+			break;
+		case WORKER_STATE_STARTED:
+			break;
+		default:
+			throw new IllegalStateException("cannot be started once stopped");
+		}
+		while (startTime == 0) {
+			try {
+				startTimeInitialized.await();
+			} catch (InterruptedException ignore) {
+			}
+		}
+	}
+
+	public void stop() {
+		if (workerState.getAndSet(WORKER_STATE_SHUTDOWN) != WORKER_STATE_STARTED) {
+			return;
+		}
+		if (Thread.currentThread() == workerThread) {
+			// stopped from a task, the worker exits after this tick
+			return;
+		}
+		boolean interrupted = false;
+		while (workerThread.isAlive()) {
+			workerThread.interrupt();
+			try {
+				workerThread.join(100);
+			} catch (InterruptedException ignored) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             if the timer is stopped, also when stopped while the timeout
+	 *             is added
+	 */
+	public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+		if (task == null) {
+			throw new NullPointerException("task");
+		}
+		start();
+		long deadline = System.nanoTime() + unit.toNanos(delay) - startTime;
+		WheelTimeout timeout = new WheelTimeout(task, deadline);
+		pendingTimeouts.incrementAndGet();
+		timeouts.add(timeout);
+		// the worker may have exited before taking the timeout, which would then
+		// never expire
+		if (workerState.get() == WORKER_STATE_SHUTDOWN && timeout.cancel()) {
+			throw new IllegalStateException("cannot be started once stopped");
+		}
+		return timeout;
+	}
+
+	public long getPendingTimeouts() {
+		return pendingTimeouts.get();
+	}
+
+	public long getExpiredTimeouts() {
+		return expiredTimeouts.get();
+	}
+
+	public long getCancelledTimeouts() {
+		return cancelledCount.get();
+	}
+
+	/**
+	 * @return how late the worker processed the last tick, in milliseconds
+	 */
+	public long getLastTickLag() {
+		return TimeUnit.NANOSECONDS.toMillis(lastTickLag);
+	}
+
+	public long getMaxTickLag() {
+		return TimeUnit.NANOSECONDS.toMillis(maxTickLag);
+	}
+
+	public int getWheelSize() {
+		return wheel.length;
+	}
+
+	public String getStatistics() {
+		return new StringBuilder().append("pending:").append(getPendingTimeouts()).append(",expired:")
+				.append(getExpiredTimeouts()).append(",cancelled:").append(getCancelledTimeouts())
+				.append(",occupancy:").append(getPendingTimeouts() / wheel.length).append("/bucket")
+				.append(",lag:").append(getLastTickLag()).append("ms(max:").append(getMaxTickLag())
+				.append("ms),tick:").append(TimeUnit.NANOSECONDS.toMillis(tickDuration)).append("ms*")
+				.append(wheel.length).toString();
+	}
+
+	private final class Worker implements Runnable {
+
+		private long tick;
+
+		@Override
+		public void run() {
+			startTime = System.nanoTime();
+			if (startTime == 0) {
+				startTime = 1;
+			}
+			startTimeInitialized.countDown();
+
+			do {
+				final long deadline = waitForNextTick();
+				if (deadline > 0) {
+					processCancelledTasks();
+					transferTimeoutsToBuckets();
+					wheel[(int) (tick & mask)].expireTimeouts(deadline);
+					tick++;
+				}
+			} while (workerState.get() == WORKER_STATE_STARTED);
+		}
+
+		private void transferTimeoutsToBuckets() {
+			for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+				WheelTimeout timeout = timeouts.poll();
+				if (timeout == null) {
+					break;
+				}
+				if (timeout.state() == WheelTimeout.ST_CANCELLED) {
+					continue;
+				}
+				long calculated = timeout.deadline / tickDuration;
+				timeout.remainingRounds = (calculated - tick) / wheel.length;
+				long ticks = Math.max(calculated, tick);
+				wheel[(int) (ticks & mask)].add(timeout);
+			}
+		}
+
+		private void processCancelledTasks() {
+			for (;;) {
+				WheelTimeout timeout = cancelledTimeouts.poll();
+				if (timeout == null) {
+					break;
+				}
+				timeout.remove();
+			}
+		}
+
+		private long waitForNextTick() {
+			long deadline = tickDuration * (tick + 1);
+			for (;;) {
+				final long currentTime = System.nanoTime() - startTime;
+				long sleepTimeMs = (deadline - currentTime + 999999) / 1000000;
+				if (sleepTimeMs <= 0) {
+					long lag = currentTime - deadline;
+					lastTickLag = lag;
+					if (lag > maxTickLag) {
+						maxTickLag = lag;
+					}
+					return currentTime == Long.MIN_VALUE ? -Long.MAX_VALUE : currentTime;
+				}
+				try {
+					Thread.sleep(sleepTimeMs);
+				} catch (InterruptedException ignored) {
+					if (workerState.get() == WORKER_STATE_SHUTDOWN) {
+						return Long.MIN_VALUE;
+					}
+				}
+			}
+		}
+	}
+
+	private final class WheelTimeout implements Timeout {
+
+		private static final int ST_INIT = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+
+		private final TimerTask task;
+		private final long deadline;
+		volatile int state = ST_INIT;
+
+		// accessed by the worker thread only
+		long remainingRounds;
+		boolean detached;
+		WheelTimeout next;
+		WheelTimeout prev;
+		Bucket bucket;
+
+		WheelTimeout(TimerTask task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public TimerTask getTask() {
+			return task;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+				return false;
+			}
+			cancelledCount.incrementAndGet();
+			cancelledTimeouts.add(this);
+			return true;
+		}
+
+		void remove() {
+			Bucket bucket = this.bucket;
+			if (bucket != null) {
+				bucket.remove(this);
+			} else if (!detached) {
+				detached = true;
+				pendingTimeouts.decrementAndGet();
+			}
+		}
+
+		int state() {
+			return state;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state == ST_CANCELLED;
+		}
+
+		@Override
+		public boolean isExpired() {
+			return state == ST_EXPIRED;
+		}
+
+		void expire() {
+			if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+				return;
+			}
+			expiredTimeouts.incrementAndGet();
+			try {
+				task.run(this);
+			} catch (Throwable t) {
+				logger.warn("timer task " + task.getClass().getSimpleName() + " failed", t);
+			}
+		}
+	}
+
+	/**
+	 * doubly linked list of timeouts, only touched by the worker thread
+	 */
+	private final class Bucket {
+
+		private WheelTimeout head;
+		private WheelTimeout tail;
+
+		void add(WheelTimeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		void expireTimeouts(long deadline) {
+			WheelTimeout timeout = head;
+			while (timeout != null) {
+				WheelTimeout next = timeout.next;
+				if (timeout.isCancelled()) {
+					// unlinked by processCancelledTasks
+				} else if (timeout.remainingRounds <= 0) {
+					next = remove(timeout);
+					if (timeout.deadline <= deadline) {
+						timeout.expire();
+					} else {
+						logger.warn("timeout.deadline " + timeout.deadline + " > deadline " + deadline);
+					}
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+
+		WheelTimeout remove(WheelTimeout timeout) {
+			WheelTimeout next = timeout.next;
+			if (timeout.prev != null) {
+				timeout.prev.next = next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			}
+			if (timeout == head) {
+				if (timeout == tail) {
+					tail = null;
+					head = null;
+				} else {
+					head = next;
+				}
+			} else if (timeout == tail) {
+				tail = timeout.prev;
+			}
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+			timeout.detached = true;
+			pendingTimeouts.decrementAndGet();
+			return next;
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package com.dianping.pigeon.timer;
+
+/**
+ * handle of a {@link TimerTask} scheduled on {@link HashedWheelTimer}
+ */
+public interface Timeout {
+
+	TimerTask getTask();
+
+	boolean isExpired();
+
+	boolean isCancelled();
+
+	/**
+	 * @return false if the task has already expired or been cancelled
+	 */
+	boolean cancel();
+
+}
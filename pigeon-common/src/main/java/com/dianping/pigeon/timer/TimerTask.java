@@ -0,0 +1,10 @@
+package com.dianping.pigeon.timer;
+
+/**
+ * task executed by {@link HashedWheelTimer} when its {@link Timeout} expires
+ */
+public interface TimerTask {
+
+	void run(Timeout timeout) throws Exception;
+
+}
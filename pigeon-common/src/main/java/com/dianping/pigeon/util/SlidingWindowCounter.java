@@ -0,0 +1,116 @@
+package com.dianping.pigeon.util;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * counts per time unit for a ring of the most recent units, found by epoch
+ * arithmetic so that counting neither allocates nor needs a calendar.
+ *
+ * every slot remembers the unit it counts, a slot still holding an older unit
+ * reads as zero and is cleared by the first increment of its new unit, no
+ * periodic reset is needed. the slot is marked while it is cleared and takes
+ * its new unit only afterwards, so readers never see the old counts under the
+ * new unit and increments of the new unit wait instead of being cleared. the
+ * count of a slot is spread over striped cells picked by thread, the cells of
+ * different stripes are a cache line apart.
+ */
+public class SlidingWindowCounter implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// longs per cache line
+	private static final int PAD = 8;
+
+	private static final int STRIPES = stripes();
+
+	// unit of a slot being cleared
+	private static final long CLEARING = -2;
+
+	private final long unitMillis;
+
+	private final int slots;
+
+	private final AtomicLongArray units;
+
+	private final AtomicLongArray cells;
+
+	/**
+	 * @param slots
+	 *            how many of the most recent units are kept
+	 */
+	public SlidingWindowCounter(int slots, long unitMillis) {
+		if (slots <= 0 || unitMillis <= 0) {
+			throw new IllegalArgumentException("slots and unitMillis must be greater than 0");
+		}
+		this.slots = slots;
+		this.unitMillis = unitMillis;
+		this.units = new AtomicLongArray(slots);
+		for (int i = 0; i < slots; i++) {
+			this.units.set(i, -1);
+		}
+		this.cells = new AtomicLongArray(STRIPES * (slots + PAD));
+	}
+
+	private static int stripes() {
+		int n = 1;
+		while (n < Runtime.getRuntime().availableProcessors() && n < 8) {
+			n <<= 1;
+		}
+		return n;
+	}
+
+	public long unitOf(long millis) {
+		return millis / unitMillis;
+	}
+
+	public long currentUnit() {
+		return unitOf(System.currentTimeMillis());
+	}
+
+	public void increment() {
+		incrementUnit(currentUnit());
+	}
+
+	public void incrementUnit(long unit) {
+		int slot = (int) (unit % slots);
+		long held;
+		while ((held = units.get(slot)) != unit) {
+			if (held == CLEARING) {
+				Thread.yield();
+			} else if (held > unit) {
+				// the clock went back, the unit is gone
+				return;
+			} else if (units.compareAndSet(slot, held, CLEARING)) {
+				for (int stripe = 0; stripe < STRIPES; stripe++) {
+					cells.set(stripe * (slots + PAD) + slot, 0);
+				}
+				units.set(slot, unit);
+			}
+		}
+		int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+		cells.incrementAndGet(stripe * (slots + PAD) + slot);
+	}
+
+	/**
+	 * @return 0 for units out of the ring
+	 */
+	public long get(long unit) {
+		if (unit < 0) {
+			return 0;
+		}
+		int slot = (int) (unit % slots);
+		if (units.get(slot) != unit) {
+			return 0;
+		}
+		long sum = 0;
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			sum += cells.get(stripe * (slots + PAD) + slot);
+		}
+		return sum;
+	}
+
+	public int getSlots() {
+		return slots;
+	}
+}
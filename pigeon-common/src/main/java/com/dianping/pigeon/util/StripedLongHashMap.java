@@ -0,0 +1,255 @@
+package com.dianping.pigeon.util;
+
+/**
+ * long keyed hash map for hot paths, keys are never boxed and put/get/remove
+ * do not allocate unless a stripe has to grow.
+ *
+ * the map is split into stripes by key, each stripe is an open addressing
+ * table with linear probing guarded by its own monitor, removal shifts the
+ * following entries back so that no tombstones are left behind.
+ */
+public class StripedLongHashMap<V> {
+
+	private static final float MAX_LOAD_FACTOR = 0.5f;
+
+	private final Stripe<V>[] stripes;
+	private final int stripeMask;
+
+	@SuppressWarnings("unchecked")
+	public StripedLongHashMap(int stripeCount, int expectedSize) {
+		int stripeSize = powerOfTwo(Math.max(stripeCount, 1));
+		this.stripes = new Stripe[stripeSize];
+		this.stripeMask = stripeSize - 1;
+		int capacity = powerOfTwo((int) Math.max(16, Math.ceil(expectedSize / (double) stripeSize / MAX_LOAD_FACTOR)));
+		for (int i = 0; i < stripeSize; i++) {
+			this.stripes[i] = new Stripe<V>(capacity);
+		}
+	}
+
+	private static int powerOfTwo(int value) {
+		int n = 1;
+		while (n < value && n < (1 << 30)) {
+			n <<= 1;
+		}
+		return n;
+	}
+
+	private static int hash(long key) {
+		// murmur3 finalizer, keys inside one stripe share their low bits
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	private Stripe<V> stripe(long key) {
+		return stripes[(int) key & stripeMask];
+	}
+
+	public V put(long key, V value) {
+		if (value == null) {
+			throw new NullPointerException("value");
+		}
+		return stripe(key).put(key, value);
+	}
+
+	public V get(long key) {
+		return stripe(key).get(key);
+	}
+
+	public V remove(long key) {
+		return stripe(key).remove(key);
+	}
+
+	public int size() {
+		int size = 0;
+		for (Stripe<V> stripe : stripes) {
+			size += stripe.size;
+		}
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public int capacity() {
+		int capacity = 0;
+		for (Stripe<V> stripe : stripes) {
+			capacity += stripe.keys.length;
+		}
+		return capacity;
+	}
+
+	/**
+	 * @return a snapshot of the keys, taken stripe by stripe
+	 */
+	public long[] keys() {
+		long[] keys = new long[Math.max(size(), 16)];
+		int count = 0;
+		for (Stripe<V> stripe : stripes) {
+			synchronized (stripe) {
+				if (count + stripe.size > keys.length) {
+					long[] newKeys = new long[Math.max(keys.length * 2, count + stripe.size)];
+					System.arraycopy(keys, 0, newKeys, 0, count);
+					keys = newKeys;
+				}
+				Object[] values = stripe.values;
+				for (int i = 0; i < values.length; i++) {
+					if (values[i] != null) {
+						keys[count++] = stripe.keys[i];
+					}
+				}
+			}
+		}
+		long[] result = new long[count];
+		System.arraycopy(keys, 0, result, 0, count);
+		return result;
+	}
+
+	public String getStatistics() {
+		long size = 0, capacity = 0, probes = 0, lookups = 0;
+		int maxProbe = 0, maxStripeSize = 0;
+		for (Stripe<V> stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size;
+				capacity += stripe.keys.length;
+				probes += stripe.probes;
+				lookups += stripe.lookups;
+				maxProbe = Math.max(maxProbe, stripe.maxProbe);
+				maxStripeSize = Math.max(maxStripeSize, stripe.size);
+			}
+		}
+		return new StringBuilder().append("size:").append(size).append(",capacity:").append(capacity)
+				.append(",stripes:").append(stripes.length).append(",maxStripeSize:").append(maxStripeSize)
+				.append(",occupancy:").append(capacity == 0 ? 0 : size * 100 / capacity).append("%")
+				.append(",avgProbe:").append(lookups == 0 ? 0 : String.format("%.2f", (double) probes / lookups))
+				.append(",maxProbe:").append(maxProbe).toString();
+	}
+
+	private static final class Stripe<V> {
+
+		long[] keys;
+		Object[] values;
+		int mask;
+		volatile int size;
+		int threshold;
+		long probes;
+		long lookups;
+		int maxProbe;
+
+		Stripe(int capacity) {
+			allocate(capacity);
+		}
+
+		private void allocate(int capacity) {
+			keys = new long[capacity];
+			values = new Object[capacity];
+			mask = capacity - 1;
+			threshold = (int) (capacity * MAX_LOAD_FACTOR);
+		}
+
+		private void probed(int length) {
+			lookups++;
+			probes += length;
+			if (length > maxProbe) {
+				maxProbe = length;
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		synchronized V put(long key, V value) {
+			int index = hash(key) & mask;
+			int length = 1;
+			while (values[index] != null) {
+				if (keys[index] == key) {
+					probed(length);
+					V old = (V) values[index];
+					values[index] = value;
+					return old;
+				}
+				index = (index + 1) & mask;
+				length++;
+			}
+			probed(length);
+			keys[index] = key;
+			values[index] = value;
+			if (++size > threshold) {
+				rehash(keys.length << 1);
+			}
+			return null;
+		}
+
+		@SuppressWarnings("unchecked")
+		synchronized V get(long key) {
+			int index = hash(key) & mask;
+			int length = 1;
+			while (values[index] != null) {
+				if (keys[index] == key) {
+					probed(length);
+					return (V) values[index];
+				}
+				index = (index + 1) & mask;
+				length++;
+			}
+			probed(length);
+			return null;
+		}
+
+		@SuppressWarnings("unchecked")
+		synchronized V remove(long key) {
+			int index = hash(key) & mask;
+			int length = 1;
+			while (values[index] != null) {
+				if (keys[index] == key) {
+					probed(length);
+					V old = (V) values[index];
+					shiftBack(index);
+					size--;
+					return old;
+				}
+				index = (index + 1) & mask;
+				length++;
+			}
+			probed(length);
+			return null;
+		}
+
+		private void shiftBack(int hole) {
+			int index = hole;
+			for (;;) {
+				index = (index + 1) & mask;
+				if (values[index] == null) {
+					break;
+				}
+				int home = hash(keys[index]) & mask;
+				// move the entry into the hole unless its home slot lies
+				// cyclically in (hole, index]
+				if (((index - home) & mask) >= ((index - hole) & mask)) {
+					keys[hole] = keys[index];
+					values[hole] = values[index];
+					hole = index;
+				}
+			}
+			values[hole] = null;
+		}
+
+		private void rehash(int capacity) {
+			long[] oldKeys = keys;
+			Object[] oldValues = values;
+			allocate(capacity);
+			for (int i = 0; i < oldValues.length; i++) {
+				if (oldValues[i] != null) {
+					int index = hash(oldKeys[i]) & mask;
+					while (values[index] != null) {
+						index = (index + 1) & mask;
+					}
+					keys[index] = oldKeys[i];
+					values[index] = oldValues[i];
+				}
+			}
+		}
+	}
+}
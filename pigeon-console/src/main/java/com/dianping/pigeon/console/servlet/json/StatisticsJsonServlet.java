@@ -15,17 +15,26 @@ import com.dianping.pigeon.console.listener.StatusListener;
 import com.dianping.pigeon.console.servlet.ServiceServlet;
 import com.dianping.pigeon.console.status.StatusInfo;
 import com.dianping.pigeon.remoting.ServiceFactory;
+import com.dianping.pigeon.remoting.common.codec.AdaptiveCompressSelector;
+import com.dianping.pigeon.remoting.common.monitor.TimelineStatistics;
+import com.dianping.pigeon.remoting.common.monitor.WriteBatchStatistics;
+import com.dianping.pigeon.remoting.invoker.cluster.HedgedCluster;
 import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
 import com.dianping.pigeon.remoting.invoker.process.statistics.InvokerCapacityBucket;
 import com.dianping.pigeon.remoting.invoker.process.statistics.InvokerStatisticsHolder;
+import com.dianping.pigeon.remoting.invoker.route.balance.ConsistentHashLoadBalance;
 import com.dianping.pigeon.remoting.invoker.route.balance.LoadBalanceManager;
 import com.dianping.pigeon.remoting.invoker.route.statistics.CapacityBucket;
 import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
+import com.dianping.pigeon.remoting.invoker.service.ServiceInvocationRepository;
 import com.dianping.pigeon.remoting.provider.ProviderBootStrap;
 import com.dianping.pigeon.remoting.provider.Server;
 import com.dianping.pigeon.remoting.provider.config.ServerConfig;
 import com.dianping.pigeon.remoting.provider.process.RequestProcessor;
+import com.dianping.pigeon.remoting.provider.process.filter.GatewayProcessFilter;
+import com.dianping.pigeon.remoting.provider.process.limit.AdaptiveConcurrencyLimiter;
 import com.dianping.pigeon.remoting.provider.process.statistics.ProviderCapacityBucket;
+import com.dianping.pigeon.remoting.provider.process.statistics.ProviderServiceTimeBucket;
 import com.dianping.pigeon.remoting.provider.process.statistics.ProviderStatisticsHolder;
 
 public class StatisticsJsonServlet extends ServiceServlet {
@@ -80,6 +89,35 @@ public class StatisticsJsonServlet extends ServiceServlet {
 			stat.getInvokerConfigs().add(invokerConfig);
 		}
 
+		stat.getOthers().put("invocationTimeout", ServiceInvocationRepository.getInstance().getTimeoutStatistics());
+		stat.getOthers().put("writeBatch", WriteBatchStatistics.getStatistics());
+
+		for (Map.Entry<String, ProviderServiceTimeBucket> entry : ProviderStatisticsHolder
+				.getMethodServiceTimeBuckets().entrySet()) {
+			stat.getOthers().put("serviceTime:" + entry.getKey(), entry.getValue().toString());
+		}
+
+		for (Map.Entry<String, AdaptiveConcurrencyLimiter> entry : GatewayProcessFilter.getMethodLimiters()
+				.entrySet()) {
+			stat.getOthers().put("concurrencyLimit:" + entry.getKey(), entry.getValue().toString());
+		}
+
+		for (Map.Entry<String, String> entry : AdaptiveCompressSelector.getStatistics().entrySet()) {
+			stat.getOthers().put("compress:" + entry.getKey(), entry.getValue());
+		}
+
+		for (Map.Entry<String, String> entry : TimelineStatistics.getStatistics().entrySet()) {
+			stat.getOthers().put("timeline:" + entry.getKey(), entry.getValue());
+		}
+
+		for (Map.Entry<String, String> entry : ConsistentHashLoadBalance.getStatistics().entrySet()) {
+			stat.getOthers().put("consistentHash:" + entry.getKey(), entry.getValue());
+		}
+
+		for (Map.Entry<String, String> entry : HedgedCluster.getStatistics().entrySet()) {
+			stat.getOthers().put("hedged:" + entry.getKey(), entry.getValue());
+		}
+
 		List<StatusInfo> infoList = StatusListener.getStatusInfoList();
 		for (StatusInfo info : infoList) {
 			stat.getOthers().put(info.getSource(), "" + info.getStatusInfo());
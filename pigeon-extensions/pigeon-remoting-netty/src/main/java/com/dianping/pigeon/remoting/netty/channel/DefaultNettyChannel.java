@@ -2,15 +2,22 @@ package com.dianping.pigeon.remoting.netty.channel;
 
 import com.dianping.pigeon.log.Logger;
 import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.exception.NetworkException;
+import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.util.NetUtils;
+import com.dianping.pigeon.util.StripedLongHashMap;
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -35,6 +42,17 @@ public class DefaultNettyChannel implements NettyChannel {
 
     private String remoteAddressString;
 
+    private static final long PENDING_EXPIRE_INTERVAL = 1000;
+
+    // sequence -> request waiting for a response on this channel, its creation time set when written
+    private final StripedLongHashMap<InvocationRequest> pendingRequestMap = new StripedLongHashMap<InvocationRequest>(4, 64);
+
+    private final AtomicInteger pendingRequests = new AtomicInteger();
+
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    private volatile long nextExpireTime;
+
     public DefaultNettyChannel(ClientBootstrap bootstrap, String remoteHost, int remotePort, int timeout) {
         this.bootstrap = bootstrap;
         this.remoteAddress = new InetSocketAddress(remoteHost, remotePort);
@@ -58,7 +76,9 @@ public class DefaultNettyChannel implements NettyChannel {
 
                     if (future.isSuccess()) {
                         disConnect();
+                        clearPending();
                         this.channel = future.getChannel();
+                        this.channel.setAttachment(this);
                         localAddress = (InetSocketAddress) this.channel.getLocalAddress();
                     } else {
                         logger.info("[connect] connected to remote " + remoteAddress + " failed.");
@@ -105,8 +125,74 @@ public class DefaultNettyChannel implements NettyChannel {
             throw new NetworkException("[write0] channel is null or channel is close.");
         }
 
-        return channel.write(message);
+        ChannelFuture future = channel.write(message);
+
+        if (message instanceof InvocationRequest) {
+            requestWritten((InvocationRequest) message, future);
+        }
+
+        return future;
+    }
+
+    private void requestWritten(InvocationRequest request, ChannelFuture future) {
+        long now = System.currentTimeMillis();
+        boolean service = request.getMessageType() == Constants.MESSAGE_TYPE_SERVICE;
+
+        if (service) {
+            if (request.getCreateMillisTime() <= 0) {
+                request.setCreateMillisTime(now);
+            }
+            if (pendingRequestMap.put(request.getSequence(), request) == null) {
+                pendingRequests.incrementAndGet();
+            }
+        }
+
+        int size = Math.max(request.getSize(), 0);
+        pendingBytes.addAndGet(size);
+        future.addListener(new PendingWriteListener(service ? request : null, size));
+
+        if (now >= nextExpireTime) {
+            nextExpireTime = now + PENDING_EXPIRE_INTERVAL;
+            expirePending(now);
+        }
+    }
+
+    /**
+     * requests timed out on the invoker side never get a response here
+     */
+    private void expirePending(long now) {
+        for (long sequence : pendingRequestMap.keys()) {
+            InvocationRequest request = pendingRequestMap.get(sequence);
+            if (request != null && request.getCreateMillisTime() + Math.max(request.getTimeout(), 0) < now) {
+                removePending(sequence);
+            }
+        }
+    }
+
+    private void removePending(long sequence) {
+        if (pendingRequestMap.remove(sequence) != null) {
+            pendingRequests.decrementAndGet();
+        }
+    }
+
+    private void clearPending() {
+        for (long sequence : pendingRequestMap.keys()) {
+            removePending(sequence);
+        }
+    }
+
+    public void responseReceived(InvocationResponse response) {
+        removePending(response.getSequence());
+    }
+
+    @Override
+    public int getPendingRequests() {
+        return pendingRequests.get();
+    }
 
+    @Override
+    public long getPendingBytes() {
+        return pendingBytes.get();
     }
 
     @Override
@@ -153,4 +239,25 @@ public class DefaultNettyChannel implements NettyChannel {
         return "NettyChannel[avaliable = " + isAvaliable() + "localAddress=" + localAddress.toString() + "remoteAddress= " + remoteAddress.toString() + "]";
     }
 
+    private class PendingWriteListener implements ChannelFutureListener {
+
+        private final InvocationRequest request;
+
+        private final int size;
+
+        PendingWriteListener(InvocationRequest request, int size) {
+            this.request = request;
+            this.size = size;
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture future) throws Exception {
+            pendingBytes.addAndGet(-size);
+
+            if (!future.isSuccess() && request != null) {
+                removePending(request.getSequence());
+            }
+        }
+    }
+
 }
@@ -2,9 +2,11 @@ package com.dianping.pigeon.remoting.netty.codec;
 
 import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.codec.SerializerFactory;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.domain.InvocationSerializable;
 import com.dianping.pigeon.remoting.common.exception.SerializationException;
+import com.dianping.pigeon.remoting.common.monitor.TimelineStatistics;
 import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.provider.util.ProviderUtils;
 import com.dianping.pigeon.log.Logger;
@@ -16,6 +18,7 @@ import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
@@ -41,6 +44,8 @@ public abstract class AbstractDecoder extends OneToOneDecoder {
         if (codecEvent.isValid()) {
 
             Object message = null;
+            boolean sampled = TimelineStatistics.isSampled();
+            long start = sampled ? System.nanoTime() : 0;
 
             if (codecEvent.isUnified()) {
                 message = _doDecode(ctx, channel, codecEvent);
@@ -50,6 +55,10 @@ public abstract class AbstractDecoder extends OneToOneDecoder {
                 codecEvent.setInvocation((InvocationSerializable) message);
             }
 
+            if (sampled && message instanceof InvocationRequest
+                    && ((InvocationRequest) message).getMessageType() == Constants.MESSAGE_TYPE_SERVICE) {
+                TimelineStatistics.record(TimelineStatistics.Phase.DECODE, System.nanoTime() - start);
+            }
         }
 
         return codecEvent;
@@ -102,8 +111,10 @@ public abstract class AbstractDecoder extends OneToOneDecoder {
     }
 
     protected Object _doDecode(ChannelHandlerContext ctx, Channel channel, CodecEvent codecEvent) throws IOException {
-        Object msg = null;
         ChannelBuffer buffer = codecEvent.getBuffer();
+        InputStream is;
+        int frameLength;
+        byte command;
 
         try {
             //magic
@@ -111,16 +122,54 @@ public abstract class AbstractDecoder extends OneToOneDecoder {
             //version
             buffer.readByte();
             //serialize
-            byte serialize = (byte) (buffer.readByte() & 0x1f);
-            serialize = SerializerFactory.convertToSerialize(serialize);
+            command = buffer.readByte();
 
             int totalLength = buffer.readInt();
-            int frameLength = totalLength + CodecConstants._FRONT_LENGTH_;
+            frameLength = totalLength + CodecConstants._FRONT_LENGTH_;
 
             ChannelBuffer frameBody = extractFrame(buffer, buffer.readerIndex(), totalLength);
             buffer.readerIndex(buffer.readerIndex() + totalLength);
 
-            ChannelBufferInputStream is = new ChannelBufferInputStream(frameBody);
+            InputStream unCompressStream = codecEvent.getUnCompressStream();
+            if (unCompressStream == null) {
+                is = new ChannelBufferInputStream(frameBody);
+            } else {
+                is = new SequenceInputStream(new ChannelBufferInputStream(
+                        frameBody.slice(frameBody.readerIndex(), CodecConstants._HEAD_FIELD_LENGTH)),
+                        unCompressStream);
+            }
+        } catch (Throwable e) {
+            // the inflater of the stream holds native memory
+            InputStream unCompressStream = codecEvent.getUnCompressStream();
+            if (unCompressStream != null) {
+                try {
+                    unCompressStream.close();
+                } catch (IOException ignore) {
+                }
+            }
+            logger.error("Deserialize failed. host:"
+                    + ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress()
+                    + "\n" + e.getMessage(), e);
+            return null;
+        }
+
+        return _doDecode(ctx, channel, codecEvent, command, is, frameLength);
+    }
+
+    /**
+     * @param command     the command byte of the unified protocol head
+     * @param is          head length field and uncompressed body, checksum tail excluded,
+     *                    closed once deserialized
+     * @param frameLength size of the frame on the wire, checksum tail excluded
+     */
+    protected Object _doDecode(ChannelHandlerContext ctx, Channel channel, CodecEvent codecEvent,
+                               byte command, InputStream is, int frameLength) {
+        Object msg = null;
+
+        try {
+            //serialize
+            byte serialize = (byte) (command & 0x1f);
+            serialize = SerializerFactory.convertToSerialize(serialize);
             //deserialize
             msg = deserialize(serialize, is);
             //doAfter
@@ -130,6 +179,11 @@ public abstract class AbstractDecoder extends OneToOneDecoder {
             logger.error("Deserialize failed. host:"
                     + ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress()
                     + "\n" + e.getMessage(), e);
+        } finally {
+            try {
+                is.close();
+            } catch (IOException ignore) {
+            }
         }
 
         return msg;
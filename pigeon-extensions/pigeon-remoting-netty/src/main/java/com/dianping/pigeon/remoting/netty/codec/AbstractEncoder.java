@@ -1,6 +1,7 @@
 package com.dianping.pigeon.remoting.netty.codec;
 
 import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.remoting.common.codec.CodecConfig;
 import com.dianping.pigeon.remoting.common.codec.SerializerFactory;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.domain.InvocationSerializable;
@@ -12,13 +13,18 @@ import com.dianping.pigeon.log.Logger;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferOutputStream;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 
 import java.io.IOException;
 import java.io.OutputStream;
 
 import static org.jboss.netty.buffer.ChannelBuffers.dynamicBuffer;
+import static org.jboss.netty.channel.Channels.write;
 
 /**
  * @author qi.yin
@@ -31,6 +37,29 @@ public abstract class AbstractEncoder extends OneToOneEncoder {
 
     public abstract void serialize(byte serializer, OutputStream os, Object obj, Channel channel) throws IOException;
 
+    @Override
+    public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent evt) throws Exception {
+        if (!(evt instanceof MessageEvent)) {
+            ctx.sendDownstream(evt);
+            return;
+        }
+
+        MessageEvent e = (MessageEvent) evt;
+        Object originalMessage = e.getMessage();
+        Object encodedMessage = encode(ctx, e.getChannel(), originalMessage);
+
+        if (originalMessage == encodedMessage) {
+            ctx.sendDownstream(e);
+        } else if (encodedMessage != null) {
+            if (encodedMessage instanceof CodecEvent && ((CodecEvent) encodedMessage).isPooled()) {
+                // the pooled frame may be replaced downstream, either way it
+                // is no longer referenced once the write completes
+                e.getFuture().addListener(new BufferReleaseListener(((CodecEvent) encodedMessage).getBuffer()));
+            }
+            write(ctx, e.getFuture(), encodedMessage, e.getRemoteAddress());
+        }
+    }
+
     @Override
     public Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
         if (msg instanceof InvocationSerializable) {
@@ -41,13 +70,18 @@ public abstract class AbstractEncoder extends OneToOneEncoder {
                 ChannelBuffer frame;
                 CodecEvent codecEvent;
 
+                boolean isPooled = CodecConfig.isPooledEncode();
+
                 if (msg instanceof UnifiedInvocation) {
-                    frame = _doEncode(channel, (UnifiedInvocation) _msg);
+                    frame = isPooled ? _doPooledEncode(channel, (UnifiedInvocation) _msg) :
+                            _doEncode(channel, (UnifiedInvocation) _msg);
                     codecEvent = new CodecEvent(frame, true);
                 } else {
-                    frame = doEncode(channel, _msg);
+                    frame = isPooled ? doPooledEncode(channel, _msg) : doEncode(channel, _msg);
                     codecEvent = new CodecEvent(frame, false);
                 }
+                codecEvent.setIsPooled(isPooled);
+                codecEvent.setInvocation(_msg);
 
                 return codecEvent;
             } catch (IOException e) {
@@ -119,6 +153,73 @@ public abstract class AbstractEncoder extends OneToOneEncoder {
         return frame;
     }
 
+    protected ChannelBuffer doPooledEncode(Channel channel, InvocationSerializable msg)
+            throws IOException {
+        PooledBufferOutputStream os = new PooledBufferOutputStream(FrameSizeEstimator.estimate(msg));
+        try {
+            ChannelBuffer frame = os.buffer();
+            //magic
+            frame.writeBytes(CodecConstants.MAGIC);
+            //serialize
+            frame.writeByte(msg.getSerialize());
+            //bodyLength
+            frame.writeInt(Integer.MAX_VALUE);
+
+            serialize(msg.getSerialize(), os, msg, channel);
+            //body
+            os.ensureWritable(CodecConstants.TAIL_LENGTH);
+            frame = os.buffer();
+            //sequence
+            frame.writeLong(msg.getSequence());
+            //expand
+            frame.writeBytes(CodecConstants.EXPAND);
+            //bodyLength
+            frame.setInt(CodecConstants.HEAD_LENGTH, frame.readableBytes() -
+                    CodecConstants.FRONT_LENGTH);
+            FrameSizeEstimator.update(msg, frame.readableBytes());
+            doAfter(msg, frame.readableBytes());
+            return frame;
+        } catch (IOException e) {
+            os.release();
+            throw e;
+        } catch (RuntimeException e) {
+            os.release();
+            throw e;
+        }
+    }
+
+    protected ChannelBuffer _doPooledEncode(Channel channel, UnifiedInvocation msg)
+            throws IOException {
+        PooledBufferOutputStream os = new PooledBufferOutputStream(FrameSizeEstimator.estimate(msg));
+        try {
+            ChannelBuffer frame = os.buffer();
+            //magic
+            frame.writeBytes(CodecConstants._MAGIC);
+            frame.writeByte(msg.getProtocalVersion());
+            //serialize
+            frame.writeByte(SerializerFactory.convertToUnifiedSerialize(msg.getSerialize()));
+            //totalLength
+            frame.writeInt(Integer.MAX_VALUE);
+
+            serialize(msg.getSerialize(), os, msg, channel);
+            //room for the checksum written in place by Crc32Handler
+            os.ensureWritable(CodecConstants._TAIL_LENGTH);
+            frame = os.buffer();
+            //totalLength
+            frame.setInt(CodecConstants._HEAD_LENGTH, frame.readableBytes() -
+                    CodecConstants._FRONT_LENGTH_);
+            FrameSizeEstimator.update(msg, frame.readableBytes());
+            doAfter(msg, frame.readableBytes());
+            return frame;
+        } catch (IOException e) {
+            os.release();
+            throw e;
+        } catch (RuntimeException e) {
+            os.release();
+            throw e;
+        }
+    }
+
     private void doAfter(Object msg,
                          int frameLength)
             throws IOException {
@@ -138,4 +239,18 @@ public abstract class AbstractEncoder extends OneToOneEncoder {
 
     public abstract void doFailResponse(ChannelHandlerContext ctx, Channel channel, InvocationResponse response);
 
+    private static class BufferReleaseListener implements ChannelFutureListener {
+
+        private final ChannelBuffer buffer;
+
+        BufferReleaseListener(ChannelBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture future) throws Exception {
+            EncodeBufferPool.release(buffer);
+        }
+    }
+
 }
@@ -3,6 +3,8 @@ package com.dianping.pigeon.remoting.netty.codec;
 import com.dianping.pigeon.remoting.common.domain.InvocationSerializable;
 import org.jboss.netty.buffer.ChannelBuffer;
 
+import java.io.InputStream;
+
 /**
  * @author qi.yin
  *         2016/06/16  下午1:37.
@@ -23,6 +25,10 @@ public class CodecEvent {
 
     private boolean isValid;
 
+    private boolean isPooled;
+
+    private InputStream unCompressStream;
+
     public CodecEvent() {
         isValid = true;
     }
@@ -81,6 +87,25 @@ public class CodecEvent {
         this.isValid = isValid;
     }
 
+    public boolean isPooled() {
+        return isPooled;
+    }
+
+    public void setIsPooled(boolean isPooled) {
+        this.isPooled = isPooled;
+    }
+
+    /**
+     * @return the lazily uncompressed body, the buffer still holds the compressed frame
+     */
+    public InputStream getUnCompressStream() {
+        return unCompressStream;
+    }
+
+    public void setUnCompressStream(InputStream unCompressStream) {
+        this.unCompressStream = unCompressStream;
+    }
+
     public InvocationSerializable getInvocation() {
         return invocation;
     }
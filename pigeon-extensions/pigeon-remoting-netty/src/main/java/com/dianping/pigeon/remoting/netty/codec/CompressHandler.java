@@ -1,12 +1,19 @@
 package com.dianping.pigeon.remoting.netty.codec;
 
 import com.dianping.pigeon.compress.*;
+import com.dianping.pigeon.remoting.common.codec.AdaptiveCompressSelector;
 import com.dianping.pigeon.remoting.common.codec.CodecConfig;
+import com.dianping.pigeon.remoting.common.domain.InvocationSerializable;
 import com.dianping.pigeon.remoting.common.domain.generic.CompressType;
+import com.dianping.pigeon.remoting.common.domain.generic.UnifiedRequest;
+import com.dianping.pigeon.remoting.common.domain.generic.UnifiedResponse;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
 import org.jboss.netty.channel.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import static org.jboss.netty.buffer.ChannelBuffers.dynamicBuffer;
 import static org.jboss.netty.channel.Channels.write;
@@ -17,13 +24,19 @@ import static org.jboss.netty.channel.Channels.write;
  */
 public class CompressHandler extends SimpleChannelHandler {
 
-    private static Compress gZipCompress = CompressFactory.getGZipCompress();
+    static Compress gZipCompress = CompressFactory.getGZipCompress();
 
-    private static Compress snappyCompress = CompressFactory.getSnappyCompress();
+    static Compress snappyCompress = CompressFactory.getSnappyCompress();
 
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
-        if (e.getMessage() == null || !(e.getMessage() instanceof CodecEvent)) {
+        if (e.getMessage() == null) {
+            return;
+        }
+
+        if (!(e.getMessage() instanceof CodecEvent)) {
+            // frames of the fused inbound codec
+            ctx.sendUpstream(e);
             return;
         }
 
@@ -67,7 +80,7 @@ public class CompressHandler extends SimpleChannelHandler {
             throws IOException {
         ChannelBuffer frame = codecEvent.getBuffer();
 
-        byte command = frame.getByte(CodecConstants._FRONT_COMMAND_LENGTH);
+        byte command = frame.getByte(frame.readerIndex() + CodecConstants._FRONT_COMMAND_LENGTH);
         //compact
         short compress = (short) (command & 0x60);
 
@@ -78,41 +91,43 @@ public class CompressHandler extends SimpleChannelHandler {
         int totalLength = frame.getInt(frame.readerIndex() + CodecConstants._HEAD_LENGTH);
         int compressLength = totalLength - CodecConstants._HEAD_FIELD_LENGTH;
 
-        byte[] in;
-        byte[] out = null;
-        ChannelBuffer result;
+        //the decoder reads the body through the inflating stream
+        codecEvent.setUnCompressStream(unCompress(frame, frame.readerIndex() + CodecConstants._FRONT_LENGTH,
+                compressLength, compress));
+        codecEvent.setIsCompress(true);
+
+        return frame;
+    }
+
+    static InputStream unCompress(ChannelBuffer frame, int index, int length, short compress)
+            throws IOException {
+        Compress uncompressor;
 
         switch (compress) {
-            case 0x00:
-                return frame;
             case 0x20:
-                in = new byte[compressLength];
-                frame.getBytes(frame.readerIndex() + CodecConstants._FRONT_LENGTH, in);
-                out = snappyCompress.unCompress(in);
-                codecEvent.setIsCompress(true);
+                uncompressor = snappyCompress;
                 break;
             case 0x40:
-                in = new byte[compressLength];
-                frame.getBytes(frame.readerIndex() + CodecConstants._FRONT_LENGTH, in);
-                out = gZipCompress.unCompress(in);
-                codecEvent.setIsCompress(true);
+                uncompressor = gZipCompress;
                 break;
-            case 0x60:
+            default:
                 throw new IllegalArgumentException("Invalid compress type.");
         }
 
-        int _totalLength = CodecConstants._HEAD_FIELD_LENGTH + out.length;
-
-        result = channel.getConfig().getBufferFactory().getBuffer(
-                _totalLength + CodecConstants._FRONT_LENGTH_);
+        if (uncompressor instanceof StreamCompress) {
+            StreamCompress streamUncompressor = (StreamCompress) uncompressor;
+            if (frame.hasArray()) {
+                return streamUncompressor.unCompress(frame.array(), frame.arrayOffset() + index, length);
+            }
 
-        result.writeBytes(frame, frame.readerIndex(), CodecConstants._HEAD_LENGTH);
-        result.writeInt(_totalLength);
-        result.writeBytes(frame, frame.readerIndex() + CodecConstants._FRONT_LENGTH_,
-                CodecConstants._HEAD_FIELD_LENGTH);
-        result.writeBytes(out);
+            byte[] in = new byte[length];
+            frame.getBytes(index, in);
+            return streamUncompressor.unCompress(in, 0, length);
+        }
 
-        return result;
+        byte[] in = new byte[length];
+        frame.getBytes(index, in);
+        return new ByteArrayInputStream(uncompressor.unCompress(in));
     }
 
     private ChannelBuffer doCompress(Channel channel, CodecEvent codecEvent)
@@ -123,25 +138,44 @@ public class CompressHandler extends SimpleChannelHandler {
         ChannelBuffer result = frame;
         int frameLength = frame.readableBytes();
 
-        if (CodecConfig.isCompress(frameLength)) {
-            CompressType compressType = CodecConfig.getCompressType();
-
-            switch (compressType) {
-                case None:
-                    command = command | 0x00;
-                    break;
-                case Snappy:
-                    command = command | 0x20;
-                    result = doCompress0(channel, frame, frameLength, snappyCompress);
-                    break;
-                case Gzip:
-                    command = command | 0x40;
-                    result = doCompress0(channel, frame, frameLength, gZipCompress);
-                    break;
+        String adaptiveKey = getAdaptiveKey(codecEvent);
+        CompressType compressType = CompressType.None;
+
+        if (adaptiveKey != null) {
+            compressType = AdaptiveCompressSelector.select(adaptiveKey, frameLength);
+        } else if (CodecConfig.isCompress(frameLength)) {
+            compressType = CodecConfig.getCompressType();
+        }
+
+        long start = adaptiveKey != null ? System.nanoTime() : 0;
+
+        switch (compressType) {
+            case None:
+                command = command | 0x00;
+                break;
+            case Snappy:
+                command = command | 0x20;
+                result = doCompress0(channel, frame, frameLength, snappyCompress);
+                break;
+            case Gzip:
+                command = command | 0x40;
+                result = doCompress0(channel, frame, frameLength, gZipCompress);
+                break;
+        }
+
+        if (adaptiveKey != null && compressType != CompressType.None) {
+            long nanos = System.nanoTime() - start;
+            int compressedLength = result.readableBytes();
+
+            if (compressedLength >= frameLength) {
+                //not worth it, send the frame as is
+                command = command & ~0x60;
+                result = frame;
             }
-        } else {
-            command = command | 0x00;
+            AdaptiveCompressSelector.record(adaptiveKey, compressType, frameLength, compressedLength,
+                    result.readableBytes(), nanos);
         }
+
         int oldWriteIndex = result.writerIndex();
         result.writerIndex(CodecConstants._FRONT_COMMAND_LENGTH);
         result.writeByte(command);
@@ -149,26 +183,49 @@ public class CompressHandler extends SimpleChannelHandler {
         return result;
     }
 
+    private String getAdaptiveKey(CodecEvent codecEvent) {
+        if (!AdaptiveCompressSelector.isEnable()) {
+            return null;
+        }
+
+        InvocationSerializable invocation = codecEvent.getInvocation();
+
+        if (invocation instanceof UnifiedRequest) {
+            UnifiedRequest request = (UnifiedRequest) invocation;
+            return AdaptiveCompressSelector.getKey(request.getServiceName(), request.getMethodName());
+        } else if (invocation instanceof UnifiedResponse) {
+            UnifiedResponse response = (UnifiedResponse) invocation;
+            return AdaptiveCompressSelector.getKey(response.getServiceName(), response.getMethodName());
+        }
+        return null;
+    }
+
     private ChannelBuffer doCompress0(Channel channel, ChannelBuffer frame,
                                       int frameLength, Compress compress)
             throws IOException {
-        ChannelBuffer result;
         int bodyLength = frameLength - CodecConstants._FRONT_LENGTH;
-        byte[] in = new byte[bodyLength];
 
-        frame.getBytes(CodecConstants._FRONT_LENGTH, in, 0, bodyLength);
+        ChannelBuffer result = dynamicBuffer(Math.max(frameLength >> 1, 256),
+                channel.getConfig().getBufferFactory());
+        result.writeBytes(frame, frame.readerIndex(), CodecConstants._FRONT_LENGTH);
 
-        byte[] out = compress.compress(in);
-        byte[] lengthBuf = new byte[CodecConstants._HEAD_FIELD_LENGTH];
-        frame.getBytes(CodecConstants._FRONT_LENGTH_, lengthBuf, 0, lengthBuf.length);
+        if (compress instanceof StreamCompress && frame.hasArray()) {
+            //compress straight into the result
+            ((StreamCompress) compress).compress(frame.array(),
+                    frame.arrayOffset() + CodecConstants._FRONT_LENGTH, bodyLength,
+                    new ChannelBufferOutputStream(result));
+        } else {
+            byte[] in = new byte[bodyLength];
+            frame.getBytes(CodecConstants._FRONT_LENGTH, in, 0, bodyLength);
+            if (compress instanceof StreamCompress) {
+                ((StreamCompress) compress).compress(in, 0, bodyLength, new ChannelBufferOutputStream(result));
+            } else {
+                result.writeBytes(compress.compress(in));
+            }
+        }
 
-        int totalLength = out.length + lengthBuf.length;
-        int _frameLength = totalLength + CodecConstants._FRONT_LENGTH_;
-        result = dynamicBuffer(_frameLength, channel.getConfig().getBufferFactory());
-        result.writeBytes(frame, frame.readerIndex(), CodecConstants._HEAD_LENGTH);
-        result.writeInt(totalLength);
-        result.writeBytes(lengthBuf);
-        result.writeBytes(out);
+        //totalLength
+        result.setInt(CodecConstants._HEAD_LENGTH, result.writerIndex() - CodecConstants._FRONT_LENGTH_);
         return result;
     }
 }
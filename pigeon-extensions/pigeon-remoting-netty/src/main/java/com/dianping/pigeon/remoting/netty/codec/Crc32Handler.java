@@ -20,11 +20,21 @@ public class Crc32Handler extends SimpleChannelHandler {
 
     private static final Logger logger = LoggerLoader.getLogger(Crc32Handler.class);
 
+    private static final int CHECKSUM_CHUNK_SIZE = 8192;
+
     private static ThreadLocal<Adler32> adler32s = new ThreadLocal<Adler32>();
 
+    private static ThreadLocal<byte[]> checksumChunks = new ThreadLocal<byte[]>();
+
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
-        if (e.getMessage() == null || !(e.getMessage() instanceof CodecEvent)) {
+        if (e.getMessage() == null) {
+            return;
+        }
+
+        if (!(e.getMessage() instanceof CodecEvent)) {
+            // frames of the fused inbound codec
+            ctx.sendUpstream(e);
             return;
         }
 
@@ -120,7 +130,8 @@ public class Crc32Handler extends SimpleChannelHandler {
 
             frame.writerIndex(frameLength);
 
-            if (!(frame instanceof DynamicChannelBuffer)) {
+            if (!(frame instanceof DynamicChannelBuffer) &&
+                    frame.writableBytes() < CodecConstants._TAIL_LENGTH) {
                 ChannelBuffer buffer = frame.factory().getBuffer(frameLength +
                         CodecConstants._TAIL_LENGTH);
                 buffer.writeBytes(frame, frame.readerIndex(), frameLength);
@@ -142,7 +153,7 @@ public class Crc32Handler extends SimpleChannelHandler {
         return frame;
     }
 
-    private long doChecksum0(ChannelBuffer frame, int frameLength) {
+    static long doChecksum0(ChannelBuffer frame, int frameLength) {
         //checksum
         Adler32 adler32 = adler32s.get();
         if (adler32 == null) {
@@ -151,7 +162,21 @@ public class Crc32Handler extends SimpleChannelHandler {
         }
         adler32.reset();
 
-        adler32.update(frame.array(), 0, frameLength);
+        if (frame.hasArray()) {
+            adler32.update(frame.array(), frame.arrayOffset(), frameLength);
+        } else {
+            // direct buffers from the encode pool
+            byte[] chunk = checksumChunks.get();
+            if (chunk == null) {
+                chunk = new byte[CHECKSUM_CHUNK_SIZE];
+                checksumChunks.set(chunk);
+            }
+            for (int offset = 0; offset < frameLength; offset += chunk.length) {
+                int length = Math.min(chunk.length, frameLength - offset);
+                frame.getBytes(offset, chunk, 0, length);
+                adler32.update(chunk, 0, length);
+            }
+        }
         return adler32.getValue();
     }
 
@@ -0,0 +1,130 @@
+package com.dianping.pigeon.remoting.netty.codec;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import com.dianping.pigeon.config.ConfigManager;
+import com.dianping.pigeon.config.ConfigManagerLoader;
+
+/**
+ * pool of reusable direct buffers for the encoder, split into power of two
+ * size classes.
+ *
+ * buffers are released by the nio worker once the write completes while they
+ * are acquired by the writing threads, so every size class is a lock free
+ * array of slots shared by all threads, the scan starts at a per-thread
+ * offset to keep threads apart.
+ */
+public class EncodeBufferPool {
+
+    private static final int MIN_SIZE = 1024;
+
+    private static final int MAX_SIZE;
+
+    private static final AtomicReferenceArray<ChannelBuffer>[] slots;
+
+    private static final AtomicLong acquired = new AtomicLong();
+
+    private static final AtomicLong allocated = new AtomicLong();
+
+    private static final AtomicLong oversized = new AtomicLong();
+
+    private static final AtomicLong dropped = new AtomicLong();
+
+    static {
+        ConfigManager configManager = ConfigManagerLoader.getConfigManager();
+        int maxSize = MIN_SIZE;
+        int configMaxSize = configManager.getIntValue("pigeon.codec.encode.pool.maxsize", 64 * 1024);
+        while (maxSize < configMaxSize) {
+            maxSize <<= 1;
+        }
+        MAX_SIZE = maxSize;
+        long maxBytes = configManager.getLongValue("pigeon.codec.encode.pool.maxbytes", 32 * 1024 * 1024);
+
+        int classes = sizeClass(MAX_SIZE) + 1;
+        slots = newSlots(classes);
+        for (int i = 0; i < classes; i++) {
+            long count = maxBytes / classes / (MIN_SIZE << i);
+            slots[i] = new AtomicReferenceArray<ChannelBuffer>((int) Math.max(4, Math.min(256, count)));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceArray<ChannelBuffer>[] newSlots(int classes) {
+        return new AtomicReferenceArray[classes];
+    }
+
+    private static int sizeClass(int capacity) {
+        int sizeClass = 0;
+        int size = MIN_SIZE;
+        while (size < capacity) {
+            size <<= 1;
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+    private static int offset(int length) {
+        return (int) (Thread.currentThread().getId() % length);
+    }
+
+    /**
+     * @return an empty buffer with at least the given capacity, direct and
+     *         pooled unless the capacity exceeds the largest size class
+     */
+    public static ChannelBuffer acquire(int capacity) {
+        acquired.incrementAndGet();
+        if (capacity > MAX_SIZE) {
+            oversized.incrementAndGet();
+            return ChannelBuffers.buffer(capacity);
+        }
+        int sizeClass = sizeClass(capacity);
+        AtomicReferenceArray<ChannelBuffer> array = slots[sizeClass];
+        int length = array.length();
+        int offset = offset(length);
+        for (int i = 0; i < length; i++) {
+            int index = (offset + i) % length;
+            ChannelBuffer buffer = array.get(index);
+            if (buffer != null && array.compareAndSet(index, buffer, null)) {
+                buffer.clear();
+                return buffer;
+            }
+        }
+        allocated.incrementAndGet();
+        return ChannelBuffers.directBuffer(MIN_SIZE << sizeClass);
+    }
+
+    public static void release(ChannelBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() > MAX_SIZE) {
+            return;
+        }
+        int sizeClass = sizeClass(buffer.capacity());
+        if ((MIN_SIZE << sizeClass) != buffer.capacity()) {
+            return;
+        }
+        AtomicReferenceArray<ChannelBuffer> array = slots[sizeClass];
+        int length = array.length();
+        int offset = offset(length);
+        for (int i = 0; i < length; i++) {
+            int index = (offset + i) % length;
+            if (array.get(index) == null && array.compareAndSet(index, null, buffer)) {
+                return;
+            }
+        }
+        dropped.incrementAndGet();
+    }
+
+    public static String getStatistics() {
+        long acquiredCount = acquired.get();
+        long allocatedCount = allocated.get();
+        long oversizedCount = oversized.get();
+        return new StringBuilder().append("acquired:").append(acquiredCount).append(",allocated:")
+                .append(allocatedCount).append(",oversized:").append(oversizedCount).append(",dropped:")
+                .append(dropped.get()).append(",hit:")
+                .append(acquiredCount == 0 ? 0 : (acquiredCount - allocatedCount - oversizedCount) * 100
+                        / acquiredCount).append("%").toString();
+    }
+}
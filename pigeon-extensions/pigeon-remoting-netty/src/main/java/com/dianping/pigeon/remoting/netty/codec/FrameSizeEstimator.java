@@ -0,0 +1,64 @@
+package com.dianping.pigeon.remoting.netty.codec;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationSerializable;
+
+/**
+ * moving average of recent frame sizes per service, used to size the first
+ * buffer of the pooled encoder. responses carry no service name and share
+ * one average.
+ */
+public class FrameSizeEstimator {
+
+    private static final String RESPONSE_KEY = "";
+
+    private static final ConcurrentHashMap<String, Average> averages = new ConcurrentHashMap<String, Average>();
+
+    private static String getKey(InvocationSerializable msg) {
+        if (msg instanceof InvocationRequest) {
+            String serviceName = ((InvocationRequest) msg).getServiceName();
+            if (serviceName != null) {
+                return serviceName;
+            }
+        }
+        return RESPONSE_KEY;
+    }
+
+    private static Average getAverage(InvocationSerializable msg) {
+        String key = getKey(msg);
+        Average average = averages.get(key);
+        if (average == null) {
+            average = new Average();
+            Average old = averages.putIfAbsent(key, average);
+            if (old != null) {
+                average = old;
+            }
+        }
+        return average;
+    }
+
+    /**
+     * @return the average frame size plus a quarter of headroom
+     */
+    public static int estimate(InvocationSerializable msg) {
+        int value = getAverage(msg).value;
+        return value + (value >> 2);
+    }
+
+    public static void update(InvocationSerializable msg, int frameLength) {
+        getAverage(msg).update(frameLength);
+    }
+
+    private static class Average {
+
+        // racy updates only lose samples
+        private volatile int value = CodecConstants.ESTIMATED_LENGTH;
+
+        void update(int sample) {
+            int current = value;
+            value = current + ((sample - current) >> 3);
+        }
+    }
+}
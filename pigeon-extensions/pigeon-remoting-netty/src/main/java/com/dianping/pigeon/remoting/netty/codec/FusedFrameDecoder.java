@@ -0,0 +1,162 @@
+package com.dianping.pigeon.remoting.netty.codec;
+
+import com.dianping.pigeon.log.Logger;
+import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationSerializable;
+import com.dianping.pigeon.remoting.common.monitor.TimelineStatistics;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+
+/**
+ * inbound side of FrameDecoder, Crc32Handler, CompressHandler and the
+ * provider/invoker decoder in one handler.
+ *
+ * the frame is framed, checked, uncompressed and deserialized without being
+ * copied in between, the checksum tail is skipped instead of trimmed off and
+ * the body is inflated straight into the deserializer.
+ */
+public class FusedFrameDecoder extends org.jboss.netty.handler.codec.frame.FrameDecoder {
+
+    private static final Logger logger = LoggerLoader.getLogger(FusedFrameDecoder.class);
+
+    private final AbstractDecoder decoder;
+
+    public FusedFrameDecoder(AbstractDecoder decoder) {
+        this.decoder = decoder;
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer)
+            throws Exception {
+
+        if (buffer.readableBytes() <= 2) {
+            return null;
+        }
+
+        int readerIndex = buffer.readerIndex();
+        byte magic0 = buffer.getByte(readerIndex);
+        byte magic1 = buffer.getByte(readerIndex + 1);
+
+        if (0x39 == magic0 && 0x3A == magic1) {
+            //old protocal
+            return doDecode(ctx, channel, buffer);
+
+        } else if ((byte) 0xAB == magic0 && (byte) 0xBA == magic1) {
+            //new protocal
+            return _doDecode(ctx, channel, buffer);
+
+        } else {
+            throw new IllegalArgumentException("Decode invalid message head:" +
+                    magic0 + " " + magic1 + ", " + "message:" + buffer);
+        }
+    }
+
+    protected Object doDecode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer)
+            throws Exception {
+
+        if (buffer.readableBytes() <= CodecConstants.FRONT_LENGTH) {
+            return null;
+        }
+
+        int totalLength = (int) buffer.getUnsignedInt(
+                buffer.readerIndex() +
+                        CodecConstants.HEAD_LENGTH);
+
+        int frameLength = totalLength + CodecConstants.FRONT_LENGTH;
+
+        if (buffer.readableBytes() < frameLength) {
+            return null;
+        }
+
+        ChannelBuffer frame = buffer.slice(buffer.readerIndex(), frameLength);
+        buffer.readerIndex(buffer.readerIndex() + frameLength);
+
+        CodecEvent codecEvent = new CodecEvent(frame, false);
+        codecEvent.setReceiveTime(System.currentTimeMillis());
+
+        return decoder.decode(ctx, channel, codecEvent);
+    }
+
+    protected Object _doDecode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer)
+            throws Exception {
+
+        if (buffer.readableBytes() <= CodecConstants._FRONT_LENGTH) {
+            return null;
+        }
+
+        int totalLength = (int) (buffer.getUnsignedInt(
+                buffer.readerIndex() +
+                        CodecConstants._HEAD_LENGTH));
+
+        int frameLength = totalLength + CodecConstants._FRONT_LENGTH_;
+
+        if (buffer.readableBytes() < frameLength) {
+            return null;
+        }
+
+        ChannelBuffer frame = buffer.slice(buffer.readerIndex(), frameLength);
+        buffer.readerIndex(buffer.readerIndex() + frameLength);
+
+        CodecEvent codecEvent = new CodecEvent(frame, true);
+        codecEvent.setReceiveTime(System.currentTimeMillis());
+
+        byte command = frame.getByte(CodecConstants._FRONT_COMMAND_LENGTH);
+        int bodyEnd = frameLength;
+
+        //checksum
+        if ((command & 0x80) == 0x80) {
+            bodyEnd = frameLength - CodecConstants._TAIL_LENGTH;
+            codecEvent.setIsChecksum(true);
+
+            int checksum = (int) Crc32Handler.doChecksum0(frame, bodyEnd);
+
+            if (checksum != frame.getInt(bodyEnd)) {
+                String host = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+                logger.error("Checksum failed. data from host:" + host);
+                codecEvent.setIsValid(false);
+                return codecEvent;
+            }
+        }
+
+        // the body is inflated while it is deserialized, both count as decode
+        boolean sampled = TimelineStatistics.isSampled();
+        long start = sampled ? System.nanoTime() : 0;
+
+        //compress
+        InputStream is;
+        short compress = (short) (command & 0x60);
+
+        if (compress == 0x00) {
+            is = new ChannelBufferInputStream(
+                    frame.slice(CodecConstants._FRONT_LENGTH_, bodyEnd - CodecConstants._FRONT_LENGTH_));
+        } else {
+            InputStream unCompressStream = CompressHandler.unCompress(frame, CodecConstants._FRONT_LENGTH,
+                    bodyEnd - CodecConstants._FRONT_LENGTH, compress);
+            codecEvent.setIsCompress(true);
+
+            is = new SequenceInputStream(new ChannelBufferInputStream(
+                    frame.slice(CodecConstants._FRONT_LENGTH_, CodecConstants._HEAD_FIELD_LENGTH)),
+                    unCompressStream);
+        }
+
+        //deserialize
+        Object message = decoder._doDecode(ctx, channel, codecEvent, command, is, bodyEnd);
+        codecEvent.setInvocation((InvocationSerializable) message);
+
+        if (sampled && message instanceof InvocationRequest
+                && ((InvocationRequest) message).getMessageType() == Constants.MESSAGE_TYPE_SERVICE) {
+            TimelineStatistics.record(TimelineStatistics.Phase.DECODE, System.nanoTime() - start);
+        }
+
+        return codecEvent;
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.dianping.pigeon.remoting.netty.codec;
+
+import java.io.OutputStream;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * output stream writing straight into a buffer of {@link EncodeBufferPool},
+ * the buffer is swapped for a larger pooled one when it runs out of space.
+ */
+public class PooledBufferOutputStream extends OutputStream {
+
+    private ChannelBuffer buffer;
+
+    public PooledBufferOutputStream(int estimatedLength) {
+        this.buffer = EncodeBufferPool.acquire(estimatedLength);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureWritable(1);
+        buffer.writeByte(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (len == 0) {
+            return;
+        }
+        ensureWritable(len);
+        buffer.writeBytes(b, off, len);
+    }
+
+    public void ensureWritable(int length) {
+        if (buffer.writableBytes() >= length) {
+            return;
+        }
+        int capacity = Math.max(buffer.capacity() << 1, buffer.writerIndex() + length);
+        ChannelBuffer newBuffer = EncodeBufferPool.acquire(capacity);
+        newBuffer.writeBytes(buffer, buffer.readerIndex(), buffer.readableBytes());
+        EncodeBufferPool.release(buffer);
+        buffer = newBuffer;
+    }
+
+    public ChannelBuffer buffer() {
+        return buffer;
+    }
+
+    public void release() {
+        EncodeBufferPool.release(buffer);
+        buffer = null;
+    }
+}
@@ -94,6 +94,10 @@ public class NettyClient extends AbstractClient {
                 normalSize,
                 maxActive,
                 maxWait, timeBetweenCheckerMillis);
+        poolProperties.setSelectStrategy(Constants.getChannelPoolSelectStrategy());
+        poolProperties.setGrowPendingThreshold(Constants.getChannelPoolGrowPending());
+        poolProperties.setGrowBytesThreshold(Constants.getChannelPoolGrowBytes());
+        poolProperties.setShrinkIdleMillis(Constants.getChannelPoolShrinkIdleMillis());
     }
 
     @Override
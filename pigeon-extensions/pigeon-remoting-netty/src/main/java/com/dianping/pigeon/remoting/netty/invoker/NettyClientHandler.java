@@ -3,6 +3,7 @@ package com.dianping.pigeon.remoting.netty.invoker;
 import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.log.Logger;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.netty.channel.DefaultNettyChannel;
 import com.dianping.pigeon.remoting.netty.codec.CodecEvent;
 import org.jboss.netty.channel.*;
 
@@ -32,7 +33,14 @@ public class NettyClientHandler extends SimpleChannelUpstreamHandler {
         CodecEvent codecEvent = (CodecEvent) e.getMessage();
 
         if (codecEvent.isValid() && codecEvent.getInvocation() != null) {
-            client.processResponse((InvocationResponse) codecEvent.getInvocation());
+            InvocationResponse response = (InvocationResponse) codecEvent.getInvocation();
+
+            Object attachment = ctx.getChannel().getAttachment();
+            if (attachment instanceof DefaultNettyChannel) {
+                ((DefaultNettyChannel) attachment).responseReceived(response);
+            }
+
+            client.processResponse(response);
         }
     }
 
@@ -6,10 +6,12 @@ package com.dianping.pigeon.remoting.netty.invoker;
 
 import static org.jboss.netty.channel.Channels.pipeline;
 
+import com.dianping.pigeon.remoting.common.codec.CodecConfig;
 import com.dianping.pigeon.remoting.netty.codec.CompressHandler;
 import com.dianping.pigeon.remoting.netty.codec.Crc32Handler;
 import com.dianping.pigeon.remoting.netty.codec.FrameDecoder;
 import com.dianping.pigeon.remoting.netty.codec.FramePrepender;
+import com.dianping.pigeon.remoting.netty.codec.FusedFrameDecoder;
 import com.dianping.pigeon.remoting.netty.invoker.codec.*;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
@@ -25,12 +27,23 @@ public class NettyClientPipelineFactory implements ChannelPipelineFactory {
 
 	public ChannelPipeline getPipeline() throws Exception {
 		ChannelPipeline pipeline = pipeline();
-		pipeline.addLast("framePrepender", new FramePrepender());
-		pipeline.addLast("frameDecoder", new FrameDecoder());
-		pipeline.addLast("crc32Handler", new Crc32Handler());
-		pipeline.addLast("compressHandler", new CompressHandler());
-		pipeline.addLast("invokerDecoder", new InvokerDecoder());
-		pipeline.addLast("invokerEncoder", new InvokerEncoder());
+		if (WriteBatchHandler.isEnable()) {
+			pipeline.addLast("writeBatchHandler", new WriteBatchHandler());
+		}
+		if (CodecConfig.isFusedInbound()) {
+			pipeline.addLast("framePrepender", new FramePrepender());
+			pipeline.addLast("crc32Handler", new Crc32Handler());
+			pipeline.addLast("compressHandler", new CompressHandler());
+			pipeline.addLast("invokerEncoder", new InvokerEncoder());
+			pipeline.addLast("fusedDecoder", new FusedFrameDecoder(new InvokerDecoder()));
+		} else {
+			pipeline.addLast("framePrepender", new FramePrepender());
+			pipeline.addLast("frameDecoder", new FrameDecoder());
+			pipeline.addLast("crc32Handler", new Crc32Handler());
+			pipeline.addLast("compressHandler", new CompressHandler());
+			pipeline.addLast("invokerDecoder", new InvokerDecoder());
+			pipeline.addLast("invokerEncoder", new InvokerEncoder());
+		}
 		pipeline.addLast("clientHandler", new NettyClientHandler(this.client));
 		return pipeline;
 	}
@@ -0,0 +1,231 @@
+package com.dianping.pigeon.remoting.netty.invoker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+
+import com.dianping.pigeon.config.ConfigManager;
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.remoting.common.monitor.WriteBatchStatistics;
+import com.dianping.pigeon.timer.HashedWheelTimer;
+import com.dianping.pigeon.timer.Timeout;
+import com.dianping.pigeon.timer.TimerTask;
+
+/**
+ * coalesces the frames written to one channel within the batch window, or
+ * until the byte or message budget is used up, into one composite buffer so
+ * that they leave in a single write.
+ *
+ * every frame keeps its own future, completed when the batch is written, so
+ * write listeners see the same success or failure as before.
+ */
+public class WriteBatchHandler extends SimpleChannelDownstreamHandler {
+
+	// shared by the batching channels, stopped once the last one is closed
+	private static HashedWheelTimer timer;
+
+	private static int timerChannels;
+
+	private static ConfigManager configManager = ConfigManagerLoader.getConfigManager();
+
+	private final int windowMillis = configManager.getIntValue("pigeon.invoker.netty.write.batch.window", 1);
+
+	private final int maxBytes = configManager.getIntValue("pigeon.invoker.netty.write.batch.bytes", 64 * 1024);
+
+	private final int maxCount = configManager.getIntValue("pigeon.invoker.netty.write.batch.count", 64);
+
+	private List<MessageEvent> pending = new ArrayList<MessageEvent>();
+
+	private int pendingBytes;
+
+	private Timeout flushTimeout;
+
+	private HashedWheelTimer channelTimer;
+
+	private boolean closed;
+
+	public static boolean isEnable() {
+		return configManager.getBooleanValue("pigeon.invoker.netty.write.batch.enable", false);
+	}
+
+	private static synchronized HashedWheelTimer acquireTimer() {
+		if (timer == null) {
+			timer = new HashedWheelTimer("Pigeon-Netty-Write-Batch", 1, TimeUnit.MILLISECONDS, 64);
+			timer.start();
+		}
+		timerChannels++;
+		return timer;
+	}
+
+	private static synchronized void releaseTimer() {
+		if (--timerChannels == 0) {
+			timer.stop();
+			timer = null;
+		}
+	}
+
+	@Override
+	public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent e) throws Exception {
+		if (!(e instanceof MessageEvent)) {
+			// keep queued frames ahead of close and disconnect
+			flush(ctx, takeBatch());
+		}
+		super.handleDownstream(ctx, e);
+	}
+
+	@Override
+	public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+		if (!(e.getMessage() instanceof ChannelBuffer)) {
+			ctx.sendDownstream(e);
+			return;
+		}
+
+		int bytes = ((ChannelBuffer) e.getMessage()).readableBytes();
+		List<MessageEvent> batch = null;
+		boolean direct = false;
+
+		synchronized (this) {
+			if (closed || bytes >= maxBytes) {
+				// the frames already queued go out ahead of the one too large to batch
+				batch = takeBatch();
+				direct = true;
+			} else {
+				pending.add(e);
+				pendingBytes += bytes;
+
+				if (pendingBytes >= maxBytes || pending.size() >= maxCount) {
+					batch = takeBatch();
+				} else if (flushTimeout == null) {
+					if (channelTimer == null) {
+						channelTimer = acquireTimer();
+						ctx.getChannel().getCloseFuture().addListener(new CloseListener(ctx));
+					}
+					flushTimeout = channelTimer.newTimeout(new FlushTask(ctx), windowMillis, TimeUnit.MILLISECONDS);
+				}
+			}
+		}
+
+		flush(ctx, batch);
+		if (direct) {
+			ctx.sendDownstream(e);
+		}
+	}
+
+	/**
+	 * detaches the pending frames, written by the caller outside the lock
+	 */
+	private synchronized List<MessageEvent> takeBatch() {
+		if (flushTimeout != null) {
+			flushTimeout.cancel();
+			flushTimeout = null;
+		}
+
+		if (pending.isEmpty()) {
+			return null;
+		}
+
+		List<MessageEvent> batch = pending;
+		WriteBatchStatistics.record(batch.size(), pendingBytes);
+		pending = new ArrayList<MessageEvent>(batch.size());
+		pendingBytes = 0;
+		return batch;
+	}
+
+	private void flush(ChannelHandlerContext ctx, List<MessageEvent> batch) {
+		if (batch == null) {
+			return;
+		}
+
+		if (batch.size() == 1) {
+			ctx.sendDownstream(batch.get(0));
+			return;
+		}
+
+		ChannelBuffer[] buffers = new ChannelBuffer[batch.size()];
+		ChannelFuture[] futures = new ChannelFuture[batch.size()];
+		for (int i = 0; i < buffers.length; i++) {
+			MessageEvent event = batch.get(i);
+			buffers[i] = (ChannelBuffer) event.getMessage();
+			futures[i] = event.getFuture();
+		}
+
+		ChannelFuture future = Channels.future(ctx.getChannel());
+		future.addListener(new BatchWriteListener(futures));
+		// gathering, so that the frames are written without being copied into one array
+		Channels.write(ctx, future, ChannelBuffers.wrappedBuffer(true, buffers));
+	}
+
+	private class FlushTask implements TimerTask {
+
+		private final ChannelHandlerContext ctx;
+
+		FlushTask(ChannelHandlerContext ctx) {
+			this.ctx = ctx;
+		}
+
+		@Override
+		public void run(Timeout timeout) throws Exception {
+			List<MessageEvent> batch = null;
+			synchronized (WriteBatchHandler.this) {
+				if (flushTimeout == timeout) {
+					flushTimeout = null;
+					batch = takeBatch();
+				}
+			}
+			flush(ctx, batch);
+		}
+	}
+
+	private class CloseListener implements ChannelFutureListener {
+
+		private final ChannelHandlerContext ctx;
+
+		CloseListener(ChannelHandlerContext ctx) {
+			this.ctx = ctx;
+		}
+
+		@Override
+		public void operationComplete(ChannelFuture future) throws Exception {
+			List<MessageEvent> batch;
+			synchronized (WriteBatchHandler.this) {
+				closed = true;
+				batch = takeBatch();
+			}
+			releaseTimer();
+			// fails the futures of the frames still queued
+			flush(ctx, batch);
+		}
+	}
+
+	private static class BatchWriteListener implements ChannelFutureListener {
+
+		private final ChannelFuture[] futures;
+
+		BatchWriteListener(ChannelFuture[] futures) {
+			this.futures = futures;
+		}
+
+		@Override
+		public void operationComplete(ChannelFuture future) throws Exception {
+			for (ChannelFuture f : futures) {
+				if (future.isSuccess()) {
+					f.setSuccess();
+				} else if (future.isCancelled()) {
+					f.cancel();
+				} else {
+					f.setFailure(future.getCause());
+				}
+			}
+		}
+	}
+}
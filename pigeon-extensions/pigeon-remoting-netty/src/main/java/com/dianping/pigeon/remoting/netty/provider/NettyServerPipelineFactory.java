@@ -6,10 +6,12 @@ package com.dianping.pigeon.remoting.netty.provider;
 
 import static org.jboss.netty.channel.Channels.pipeline;
 
+import com.dianping.pigeon.remoting.common.codec.CodecConfig;
 import com.dianping.pigeon.remoting.netty.codec.CompressHandler;
 import com.dianping.pigeon.remoting.netty.codec.Crc32Handler;
 import com.dianping.pigeon.remoting.netty.codec.FrameDecoder;
 import com.dianping.pigeon.remoting.netty.codec.FramePrepender;
+import com.dianping.pigeon.remoting.netty.codec.FusedFrameDecoder;
 import com.dianping.pigeon.remoting.netty.provider.codec.*;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
@@ -25,12 +27,20 @@ public class NettyServerPipelineFactory implements ChannelPipelineFactory {
 
     public ChannelPipeline getPipeline() {
         ChannelPipeline pipeline = pipeline();
-        pipeline.addLast("framePrepender", new FramePrepender());
-        pipeline.addLast("frameDecoder", new FrameDecoder());
-        pipeline.addLast("crc32Handler", new Crc32Handler());
-        pipeline.addLast("compressHandler", new CompressHandler());
-        pipeline.addLast("providerDecoder", new ProviderDecoder());
-        pipeline.addLast("providerEncoder", new ProviderEncoder());
+        if (CodecConfig.isFusedInbound()) {
+            pipeline.addLast("framePrepender", new FramePrepender());
+            pipeline.addLast("crc32Handler", new Crc32Handler());
+            pipeline.addLast("compressHandler", new CompressHandler());
+            pipeline.addLast("providerEncoder", new ProviderEncoder());
+            pipeline.addLast("fusedDecoder", new FusedFrameDecoder(new ProviderDecoder()));
+        } else {
+            pipeline.addLast("framePrepender", new FramePrepender());
+            pipeline.addLast("frameDecoder", new FrameDecoder());
+            pipeline.addLast("crc32Handler", new Crc32Handler());
+            pipeline.addLast("compressHandler", new CompressHandler());
+            pipeline.addLast("providerDecoder", new ProviderDecoder());
+            pipeline.addLast("providerEncoder", new ProviderEncoder());
+        }
         pipeline.addLast("serverHandler", new NettyServerHandler(server));
         return pipeline;
     }
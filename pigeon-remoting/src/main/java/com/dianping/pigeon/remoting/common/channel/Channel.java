@@ -25,4 +25,14 @@ public interface Channel {
     InetSocketAddress getRemoteAddress();
 
     String getRemoteAddressString();
+
+    /**
+     * @return requests written to the channel and not answered yet
+     */
+    int getPendingRequests();
+
+    /**
+     * @return bytes handed to the channel and not flushed yet
+     */
+    long getPendingBytes();
 }
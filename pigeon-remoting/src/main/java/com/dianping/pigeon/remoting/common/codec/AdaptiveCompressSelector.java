@@ -0,0 +1,186 @@
+package com.dianping.pigeon.remoting.common.codec;
+
+import com.dianping.pigeon.config.ConfigManager;
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.remoting.common.domain.generic.CompressType;
+import com.dianping.pigeon.remoting.common.util.InvocationUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * picks none, snappy or gzip for every unified frame from what compressing
+ * the frames of the same service#method has cost and saved so far.
+ *
+ * frames below the min size are never compressed, frames above the gzip
+ * threshold use gzip while its cost per saved byte stays within the cpu
+ * budget, everything else uses snappy. an algorithm that saves less than the
+ * min saving is dropped, and is tried again once every probe interval so
+ * that the measured ratio follows the payload.
+ */
+public class AdaptiveCompressSelector {
+
+    private static final String ADAPTIVE_ENABLE_KEY = "pigeon.codec.compress.adaptive.enable";
+
+    private static final String MIN_SIZE_KEY = "pigeon.codec.compress.adaptive.minsize";
+
+    private static final String GZIP_SIZE_KEY = "pigeon.codec.compress.adaptive.gzipsize";
+
+    private static final String MIN_SAVING_KEY = "pigeon.codec.compress.adaptive.minsaving";
+
+    private static final String CPU_BUDGET_KEY = "pigeon.codec.compress.adaptive.cpubudget";
+
+    private static final int PROBE_INTERVAL = 64;
+
+    private static ConfigManager configManager = ConfigManagerLoader.getConfigManager();
+
+    private static final ConcurrentHashMap<String, MethodStat> stats = new ConcurrentHashMap<String, MethodStat>();
+
+    public static boolean isEnable() {
+        return configManager.getBooleanValue(ADAPTIVE_ENABLE_KEY, false);
+    }
+
+    public static String getKey(String serviceName, String methodName) {
+        return InvocationUtils.getRequestMethod(serviceName, methodName);
+    }
+
+    private static MethodStat getStat(String key) {
+        MethodStat stat = stats.get(key);
+        if (stat == null) {
+            stat = new MethodStat();
+            MethodStat old = stats.putIfAbsent(key, stat);
+            if (old != null) {
+                stat = old;
+            }
+        }
+        return stat;
+    }
+
+    public static CompressType select(String key, int frameLength) {
+        MethodStat stat = getStat(key);
+        CompressType compressType = select(stat, frameLength);
+        stat.selected(compressType);
+        return compressType;
+    }
+
+    private static CompressType select(MethodStat stat, int frameLength) {
+        if (frameLength < configManager.getIntValue(MIN_SIZE_KEY, 1024)) {
+            return CompressType.None;
+        }
+
+        boolean probe = stat.count.incrementAndGet() % PROBE_INTERVAL == 0;
+        float minSaving = configManager.getFloatValue(MIN_SAVING_KEY, 0.1f);
+
+        if (frameLength >= configManager.getIntValue(GZIP_SIZE_KEY, 65536)) {
+            Algorithm gzip = stat.gzip;
+            if (probe || (gzip.saving() >= minSaving &&
+                    gzip.nanosPerSavedByte() <= configManager.getFloatValue(CPU_BUDGET_KEY, 50f))) {
+                return CompressType.Gzip;
+            }
+        }
+
+        if (probe || stat.snappy.saving() >= minSaving) {
+            return CompressType.Snappy;
+        }
+        return CompressType.None;
+    }
+
+    /**
+     * @param compressedLength output of the compressor
+     * @param wireLength       bytes actually written, the raw length when compressing did not pay off
+     * @param nanos            time spent compressing
+     */
+    public static void record(String key, CompressType compressType, int rawLength, int compressedLength,
+                              int wireLength, long nanos) {
+        MethodStat stat = getStat(key);
+        if (compressType == CompressType.Gzip) {
+            stat.gzip.update(rawLength, compressedLength, nanos);
+        } else if (compressType == CompressType.Snappy) {
+            stat.snappy.update(rawLength, compressedLength, nanos);
+        }
+        stat.rawBytes.addAndGet(rawLength);
+        stat.wireBytes.addAndGet(wireLength);
+    }
+
+    public static Map<String, String> getStatistics() {
+        Map<String, String> statistics = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, MethodStat> entry : stats.entrySet()) {
+            statistics.put(entry.getKey(), entry.getValue().toString());
+        }
+        return statistics;
+    }
+
+    private static class MethodStat {
+
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong none = new AtomicLong();
+        final AtomicLong snappyCount = new AtomicLong();
+        final AtomicLong gzipCount = new AtomicLong();
+        final AtomicLong rawBytes = new AtomicLong();
+        final AtomicLong wireBytes = new AtomicLong();
+        final Algorithm snappy = new Algorithm();
+        final Algorithm gzip = new Algorithm();
+
+        void selected(CompressType compressType) {
+            switch (compressType) {
+                case Snappy:
+                    snappyCount.incrementAndGet();
+                    break;
+                case Gzip:
+                    gzipCount.incrementAndGet();
+                    break;
+                default:
+                    none.incrementAndGet();
+            }
+        }
+
+        @Override
+        public String toString() {
+            long raw = rawBytes.get();
+            long saved = raw - wireBytes.get();
+            return new StringBuilder().append("none:").append(none.get()).append(",snappy:")
+                    .append(snappyCount.get()).append(",gzip:").append(gzipCount.get())
+                    .append(",saved:").append(saved).append("/").append(raw).append("bytes")
+                    .append(",snappyRatio:").append(String.format("%.2f", 1 - snappy.saving()))
+                    .append(",snappyCost:").append(String.format("%.1f", snappy.nanosPerByte)).append("ns/byte")
+                    .append(",gzipRatio:").append(String.format("%.2f", 1 - gzip.saving()))
+                    .append(",gzipCost:").append(String.format("%.1f", gzip.nanosPerByte)).append("ns/byte")
+                    .toString();
+        }
+    }
+
+    private static class Algorithm {
+
+        // racy updates only lose samples, unmeasured algorithms look worth a try
+        volatile float ratio = 0f;
+        volatile float nanosPerByte = 0f;
+
+        void update(int rawLength, int compressedLength, long nanos) {
+            if (rawLength <= 0) {
+                return;
+            }
+            float sampleRatio = (float) compressedLength / rawLength;
+            float sampleNanos = (float) nanos / rawLength;
+            float currentRatio = ratio;
+            float currentNanos = nanosPerByte;
+            if (currentRatio == 0f) {
+                ratio = sampleRatio;
+                nanosPerByte = sampleNanos;
+            } else {
+                ratio = currentRatio + (sampleRatio - currentRatio) / 8;
+                nanosPerByte = currentNanos + (sampleNanos - currentNanos) / 8;
+            }
+        }
+
+        float saving() {
+            return 1 - ratio;
+        }
+
+        float nanosPerSavedByte() {
+            float saving = saving();
+            return saving <= 0 ? Float.MAX_VALUE : nanosPerByte / saving;
+        }
+    }
+}
@@ -22,6 +22,10 @@ public class CodecConfig {
 
     private static final String CHECKSUM_ENABLE_KEY = "pigeon.codec.checksum.enable";
 
+    private static final String POOLED_ENCODE_ENABLE_KEY = "pigeon.codec.encode.pooled.enable";
+
+    private static final String FUSED_INBOUND_ENABLE_KEY = "pigeon.codec.inbound.fused.enable";
+
     private static ConfigManager configManager = ConfigManagerLoader.getConfigManager();
 
     public static boolean isCompress(int frameSize) {
@@ -58,4 +62,12 @@ public class CodecConfig {
         return configManager.getBooleanValue(CHECKSUM_ENABLE_KEY, false);
     }
 
+    public static boolean isPooledEncode() {
+        return configManager.getBooleanValue(POOLED_ENCODE_ENABLE_KEY, false);
+    }
+
+    public static boolean isFusedInbound() {
+        return configManager.getBooleanValue(FUSED_INBOUND_ENABLE_KEY, false);
+    }
+
 }
@@ -6,19 +6,53 @@ package com.dianping.pigeon.remoting.common.domain;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.dianping.pigeon.remoting.common.util.Constants;
 
 public abstract class AbstractInvocationContext implements InvocationContext {
 
 	protected InvocationRequest request;
 	protected InvocationResponse response;
 	private Map<String, Serializable> contextValues;
-	private List<TimePoint> timeline = new ArrayList<TimePoint>();
+
+	private static final TimePhase[] PHASES = TimePhase.values();
+
+	private static final long UNSET = Long.MIN_VALUE;
+
+	private static final Comparator<TimePoint> TIME_ORDER = new Comparator<TimePoint>() {
+		@Override
+		public int compare(TimePoint o1, TimePoint o2) {
+			return Long.compare(o1.getTime(), o2.getTime());
+		}
+	};
+
+	/**
+	 * first and last mark of each phase by ordinal, in nanos from startNanos,
+	 * null if the timeline is off
+	 */
+	private final long[] marks;
+	private final long startNanos;
+	private final long startMillis;
 
 	public AbstractInvocationContext(InvocationRequest request) {
 		this.request = request;
+		if (Constants.TIMELINE_ENABLE) {
+			marks = new long[PHASES.length * 2];
+			Arrays.fill(marks, UNSET);
+			startNanos = System.nanoTime();
+			startMillis = System.currentTimeMillis();
+		} else {
+			marks = null;
+			startNanos = 0;
+			startMillis = 0;
+		}
 	}
 
 	@Override
@@ -60,8 +94,63 @@ public abstract class AbstractInvocationContext implements InvocationContext {
 		return contextValues;
 	}
 
+	/**
+	 * the first and last mark of each phase in milliseconds, ordered by time.
+	 * built on every call, adding to it has no effect
+	 */
 	@Override
 	public List<TimePoint> getTimeline() {
+		List<TimePoint> timeline = new ArrayList<TimePoint>();
+		if (marks != null) {
+			for (TimePhase phase : PHASES) {
+				int index = phase.ordinal() << 1;
+				if (marks[index] != UNSET) {
+					timeline.add(new TimePoint(phase, toMillis(marks[index])));
+					if (marks[index + 1] != marks[index]) {
+						timeline.add(new TimePoint(phase, toMillis(marks[index + 1])));
+					}
+				}
+			}
+			Collections.sort(timeline, TIME_ORDER);
+		}
 		return timeline;
 	}
+
+	@Override
+	public void addTimePoint(TimePhase phase) {
+		if (marks != null) {
+			mark(phase, System.nanoTime() - startNanos);
+		}
+	}
+
+	@Override
+	public void addTimePoint(TimePhase phase, long time) {
+		if (marks != null) {
+			mark(phase, TimeUnit.MILLISECONDS.toNanos(time - startMillis));
+		}
+	}
+
+	@Override
+	public long getElapsedNanos(TimePhase phase) {
+		if (marks == null) {
+			return -1;
+		}
+		int index = phase.ordinal() << 1;
+		if (marks[index] == UNSET || marks[index + 1] == marks[index]) {
+			return -1;
+		}
+		return marks[index + 1] - marks[index];
+	}
+
+	private void mark(TimePhase phase, long nanos) {
+		int index = phase.ordinal() << 1;
+		if (marks[index] == UNSET) {
+			marks[index] = nanos;
+		}
+		marks[index + 1] = nanos;
+	}
+
+	private long toMillis(long nanos) {
+		return startMillis + TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
 }
@@ -45,6 +45,22 @@ public interface InvocationContext {
 
 	List<TimePoint> getTimeline();
 
+	/**
+	 * records the phase at the current time, nothing if the timeline is off
+	 */
+	void addTimePoint(TimePhase phase);
+
+	/**
+	 * records the phase at a wall clock time in milliseconds
+	 */
+	void addTimePoint(TimePhase phase, long time);
+
+	/**
+	 * @return nanos from the first to the last mark of the phase, -1 if it was
+	 *         marked less than twice or the timeline is off
+	 */
+	long getElapsedNanos(TimePhase phase);
+
 
 	enum TimePhase {
 		S/** start **/
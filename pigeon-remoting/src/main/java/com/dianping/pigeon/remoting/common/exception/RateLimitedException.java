@@ -0,0 +1,29 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.common.exception;
+
+/**
+ * rejected by a provider rate limit, the caller may retry after the hinted
+ * delay
+ */
+public class RateLimitedException extends RejectedException {
+
+	private static final long serialVersionUID = 3818462514402761875L;
+
+	private long retryAfterMillis;
+
+	public RateLimitedException() {
+		super();
+	}
+
+	public RateLimitedException(String msg, long retryAfterMillis) {
+		super(msg);
+		this.retryAfterMillis = retryAfterMillis;
+	}
+
+	public long getRetryAfterMillis() {
+		return retryAfterMillis;
+	}
+}
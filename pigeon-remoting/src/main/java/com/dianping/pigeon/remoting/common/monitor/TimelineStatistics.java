@@ -0,0 +1,150 @@
+package com.dianping.pigeon.remoting.common.monitor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.dianping.pigeon.config.ConfigChangeListener;
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.log.Logger;
+import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.remoting.common.domain.InvocationContext;
+import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePhase;
+
+/**
+ * latency of the phases of provider requests, from the timelines of a sampled
+ * fraction of them. buckets are powers of two in microseconds, percentiles
+ * are reported as the upper bound of their bucket.
+ */
+public class TimelineStatistics {
+
+	private static final Logger logger = LoggerLoader.getLogger(TimelineStatistics.class);
+
+	public static final String KEY_SAMPLE_RATE = "pigeon.timeline.sample.rate";
+
+	private static final int BUCKETS = 24;
+
+	public enum Phase {
+		/** submitted to the thread pool until picked up **/
+		QUEUE,
+		/** frame deserialized into a request **/
+		DECODE,
+		/** service method **/
+		BUSINESS,
+		/** response encoded and written **/
+		ENCODE
+	}
+
+	private static final PhaseHistogram[] histograms = new PhaseHistogram[Phase.values().length];
+
+	private static volatile double sampleRate = ConfigManagerLoader.getConfigManager().getDoubleValue(
+			KEY_SAMPLE_RATE, 0.01);
+
+	static {
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new PhaseHistogram();
+		}
+		ConfigManagerLoader.getConfigManager().registerConfigChangeListener(new InnerConfigChangeListener());
+	}
+
+	/**
+	 * @return true for the configured fraction of calls
+	 */
+	public static boolean isSampled() {
+		double rate = sampleRate;
+		if (rate <= 0) {
+			return false;
+		}
+		return rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate;
+	}
+
+	public static void record(Phase phase, long nanos) {
+		if (nanos >= 0) {
+			histograms[phase.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(nanos));
+		}
+	}
+
+	/**
+	 * records the phases found in the timeline of a finished provider request
+	 */
+	public static void record(InvocationContext context) {
+		// marked on submit and on pick up
+		record(Phase.QUEUE, context.getElapsedNanos(TimePhase.T));
+		// marked around the method and around the write
+		record(Phase.BUSINESS, context.getElapsedNanos(TimePhase.M));
+		record(Phase.ENCODE, context.getElapsedNanos(TimePhase.P));
+	}
+
+	public static Map<String, String> getStatistics() {
+		Map<String, String> statistics = new LinkedHashMap<String, String>();
+		for (Phase phase : Phase.values()) {
+			statistics.put(phase.name().toLowerCase(), histograms[phase.ordinal()].toString());
+		}
+		return statistics;
+	}
+
+	private static class PhaseHistogram {
+
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+		private final AtomicLong samples = new AtomicLong();
+
+		private final AtomicLong totalMicros = new AtomicLong();
+
+		void record(long micros) {
+			int bucket = Math.min(63 - Long.numberOfLeadingZeros(Math.max(micros, 1)), BUCKETS - 1);
+			counts.incrementAndGet(bucket);
+			samples.incrementAndGet();
+			totalMicros.addAndGet(micros);
+		}
+
+		private String percentile(long total, double fraction) {
+			long rank = (long) Math.ceil(total * fraction);
+			long sum = 0;
+			for (int i = 0; i < BUCKETS - 1; i++) {
+				sum += counts.get(i);
+				if (sum >= rank) {
+					return "<" + (2L << i) + "us";
+				}
+			}
+			return ">=" + (1L << (BUCKETS - 1)) + "us";
+		}
+
+		@Override
+		public String toString() {
+			long total = samples.get();
+			if (total == 0) {
+				return "samples:0";
+			}
+			return "samples:" + total + ",avg:" + totalMicros.get() / total + "us,p50:" + percentile(total, 0.5)
+					+ ",p99:" + percentile(total, 0.99);
+		}
+	}
+
+	private static class InnerConfigChangeListener implements ConfigChangeListener {
+
+		@Override
+		public void onKeyUpdated(String key, String value) {
+			if (key.endsWith(KEY_SAMPLE_RATE)) {
+				try {
+					sampleRate = Double.valueOf(value);
+				} catch (RuntimeException e) {
+					logger.error("invalid value for " + key + ":" + value, e);
+				}
+			}
+		}
+
+		@Override
+		public void onKeyAdded(String key, String value) {
+			onKeyUpdated(key, value);
+		}
+
+		@Override
+		public void onKeyRemoved(String key) {
+
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.dianping.pigeon.remoting.common.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * histogram of the number of messages and bytes coalesced into one write by
+ * the write batching clients, buckets are powers of two.
+ */
+public class WriteBatchStatistics {
+
+	private static final int BUCKETS = 8;
+
+	private static final AtomicLongArray countHistogram = new AtomicLongArray(BUCKETS);
+
+	private static final AtomicLongArray bytesHistogram = new AtomicLongArray(BUCKETS);
+
+	private static final AtomicLong batches = new AtomicLong();
+
+	private static final AtomicLong messages = new AtomicLong();
+
+	private static final AtomicLong bytes = new AtomicLong();
+
+	private static int bucket(long value) {
+		int bucket = 63 - Long.numberOfLeadingZeros(Math.max(value, 1));
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	public static void record(int count, int size) {
+		batches.incrementAndGet();
+		messages.addAndGet(count);
+		bytes.addAndGet(size);
+		countHistogram.incrementAndGet(bucket(count));
+		// in kilobytes
+		bytesHistogram.incrementAndGet(bucket(size >> 10));
+	}
+
+	public static String getStatistics() {
+		long batchCount = batches.get();
+		StringBuilder sb = new StringBuilder().append("batches:").append(batchCount).append(",avgCount:")
+				.append(batchCount == 0 ? 0 : messages.get() / batchCount).append(",avgBytes:")
+				.append(batchCount == 0 ? 0 : bytes.get() / batchCount);
+		appendHistogram(sb.append(",count:"), countHistogram, "");
+		appendHistogram(sb.append(",bytes:"), bytesHistogram, "k");
+		return sb.toString();
+	}
+
+	private static void appendHistogram(StringBuilder sb, AtomicLongArray histogram, String unit) {
+		sb.append("[");
+		for (int i = 0; i < BUCKETS - 1; i++) {
+			sb.append("<").append(2 << i).append(unit).append(":").append(histogram.get(i)).append(",");
+		}
+		sb.append(">=").append(1 << (BUCKETS - 1)).append(unit).append(":").append(histogram.get(BUCKETS - 1))
+				.append("]");
+	}
+}
@@ -2,6 +2,8 @@ package com.dianping.pigeon.remoting.common.pool;
 
 import com.dianping.pigeon.log.Logger;
 import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.monitor.Monitor;
+import com.dianping.pigeon.monitor.MonitorLoader;
 import com.dianping.pigeon.remoting.common.channel.Channel;
 import com.dianping.pigeon.remoting.common.channel.ChannelFactory;
 import com.dianping.pigeon.remoting.common.exception.NetworkException;
@@ -10,7 +12,10 @@ import com.dianping.pigeon.util.AtomicPositiveInteger;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -23,7 +28,15 @@ public class DefaultChannelPool<C extends Channel> implements ChannelPool<C> {
 
     private static final Logger logger = LoggerLoader.getLogger(DefaultChannelPool.class);
 
-    private List<C> pooledChannels = new ArrayList<C>();
+    // replaced as a whole under channelsLock, readers work on the snapshot they got
+    private volatile List<C> pooledChannels = Collections.emptyList();
+
+    private final Object channelsLock = new Object();
+
+    // surplus channels taken out of selection, closed once drained
+    private final List<Retiring<C>> retiringChannels = new ArrayList<Retiring<C>>();
+
+    private volatile long idleSince;
 
     private AtomicInteger size = new AtomicInteger();
 
@@ -40,6 +53,8 @@ public class DefaultChannelPool<C extends Channel> implements ChannelPool<C> {
     private static ExecutorService reconnectExecutor = Executors.newFixedThreadPool(
             4, new DefaultThreadFactory("Pigeon-ChannelPool-Reconnect-Pool"));
 
+    private static final Monitor monitor = MonitorLoader.getMonitor();
+
     private static ScheduledThreadPoolExecutor checkScheduler = new ScheduledThreadPoolExecutor(
             2, new DefaultThreadFactory("Pigeon-ChannelPool-Check-Pool"));
 
@@ -112,9 +127,11 @@ public class DefaultChannelPool<C extends Channel> implements ChannelPool<C> {
             return false;
         }
 
-        for (int index = 0; index < pooledChannels.size(); index++) {
+        List<C> channels = pooledChannels;
+
+        for (int index = 0; index < channels.size(); index++) {
 
-            C channel = pooledChannels.get(index);
+            C channel = channels.get(index);
 
             if (channel != null && channel.isAvaliable()) {
                 return true;
@@ -146,9 +163,10 @@ public class DefaultChannelPool<C extends Channel> implements ChannelPool<C> {
             }
 
             //random
-            if (!pooledChannels.isEmpty()) {
-                int selected = selectedIndex.getAndIncrement() % pooledChannels.size();
-                C pooledChannel = pooledChannels.get(selected);
+            List<C> channels = pooledChannels;
+            if (!channels.isEmpty()) {
+                C pooledChannel = PoolProperties.SELECT_STRATEGY_LEAST_PENDING.equals(properties.getSelectStrategy()) ?
+                        selectLeastPending(channels) : selectRoundRobin(channels);
 
                 if (pooledChannel != null) {
                     if (!pooledChannel.isAvaliable()) {
@@ -171,6 +189,74 @@ public class DefaultChannelPool<C extends Channel> implements ChannelPool<C> {
         return channel;
     }
 
+    private C selectRoundRobin(List<C> channels) {
+        int selected = selectedIndex.getAndIncrement() % channels.size();
+        return channels.get(selected);
+    }
+
+    /**
+     * power of two choices, the less loaded of two random writable channels
+     */
+    private C selectLeastPending(List<C> channels) {
+        int poolSize = channels.size();
+
+        if (poolSize == 1) {
+            return channels.get(0);
+        }
+
+        Random random = ThreadLocalRandom.current();
+        int first = random.nextInt(poolSize);
+        int second = random.nextInt(poolSize - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        C firstChannel = channels.get(first);
+        C secondChannel = channels.get(second);
+        boolean firstUsable = isUsable(firstChannel);
+        boolean secondUsable = isUsable(secondChannel);
+
+        if (firstUsable && secondUsable) {
+            return compareLoad(firstChannel, secondChannel) <= 0 ? firstChannel : secondChannel;
+        } else if (firstUsable) {
+            return firstChannel;
+        } else if (secondUsable) {
+            return secondChannel;
+        }
+
+        //both busy or broken, fall back to the least loaded usable one
+        C selected = null;
+        for (int index = 0; index < poolSize; index++) {
+            C pooledChannel = channels.get(index);
+
+            if (isUsable(pooledChannel) && (selected == null || compareLoad(pooledChannel, selected) < 0)) {
+                selected = pooledChannel;
+            }
+        }
+
+        if (selected == null) {
+            selected = firstChannel != null && firstChannel.isAvaliable() ? firstChannel : secondChannel;
+        }
+        return selected;
+    }
+
+    private boolean isUsable(C channel) {
+        return channel != null && channel.isAvaliable() && channel.isWritable();
+    }
+
+    private int compareLoad(C channel1, C channel2) {
+        int pending1 = channel1.getPendingRequests();
+        int pending2 = channel2.getPendingRequests();
+
+        if (pending1 != pending2) {
+            return pending1 < pending2 ? -1 : 1;
+        }
+
+        long bytes1 = channel1.getPendingBytes();
+        long bytes2 = channel2.getPendingBytes();
+        return bytes1 < bytes2 ? -1 : (bytes1 == bytes2 ? 0 : 1);
+    }
+
     protected C createChannel() {
         C channel = null;
 
@@ -178,8 +264,10 @@ public class DefaultChannelPool<C extends Channel> implements ChannelPool<C> {
             channel = channelFactory.createChannel();
         } finally {
             if (channel != null) {
-                synchronized (pooledChannels) {
-                    pooledChannels.add(channel);
+                synchronized (channelsLock) {
+                    List<C> channels = new ArrayList<C>(pooledChannels);
+                    channels.add(channel);
+                    pooledChannels = Collections.unmodifiableList(channels);
                 }
             } else {
                 size.decrementAndGet();
@@ -210,15 +298,24 @@ public class DefaultChannelPool<C extends Channel> implements ChannelPool<C> {
     public void close() {
         if (isClosed.compareAndSet(false, true)) {
 
-            for (int index = 0; index < pooledChannels.size(); index++) {
+            List<C> channels = pooledChannels;
+
+            for (int index = 0; index < channels.size(); index++) {
 
-                C pooledChannel = pooledChannels.get(index);
+                C pooledChannel = channels.get(index);
 
                 if (pooledChannel != null && pooledChannel.isAvaliable()) {
                     pooledChannel.disConnect();
                 }
             }
 
+            synchronized (retiringChannels) {
+                for (Retiring<C> retiring : retiringChannels) {
+                    retiring.channel.disConnect();
+                }
+                retiringChannels.clear();
+            }
+
             if (scheduledFuture != null && !scheduledFuture.isCancelled()) {
                 scheduledFuture.cancel(true);
                 checkScheduler.purge();
@@ -237,6 +334,113 @@ public class DefaultChannelPool<C extends Channel> implements ChannelPool<C> {
         return "ChannelPool[poolSize=" + pooledChannels.size() + "]";
     }
 
+    /**
+     * opens one more channel while the channels are busy, up to maxActive, and
+     * retires one surplus channel once they have been idle for shrinkIdleMillis.
+     * called by the check task only.
+     */
+    void resize() {
+        List<C> channels = pooledChannels;
+
+        if (channels.isEmpty()) {
+            return;
+        }
+
+        long pendingRequests = 0;
+        long pendingBytes = 0;
+        for (C channel : channels) {
+            pendingRequests += channel.getPendingRequests();
+            pendingBytes += channel.getPendingBytes();
+        }
+        long avgRequests = pendingRequests / channels.size();
+        long avgBytes = pendingBytes / channels.size();
+        long now = System.currentTimeMillis();
+
+        if (avgRequests >= properties.getGrowPendingThreshold() || avgBytes >= properties.getGrowBytesThreshold()) {
+            idleSince = 0;
+
+            if (size.get() < properties.getMaxActive()) {
+                if (size.incrementAndGet() > properties.getMaxActive()) {
+                    size.decrementAndGet();
+                } else {
+                    C channel = createChannel();
+                    logResize("grow", channel, avgRequests, avgBytes);
+                }
+            }
+        } else if (avgRequests < properties.getGrowPendingThreshold() / 4
+                && avgBytes < properties.getGrowBytesThreshold() / 4) {
+            if (idleSince == 0) {
+                idleSince = now;
+            } else if (now - idleSince >= properties.getShrinkIdleMillis()
+                    && channels.size() > properties.getNormalSize()) {
+                idleSince = now;
+                retireChannel(avgRequests, avgBytes);
+            }
+        } else {
+            idleSince = 0;
+        }
+    }
+
+    private void retireChannel(long avgRequests, long avgBytes) {
+        C retired;
+
+        synchronized (channelsLock) {
+            List<C> channels = new ArrayList<C>(pooledChannels);
+            if (channels.size() <= properties.getNormalSize()) {
+                return;
+            }
+            retired = channels.remove(channels.size() - 1);
+            pooledChannels = Collections.unmodifiableList(channels);
+            size.decrementAndGet();
+        }
+
+        synchronized (retiringChannels) {
+            retiringChannels.add(new Retiring<C>(retired, System.currentTimeMillis()));
+        }
+        logResize("shrink", retired, avgRequests, avgBytes);
+    }
+
+    /**
+     * closes retired channels once their pending requests are answered, or
+     * after another idle period at the latest
+     */
+    void closeRetired() {
+        long now = System.currentTimeMillis();
+
+        synchronized (retiringChannels) {
+            for (Iterator<Retiring<C>> iterator = retiringChannels.iterator(); iterator.hasNext(); ) {
+                Retiring<C> retiring = iterator.next();
+
+                if (retiring.channel.getPendingRequests() <= 0
+                        || now - retiring.retireTime >= properties.getShrinkIdleMillis()) {
+                    retiring.channel.disConnect();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private void logResize(String event, C channel, long avgRequests, long avgBytes) {
+        String desc = "poolSize=" + pooledChannels.size() + ", avgPendingRequests=" + avgRequests
+                + ", avgPendingBytes=" + avgBytes;
+        String address = channel != null ? channel.getRemoteAddressString() : "";
+
+        logger.info("[resize] " + event + " channel pool of " + address + ", " + desc);
+        monitor.logEvent("PigeonCall.channelPool." + event, address, desc);
+    }
+
+    private static class Retiring<C> {
+
+        private final C channel;
+
+        private final long retireTime;
+
+        Retiring(C channel, long retireTime) {
+            this.channel = channel;
+            this.retireTime = retireTime;
+        }
+    }
+
     class ReconnectChannelTask implements Runnable {
 
         private WeakReference<Channel> channelRef;
@@ -292,6 +496,12 @@ public class DefaultChannelPool<C extends Channel> implements ChannelPool<C> {
                     }
                 }
 
+                try {
+                    resize();
+                    closeRetired();
+                } catch (Throwable t) {
+                    logger.warn("[run] resize channel pool failed.", t);
+                }
             }
 
         }
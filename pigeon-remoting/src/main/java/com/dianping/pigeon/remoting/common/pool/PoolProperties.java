@@ -16,6 +16,16 @@ public class PoolProperties {
 
     public static final int DEFAULT_TIME_BETWEEN_CHECKER_MILLIS = 2000;
 
+    public static final int DEFAULT_GROW_PENDING_THRESHOLD = 200;
+
+    public static final long DEFAULT_GROW_BYTES_THRESHOLD = 4 * 1024 * 1024;
+
+    public static final int DEFAULT_SHRINK_IDLE_MILLIS = 60000;
+
+    public static final String SELECT_STRATEGY_ROUND_ROBIN = "roundRobin";
+
+    public static final String SELECT_STRATEGY_LEAST_PENDING = "leastPending";
+
     private int initialSize;
 
     private int normalSize;
@@ -26,6 +36,23 @@ public class PoolProperties {
 
     private int timeBetweenCheckerMillis;
 
+    private String selectStrategy = SELECT_STRATEGY_ROUND_ROBIN;
+
+    /**
+     * average pending requests per channel above which the pool grows toward maxActive
+     */
+    private int growPendingThreshold = DEFAULT_GROW_PENDING_THRESHOLD;
+
+    /**
+     * average unflushed bytes per channel above which the pool grows toward maxActive
+     */
+    private long growBytesThreshold = DEFAULT_GROW_BYTES_THRESHOLD;
+
+    /**
+     * how long the channels have to stay idle before a channel above normalSize is closed
+     */
+    private int shrinkIdleMillis = DEFAULT_SHRINK_IDLE_MILLIS;
+
 
     public PoolProperties() {
         this(DEFAULT_INITIAL_SIZE,
@@ -86,4 +113,36 @@ public class PoolProperties {
     public void setTimeBetweenCheckerMillis(int timeBetweenCheckerMillis) {
         this.timeBetweenCheckerMillis = timeBetweenCheckerMillis;
     }
-}
\ No newline at end of file
+
+    public String getSelectStrategy() {
+        return selectStrategy;
+    }
+
+    public void setSelectStrategy(String selectStrategy) {
+        this.selectStrategy = selectStrategy;
+    }
+
+    public int getGrowPendingThreshold() {
+        return growPendingThreshold;
+    }
+
+    public void setGrowPendingThreshold(int growPendingThreshold) {
+        this.growPendingThreshold = growPendingThreshold;
+    }
+
+    public long getGrowBytesThreshold() {
+        return growBytesThreshold;
+    }
+
+    public void setGrowBytesThreshold(long growBytesThreshold) {
+        this.growBytesThreshold = growBytesThreshold;
+    }
+
+    public int getShrinkIdleMillis() {
+        return shrinkIdleMillis;
+    }
+
+    public void setShrinkIdleMillis(int shrinkIdleMillis) {
+        this.shrinkIdleMillis = shrinkIdleMillis;
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.common.process;
+
+/**
+ * a filter that may be left out of the chain, asked once when the chain is
+ * compiled
+ */
+public interface ConditionalFilter {
+
+	boolean isEnabled();
+
+}
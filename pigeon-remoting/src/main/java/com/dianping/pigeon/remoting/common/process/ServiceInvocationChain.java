@@ -0,0 +1,61 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.common.process;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.dianping.pigeon.remoting.common.domain.InvocationContext;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+
+/**
+ * compiles a filter list into a linked handler. disabled conditional filters
+ * are left out once here, instead of being checked on every call.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public final class ServiceInvocationChain {
+
+	private ServiceInvocationChain() {
+	}
+
+	/**
+	 * @return null if no filter is enabled
+	 */
+	public static ServiceInvocationHandler compile(List<? extends ServiceInvocationFilter> filters) {
+		List<ServiceInvocationFilter> enabled = new ArrayList<ServiceInvocationFilter>(filters.size());
+		for (ServiceInvocationFilter filter : filters) {
+			if (!(filter instanceof ConditionalFilter) || ((ConditionalFilter) filter).isEnabled()) {
+				enabled.add(filter);
+			}
+		}
+		ServiceInvocationHandler next = null;
+		for (int i = enabled.size() - 1; i >= 0; i--) {
+			next = new Stage(enabled.get(i), next);
+		}
+		return next;
+	}
+
+	private static final class Stage implements ServiceInvocationHandler {
+
+		private final ServiceInvocationFilter filter;
+
+		private final ServiceInvocationHandler next;
+
+		Stage(ServiceInvocationFilter filter, ServiceInvocationHandler next) {
+			this.filter = filter;
+			this.next = next;
+		}
+
+		@Override
+		public InvocationResponse handle(InvocationContext invocationContext) throws Throwable {
+			return filter.invoke(next, invocationContext);
+		}
+
+		@Override
+		public String toString() {
+			return filter.getClass().getSimpleName() + (next == null ? "" : "->" + next);
+		}
+	}
+}
@@ -44,6 +44,7 @@ public final class Constants {
     public static final String CLUSTER_FAILOVER = "failover";
     public static final String CLUSTER_FAILSAFE = "failsafe";
     public static final String CLUSTER_FORKING = "forking";
+    public static final String CLUSTER_HEDGED = "hedged";
 
     public static final String SERIALIZE_JAVA = "java";
     public static final String SERIALIZE_HESSIAN = "hessian";
@@ -123,6 +124,10 @@ public final class Constants {
     public static final String KEY_CHANNEL_POOL_MAX_ACTIVE = "pigeon.channel.pool.max.active";
     public static final String KEY_CHANNEL_POOL_MAX_WAIT = "pigeon.channel.pool.max.wait";
     public static final String KEY_CHANNEL_POOL_TIME_BETWEEN_CHECKER_MILLIS = "pigeon.channel.pool.timeBetweenCheckerMillis";
+    public static final String KEY_CHANNEL_POOL_SELECT_STRATEGY = "pigeon.channel.pool.select.strategy";
+    public static final String KEY_CHANNEL_POOL_GROW_PENDING = "pigeon.channel.pool.grow.pending";
+    public static final String KEY_CHANNEL_POOL_GROW_BYTES = "pigeon.channel.pool.grow.bytes";
+    public static final String KEY_CHANNEL_POOL_SHRINK_IDLE_MILLIS = "pigeon.channel.pool.shrink.idleMillis";
 
     public static final String KEY_NOTIFY_ENABLE = "pigeon.notify.enable";
     public static final String KEY_HEARTBEAT_ENABLE = "pigeon.heartbeat.enable";
@@ -157,6 +162,10 @@ public final class Constants {
     public static final int DEFAULT_CHANNEL_POOL_MAX_ACTIVE = 5;
     public static final int DEFAULT_CHANNEL_POOL_MAX_WAIT = 2000;
     public static final int DEFAULT_CHANNEL_POOL_TIME_BETWEEN_CHECKER_MILLIS = 2000;
+    public static final String DEFAULT_CHANNEL_POOL_SELECT_STRATEGY = "roundRobin";
+    public static final int DEFAULT_CHANNEL_POOL_GROW_PENDING = 200;
+    public static final long DEFAULT_CHANNEL_POOL_GROW_BYTES = 4 * 1024 * 1024;
+    public static final int DEFAULT_CHANNEL_POOL_SHRINK_IDLE_MILLIS = 60000;
     public static final String DEFAULT_PROCESS_TYPE = "threadpool";
     public static final boolean DEFAULT_NOTIFY_ENABLE = true;
     public static final boolean DEFAULT_TEST_ENABLE = true;
@@ -188,6 +197,7 @@ public final class Constants {
     public static final String KEY_LOG_PARAMETER = "pigeon.log.parameters";
     public static final String Key_REPLY_MANUAL = "pigeon.provider.reply.manual";
     public static final String KEY_MONITOR_ENABLE = "pigeon.monitor.enabled";
+    public static final String KEY_TIMELINE_ENABLE = "pigeon.timeline.enable";
 
     public static final int WEIGHT_INITIAL = ConfigManagerLoader.getConfigManager()
             .getIntValue(Constants.KEY_WEIGHT_INITIAL, Constants.DEFAULT_WEIGHT_INITIAL);
@@ -204,6 +214,9 @@ public final class Constants {
     public static final boolean MONITOR_ENABLE = ConfigManagerLoader.getConfigManager()
             .getBooleanValue(KEY_MONITOR_ENABLE, true);
 
+    public static final boolean TIMELINE_ENABLE = ConfigManagerLoader.getConfigManager()
+            .getBooleanValue(KEY_TIMELINE_ENABLE, true);
+
     public static final int PROVIDER_POOL_CORE_SIZE = ConfigManagerLoader.getConfigManager()
             .getIntValue(Constants.KEY_PROVIDER_COREPOOLSIZE, Constants.DEFAULT_PROVIDER_COREPOOLSIZE);
 
@@ -235,6 +248,8 @@ public final class Constants {
     public static final String CONTEXT_KEY_CLIENT_APP = "CLIENT_APP";
     public static final String CONTEXT_KEY_SOURCE_IP = "SOURCE_IP";
     public static final String CONTEXT_KEY_SOURCE_APP = "SOURCE_APP";
+    // delay in milliseconds hinted by a provider rate limit, kept as a string for every serializer
+    public static final String CONTEXT_KEY_RETRY_AFTER = "RETRY_AFTER";
 
     public static final int getChannelPoolInitialSize() {
         return ConfigManagerLoader.getConfigManager().getIntValue(
@@ -261,6 +276,26 @@ public final class Constants {
                 KEY_CHANNEL_POOL_TIME_BETWEEN_CHECKER_MILLIS, DEFAULT_CHANNEL_POOL_TIME_BETWEEN_CHECKER_MILLIS);
     }
 
+    public static final String getChannelPoolSelectStrategy() {
+        return ConfigManagerLoader.getConfigManager().getStringValue(
+                KEY_CHANNEL_POOL_SELECT_STRATEGY, DEFAULT_CHANNEL_POOL_SELECT_STRATEGY);
+    }
+
+    public static final int getChannelPoolGrowPending() {
+        return ConfigManagerLoader.getConfigManager().getIntValue(
+                KEY_CHANNEL_POOL_GROW_PENDING, DEFAULT_CHANNEL_POOL_GROW_PENDING);
+    }
+
+    public static final long getChannelPoolGrowBytes() {
+        return ConfigManagerLoader.getConfigManager().getLongValue(
+                KEY_CHANNEL_POOL_GROW_BYTES, DEFAULT_CHANNEL_POOL_GROW_BYTES);
+    }
+
+    public static final int getChannelPoolShrinkIdleMillis() {
+        return ConfigManagerLoader.getConfigManager().getIntValue(
+                KEY_CHANNEL_POOL_SHRINK_IDLE_MILLIS, DEFAULT_CHANNEL_POOL_SHRINK_IDLE_MILLIS);
+    }
+
 
     public static final boolean getInvokerHeartbeatEnable() {
         return ConfigManagerLoader.getConfigManager().getBooleanValue(
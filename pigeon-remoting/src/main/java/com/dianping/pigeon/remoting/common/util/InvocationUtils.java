@@ -39,6 +39,8 @@ public class InvocationUtils {
 	
 	private static ConcurrentHashMap<String, String> remoteCallNameCache = new ConcurrentHashMap<String, String>();
 
+	private static ConcurrentHashMap<String, ConcurrentHashMap<String, String>> requestMethodCache = new ConcurrentHashMap<String, ConcurrentHashMap<String, String>>();
+
 	private static ConfigManager configManager = ConfigManagerLoader.getConfigManager();
 
 	private static final int defaultStrMaxLength = configManager.getIntValue(Constants.KEY_STRING_MAXLENGTH,
@@ -122,6 +124,36 @@ public class InvocationUtils {
 		}
 		return name;
 	}
+
+	/**
+	 * serviceName#methodName, built once per pair
+	 */
+	public static String getRequestMethod(String serviceName, String methodName) {
+		if (serviceName == null || methodName == null) {
+			return serviceName + "#" + methodName;
+		}
+		ConcurrentHashMap<String, String> methods = requestMethodCache.get(serviceName);
+		if (methods == null) {
+			ConcurrentHashMap<String, String> newMethods = new ConcurrentHashMap<String, String>();
+			methods = requestMethodCache.putIfAbsent(serviceName, newMethods);
+			if (methods == null) {
+				methods = newMethods;
+			}
+		}
+		String requestMethod = methods.get(methodName);
+		if (requestMethod == null) {
+			requestMethod = serviceName + "#" + methodName;
+			String existing = methods.putIfAbsent(methodName, requestMethod);
+			if (existing != null) {
+				requestMethod = existing;
+			}
+		}
+		return requestMethod;
+	}
+
+	public static String getRequestMethod(InvocationRequest request) {
+		return getRequestMethod(request.getServiceName(), request.getMethodName());
+	}
 	
 	public static InvocationRequest newRequest() {
 		try {
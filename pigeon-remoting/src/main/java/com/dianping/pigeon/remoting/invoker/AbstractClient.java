@@ -13,6 +13,7 @@ import com.dianping.pigeon.remoting.common.exception.NetworkException;
 import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.invoker.client.HeartbeatTask;
 import com.dianping.pigeon.remoting.invoker.process.ResponseProcessor;
+import com.dianping.pigeon.remoting.invoker.route.RouteSnapshot;
 import com.dianping.pigeon.remoting.invoker.route.region.Region;
 import com.dianping.pigeon.remoting.invoker.route.region.RegionPolicyManager;
 import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
@@ -104,7 +105,10 @@ public abstract class AbstractClient implements Client {
 
     @Override
     public void setActive(boolean active) {
-        this.isActive = active;
+        if (this.isActive != active) {
+            this.isActive = active;
+            RouteSnapshot.invalidateAll();
+        }
     }
 
     @Override
@@ -98,10 +98,12 @@ public class ClientManager {
 
 	public Client getClient(InvokerConfig<?> invokerConfig, InvocationRequest request, List<Client> excludeClients) {
 		List<Client> clientList = clusterListener.getClientList(invokerConfig);
-		List<Client> clientsToRoute = new ArrayList<Client>(clientList);
-		if (excludeClients != null) {
-			clientsToRoute.removeAll(excludeClients);
+		if (excludeClients == null || excludeClients.isEmpty()) {
+			// routed from its snapshot, the route manager does not modify it
+			return routerManager.route(clientList, invokerConfig, request);
 		}
+		List<Client> clientsToRoute = new ArrayList<Client>(clientList);
+		clientsToRoute.removeAll(excludeClients);
 		return routerManager.route(clientsToRoute, invokerConfig, request);
 	}
 
@@ -17,6 +17,7 @@ public class ClusterFactory {
 		clusters.put(Constants.CLUSTER_FAILOVER, new FailoverCluster());
 		clusters.put(Constants.CLUSTER_FAILSAFE, new FailsafeCluster());
 		clusters.put(Constants.CLUSTER_FORKING, new ForkingCluster());
+		clusters.put(Constants.CLUSTER_HEDGED, new HedgedCluster());
 	}
 
 	public static void registerCluster(String clusterType, Cluster cluster) {
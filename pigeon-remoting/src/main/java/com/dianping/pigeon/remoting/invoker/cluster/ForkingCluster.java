@@ -1,14 +1,11 @@
 package com.dianping.pigeon.remoting.invoker.cluster;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.Logger;
@@ -17,23 +14,25 @@ import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
 import com.dianping.pigeon.remoting.common.util.Constants;
-import com.dianping.pigeon.remoting.common.util.InvocationUtils;
 import com.dianping.pigeon.remoting.invoker.Client;
 import com.dianping.pigeon.remoting.invoker.ClientManager;
-import com.dianping.pigeon.remoting.invoker.concurrent.FutureFactory;
+import com.dianping.pigeon.remoting.invoker.concurrent.Callback;
+import com.dianping.pigeon.remoting.invoker.concurrent.FirstResponseFuture;
 import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
 import com.dianping.pigeon.remoting.invoker.domain.DefaultInvokerContext;
 import com.dianping.pigeon.remoting.invoker.domain.InvokerContext;
+import com.dianping.pigeon.remoting.invoker.process.filter.RemoteCallInvokeFilter;
 import com.dianping.pigeon.remoting.invoker.util.InvokerUtils;
-import com.dianping.pigeon.remoting.invoker.util.InvokerUtils.FutureResponse;
-import com.dianping.pigeon.threadpool.NamedThreadFactory;
+import com.dianping.pigeon.util.ContextUtils;
 
+/**
+ * sends a sync call to several providers from the caller thread, each request
+ * with its own callback, and returns the first response. the requests still in
+ * flight are cancelled once it arrives. other call types are sent once.
+ */
 public class ForkingCluster implements Cluster {
 
-	private ClientManager clientManager = ClientManager.getInstance();
 	private static final Logger logger = LoggerLoader.getLogger(ForkingCluster.class);
-	private final ExecutorService executor = Executors
-			.newCachedThreadPool(new NamedThreadFactory("Pigeon-Client-Fork-Processor", true));
 	private static final String KEY_FORKING_SIZE = "pigeon.invoker.forking.size";
 	private Random r = new Random();
 
@@ -56,51 +55,93 @@ public class ForkingCluster implements Cluster {
 		return randomClients;
 	}
 
+	/**
+	 * @return the clients the call is sent to
+	 */
+	protected List<Client> selectClients(InvokerConfig<?> invokerConfig, InvocationRequest request) {
+		return randomList(ClientManager.getInstance().getAvailableClients(invokerConfig, request));
+	}
+
 	@Override
 	public InvocationResponse invoke(final ServiceInvocationHandler handler, final InvokerContext invocationContext)
 			throws Throwable {
 		final InvokerConfig<?> invokerConfig = invocationContext.getInvokerConfig();
 		InvocationRequest request = InvokerUtils.createRemoteCallRequest(invocationContext, invokerConfig);
-		final List<Client> clients = clientManager.getAvailableClients(invokerConfig, request);
-		final AtomicInteger count = new AtomicInteger();
-		final BlockingQueue<Object> ref = new LinkedBlockingQueue<Object>();
+		final List<Client> selectedClients = selectClients(invokerConfig, request);
+		String callType = invokerConfig.getCallType(invocationContext.getMethodName());
+		if (!Constants.CALL_SYNC.equalsIgnoreCase(callType) || !(invocationContext instanceof DefaultInvokerContext)) {
+			invocationContext.setClient(selectedClients.get(0));
+			return handler.handle(invocationContext);
+		}
+		// cleared once a request is sent
+		Map<String, Serializable> requestContext = ContextUtils.getRequestContext();
+		if (requestContext != null) {
+			requestContext = new HashMap<String, Serializable>(requestContext);
+		}
 
-		final List<Client> selectedClients = randomList(clients);
-		for (final Client client : selectedClients) {
-			executor.execute(new Runnable() {
-				public void run() {
-					InvokerContext ctxt = new DefaultInvokerContext(invokerConfig, invocationContext.getMethodName(),
+		FirstResponseFuture future = new FirstResponseFuture(selectedClients.size());
+		// all registered before sending, so that a failure completes the call only after all of them failed
+		Callback[] callbacks = new Callback[selectedClients.size()];
+		for (int i = 0; i < callbacks.length; i++) {
+			callbacks[i] = future.newCallback();
+		}
+		DefaultInvokerContext firstContext = null;
+		Throwable lastError = null;
+		try {
+			for (int i = 0; i < selectedClients.size() && !future.isDone(); i++) {
+				Client client = selectedClients.get(i);
+				DefaultInvokerContext ctxt = (DefaultInvokerContext) invocationContext;
+				if (i > 0) {
+					ctxt = new DefaultInvokerContext(invokerConfig, invocationContext.getMethodName(),
 							invocationContext.getParameterTypes(), invocationContext.getArguments());
-					ctxt.setClient(client);
-					ctxt.setRequest(null);
-					ctxt.setRequest(InvokerUtils.createRemoteCallRequest(ctxt, invokerConfig));
-					try {
-						InvocationResponse resp = handler.handle(ctxt);
-						ref.offer(resp);
-					} catch (Throwable e) {
-						int value = count.incrementAndGet();
-						if (value >= selectedClients.size()) {
-							ref.offer(e);
+					InvocationRequest forkRequest = InvokerUtils.createRemoteCallRequest(ctxt, invokerConfig);
+					// the timeout of InvokerHelper is taken by the first request
+					forkRequest.setTimeout(request.getTimeout());
+					ctxt.setRequest(forkRequest);
+					if (requestContext != null) {
+						for (Map.Entry<String, Serializable> entry : requestContext.entrySet()) {
+							ContextUtils.putRequestContext(entry.getKey(), entry.getValue());
 						}
 					}
 				}
-			});
-		}
-		Object ret = null;
-		if (request.getTimeout() > 0) {
-			ret = ref.poll(request.getTimeout(), TimeUnit.MILLISECONDS);
-		} else {
-			ret = ref.take();
-		}
-		if (ret instanceof Throwable) {
-			throw (Throwable) ret;
-		} else if ((ret instanceof FutureResponse)
-				&& Constants.CALL_FUTURE.equalsIgnoreCase(invokerConfig.getCallType())) {
-			FutureFactory.setFuture(((FutureResponse) ret).getServiceFuture());
-		} else if (ret == null) {
-			throw InvocationUtils.newTimeoutException("timeout while waiting forking response:" + request);
+				ctxt.setClient(client);
+				Callback callback = callbacks[i];
+				ctxt.setCallback(callback);
+				try {
+					InvocationResponse response = handler.handle(ctxt);
+					if (response != RemoteCallInvokeFilter.NO_RETURN_RESPONSE) {
+						// not sent, e.g. cancelled or degraded
+						if (i == 0) {
+							return response;
+						}
+						callback.callback(response);
+						callback.run();
+					}
+					if (firstContext == null) {
+						firstContext = ctxt;
+					}
+				} catch (Throwable e) {
+					lastError = e;
+					logger.warn("failed to send forking request to " + client.getAddress() + ": " + e.getMessage());
+					callback.callback(InvokerUtils.createThrowableResponse(e));
+					callback.run();
+				} finally {
+					ctxt.setCallback(null);
+				}
+			}
+			if (firstContext == null) {
+				throw lastError;
+			}
+			InvocationRequest firstRequest = firstContext.getRequest();
+			future.setRequest(firstRequest);
+			future.setClient(firstContext.getClient());
+			long timeout = firstRequest.getTimeout();
+			InvocationResponse response = future.getResponse(timeout > 0 ? timeout : Long.MAX_VALUE);
+			((DefaultInvokerContext) invocationContext).setResponse(response);
+			return response;
+		} finally {
+			future.cancelOthers();
 		}
-		return (InvocationResponse) ret;
 	}
 
 	@Override
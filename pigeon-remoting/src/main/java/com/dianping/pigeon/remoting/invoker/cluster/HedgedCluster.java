@@ -0,0 +1,278 @@
+package com.dianping.pigeon.remoting.invoker.cluster;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dianping.pigeon.config.ConfigChangeListener;
+import com.dianping.pigeon.config.ConfigManager;
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.log.Logger;
+import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.ClientManager;
+import com.dianping.pigeon.remoting.invoker.concurrent.Callback;
+import com.dianping.pigeon.remoting.invoker.concurrent.FirstResponseFuture;
+import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
+import com.dianping.pigeon.remoting.invoker.domain.DefaultInvokerContext;
+import com.dianping.pigeon.remoting.invoker.domain.InvokerContext;
+import com.dianping.pigeon.remoting.invoker.exception.ServiceUnavailableException;
+import com.dianping.pigeon.remoting.invoker.process.filter.RemoteCallInvokeFilter;
+import com.dianping.pigeon.remoting.invoker.process.statistics.InvokerLatencyBucket;
+import com.dianping.pigeon.remoting.invoker.util.InvokerUtils;
+import com.dianping.pigeon.util.ContextUtils;
+
+/**
+ * sends a call to one provider and, if no response arrives within the hedge
+ * delay, a single backup request to another one, the first response wins and
+ * the other request is cancelled. the delay is pigeon.invoker.hedged.delay in
+ * milliseconds, or the observed p95 of the method when not configured. backup
+ * requests are limited to pigeon.invoker.hedged.budget of the calls. only sync
+ * calls are hedged, other call types are sent once.
+ */
+public class HedgedCluster implements Cluster {
+
+	private static final Logger logger = LoggerLoader.getLogger(HedgedCluster.class);
+	private static final ConfigManager configManager = ConfigManagerLoader.getConfigManager();
+	private static final String KEY_HEDGED_DELAY = "pigeon.invoker.hedged.delay";
+	private static final String KEY_HEDGED_BUDGET = "pigeon.invoker.hedged.budget";
+	// samples of a method before its p95 is used as the delay
+	private static final int minSamples = configManager.getIntValue("pigeon.invoker.hedged.minsamples", 100);
+	// the budget is counted in thousandths of a backup request
+	private static final long BUDGET_UNIT = 1000;
+	private static final long maxBudget = configManager.getIntValue("pigeon.invoker.hedged.budget.max", 100)
+			* BUDGET_UNIT;
+
+	private static final ConcurrentHashMap<String, InvokerLatencyBucket> latencyBuckets = new ConcurrentHashMap<String, InvokerLatencyBucket>();
+	private static final AtomicLong budget = new AtomicLong();
+	private static final AtomicLong calls = new AtomicLong();
+	private static final AtomicLong hedges = new AtomicLong();
+	private static final AtomicLong backupWins = new AtomicLong();
+	private static final AtomicLong budgetDenied = new AtomicLong();
+	private static volatile long hedgeDelay;
+	private static volatile long budgetDeposit;
+
+	static {
+		hedgeDelay = configManager.getIntValue(KEY_HEDGED_DELAY, 0);
+		budgetDeposit = (long) (configManager.getFloatValue(KEY_HEDGED_BUDGET, 0.05f) * BUDGET_UNIT);
+		configManager.registerConfigChangeListener(new InnerConfigChangeListener());
+	}
+
+	@Override
+	public InvocationResponse invoke(final ServiceInvocationHandler handler, final InvokerContext invocationContext)
+			throws Throwable {
+		InvokerConfig<?> invokerConfig = invocationContext.getInvokerConfig();
+		InvocationRequest request = InvokerUtils.createRemoteCallRequest(invocationContext, invokerConfig);
+		Client primaryClient = selectClient(invokerConfig, request, null);
+		invocationContext.setClient(primaryClient);
+		String callType = invokerConfig.getCallType(invocationContext.getMethodName());
+		if (!Constants.CALL_SYNC.equalsIgnoreCase(callType) || !(invocationContext instanceof DefaultInvokerContext)) {
+			return handler.handle(invocationContext);
+		}
+		calls.incrementAndGet();
+		depositBudget();
+		// cleared once the primary request is sent
+		Map<String, Serializable> requestContext = ContextUtils.getRequestContext();
+		if (requestContext != null) {
+			requestContext = new HashMap<String, Serializable>(requestContext);
+		}
+
+		DefaultInvokerContext primaryContext = (DefaultInvokerContext) invocationContext;
+		FirstResponseFuture future = new FirstResponseFuture(2);
+		long start = System.currentTimeMillis();
+		primaryContext.setCallback(future.newCallback());
+		try {
+			InvocationResponse response = handler.handle(primaryContext);
+			if (response != RemoteCallInvokeFilter.NO_RETURN_RESPONSE) {
+				// not sent, e.g. cancelled or degraded
+				return response;
+			}
+		} finally {
+			primaryContext.setCallback(null);
+		}
+		InvocationRequest primaryRequest = primaryContext.getRequest();
+		future.setRequest(primaryRequest);
+		future.setClient(primaryClient);
+
+		InvokerLatencyBucket latencyBucket = getLatencyBucket(invokerConfig.getUrl() + "#"
+				+ invocationContext.getMethodName());
+		long timeout = primaryRequest.getTimeout();
+		long delay = getHedgeDelay(latencyBucket);
+		try {
+			boolean hedged = false;
+			if (delay > 0 && (timeout <= 0 || delay < timeout) && !future.await(delay)) {
+				hedged = hedge(handler, primaryContext, primaryClient, requestContext, future);
+			}
+			InvocationResponse response = future.getResponse(timeout > 0 ? timeout : Long.MAX_VALUE);
+			// only the latency of calls answered by their first request, a hedged call would cut the tail
+			// the delay is taken from
+			if (!hedged && response.getMessageType() != Constants.MESSAGE_TYPE_EXCEPTION) {
+				latencyBucket.record(System.currentTimeMillis() - start);
+			}
+			if (future.getWinnerIndex() > 0) {
+				backupWins.incrementAndGet();
+			}
+			primaryContext.setResponse(response);
+			return response;
+		} finally {
+			future.cancelOthers();
+		}
+	}
+
+	/**
+	 * @return whether a backup request was sent
+	 */
+	private boolean hedge(ServiceInvocationHandler handler, DefaultInvokerContext primaryContext,
+			Client primaryClient, Map<String, Serializable> requestContext, FirstResponseFuture future) {
+		if (!acquireBudget()) {
+			budgetDenied.incrementAndGet();
+			return false;
+		}
+		InvokerConfig<?> invokerConfig = primaryContext.getInvokerConfig();
+		Client backupClient = null;
+		try {
+			backupClient = selectClient(invokerConfig, primaryContext.getRequest(),
+					Collections.singletonList(primaryClient));
+		} catch (ServiceUnavailableException e) {
+			// the only provider
+		}
+		if (backupClient == null || backupClient.getAddress().equals(primaryClient.getAddress()) || future.isDone()) {
+			budget.addAndGet(BUDGET_UNIT);
+			return false;
+		}
+		DefaultInvokerContext backupContext = new DefaultInvokerContext(invokerConfig,
+				primaryContext.getMethodName(), primaryContext.getParameterTypes(), primaryContext.getArguments());
+		backupContext.setClient(backupClient);
+		InvocationRequest backupRequest = InvokerUtils.createRemoteCallRequest(backupContext, invokerConfig);
+		// the timeout of InvokerHelper is taken by the primary request
+		backupRequest.setTimeout(primaryContext.getRequest().getTimeout());
+		backupContext.setRequest(backupRequest);
+		Callback callback = future.newCallback();
+		backupContext.setCallback(callback);
+		if (requestContext != null) {
+			for (Map.Entry<String, Serializable> entry : requestContext.entrySet()) {
+				ContextUtils.putRequestContext(entry.getKey(), entry.getValue());
+			}
+		}
+		hedges.incrementAndGet();
+		try {
+			InvocationResponse response = handler.handle(backupContext);
+			if (response != RemoteCallInvokeFilter.NO_RETURN_RESPONSE) {
+				callback.callback(response);
+				callback.run();
+			}
+		} catch (Throwable e) {
+			logger.warn("failed to send backup request to " + backupClient.getAddress() + ": " + e.getMessage());
+			// counted as a failed response, so that the primary one still completes the call
+			callback.callback(InvokerUtils.createThrowableResponse(e));
+			callback.run();
+		}
+		return true;
+	}
+
+	protected Client selectClient(InvokerConfig<?> invokerConfig, InvocationRequest request,
+			List<Client> excludeClients) {
+		return ClientManager.getInstance().getClient(invokerConfig, request, excludeClients);
+	}
+
+	private static InvokerLatencyBucket getLatencyBucket(String methodKey) {
+		InvokerLatencyBucket bucket = latencyBuckets.get(methodKey);
+		if (bucket == null) {
+			InvokerLatencyBucket newBucket = new InvokerLatencyBucket(0.95);
+			bucket = latencyBuckets.putIfAbsent(methodKey, newBucket);
+			if (bucket == null) {
+				bucket = newBucket;
+			}
+		}
+		return bucket;
+	}
+
+	private static long getHedgeDelay(InvokerLatencyBucket latencyBucket) {
+		long delay = hedgeDelay;
+		if (delay > 0) {
+			return delay;
+		}
+		return latencyBucket.getSamples() >= minSamples ? latencyBucket.getPercentileMillis() : 0;
+	}
+
+	private static void depositBudget() {
+		long deposit = budgetDeposit;
+		while (true) {
+			long current = budget.get();
+			long next = Math.min(maxBudget, current + deposit);
+			if (next == current || budget.compareAndSet(current, next)) {
+				return;
+			}
+		}
+	}
+
+	private static boolean acquireBudget() {
+		while (true) {
+			long current = budget.get();
+			if (current < BUDGET_UNIT) {
+				return false;
+			}
+			if (budget.compareAndSet(current, current - BUDGET_UNIT)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return hedge counters and the delay of each method
+	 */
+	public static Map<String, String> getStatistics() {
+		Map<String, String> stats = new LinkedHashMap<String, String>();
+		long hedgeCount = hedges.get();
+		long winCount = backupWins.get();
+		stats.put("total", "calls:" + calls.get() + ",hedges:" + hedgeCount + ",backupWins:" + winCount
+				+ ",winRate:" + (hedgeCount > 0 ? winCount * 100 / hedgeCount : 0) + "%,budgetDenied:"
+				+ budgetDenied.get() + ",budget:" + budget.get() / BUDGET_UNIT);
+		for (Map.Entry<String, InvokerLatencyBucket> entry : latencyBuckets.entrySet()) {
+			stats.put(entry.getKey(), entry.getValue().toString());
+		}
+		return stats;
+	}
+
+	@Override
+	public String getName() {
+		return Constants.CLUSTER_HEDGED;
+	}
+
+	private static class InnerConfigChangeListener implements ConfigChangeListener {
+
+		@Override
+		public void onKeyUpdated(String key, String value) {
+			try {
+				if (key.endsWith(KEY_HEDGED_DELAY)) {
+					hedgeDelay = Integer.parseInt(value);
+				} else if (key.endsWith(KEY_HEDGED_BUDGET)) {
+					budgetDeposit = (long) (Float.parseFloat(value) * BUDGET_UNIT);
+				}
+			} catch (RuntimeException e) {
+				logger.error("invalid value for " + key + ":" + value, e);
+			}
+		}
+
+		@Override
+		public void onKeyAdded(String key, String value) {
+			onKeyUpdated(key, value);
+		}
+
+		@Override
+		public void onKeyRemoved(String key) {
+
+		}
+
+	}
+
+}
@@ -3,9 +3,8 @@ package com.dianping.pigeon.remoting.invoker.concurrent;
 import java.io.Serializable;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 import com.dianping.avatar.tracker.TrackerContext;
 import com.dianping.pigeon.log.Logger;
@@ -31,16 +30,24 @@ public class CallbackFuture implements Callback, CallFuture {
     private static final Logger logger = LoggerLoader.getLogger(CallbackFuture.class);
     protected static final Monitor monitor = MonitorLoader.getMonitor();
 
+    private static final WaitNode COMPLETED = new WaitNode(null);
+
+    private static final AtomicReferenceFieldUpdater<CallbackFuture, WaitNode> WAITERS_UPDATER = AtomicReferenceFieldUpdater
+            .newUpdater(CallbackFuture.class, WaitNode.class, "waiters");
+
     protected InvocationResponse response;
-    private boolean done = false;
+    private volatile boolean done = false;
     private boolean cancelled = false;
     private boolean success = false;
     protected InvocationRequest request;
     protected Client client;
     protected MonitorTransaction transaction;
 
-    private final Lock lock = new ReentrantLock();
-    private final Condition condition = lock.newCondition();
+    /**
+     * treiber stack of parked waiters, swapped to COMPLETED once the response
+     * is set so that no waiter can be pushed after the wakeup
+     */
+    private volatile WaitNode waiters;
 
     public CallbackFuture() {
         transaction = monitor.getCurrentCallTransaction();
@@ -53,17 +60,18 @@ public class CallbackFuture implements Callback, CallFuture {
 
     @Override
     public void run() {
-        lock.lock();
-        try {
-            this.done = true;
-            if (this.response.getMessageType() == Constants.MESSAGE_TYPE_SERVICE) {
-                this.success = true;
-            }
-            if (condition != null) {
-                condition.signal();
+        if (this.response.getMessageType() == Constants.MESSAGE_TYPE_SERVICE) {
+            this.success = true;
+        }
+        this.done = true;
+        WaitNode node = WAITERS_UPDATER.getAndSet(this, COMPLETED);
+        while (node != null && node != COMPLETED) {
+            Thread thread = node.thread;
+            if (thread != null) {
+                node.thread = null;
+                LockSupport.unpark(thread);
             }
-        } finally {
-            lock.unlock();
+            node = node.next;
         }
     }
 
@@ -80,23 +88,9 @@ public class CallbackFuture implements Callback, CallFuture {
             return response;
         }
 
-        lock.lock();
-        try {
+        if (!isDone()) {
             long start = request.getCreateMillisTime();
-            long timeoutLeft = timeoutMillis;
-
-            while (!isDone()) {
-                condition.await(timeoutLeft, TimeUnit.MILLISECONDS);
-                long timeoutPassed = System.currentTimeMillis() - start;
-
-                if (isDone() || timeoutPassed >= timeoutMillis) {
-                    break;
-                } else {
-                    timeoutLeft = timeoutMillis - timeoutPassed;
-                }
-            }
-        } finally {
-            lock.unlock();
+            awaitDone(start > 0 ? start : System.currentTimeMillis(), timeoutMillis);
         }
 
         if (!isDone()) {
@@ -108,6 +102,50 @@ public class CallbackFuture implements Callback, CallFuture {
         return this.response;
     }
 
+    /**
+     * waits for the response without failing on timeout
+     *
+     * @return true if the response arrived
+     */
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        if (!isDone()) {
+            awaitDone(System.currentTimeMillis(), timeoutMillis);
+        }
+        return isDone();
+    }
+
+    private void awaitDone(long start, long timeoutMillis) throws InterruptedException {
+        WaitNode node = null;
+        boolean queued = false;
+        while (!isDone()) {
+            if (Thread.interrupted()) {
+                if (node != null) {
+                    node.thread = null;
+                }
+                throw new InterruptedException();
+            }
+            long timeoutLeft = timeoutMillis - (System.currentTimeMillis() - start);
+            if (timeoutLeft <= 0) {
+                if (node != null) {
+                    node.thread = null;
+                }
+                return;
+            }
+            if (node == null) {
+                node = new WaitNode(Thread.currentThread());
+            } else if (!queued) {
+                WaitNode head = waiters;
+                if (head == COMPLETED) {
+                    return;
+                }
+                node.next = head;
+                queued = WAITERS_UPDATER.compareAndSet(this, head, node);
+            } else {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(timeoutLeft));
+            }
+        }
+    }
+
     @Override
     public InvocationResponse getResponse() throws InterruptedException {
         return getResponse(Long.MAX_VALUE);
@@ -233,4 +271,14 @@ public class CallbackFuture implements Callback, CallFuture {
         }
     }
 
-}
\ No newline at end of file
+    static final class WaitNode {
+
+        volatile Thread thread;
+        volatile WaitNode next;
+
+        WaitNode(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+}
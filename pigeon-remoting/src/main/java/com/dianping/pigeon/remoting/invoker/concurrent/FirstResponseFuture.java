@@ -0,0 +1,131 @@
+package com.dianping.pigeon.remoting.invoker.concurrent;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.service.ServiceInvocationRepository;
+
+/**
+ * future of a call sent to several providers, one callback per request. the
+ * first response completes it, a failure only if no other request is in
+ * flight. the requests still in flight are removed from the invocation
+ * repository on completion.
+ */
+public class FirstResponseFuture extends CallbackFuture {
+
+	private static final AtomicIntegerFieldUpdater<FirstResponseFuture> COMPLETED_UPDATER = AtomicIntegerFieldUpdater
+			.newUpdater(FirstResponseFuture.class, "completed");
+
+	private final AtomicReferenceArray<ForkCallback> forks;
+
+	private final AtomicInteger forkCount = new AtomicInteger();
+
+	private final AtomicInteger pending = new AtomicInteger();
+
+	private volatile int completed;
+
+	private volatile int winnerIndex = -1;
+
+	public FirstResponseFuture(int maxForks) {
+		this.forks = new AtomicReferenceArray<ForkCallback>(maxForks);
+	}
+
+	/**
+	 * @return the callback to send the next request with
+	 */
+	public Callback newCallback() {
+		int index = forkCount.getAndIncrement();
+		if (index >= forks.length()) {
+			throw new IllegalStateException("more than " + forks.length() + " requests of a call");
+		}
+		ForkCallback fork = new ForkCallback(index);
+		pending.incrementAndGet();
+		forks.set(index, fork);
+		return fork;
+	}
+
+	/**
+	 * @return index of the callback whose response completed the call, -1 if
+	 *         not completed
+	 */
+	public int getWinnerIndex() {
+		return winnerIndex;
+	}
+
+	private void complete(ForkCallback fork) {
+		InvocationResponse response = fork.response;
+		boolean failed = response.getMessageType() == Constants.MESSAGE_TYPE_EXCEPTION;
+		if (pending.decrementAndGet() > 0 && failed) {
+			return;
+		}
+		if (COMPLETED_UPDATER.compareAndSet(this, 0, 1)) {
+			this.request = fork.request;
+			this.client = fork.client;
+			this.winnerIndex = fork.index;
+			callback(response);
+			run();
+			cancelOthers();
+		}
+	}
+
+	/**
+	 * removes the requests other than the completing one from the invocation
+	 * repository, also called by the cluster when it stops waiting
+	 */
+	public void cancelOthers() {
+		int count = Math.min(forkCount.get(), forks.length());
+		for (int i = 0; i < count; i++) {
+			ForkCallback fork = forks.get(i);
+			if (fork != null && fork.index != winnerIndex && fork.request != null) {
+				ServiceInvocationRepository.getInstance().cancel(fork.request.getSequence());
+			}
+		}
+	}
+
+	private class ForkCallback implements Callback {
+
+		private final int index;
+		private volatile InvocationRequest request;
+		private volatile Client client;
+		private volatile InvocationResponse response;
+
+		ForkCallback(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public void callback(InvocationResponse response) {
+			this.response = response;
+		}
+
+		@Override
+		public void run() {
+			complete(this);
+		}
+
+		@Override
+		public void setRequest(InvocationRequest request) {
+			this.request = request;
+		}
+
+		@Override
+		public void setClient(Client client) {
+			this.client = client;
+		}
+
+		@Override
+		public Client getClient() {
+			return client;
+		}
+
+		@Override
+		public void dispose() {
+
+		}
+	}
+}
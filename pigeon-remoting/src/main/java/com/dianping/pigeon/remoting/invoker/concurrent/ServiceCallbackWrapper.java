@@ -13,7 +13,6 @@ import com.dianping.pigeon.monitor.Monitor;
 import com.dianping.pigeon.monitor.MonitorLoader;
 import com.dianping.pigeon.monitor.MonitorTransaction;
 import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePhase;
-import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePoint;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.domain.generic.UnifiedResponse;
@@ -77,8 +76,8 @@ public class ServiceCallbackWrapper implements Callback {
 					if (respSize != null) {
 						monitor.logEvent("PigeonCall.responseSize", respSize, "" + response.getSize());
 					}
-					invocationContext.getTimeline().add(new TimePoint(TimePhase.R, response.getCreateMillisTime()));
-					invocationContext.getTimeline().add(new TimePoint(TimePhase.R, currentTime));
+					invocationContext.addTimePoint(TimePhase.R, response.getCreateMillisTime());
+					invocationContext.addTimePoint(TimePhase.R, currentTime);
 				}
 			}
 			if (request.getTimeout() > 0 && request.getCreateMillisTime() > 0
@@ -136,7 +135,7 @@ public class ServiceCallbackWrapper implements Callback {
 
 	private void completeTransaction(MonitorTransaction transaction) {
 		if (transaction != null) {
-			invocationContext.getTimeline().add(new TimePoint(TimePhase.E, System.currentTimeMillis()));
+			invocationContext.addTimePoint(TimePhase.E);
 			try {
 				transaction.complete();
 			} catch (Throwable e) {
@@ -13,7 +13,6 @@ import com.dianping.pigeon.log.Logger;
 import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.monitor.MonitorTransaction;
 import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePhase;
-import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePoint;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.exception.ApplicationException;
 import com.dianping.pigeon.remoting.common.exception.BadResponseException;
@@ -65,7 +64,7 @@ public class ServiceFutureImpl extends CallbackFuture implements Future {
             transaction.addData("Serialize", request == null ? invocationContext.getInvokerConfig().getSerialize() :
                     request.getSerialize());
             transaction.addData("FutureTimeout", timeoutMillis);
-            invocationContext.getTimeline().add(new TimePoint(TimePhase.F, System.currentTimeMillis()));
+            invocationContext.addTimePoint(TimePhase.F);
         }
         try {
             try {
@@ -75,8 +74,8 @@ public class ServiceFutureImpl extends CallbackFuture implements Future {
                     if (size != null) {
                         transaction.logEvent("PigeonCall.responseSize", size, "" + response.getSize());
                     }
-                    invocationContext.getTimeline().add(new TimePoint(TimePhase.R, response.getCreateMillisTime()));
-                    invocationContext.getTimeline().add(new TimePoint(TimePhase.F, System.currentTimeMillis()));
+                    invocationContext.addTimePoint(TimePhase.R, response.getCreateMillisTime());
+                    invocationContext.addTimePoint(TimePhase.F);
                 }
             } catch (RuntimeException e) {
                 DegradationManager.INSTANCE.addFailedRequest(invocationContext, e);
@@ -109,7 +108,7 @@ public class ServiceFutureImpl extends CallbackFuture implements Future {
             throw e;
         } finally {
             if (transaction != null) {
-                invocationContext.getTimeline().add(new TimePoint(TimePhase.E, System.currentTimeMillis()));
+                invocationContext.addTimePoint(TimePhase.E);
                 try {
                     transaction.complete();
                 } catch (RuntimeException e) {
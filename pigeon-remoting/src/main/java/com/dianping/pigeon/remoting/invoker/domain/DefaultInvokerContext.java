@@ -9,6 +9,7 @@ import org.apache.commons.lang.builder.ToStringStyle;
 
 import com.dianping.pigeon.remoting.common.domain.AbstractInvocationContext;
 import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.concurrent.Callback;
 import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
 
 public class DefaultInvokerContext extends AbstractInvocationContext implements InvokerContext {
@@ -19,6 +20,7 @@ public class DefaultInvokerContext extends AbstractInvocationContext implements
 	private Object[] arguments;
 	private Client client;
 	private boolean isDegraded = false;
+	private Callback callback;
 
 	public DefaultInvokerContext(InvokerConfig<?> invokerConfig, String methodName, Class<?>[] parameterTypes,
 			Object[] arguments) {
@@ -27,7 +29,7 @@ public class DefaultInvokerContext extends AbstractInvocationContext implements
 		this.methodName = methodName;
 		this.parameterTypes = parameterTypes;
 		this.arguments = arguments;
-		getTimeline().add(new TimePoint(TimePhase.S, System.currentTimeMillis()));
+		addTimePoint(TimePhase.S);
 	}
 
 	public InvokerConfig<?> getInvokerConfig() {
@@ -68,6 +70,18 @@ public class DefaultInvokerContext extends AbstractInvocationContext implements
 		this.client = client;
 	}
 
+	public Callback getCallback() {
+		return callback;
+	}
+
+	/**
+	 * sends the request of a sync call with the callback instead of waiting
+	 * for its response, for clusters sending a call to several providers
+	 */
+	public void setCallback(Callback callback) {
+		this.callback = callback;
+	}
+
 	@Override
 	public String toString() {
 		return ReflectionToStringBuilder.toString(this, ToStringStyle.SHORT_PREFIX_STYLE);
@@ -13,6 +13,7 @@ import com.dianping.pigeon.remoting.invoker.ClientSelector;
 import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
 import com.dianping.pigeon.remoting.invoker.domain.ConnectInfo;
 import com.dianping.pigeon.remoting.invoker.exception.ServiceUnavailableException;
+import com.dianping.pigeon.remoting.invoker.route.RouteSnapshot;
 import com.dianping.pigeon.remoting.invoker.route.quality.RequestQualityManager;
 import com.dianping.pigeon.threadpool.DefaultThreadFactory;
 import com.dianping.pigeon.util.CollectionUtils;
@@ -59,6 +60,7 @@ public class DefaultClusterListener implements ClusterListener {
     public void clear() {
         serviceClients = new ConcurrentHashMap<String, List<Client>>();
         allClients = new ConcurrentHashMap<String, Client>();
+        RouteSnapshot.invalidateAll();
     }
 
     public ConcurrentHashMap<String, List<Client>> getServiceClients() {
@@ -132,6 +134,7 @@ public class DefaultClusterListener implements ClusterListener {
                     clientList.add(client);
                 }
             }
+            RouteSnapshot.invalidateAll();
 //			} else {
 //				logger.info("[cluster-listener] remove client:" + client);
 //				clusterListenerManager.removeConnect(client);
@@ -166,6 +169,7 @@ public class DefaultClusterListener implements ClusterListener {
                 clientList.remove(client);
             }
         }
+        RouteSnapshot.invalidateAll();
     }
 
     @Override
@@ -186,6 +190,7 @@ public class DefaultClusterListener implements ClusterListener {
             }
         }
         serviceClients.put(serviceName, newCS);
+        RouteSnapshot.invalidateAll();
 
         // 一个client可能对应多个serviceName，仅当client不被任何serviceName使用时才关闭
         if (clientFound != null) {
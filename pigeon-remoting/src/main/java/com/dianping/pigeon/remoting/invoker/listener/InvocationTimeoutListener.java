@@ -4,8 +4,6 @@
  */
 package com.dianping.pigeon.remoting.invoker.listener;
 
-import java.util.Map;
-
 import com.dianping.pigeon.log.Logger;
 
 import com.dianping.pigeon.config.ConfigManagerLoader;
@@ -14,59 +12,45 @@ import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.invoker.concurrent.Callback;
 import com.dianping.pigeon.remoting.invoker.domain.RemoteInvocationBean;
 import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
+import com.dianping.pigeon.timer.Timeout;
+import com.dianping.pigeon.timer.TimerTask;
+import com.dianping.pigeon.util.StripedLongHashMap;
 
+/**
+ * handles expired invocations, either by sweeping all in-flight invocations
+ * periodically (run) or by the per-invocation timer task scheduled on the
+ * timeout wheel (newTimerTask)
+ */
 public class InvocationTimeoutListener implements Runnable {
 
 	private static final Logger logger = LoggerLoader.getLogger(InvocationTimeoutListener.class);
-	private Map<Long, RemoteInvocationBean> invocations;
+	private StripedLongHashMap<RemoteInvocationBean> invocations;
 	private long timeoutInterval = ConfigManagerLoader.getConfigManager().getLongValue(
 			"pigeon.invoker.timeout.interval", 1000);
 
-	public InvocationTimeoutListener(Map<Long, RemoteInvocationBean> invocations) {
+	// only touched by the sweeping thread or the timer worker thread
+	private long currentSecond = 0;
+	private int timeoutCountInLastSecond = 0;
+	private int timeoutCountInCurrentSecond = 0;
+
+	public InvocationTimeoutListener(StripedLongHashMap<RemoteInvocationBean> invocations) {
 		this.invocations = invocations;
 	}
 
 	@Override
 	public void run() {
-		int timeoutCountInLastSecond = 0;
-		int timeoutCountInCurrentSecond = 0;
 		while (true) {
-			timeoutCountInLastSecond = timeoutCountInCurrentSecond;
-			timeoutCountInCurrentSecond = 0;
 			try {
 				Thread.sleep(timeoutInterval);
 				long currentTime = System.currentTimeMillis();
-				for (Long sequence : invocations.keySet()) {
+				for (long sequence : invocations.keys()) {
 					RemoteInvocationBean invocationBean = invocations.get(sequence);
 					if (invocationBean != null) {
 						InvocationRequest request = invocationBean.request;
 						if (request.getTimeout() > 0 && request.getCreateMillisTime() > 0
 								&& request.getCreateMillisTime() + request.getTimeout() < currentTime) {
-							timeoutCountInCurrentSecond++;
-							Callback callback = invocationBean.callback;
-							if (callback != null && callback.getClient() != null) {
-								ServiceStatisticsHolder.flowOut(request, callback.getClient().getAddress());
-							}
-							callback.dispose();
-							invocations.remove(sequence);
-							boolean isLog = true;
-							if (timeoutCountInLastSecond > ConfigManagerLoader.getConfigManager().getIntValue(
-									"pigeon.log.threshold", 10)
-									&& timeoutCountInCurrentSecond
-											% ConfigManagerLoader.getConfigManager().getIntValue("pigeon.log.interval",
-													10) != 1) {
-								isLog = false;
-							}
-							if (isLog) {
-								StringBuilder msg = new StringBuilder();
-								msg.append("remove timeout request, process time:").append(System.currentTimeMillis())
-										.append("\r\n").append("request:").append(request);
-								logger.warn(msg.toString());
-								// RequestTimeoutException e = new
-								// RequestTimeoutException(msg.toString());
-								// if (monitorLogger != null) {
-								// monitorLogger.logError(e);
-								// }
+							if (invocations.remove(sequence) != null) {
+								processTimeout(invocationBean);
 							}
 						}
 					}
@@ -76,4 +60,55 @@ public class InvocationTimeoutListener implements Runnable {
 			}
 		}
 	}
+
+	public TimerTask newTimerTask(long sequence) {
+		return new InvocationTimeoutTask(sequence);
+	}
+
+	private void processTimeout(RemoteInvocationBean invocationBean) {
+		long second = System.currentTimeMillis() / 1000;
+		if (second != currentSecond) {
+			timeoutCountInLastSecond = second == currentSecond + 1 ? timeoutCountInCurrentSecond : 0;
+			timeoutCountInCurrentSecond = 0;
+			currentSecond = second;
+		}
+		timeoutCountInCurrentSecond++;
+		InvocationRequest request = invocationBean.request;
+		Callback callback = invocationBean.callback;
+		if (callback != null && callback.getClient() != null) {
+			ServiceStatisticsHolder.flowOut(request, callback.getClient().getAddress());
+		}
+		if (callback != null) {
+			callback.dispose();
+		}
+		boolean isLog = true;
+		if (timeoutCountInLastSecond > ConfigManagerLoader.getConfigManager().getIntValue("pigeon.log.threshold", 10)
+				&& timeoutCountInCurrentSecond
+						% ConfigManagerLoader.getConfigManager().getIntValue("pigeon.log.interval", 10) != 1) {
+			isLog = false;
+		}
+		if (isLog) {
+			StringBuilder msg = new StringBuilder();
+			msg.append("remove timeout request, process time:").append(System.currentTimeMillis()).append("\r\n")
+					.append("request:").append(request);
+			logger.warn(msg.toString());
+		}
+	}
+
+	private class InvocationTimeoutTask implements TimerTask {
+
+		private final long sequence;
+
+		InvocationTimeoutTask(long sequence) {
+			this.sequence = sequence;
+		}
+
+		@Override
+		public void run(Timeout timeout) throws Exception {
+			RemoteInvocationBean invocationBean = invocations.remove(sequence);
+			if (invocationBean != null) {
+				processTimeout(invocationBean);
+			}
+		}
+	}
 }
@@ -7,12 +7,10 @@ package com.dianping.pigeon.remoting.invoker.process;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
-import com.dianping.pigeon.remoting.common.domain.InvocationContext;
-import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
-import com.dianping.pigeon.remoting.common.process.ServiceInvocationFilter;
+import com.dianping.pigeon.remoting.common.process.ServiceInvocationChain;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
-import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
 import com.dianping.pigeon.remoting.invoker.process.filter.ClusterInvokeFilter;
 import com.dianping.pigeon.remoting.invoker.process.filter.ContextPrepareInvokeFilter;
@@ -29,13 +27,14 @@ public final class InvokerProcessHandlerFactory {
 
 	private static ServiceInvocationHandler bizInvocationHandler = null;
 
+	// service url --> handler compiled from its own filters
+	private static ConcurrentHashMap<String, ServiceInvocationHandler> serviceInvocationHandlers = new ConcurrentHashMap<String, ServiceInvocationHandler>();
+
 	private static volatile boolean isInitialized = false;
 
 	public static void init() {
 		if (!isInitialized) {
-			if (Constants.MONITOR_ENABLE) {
-				registerBizProcessFilter(new RemoteCallMonitorInvokeFilter());
-			}
+			registerBizProcessFilter(new RemoteCallMonitorInvokeFilter());
 			registerBizProcessFilter(new DegradationFilter());
 			registerBizProcessFilter(new ClusterInvokeFilter());
 			registerBizProcessFilter(new GatewayInvokeFilter());
@@ -48,28 +47,42 @@ public final class InvokerProcessHandlerFactory {
 	}
 
 	public static ServiceInvocationHandler selectInvocationHandler(InvokerConfig<?> invokerConfig) {
+		if (!serviceInvocationHandlers.isEmpty() && invokerConfig != null && invokerConfig.getUrl() != null) {
+			ServiceInvocationHandler handler = serviceInvocationHandlers.get(invokerConfig.getUrl());
+			if (handler != null) {
+				return handler;
+			}
+		}
 		return bizInvocationHandler;
 	}
 
-	@SuppressWarnings({ "rawtypes" })
-	private static <V extends ServiceInvocationFilter> ServiceInvocationHandler createInvocationHandler(
-			List<V> internalFilters) {
-		ServiceInvocationHandler last = null;
-		List<V> filterList = new ArrayList<V>();
-		filterList.addAll(internalFilters);
-		for (int i = filterList.size() - 1; i >= 0; i--) {
-			final V filter = filterList.get(i);
-			final ServiceInvocationHandler next = last;
-			last = new ServiceInvocationHandler() {
-				@SuppressWarnings("unchecked")
-				@Override
-				public InvocationResponse handle(InvocationContext invocationContext) throws Throwable {
-					InvocationResponse resp = filter.invoke(next, invocationContext);
-					return resp;
-				}
-			};
+	private static ServiceInvocationHandler createInvocationHandler(List<InvocationInvokeFilter> filters) {
+		return ServiceInvocationChain.compile(filters);
+	}
+
+	/**
+	 * @return a copy of the default filters, to build the filters of a single
+	 *         service from
+	 */
+	public static List<InvocationInvokeFilter> getBizProcessFilters() {
+		return new ArrayList<InvocationInvokeFilter>(bizProcessFilters);
+	}
+
+	/**
+	 * calls of the service at url go through these filters instead of the
+	 * default ones
+	 */
+	public static void setServiceProcessFilters(String url, List<InvocationInvokeFilter> filters) {
+		ServiceInvocationHandler handler = createInvocationHandler(filters);
+		if (handler != null) {
+			serviceInvocationHandlers.put(url, handler);
+		} else {
+			serviceInvocationHandlers.remove(url);
 		}
-		return last;
+	}
+
+	public static void removeServiceProcessFilters(String url) {
+		serviceInvocationHandlers.remove(url);
 	}
 
 	public static void registerBizProcessFilter(InvocationInvokeFilter filter) {
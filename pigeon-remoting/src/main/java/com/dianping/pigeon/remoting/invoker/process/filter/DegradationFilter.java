@@ -13,8 +13,8 @@ import com.dianping.pigeon.monitor.MonitorLoader;
 import com.dianping.pigeon.monitor.MonitorTransaction;
 import com.dianping.pigeon.remoting.common.codec.json.JacksonSerializer;
 import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePhase;
-import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePoint;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.exception.RateLimitedException;
 import com.dianping.pigeon.remoting.common.exception.RejectedException;
 import com.dianping.pigeon.remoting.common.exception.RpcException;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
@@ -64,6 +64,8 @@ public class DegradationFilter extends InvocationInvokeFilter {
 	private static final JacksonSerializer jacksonSerializer = new JacksonSerializer();
 	// service#method --> groovyMockProxy
 	private final static ConcurrentHashMap<String, Object> groovyMocks = new ConcurrentHashMap<>();
+	// service#method --> time until which a provider rate limit asked not to call again
+	private static final ConcurrentHashMap<String, Long> rateLimitedMethods = new ConcurrentHashMap<String, Long>();
 
 	static {
 		String degradeMethodsConfig = configManager.getStringValue(KEY_DEGRADE_METHODS);
@@ -178,9 +180,9 @@ public class DegradationFilter extends InvocationInvokeFilter {
 
 	@Override
 	public InvocationResponse invoke(ServiceInvocationHandler handler, InvokerContext context) throws Throwable {
-		context.getTimeline().add(new TimePoint(TimePhase.D));
+		context.addTimePoint(TimePhase.D);
 		InvocationResponse response = null;
-		if (DegradationManager.INSTANCE.needDegrade(context)) {
+		if (DegradationManager.INSTANCE.needDegrade(context) || isRateLimited(context)) {
 			response = degradeCall(context);
 		}
 		if (response != null) {//返回三种调用模式的降级结果
@@ -198,6 +200,9 @@ public class DegradationFilter extends InvocationInvokeFilter {
 					if (rpcException instanceof RemoteInvocationException || rpcException instanceof RejectedException) {
 						failed = true;
 						DegradationManager.INSTANCE.addFailedRequest(context, rpcException);
+						if (rpcException instanceof RateLimitedException) {
+							addRateLimited(context, ((RateLimitedException) rpcException).getRetryAfterMillis());
+						}
 					}
 				}
 			}
@@ -206,6 +211,9 @@ public class DegradationFilter extends InvocationInvokeFilter {
 
 		} catch (ServiceUnavailableException | RemoteInvocationException | RequestTimeoutException | RejectedException e) {
 			failed = true;
+			if (e instanceof RateLimitedException) {
+				addRateLimited(context, ((RateLimitedException) e).getRetryAfterMillis());
+			}
 			if (DegradationManager.INSTANCE.needFailureDegrade(context)) {
 				response = degradeCall(context);
 			}
@@ -219,6 +227,41 @@ public class DegradationFilter extends InvocationInvokeFilter {
 		}
 	}
 
+	/**
+	 * whether the method is degraded for the retry after hinted by a provider
+	 * rate limit, so that calls it would reject are not sent
+	 */
+	private static boolean isRateLimited(InvokerContext context) {
+		if (rateLimitedMethods.isEmpty()) {
+			return false;
+		}
+		String key = DegradationManager.INSTANCE.getRequestUrl(context);
+		Long until = rateLimitedMethods.get(key);
+		if (until == null) {
+			return false;
+		}
+		if (until > System.currentTimeMillis()) {
+			return true;
+		}
+		rateLimitedMethods.remove(key, until);
+		return false;
+	}
+
+	/**
+	 * only methods with an enabled degrade action are held back, the others
+	 * keep calling and let the cluster pick another provider
+	 */
+	private static void addRateLimited(InvokerContext context, long retryAfter) {
+		if (retryAfter <= 0) {
+			return;
+		}
+		String key = DegradationManager.INSTANCE.getRequestUrl(context);
+		DegradeAction action = degradeMethodActions.get(key);
+		if (action != null && action.getEnable()) {
+			rateLimitedMethods.put(key, System.currentTimeMillis() + retryAfter);
+		}
+	}
+
 	public static InvocationResponse degradeCall(InvokerContext context) throws Throwable {
 		Object defaultResult = InvokerHelper.getDefaultResult();
 		String key = DegradationManager.INSTANCE.getRequestUrl(context);
@@ -9,7 +9,6 @@ import com.dianping.pigeon.log.Logger;
 import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.registry.RegistryManager;
 import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePhase;
-import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePoint;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
@@ -18,10 +17,7 @@ import com.dianping.pigeon.remoting.invoker.Client;
 import com.dianping.pigeon.remoting.invoker.concurrent.FutureFactory;
 import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
 import com.dianping.pigeon.remoting.invoker.domain.InvokerContext;
-import com.dianping.pigeon.remoting.invoker.process.statistics.InvokerStatisticsChecker;
 import com.dianping.pigeon.remoting.invoker.process.statistics.InvokerStatisticsHolder;
-import com.dianping.pigeon.threadpool.DefaultThreadPool;
-import com.dianping.pigeon.threadpool.ThreadPool;
 
 /**
  * 
@@ -30,17 +26,11 @@ import com.dianping.pigeon.threadpool.ThreadPool;
 public class GatewayInvokeFilter extends InvocationInvokeFilter {
 
 	private static final Logger logger = LoggerLoader.getLogger(GatewayInvokeFilter.class);
-	private static ThreadPool statisticsCheckerPool = new DefaultThreadPool("Pigeon-Client-Statistics-Checker");
-
-	static {
-		InvokerStatisticsChecker appStatisticsChecker = new InvokerStatisticsChecker();
-		statisticsCheckerPool.execute(appStatisticsChecker);
-	}
 
 	@Override
 	public InvocationResponse invoke(ServiceInvocationHandler handler, InvokerContext invocationContext)
 			throws Throwable {
-		invocationContext.getTimeline().add(new TimePoint(TimePhase.G));
+		invocationContext.addTimePoint(TimePhase.G);
 		InvokerConfig<?> invokerConfig = invocationContext.getInvokerConfig();
 		InvocationRequest request = invocationContext.getRequest();
 		Client client = invocationContext.getClient();
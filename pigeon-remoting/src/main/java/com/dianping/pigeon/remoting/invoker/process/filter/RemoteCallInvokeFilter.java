@@ -10,13 +10,14 @@ import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.monitor.MonitorLoader;
 import com.dianping.pigeon.monitor.MonitorTransaction;
 import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePhase;
-import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePoint;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.exception.BadRequestException;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
 import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.common.util.InvocationUtils;
 import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.concurrent.Callback;
 import com.dianping.pigeon.remoting.invoker.concurrent.CallbackFuture;
 import com.dianping.pigeon.remoting.invoker.concurrent.FutureFactory;
 import com.dianping.pigeon.remoting.invoker.concurrent.InvocationCallback;
@@ -36,12 +37,16 @@ import com.dianping.pigeon.remoting.invoker.util.InvokerUtils;
 public class RemoteCallInvokeFilter extends InvocationInvokeFilter {
 
     private static final Logger logger = LoggerLoader.getLogger(RemoteCallInvokeFilter.class);
-    private static final InvocationResponse NO_RETURN_RESPONSE = InvokerUtils.createNoReturnResponse();
+    /**
+     * returned for a request sent with the callback of a cluster, any other
+     * response did not send the request
+     */
+    public static final InvocationResponse NO_RETURN_RESPONSE = InvokerUtils.createNoReturnResponse();
 
     @Override
     public InvocationResponse invoke(ServiceInvocationHandler handler, InvokerContext invocationContext)
             throws Throwable {
-        invocationContext.getTimeline().add(new TimePoint(TimePhase.Q));
+        invocationContext.addTimePoint(TimePhase.Q);
         Client client = invocationContext.getClient();
         InvocationRequest request = invocationContext.getRequest();
         InvokerConfig<?> invokerConfig = invocationContext.getInvokerConfig();
@@ -64,10 +69,24 @@ public class RemoteCallInvokeFilter extends InvocationInvokeFilter {
         }
 
         try {
-            if (Constants.CALL_SYNC.equalsIgnoreCase(callType)) {
+            Callback clusterCallback = null;
+            if (invocationContext instanceof DefaultInvokerContext) {
+                clusterCallback = ((DefaultInvokerContext) invocationContext).getCallback();
+            }
+            if (Constants.CALL_SYNC.equalsIgnoreCase(callType) && clusterCallback != null) {
+                // the interceptors run once the request completes
+                Callback callback = new ClusterCallbackWrapper(invocationContext, clusterCallback);
+                response = InvokerUtils.sendRequest(client, invocationContext.getRequest(), callback);
+                invocationContext.addTimePoint(TimePhase.Q);
+                if (response != null) {
+                    callback.callback(response);
+                    callback.run();
+                }
+                return NO_RETURN_RESPONSE;
+            } else if (Constants.CALL_SYNC.equalsIgnoreCase(callType)) {
                 CallbackFuture future = new CallbackFuture();
                 response = InvokerUtils.sendRequest(client, invocationContext.getRequest(), future);
-                invocationContext.getTimeline().add(new TimePoint(TimePhase.Q));
+                invocationContext.addTimePoint(TimePhase.Q);
                 if (response == null) {
                     response = future.getResponse(request.getTimeout());
                 }
@@ -81,17 +100,17 @@ public class RemoteCallInvokeFilter extends InvocationInvokeFilter {
                 InvokerUtils.sendRequest(client, invocationContext.getRequest(), new ServiceCallbackWrapper(
                         invocationContext, callback));
                 response = NO_RETURN_RESPONSE;
-                invocationContext.getTimeline().add(new TimePoint(TimePhase.Q));
+                invocationContext.addTimePoint(TimePhase.Q);
             } else if (Constants.CALL_FUTURE.equalsIgnoreCase(callType)) {
                 ServiceFutureImpl future = new ServiceFutureImpl(invocationContext, request.getTimeout());
                 InvokerUtils.sendRequest(client, invocationContext.getRequest(), future);
                 FutureFactory.setFuture(future);
                 response = InvokerUtils.createFutureResponse(future);
-                invocationContext.getTimeline().add(new TimePoint(TimePhase.Q));
+                invocationContext.addTimePoint(TimePhase.Q);
             } else if (Constants.CALL_ONEWAY.equalsIgnoreCase(callType)) {
                 InvokerUtils.sendRequest(client, invocationContext.getRequest(), null);
                 response = NO_RETURN_RESPONSE;
-                invocationContext.getTimeline().add(new TimePoint(TimePhase.Q));
+                invocationContext.addTimePoint(TimePhase.Q);
             } else {
                 throw new BadRequestException("Call type[" + callType + "] is not supported!");
             }
@@ -104,4 +123,69 @@ public class RemoteCallInvokeFilter extends InvocationInvokeFilter {
         return response;
     }
 
+    /**
+     * completes a request of a cluster sending several ones, the cluster waits
+     * for them itself. a request cancelled after another one completed the
+     * call is not reported to the interceptors.
+     */
+    private class ClusterCallbackWrapper implements Callback {
+
+        private final InvokerContext invocationContext;
+        private final Callback callback;
+        private volatile InvocationResponse response;
+
+        ClusterCallbackWrapper(InvokerContext invocationContext, Callback callback) {
+            this.invocationContext = invocationContext;
+            this.callback = callback;
+        }
+
+        @Override
+        public void callback(InvocationResponse response) {
+            this.response = response;
+            callback.callback(response);
+        }
+
+        @Override
+        public void run() {
+            try {
+                ((DefaultInvokerContext) invocationContext).setResponse(response);
+                afterInvoke(invocationContext);
+            } catch (Throwable t) {
+                logger.warn("error while post invoking request:" + invocationContext.getRequest(), t);
+            } finally {
+                callback.run();
+            }
+        }
+
+        /**
+         * called when the request times out
+         */
+        @Override
+        public void dispose() {
+            try {
+                afterThrowing(invocationContext, InvocationUtils.newTimeoutException("request timeout, current time:"
+                        + System.currentTimeMillis() + "\r\nrequest:" + invocationContext.getRequest()));
+            } catch (Throwable t) {
+                logger.warn("error while post invoking request:" + invocationContext.getRequest(), t);
+            } finally {
+                callback.dispose();
+            }
+        }
+
+        @Override
+        public void setRequest(InvocationRequest request) {
+            callback.setRequest(request);
+        }
+
+        @Override
+        public void setClient(Client client) {
+            callback.setClient(client);
+        }
+
+        @Override
+        public Client getClient() {
+            return callback.getClient();
+        }
+    }
+
 }
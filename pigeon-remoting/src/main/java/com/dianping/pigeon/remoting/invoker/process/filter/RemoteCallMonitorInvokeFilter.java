@@ -13,10 +13,10 @@ import com.dianping.pigeon.monitor.MonitorLoader;
 import com.dianping.pigeon.monitor.MonitorTransaction;
 import com.dianping.pigeon.registry.RegistryManager;
 import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePhase;
-import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePoint;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.monitor.SizeMonitor;
+import com.dianping.pigeon.remoting.common.process.ConditionalFilter;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
 import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.common.util.InvocationUtils;
@@ -25,7 +25,7 @@ import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
 import com.dianping.pigeon.remoting.invoker.domain.InvokerContext;
 import com.dianping.pigeon.remoting.invoker.process.ExceptionManager;
 
-public class RemoteCallMonitorInvokeFilter extends InvocationInvokeFilter {
+public class RemoteCallMonitorInvokeFilter extends InvocationInvokeFilter implements ConditionalFilter {
 
     private static final Logger logger = LoggerLoader.getLogger(RemoteCallMonitorInvokeFilter.class);
 
@@ -34,10 +34,15 @@ public class RemoteCallMonitorInvokeFilter extends InvocationInvokeFilter {
     public RemoteCallMonitorInvokeFilter() {
     }
 
+    @Override
+    public boolean isEnabled() {
+        return Constants.MONITOR_ENABLE;
+    }
+
     @Override
     public InvocationResponse invoke(ServiceInvocationHandler handler, InvokerContext invocationContext)
             throws Throwable {
-        invocationContext.getTimeline().add(new TimePoint(TimePhase.O));
+        invocationContext.addTimePoint(TimePhase.O);
         MonitorTransaction transaction = null;
         InvocationRequest request = invocationContext.getRequest();
         String targetApp = null;
@@ -89,8 +94,8 @@ public class RemoteCallMonitorInvokeFilter extends InvocationInvokeFilter {
                     if (respSize != null) {
                         monitor.logEvent("PigeonCall.responseSize", respSize, "" + response.getSize());
                     }
-                    invocationContext.getTimeline().add(new TimePoint(TimePhase.R, response.getCreateMillisTime()));
-                    invocationContext.getTimeline().add(new TimePoint(TimePhase.R));
+                    invocationContext.addTimePoint(TimePhase.R, response.getCreateMillisTime());
+                    invocationContext.addTimePoint(TimePhase.R);
                 }
             }
             return response;
@@ -128,7 +133,7 @@ public class RemoteCallMonitorInvokeFilter extends InvocationInvokeFilter {
                             transaction.addData("CurrentSerialize", _request.getSerialize());
                         }
                     }
-                    invocationContext.getTimeline().add(new TimePoint(TimePhase.E, System.currentTimeMillis()));
+                    invocationContext.addTimePoint(TimePhase.E);
                     transaction.complete();
                 } catch (Throwable e) {
                     monitor.logMonitorError(e);
@@ -1,33 +1,33 @@
 package com.dianping.pigeon.remoting.invoker.process.statistics;
 
 import java.io.Serializable;
-import java.util.Calendar;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import com.dianping.pigeon.log.Logger;
-
 import com.dianping.pigeon.config.ConfigManagerLoader;
-import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.util.InvocationUtils;
 import com.dianping.pigeon.util.ContextUtils;
+import com.dianping.pigeon.util.SlidingWindowCounter;
 
 public class InvokerCapacityBucket implements Serializable {
 	/**
-	 * 
+	 *
 	 */
 	private static final long serialVersionUID = 1L;
 
-	private static final Logger logger = LoggerLoader.getLogger(InvokerCapacityBucket.class);
+	private static final TimeZone timeZone = TimeZone.getDefault();
 
 	private AtomicInteger requests = new AtomicInteger();
 
-	private Map<Integer, AtomicInteger> totalRequestsInSecond = new ConcurrentHashMap<Integer, AtomicInteger>();
+	private final SlidingWindowCounter totalRequestsInSecond = new SlidingWindowCounter(60, 1000);
 
-	private Map<Integer, AtomicInteger> totalRequestsInDay = new ConcurrentHashMap<Integer, AtomicInteger>();
+	private final SlidingWindowCounter totalRequestsInDay;
 
-	private Map<Integer, AtomicInteger> totalRequestsInMinute = new ConcurrentHashMap<Integer, AtomicInteger>();
+	private final SlidingWindowCounter totalRequestsInMinute;
 
 	public static final boolean enableDayStats = ConfigManagerLoader.getConfigManager().getBooleanValue(
 			"pigeon.invokerstat.day.enable", true);
@@ -44,21 +44,22 @@ public class InvokerCapacityBucket implements Serializable {
 	}
 
 	public InvokerCapacityBucket(String address) {
-		preFillData();
+		totalRequestsInMinute = enableMinuteStats ? new SlidingWindowCounter(60, 60 * 1000) : null;
+		totalRequestsInDay = enableDayStats ? new SlidingWindowCounter(2, 24 * 60 * 60 * 1000) : null;
 	}
 
 	public void flowIn(InvocationRequest request) {
-		Calendar now = Calendar.getInstance();
 		requests.incrementAndGet();
-		incrementTotalRequestsInSecond(now.get(Calendar.SECOND));
-		if (enableMinuteStats) {
-			incrementTotalRequestsInMinute(now.get(Calendar.MINUTE));
+		long now = System.currentTimeMillis();
+		totalRequestsInSecond.incrementUnit(totalRequestsInSecond.unitOf(now));
+		if (totalRequestsInMinute != null) {
+			totalRequestsInMinute.incrementUnit(totalRequestsInMinute.unitOf(now));
 		}
-		if (enableDayStats) {
-			incrementTotalRequestsInDay(now.get(Calendar.DATE));
+		if (totalRequestsInDay != null) {
+			totalRequestsInDay.incrementUnit(today(now));
 		}
 		if (enableMethodStats) {
-			String callUrl = request.getServiceName() + "#" + request.getMethodName();
+			String callUrl = InvocationUtils.getRequestMethod(request);
 			if (!requestCall.containsKey(callUrl)) {
 				String currentServiceUrl = (String) ContextUtils.getLocalContext("CurrentServiceUrl");
 				requestCall.put(callUrl, currentServiceUrl == null ? "" : currentServiceUrl);
@@ -66,6 +67,13 @@ public class InvokerCapacityBucket implements Serializable {
 		}
 	}
 
+	/**
+	 * days are counted in local time
+	 */
+	private long today(long now) {
+		return totalRequestsInDay.unitOf(now + timeZone.getOffset(now));
+	}
+
 	public void flowOut(InvocationRequest request) {
 		requests.decrementAndGet();
 	}
@@ -74,141 +82,56 @@ public class InvokerCapacityBucket implements Serializable {
 		return requests.get();
 	}
 
+	/**
+	 * a copy, by second of the minute
+	 */
 	public Map<Integer, AtomicInteger> getTotalRequestsInSecond() {
-		return totalRequestsInSecond;
+		Map<Integer, AtomicInteger> counts = new HashMap<Integer, AtomicInteger>();
+		for (int sec = 0; sec < 60; sec++) {
+			counts.put(sec, new AtomicInteger(getRequestsInSecond(sec)));
+		}
+		return counts;
 	}
 
+	/**
+	 * @param second
+	 *            of the minute, within the last 60 seconds
+	 */
 	public int getRequestsInSecond(int second) {
-		AtomicInteger counter = totalRequestsInSecond.get(second);
-		return counter != null ? counter.get() : 0;
+		if (second < 0 || second >= 60) {
+			return 0;
+		}
+		long current = totalRequestsInSecond.currentUnit();
+		return (int) totalRequestsInSecond.get(current - (current % 60 - second + 60) % 60);
 	}
-	
+
 	public int getRequestsInLastSecond() {
-		Calendar cal = Calendar.getInstance();
-		cal.add(Calendar.SECOND, -1);
-		int lastSecond = cal.get(Calendar.SECOND);
-		AtomicInteger counter = totalRequestsInSecond.get(lastSecond);
-		return counter != null ? counter.get() : 0;
+		return (int) totalRequestsInSecond.get(totalRequestsInSecond.currentUnit() - 1);
 	}
 
 	public int getRequestsInCurrentSecond() {
-		Calendar cal = Calendar.getInstance();
-		int lastSecond = cal.get(Calendar.SECOND);
-		AtomicInteger counter = totalRequestsInSecond.get(lastSecond);
-		return counter != null ? counter.get() : 0;
+		return (int) totalRequestsInSecond.get(totalRequestsInSecond.currentUnit());
 	}
 
 	public int getRequestsInLastMinute() {
-		Calendar cal = Calendar.getInstance();
-		cal.add(Calendar.MINUTE, -1);
-		int lastMinute = cal.get(Calendar.MINUTE);
-		lastMinute = lastMinute >= 0 ? lastMinute : lastMinute + 60;
-		AtomicInteger counter = totalRequestsInMinute.get(lastMinute);
-		return counter != null ? counter.get() : 0;
-	}
-
-	public int getRequestsInLastDay() {
-		Calendar cal = Calendar.getInstance();
-		cal.add(Calendar.DATE, -1);
-		int lastDay = cal.get(Calendar.DATE);
-		AtomicInteger counter = totalRequestsInDay.get(lastDay);
-		return counter != null ? counter.get() : 0;
-	}
-
-	public int getRequestsInToday() {
-		Calendar cal = Calendar.getInstance();
-		int day = cal.get(Calendar.DATE);
-		AtomicInteger counter = totalRequestsInDay.get(day);
-		return counter != null ? counter.get() : 0;
-	}
-
-	private void incrementTotalRequestsInDay(int day) {
-		AtomicInteger counter = totalRequestsInDay.get(day);
-		if (counter != null) {
-			counter.incrementAndGet();
-		} else {
-			logger.warn("Impossible case happended, day[" + day + "]'s request counter is null.");
-		}
-	}
-
-	private void incrementTotalRequestsInMinute(int minute) {
-		AtomicInteger counter = totalRequestsInMinute.get(minute);
-		if (counter != null) {
-			counter.incrementAndGet();
-		} else {
-			logger.warn("Impossible case happended, day[" + minute + "]'s request counter is null.");
+		if (totalRequestsInMinute == null) {
+			return 0;
 		}
+		return (int) totalRequestsInMinute.get(totalRequestsInMinute.currentUnit() - 1);
 	}
 
-	private void incrementTotalRequestsInSecond(int second) {
-		AtomicInteger counter = totalRequestsInSecond.get(second);
-		if (counter != null) {
-			counter.incrementAndGet();
-		} else {
-			logger.warn("Impossible case happended, second[" + second + "]'s request counter is null.");
-		}
-	}
-
-	/**
-	 * 重置过期的每秒请求数计数器
-	 */
-	public void resetRequestsInSecondCounter() {
-		int second = Calendar.getInstance().get(Calendar.SECOND);
-		int prev3Sec = second - 10;
-		for (int i = 1; i <= 30; i++) {
-			int prevSec = prev3Sec - i;
-			prevSec = prevSec >= 0 ? prevSec : prevSec + 60;
-			AtomicInteger counter = totalRequestsInSecond.get(prevSec);
-			if (counter != null) {
-				counter.set(0);
-			}
-		}
-	}
-
-	public void resetRequestsInDayCounter() {
-		if (enableDayStats) {
-			int day = Calendar.getInstance().get(Calendar.DATE);
-			int prev3Sec = day - 10;
-			for (int i = 1; i <= 15; i++) {
-				int prevSec = prev3Sec - i;
-				prevSec = prevSec >= 0 ? prevSec : prevSec + 31;
-				AtomicInteger counter = totalRequestsInDay.get(prevSec);
-				if (counter != null) {
-					counter.set(0);
-				}
-			}
-		}
-	}
-
-	public void resetRequestsInMinuteCounter() {
-		if (enableMinuteStats) {
-			int min = Calendar.getInstance().get(Calendar.MINUTE);
-			int prev3Sec = min - 10;
-			for (int i = 1; i <= 30; i++) {
-				int prevSec = prev3Sec - i;
-				prevSec = prevSec >= 0 ? prevSec : prevSec + 60;
-				AtomicInteger counter = totalRequestsInMinute.get(prevSec);
-				if (counter != null) {
-					counter.set(0);
-				}
-			}
+	public int getRequestsInLastDay() {
+		if (totalRequestsInDay == null) {
+			return 0;
 		}
+		return (int) totalRequestsInDay.get(today(System.currentTimeMillis()) - 1);
 	}
 
-	private void preFillData() {
-		for (int sec = 0; sec < 60; sec++) {
-			totalRequestsInSecond.put(sec, new AtomicInteger());
-		}
-		if (enableMinuteStats) {
-			for (int min = 0; min < 60; min++) {
-				totalRequestsInMinute.put(min, new AtomicInteger());
-			}
-		}
-		if (enableDayStats) {
-			for (int day = 1; day < 32; day++) {
-				totalRequestsInDay.put(day, new AtomicInteger());
-			}
+	public int getRequestsInToday() {
+		if (totalRequestsInDay == null) {
+			return 0;
 		}
+		return (int) totalRequestsInDay.get(today(System.currentTimeMillis()));
 	}
 
 	public String toString() {
@@ -0,0 +1,106 @@
+package com.dianping.pigeon.remoting.invoker.process.statistics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * response time distribution of a method seen by the invoker, in
+ * milliseconds from the moment the request is sent.
+ *
+ * the histogram has four buckets per power of two, at most a quarter apart.
+ * counts are halved every {@link #DECAY_INTERVAL} samples so the percentile
+ * follows recent behaviour, it is refreshed every {@link #REFRESH_INTERVAL}
+ * samples and reported as the upper bound of its bucket.
+ */
+public class InvokerLatencyBucket {
+
+	private static final int DECAY_INTERVAL = 1024;
+
+	private static final int REFRESH_INTERVAL = 32;
+
+	private static final int MAX_EXPONENT = 20;
+
+	private static final int BUCKETS = 4 + (MAX_EXPONENT - 2) * 4;
+
+	private final double percentile;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong recorded = new AtomicLong();
+
+	private volatile long samples;
+
+	private volatile long percentileMillis;
+
+	/**
+	 * @param percentile
+	 *            in (0, 1), e.g. 0.95
+	 */
+	public InvokerLatencyBucket(double percentile) {
+		this.percentile = percentile;
+	}
+
+	public void record(long millis) {
+		counts.incrementAndGet(indexOf(millis));
+		long n = recorded.incrementAndGet();
+		if (n % DECAY_INTERVAL == 0) {
+			for (int i = 0; i < BUCKETS; i++) {
+				counts.addAndGet(i, -(counts.get(i) >> 1));
+			}
+		}
+		if (n < REFRESH_INTERVAL || n % REFRESH_INTERVAL == 0) {
+			refresh();
+		}
+	}
+
+	private void refresh() {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		long rank = (long) Math.ceil(total * percentile);
+		long sum = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			sum += counts.get(i);
+			if (sum >= rank) {
+				percentileMillis = i + 1 < BUCKETS ? lowerBoundOf(i + 1) : lowerBoundOf(i);
+				break;
+			}
+		}
+		samples = total;
+	}
+
+	static int indexOf(long millis) {
+		if (millis < 4) {
+			return millis < 0 ? 0 : (int) millis;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(millis);
+		if (exponent >= MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		return 4 + (exponent - 2) * 4 + (int) ((millis >> (exponent - 2)) & 3);
+	}
+
+	static long lowerBoundOf(int index) {
+		if (index < 4) {
+			return index;
+		}
+		int exponent = (index - 4) / 4 + 2;
+		return (4L + (index - 4) % 4) << (exponent - 2);
+	}
+
+	/**
+	 * samples behind {@link #getPercentileMillis()}, decayed
+	 */
+	public long getSamples() {
+		return samples;
+	}
+
+	public long getPercentileMillis() {
+		return percentileMillis;
+	}
+
+	public String toString() {
+		return "p" + Math.round(percentile * 100) + ":" + percentileMillis + "ms,samples:" + samples;
+	}
+}
@@ -6,6 +6,8 @@ package com.dianping.pigeon.remoting.invoker.route;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.commons.lang.StringUtils;
 import com.dianping.pigeon.log.Logger;
@@ -13,6 +15,8 @@ import org.springframework.util.CollectionUtils;
 
 import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.monitor.Monitor;
+import com.dianping.pigeon.monitor.MonitorLoader;
 import com.dianping.pigeon.registry.RegistryManager;
 import com.dianping.pigeon.registry.listener.RegistryEventListener;
 import com.dianping.pigeon.registry.listener.ServiceProviderChangeEvent;
@@ -24,11 +28,15 @@ import com.dianping.pigeon.remoting.invoker.Client;
 import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
 import com.dianping.pigeon.remoting.invoker.exception.ServiceUnavailableException;
 import com.dianping.pigeon.remoting.invoker.listener.ClusterListenerManager;
+import com.dianping.pigeon.remoting.invoker.route.balance.AbstractLoadBalance;
 import com.dianping.pigeon.remoting.invoker.route.balance.LoadBalance;
 import com.dianping.pigeon.remoting.invoker.route.balance.LoadBalanceManager;
 import com.dianping.pigeon.remoting.invoker.route.balance.RandomLoadBalance;
 import com.dianping.pigeon.remoting.invoker.route.balance.WeightedAutoawareLoadBalance;
 import com.dianping.pigeon.remoting.invoker.route.quality.RequestQualityManager;
+import com.dianping.pigeon.remoting.invoker.route.region.AutoSwitchRegionPolicy;
+import com.dianping.pigeon.remoting.invoker.route.region.Region;
+import com.dianping.pigeon.remoting.invoker.route.region.RegionPolicy;
 import com.dianping.pigeon.remoting.invoker.route.region.RegionPolicyManager;
 
 public class DefaultRouteManager implements RouteManager, Disposable {
@@ -53,6 +61,26 @@ public class DefaultRouteManager implements RouteManager, Disposable {
     private static boolean isWriteBufferLimit = ConfigManagerLoader.getConfigManager().getBooleanValue(
             Constants.KEY_DEFAULT_WRITE_BUFF_LIMIT, Constants.DEFAULT_WRITE_BUFF_LIMIT);
 
+    private static boolean enableSnapshot = ConfigManagerLoader.getConfigManager().getBooleanValue(
+            "pigeon.route.snapshot.enable", true);
+
+    /**
+     * bounds how long a snapshot misses status changes that come without an
+     * event, like a channel reconnecting
+     */
+    private static long snapshotMaxAge = ConfigManagerLoader.getConfigManager().getLongValue(
+            "pigeon.route.snapshot.maxage", 1000);
+
+    private static final int CALL_TYPES = Constants.CALLTYPE_MANUAL + 1;
+
+    /**
+     * service url -> group -> snapshot by call type
+     */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, AtomicReferenceArray<RouteSnapshot>>> snapshots =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, AtomicReferenceArray<RouteSnapshot>>>();
+
+    private final Monitor monitor = MonitorLoader.getMonitor();
+
     private DefaultRouteManager() {
         RegistryEventListener.addListener(providerChangeListener);
         if (enablePreferAddresses) {
@@ -76,6 +104,17 @@ public class DefaultRouteManager implements RouteManager, Disposable {
                 }
             }
         }
+        if (enableSnapshot) {
+            RouteSnapshot snapshot = getSnapshot(clientList, invokerConfig, request);
+            if (snapshot != null) {
+                Client selectedClient = select(snapshot, invokerConfig, request);
+                if (selectedClient.isActive()) {
+                    return selectedClient;
+                }
+                // status changed without an event, route this call the slow way
+                RouteSnapshot.invalidateAll();
+            }
+        }
         List<Client> availableClients = getAvailableClients(clientList, invokerConfig, request);
         Client selectedClient = select(availableClients, invokerConfig, request);
 
@@ -151,6 +190,86 @@ public class DefaultRouteManager implements RouteManager, Disposable {
         return filteredClients;
     }
 
+    /**
+     * @return null if the route depends on the request beyond its call type
+     */
+    private RouteSnapshot getSnapshot(List<Client> clientList, InvokerConfig<?> invokerConfig,
+                                      InvocationRequest request) {
+        int callType = request.getCallType();
+        if (callType < 0 || callType >= CALL_TYPES || requestQualityManager.isEnableRequestQualityRoute()) {
+            return null;
+        }
+        AtomicReferenceArray<RouteSnapshot> callTypeSnapshots = getSnapshots(invokerConfig);
+        RouteSnapshot snapshot = callTypeSnapshots.get(callType);
+        long now = System.currentTimeMillis();
+        int version = RouteSnapshot.getCurrentVersion();
+        if (snapshot == null || !snapshot.isValid(clientList, version, now)) {
+            if (regionPolicyManager.isEnableRegionPolicy()) {
+                RegionPolicy regionPolicy = regionPolicyManager.getRegionPolicy(invokerConfig);
+                if (regionPolicy != null && !(regionPolicy instanceof AutoSwitchRegionPolicy)) {
+                    // other policies may choose a region per request
+                    return null;
+                }
+            }
+            snapshot = buildSnapshot(clientList, invokerConfig, request, version, now);
+            callTypeSnapshots.set(callType, snapshot);
+        } else if (snapshot.getRegionEvent() != null) {
+            // on a rebuild the region policy has logged it already
+            monitor.logEvent("PigeonCall.region", snapshot.getRegionEvent(), "");
+        }
+        return snapshot;
+    }
+
+    private AtomicReferenceArray<RouteSnapshot> getSnapshots(InvokerConfig<?> invokerConfig) {
+        ConcurrentHashMap<String, AtomicReferenceArray<RouteSnapshot>> groupSnapshots = snapshots.get(invokerConfig
+                .getUrl());
+        if (groupSnapshots == null) {
+            ConcurrentHashMap<String, AtomicReferenceArray<RouteSnapshot>> newGroupSnapshots =
+                    new ConcurrentHashMap<String, AtomicReferenceArray<RouteSnapshot>>();
+            groupSnapshots = snapshots.putIfAbsent(invokerConfig.getUrl(), newGroupSnapshots);
+            if (groupSnapshots == null) {
+                groupSnapshots = newGroupSnapshots;
+            }
+        }
+        String group = invokerConfig.getGroup() == null ? "" : invokerConfig.getGroup();
+        AtomicReferenceArray<RouteSnapshot> callTypeSnapshots = groupSnapshots.get(group);
+        if (callTypeSnapshots == null) {
+            AtomicReferenceArray<RouteSnapshot> newCallTypeSnapshots = new AtomicReferenceArray<RouteSnapshot>(
+                    CALL_TYPES);
+            callTypeSnapshots = groupSnapshots.putIfAbsent(group, newCallTypeSnapshots);
+            if (callTypeSnapshots == null) {
+                callTypeSnapshots = newCallTypeSnapshots;
+            }
+        }
+        return callTypeSnapshots;
+    }
+
+    private RouteSnapshot buildSnapshot(List<Client> clientList, InvokerConfig<?> invokerConfig,
+                                        InvocationRequest request, int version, long now) {
+        List<Client> availableClients = getAvailableClients(clientList, invokerConfig, request);
+        String regionEvent = null;
+        if (regionPolicyManager.isEnableRegionPolicy()) {
+            Region region = availableClients.get(0).getRegion();
+            if (region != null) {
+                regionEvent = request.getServiceName() + "#" + region.getName();
+            }
+        }
+        return new RouteSnapshot(clientList, version, now + snapshotMaxAge, getPreferClients(availableClients),
+                getLoadBalance(invokerConfig, request), regionEvent);
+    }
+
+    private Client select(RouteSnapshot snapshot, InvokerConfig<?> invokerConfig, InvocationRequest request) {
+        LoadBalance loadBalance = snapshot.getLoadBalance();
+        Client selectedClient;
+        if (loadBalance instanceof AbstractLoadBalance) {
+            selectedClient = ((AbstractLoadBalance) loadBalance).select(snapshot, invokerConfig, request);
+        } else {
+            selectedClient = loadBalance.select(snapshot.getClients(), invokerConfig, request);
+        }
+        checkClientNotNull(selectedClient, invokerConfig);
+        return selectedClient;
+    }
+
     private void checkClientNotNull(Client client, InvokerConfig<?> invokerConfig) {
         if (client == null) {
             throw new ServiceUnavailableException("no available server exists for service[" + invokerConfig + "], env:"
@@ -158,17 +277,18 @@ public class DefaultRouteManager implements RouteManager, Disposable {
         }
     }
 
-    private Client select(List<Client> availableClients, InvokerConfig<?> invokerConfig, InvocationRequest request) {
-        LoadBalance loadBalance = null;
-        if (loadBalance == null) {
-            loadBalance = LoadBalanceManager.getLoadBalance(invokerConfig, request.getCallType());
-        }
+    private LoadBalance getLoadBalance(InvokerConfig<?> invokerConfig, InvocationRequest request) {
+        LoadBalance loadBalance = LoadBalanceManager.getLoadBalance(invokerConfig, request.getCallType());
         if (loadBalance == null) {
             loadBalance = WeightedAutoawareLoadBalance.instance;
             if (request.getCallType() == Constants.CALLTYPE_NOREPLY) {
                 loadBalance = RandomLoadBalance.instance;
             }
         }
+        return loadBalance;
+    }
+
+    private List<Client> getPreferClients(List<Client> availableClients) {
         List<Client> preferClients = null;
         if (enablePreferAddresses) {
             if (availableClients != null && availableClients.size() > 1 && !CollectionUtils.isEmpty(preferAddresses)) {
@@ -188,7 +308,12 @@ public class DefaultRouteManager implements RouteManager, Disposable {
         if (preferClients == null || preferClients.size() == 0) {
             preferClients = availableClients;
         }
-        Client selectedClient = loadBalance.select(preferClients, invokerConfig, request);
+        return preferClients;
+    }
+
+    private Client select(List<Client> availableClients, InvokerConfig<?> invokerConfig, InvocationRequest request) {
+        LoadBalance loadBalance = getLoadBalance(invokerConfig, request);
+        Client selectedClient = loadBalance.select(getPreferClients(availableClients), invokerConfig, request);
         checkClientNotNull(selectedClient, invokerConfig);
 
         return selectedClient;
@@ -203,14 +328,17 @@ public class DefaultRouteManager implements RouteManager, Disposable {
         @Override
         public void hostWeightChanged(ServiceProviderChangeEvent event) {
             RegistryManager.getInstance().setServiceWeight(event.getConnect(), event.getWeight());
+            RouteSnapshot.invalidateAll();
         }
 
         @Override
         public void providerAdded(ServiceProviderChangeEvent event) {
+            RouteSnapshot.invalidateAll();
         }
 
         @Override
         public void providerRemoved(ServiceProviderChangeEvent event) {
+            RouteSnapshot.invalidateAll();
         }
     }
 
@@ -0,0 +1,142 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.invoker.route;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.route.balance.LoadBalance;
+import com.dianping.pigeon.remoting.invoker.route.balance.LoadBalanceManager;
+
+/**
+ * the clients a service routes to as of one route version, filtered by
+ * status, weight, region and prefer addresses, with their effective weights,
+ * the prefix sums of them and the load balance. immutable, so the calls
+ * between two changes share it without locks or allocation.
+ *
+ * any change to clients, weights, regions or load balances must call
+ * {@link #invalidateAll()} after it is visible, snapshots of older versions
+ * are rebuilt on their next use.
+ */
+public final class RouteSnapshot {
+
+	private static final AtomicInteger currentVersion = new AtomicInteger();
+
+	private final List<Client> source;
+
+	private final int version;
+
+	private final long expireTime;
+
+	private final List<Client> clients;
+
+	private final LoadBalance loadBalance;
+
+	private final String regionEvent;
+
+	/**
+	 * [w1, w2, w3, maxWeightIndex]
+	 */
+	private final int[] weights;
+
+	private final int[] prefixSums;
+
+	private final boolean weightAllSame;
+
+	public RouteSnapshot(List<Client> source, int version, long expireTime, List<Client> clients,
+			LoadBalance loadBalance, String regionEvent) {
+		this.source = source;
+		this.version = version;
+		this.expireTime = expireTime;
+		this.clients = Collections.unmodifiableList(clients);
+		this.loadBalance = loadBalance;
+		this.regionEvent = regionEvent;
+
+		int clientSize = clients.size();
+		this.weights = new int[clientSize + 1];
+		this.prefixSums = new int[clientSize];
+		int maxWeightIdx = 0;
+		int sum = 0;
+		boolean allSame = true;
+		for (int i = 0; i < clientSize; i++) {
+			weights[i] = LoadBalanceManager.getEffectiveWeight(clients.get(i).getAddress());
+			if (weights[i] > weights[maxWeightIdx]) {
+				maxWeightIdx = i;
+			}
+			if (i > 0 && weights[i] != weights[i - 1]) {
+				allSame = false;
+			}
+			sum += weights[i];
+			prefixSums[i] = sum;
+		}
+		weights[clientSize] = maxWeightIdx;
+		this.weightAllSame = allSame;
+	}
+
+	public static int getCurrentVersion() {
+		return currentVersion.get();
+	}
+
+	public static void invalidateAll() {
+		currentVersion.incrementAndGet();
+	}
+
+	boolean isValid(List<Client> source, int version, long now) {
+		return this.source == source && this.version == version && now < expireTime;
+	}
+
+	public List<Client> getClients() {
+		return clients;
+	}
+
+	public LoadBalance getLoadBalance() {
+		return loadBalance;
+	}
+
+	/**
+	 * @return the monitor event of the preferred region, null if region route
+	 *         is off
+	 */
+	public String getRegionEvent() {
+		return regionEvent;
+	}
+
+	/**
+	 * effective weights in the format of load balances, shared, not to be
+	 * modified
+	 */
+	public int[] getWeights() {
+		return weights;
+	}
+
+	public int getTotalWeight() {
+		return prefixSums[prefixSums.length - 1];
+	}
+
+	public boolean isWeightAllSame() {
+		return weightAllSame;
+	}
+
+	/**
+	 * @param weightPoint
+	 *            in [0, total weight)
+	 * @return index of the client the point falls on
+	 */
+	public int indexOf(int weightPoint) {
+		int low = 0;
+		int high = prefixSums.length - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (prefixSums[mid] > weightPoint) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
+}
@@ -18,6 +18,7 @@ import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.invoker.Client;
 import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
 import com.dianping.pigeon.remoting.invoker.exception.ServiceUnavailableException;
+import com.dianping.pigeon.remoting.invoker.route.RouteSnapshot;
 import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
 import com.dianping.pigeon.remoting.invoker.util.InvokerHelper;
 
@@ -64,13 +65,37 @@ public abstract class AbstractLoadBalance implements LoadBalance {
 				selectedClient = clients.get(random.nextInt(clients.size()));
 			}
 		}
+		logSelected(selectedClient, request);
+		return selectedClient;
+	}
+
+	/**
+	 * selects with the weights precomputed in the snapshot
+	 */
+	public Client select(RouteSnapshot snapshot, InvokerConfig<?> invokerConfig, InvocationRequest request) {
+		List<Client> clients = snapshot.getClients();
+		if (StringUtils.isNotBlank(InvokerHelper.getAddress())) {
+			return select(clients, invokerConfig, request);
+		}
+		Client selectedClient = null;
+		try {
+			selectedClient = doSelect(snapshot, invokerConfig, request);
+		} catch (Throwable e) {
+			logger.error("failed to do load balance[" + getClass().getName() + "], detail: " + e.getMessage()
+					+ ", use random instead.", e);
+			selectedClient = clients.get(random.nextInt(clients.size()));
+		}
+		logSelected(selectedClient, request);
+		return selectedClient;
+	}
+
+	private void logSelected(Client selectedClient, InvocationRequest request) {
 		if (logger.isDebugEnabled()) {
 			if (ServiceStatisticsHolder.checkRequestNeedStat(request)) {
 				logger.debug("total requests to " + selectedClient.getAddress() + " in last second:"
 						+ ServiceStatisticsHolder.getCapacityBucket(selectedClient.getAddress()).getLastSecondRequest());
 			}
 		}
-		return selectedClient;
 	}
 
 	/**
@@ -104,4 +129,8 @@ public abstract class AbstractLoadBalance implements LoadBalance {
 	protected abstract Client doSelect(List<Client> clients, InvokerConfig<?> invokerConfig, InvocationRequest request,
 			int[] weights);
 
+	protected Client doSelect(RouteSnapshot snapshot, InvokerConfig<?> invokerConfig, InvocationRequest request) {
+		return doSelect(snapshot.getClients(), invokerConfig, request, snapshot.getWeights());
+	}
+
 }
@@ -0,0 +1,454 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.invoker.route.balance;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import com.dianping.pigeon.log.Logger;
+
+import com.dianping.pigeon.config.ConfigChangeListener;
+import com.dianping.pigeon.config.ConfigManager;
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.util.InvocationUtils;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
+import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
+import com.dianping.pigeon.util.ContextUtils;
+
+/**
+ * 一致性hash负载均衡, 按某个参数或请求上下文中的某个值路由到虚拟节点环上的服务端,
+ * 便于服务端本地缓存命中. 服务端未完成请求数超过平均值的一定倍数时顺延到环上的下一个服务端,
+ * 避免热点key压垮单个服务端.
+ *
+ * hash key通过pigeon.loadbalance.consistenthash.keys配置, 格式为
+ * url=0,url#method=context:userId, 数字为参数下标, context:为请求上下文的key,
+ * 未配置的服务使用第一个参数. key按toString()取hash, 未覆盖toString()的参数类型(如数组)
+ * 按对象地址取hash无法保持路由, 这类请求随机路由并打印一次警告.
+ *
+ * 环按服务的地址集合缓存, 排除了部分服务端的列表(如failover重试)在同一个环上跳过缺少的服务端,
+ * 不重建环, 缺少的服务端超过pigeon.loadbalance.consistenthash.shrink.delay(毫秒, 默认60000)
+ * 未再出现时按剩余的服务端更新环.
+ */
+public class ConsistentHashLoadBalance extends AbstractLoadBalance {
+
+	private static final Logger logger = LoggerLoader.getLogger(ConsistentHashLoadBalance.class);
+	public static final String NAME = "consistentHash";
+	public static final LoadBalance instance = new ConsistentHashLoadBalance();
+
+	private static final ConfigManager configManager = ConfigManagerLoader.getConfigManager();
+	private static final String KEY_HASH_KEYS = "pigeon.loadbalance.consistenthash.keys";
+	private static final String CONTEXT_PREFIX = "context:";
+	private static final HashKey DEFAULT_HASH_KEY = new HashKey(0, null);
+
+	private static final int replicas = Math.max(1,
+			configManager.getIntValue("pigeon.loadbalance.consistenthash.replicas", 160));
+	// 服务端未完成请求数上限为 平均值*balanceFactor
+	private static final double balanceFactor = configManager.getDoubleValue(
+			"pigeon.loadbalance.consistenthash.balance", 1.25);
+
+	private static final long shrinkDelay = configManager.getLongValue(
+			"pigeon.loadbalance.consistenthash.shrink.delay", 60000);
+
+	private static volatile Map<String, HashKey> hashKeys = parseHashKeys(configManager.getStringValue(KEY_HASH_KEYS));
+
+	// key types hashed by their own toString()
+	private static final ConcurrentHashMap<Class<?>, Boolean> hashableTypes = new ConcurrentHashMap<Class<?>, Boolean>();
+
+	private static final ConcurrentHashMap<String, HashRing> rings = new ConcurrentHashMap<String, HashRing>();
+
+	static {
+		configManager.registerConfigChangeListener(new InnerConfigChangeListener());
+	}
+
+	@Override
+	public Client doSelect(List<Client> clients, InvokerConfig<?> invokerConfig, InvocationRequest request,
+			int[] weights) {
+		assert (clients != null && clients.size() >= 1);
+		if (clients.size() == 1) {
+			return clients.get(0);
+		}
+		Object key = getHashKey(request);
+		if (key == null || !isHashable(key.getClass())) {
+			return clients.get(random.nextInt(clients.size()));
+		}
+		String serviceId = getServiceId(invokerConfig, request);
+		HashRing ring = rings.get(serviceId);
+		int[] indexes = ring != null ? ring.indexesOf(clients) : null;
+		if (indexes == null || (indexes.length > clients.size() && ring.isStale())) {
+			ring = HashRing.update(ring, clients);
+			rings.put(serviceId, ring);
+			indexes = ring.indexesOf(clients);
+		}
+		int idx = ring.select(hash(key.toString()), indexes, clients.size());
+		Client client = clients.get(idx);
+		if (logger.isDebugEnabled()) {
+			logger.debug("hash key:" + key + ", select address:" + client.getAddress());
+		}
+		return client;
+	}
+
+	/**
+	 * @return service#group --> address --> share of the ring and requests
+	 *         routed
+	 */
+	public static Map<String, String> getStatistics() {
+		Map<String, String> stats = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, HashRing> entry : rings.entrySet()) {
+			stats.put(entry.getKey(), entry.getValue().toString());
+		}
+		return stats;
+	}
+
+	private static String getServiceId(InvokerConfig<?> invokerConfig, InvocationRequest request) {
+		String group = invokerConfig != null ? invokerConfig.getGroup() : null;
+		return StringUtils.isBlank(group) ? request.getServiceName() : request.getServiceName() + "#" + group;
+	}
+
+	private static Object getHashKey(InvocationRequest request) {
+		Map<String, HashKey> keys = hashKeys;
+		HashKey hashKey = keys.get(InvocationUtils.getRequestMethod(request));
+		if (hashKey == null) {
+			hashKey = keys.get(request.getServiceName());
+		}
+		if (hashKey == null) {
+			hashKey = DEFAULT_HASH_KEY;
+		}
+		if (hashKey.contextKey != null) {
+			Serializable value = ContextUtils.getRequestContext(hashKey.contextKey);
+			if (value == null && request.getRequestValues() != null) {
+				value = request.getRequestValues().get(hashKey.contextKey);
+			}
+			return value;
+		}
+		Object[] parameters = request.getParameters();
+		return parameters != null && hashKey.argIndex < parameters.length ? parameters[hashKey.argIndex] : null;
+	}
+
+	private static boolean isHashable(Class<?> type) {
+		Boolean hashable = hashableTypes.get(type);
+		if (hashable == null) {
+			try {
+				hashable = type.getMethod("toString").getDeclaringClass() != Object.class;
+			} catch (NoSuchMethodException e) {
+				hashable = false;
+			}
+			if (!hashable) {
+				logger.warn(type.getName() + " does not override toString(), requests hashed by it are routed randomly");
+			}
+			hashableTypes.put(type, hashable);
+		}
+		return hashable;
+	}
+
+	private static Map<String, HashKey> parseHashKeys(String config) {
+		Map<String, HashKey> keys = new HashMap<String, HashKey>();
+		if (StringUtils.isBlank(config)) {
+			return keys;
+		}
+		for (String str : config.split(",")) {
+			String[] pair = str.split("=");
+			if (pair.length != 2 || StringUtils.isBlank(pair[0]) || StringUtils.isBlank(pair[1])) {
+				continue;
+			}
+			String value = pair[1].trim();
+			try {
+				if (value.startsWith(CONTEXT_PREFIX)) {
+					keys.put(pair[0].trim(), new HashKey(-1, value.substring(CONTEXT_PREFIX.length())));
+				} else {
+					keys.put(pair[0].trim(), new HashKey(Integer.parseInt(value), null));
+				}
+			} catch (NumberFormatException e) {
+				logger.error("invalid consistent hash key:" + str);
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * fnv-1a with the murmur3 finalizer, so that similar keys spread over the
+	 * ring
+	 */
+	static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static class HashKey {
+
+		final int argIndex;
+		final String contextKey;
+
+		HashKey(int argIndex, String contextKey) {
+			this.argIndex = argIndex;
+			this.contextKey = contextKey;
+		}
+	}
+
+	/**
+	 * virtual nodes of the addresses of a service, sorted by hash. owners are
+	 * indexes of the addresses.
+	 */
+	private static class HashRing {
+
+		final String[] addresses;
+		final Map<String, Integer> addressIndexes;
+		final int[] identity;
+		final long[] points;
+		final int[] owners;
+		// shared by the versions of the ring of a service
+		final ConcurrentHashMap<String, AtomicLong> selected;
+		// last time a list with all the addresses was seen
+		volatile long completeMillis = System.currentTimeMillis();
+
+		HashRing(String[] addresses, Map<String, Integer> addressIndexes, long[] points, int[] owners,
+				ConcurrentHashMap<String, AtomicLong> selected) {
+			this.addresses = addresses;
+			this.addressIndexes = addressIndexes;
+			this.points = points;
+			this.owners = owners;
+			this.selected = selected;
+			this.identity = new int[addresses.length];
+			for (int i = 0; i < identity.length; i++) {
+				identity[i] = i;
+			}
+		}
+
+		/**
+		 * @return index in the clients of each address, -1 for the ones left
+		 *         out, or null if a client is not on the ring
+		 */
+		int[] indexesOf(List<Client> clients) {
+			int clientSize = clients.size();
+			if (clientSize == addresses.length) {
+				int i = 0;
+				while (i < clientSize && addresses[i].equals(clients.get(i).getAddress())) {
+					i++;
+				}
+				if (i == clientSize) {
+					// written at most once a second from the common path
+					long now = System.currentTimeMillis();
+					if (now - completeMillis > 1000) {
+						completeMillis = now;
+					}
+					return identity;
+				}
+			}
+			int[] indexes = new int[addresses.length];
+			Arrays.fill(indexes, -1);
+			for (int i = 0; i < clientSize; i++) {
+				Integer owner = addressIndexes.get(clients.get(i).getAddress());
+				if (owner == null) {
+					return null;
+				}
+				indexes[owner] = i;
+			}
+			if (clientSize == addresses.length) {
+				completeMillis = System.currentTimeMillis();
+			}
+			return indexes;
+		}
+
+		/**
+		 * the addresses left out are gone rather than excluded from a call
+		 */
+		boolean isStale() {
+			return System.currentTimeMillis() - completeMillis > shrinkDelay;
+		}
+
+		/**
+		 * keeps the virtual nodes of the remaining clients and hashes only the
+		 * added ones
+		 */
+		static HashRing update(HashRing previous, List<Client> clients) {
+			int clientSize = clients.size();
+			String[] addresses = new String[clientSize];
+			Map<String, Integer> indexes = new HashMap<String, Integer>();
+			for (int i = 0; i < clientSize; i++) {
+				addresses[i] = clients.get(i).getAddress();
+				indexes.put(addresses[i], i);
+			}
+			long[] keptPoints = new long[0];
+			int[] keptOwners = new int[0];
+			Map<String, Integer> added = new HashMap<String, Integer>(indexes);
+			ConcurrentHashMap<String, AtomicLong> selected = new ConcurrentHashMap<String, AtomicLong>();
+			if (previous != null) {
+				selected = previous.selected;
+				for (String address : previous.addresses) {
+					added.remove(address);
+				}
+				keptPoints = new long[previous.points.length];
+				keptOwners = new int[previous.points.length];
+				int kept = 0;
+				for (int i = 0; i < previous.points.length; i++) {
+					Integer owner = indexes.get(previous.addresses[previous.owners[i]]);
+					if (owner != null) {
+						keptPoints[kept] = previous.points[i];
+						keptOwners[kept++] = owner;
+					}
+				}
+				for (Iterator<String> it = selected.keySet().iterator(); it.hasNext();) {
+					if (!indexes.containsKey(it.next())) {
+						it.remove();
+					}
+				}
+				if (kept < keptPoints.length) {
+					long[] points = new long[kept];
+					int[] owners = new int[kept];
+					System.arraycopy(keptPoints, 0, points, 0, kept);
+					System.arraycopy(keptOwners, 0, owners, 0, kept);
+					keptPoints = points;
+					keptOwners = owners;
+				}
+			}
+			TreeMap<Long, Integer> addedPoints = new TreeMap<Long, Integer>();
+			for (Map.Entry<String, Integer> entry : added.entrySet()) {
+				for (int i = 0; i < replicas; i++) {
+					addedPoints.put(hash(entry.getKey() + "#" + i), entry.getValue());
+				}
+			}
+
+			long[] points = new long[keptPoints.length + addedPoints.size()];
+			int[] owners = new int[points.length];
+			int k = 0;
+			int n = 0;
+			Iterator<Map.Entry<Long, Integer>> it = addedPoints.entrySet().iterator();
+			Map.Entry<Long, Integer> next = it.hasNext() ? it.next() : null;
+			while (k < keptPoints.length || next != null) {
+				if (next == null || (k < keptPoints.length && keptPoints[k] <= next.getKey())) {
+					points[n] = keptPoints[k];
+					owners[n++] = keptOwners[k++];
+				} else {
+					points[n] = next.getKey();
+					owners[n++] = next.getValue();
+					next = it.hasNext() ? it.next() : null;
+				}
+			}
+			return new HashRing(addresses, indexes, points, owners, selected);
+		}
+
+		/**
+		 * walks clockwise from the hash to the first client whose outstanding
+		 * requests are within the bound, skipping the addresses left out
+		 *
+		 * @return index in the clients
+		 */
+		int select(long hash, int[] indexes, int clientSize) {
+			int low = 0;
+			int high = points.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (points[mid] < hash) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			int start = low == points.length ? 0 : low;
+
+			float total = 0f;
+			for (int i = 0; i < addresses.length; i++) {
+				if (indexes[i] >= 0) {
+					total += ServiceStatisticsHolder.getCapacity(addresses[i]);
+				}
+			}
+			double bound = Math.ceil((total + 1) * balanceFactor / clientSize);
+			int selectedIdx = -1;
+			for (int i = 0; i < points.length; i++) {
+				int owner = owners[(start + i) % points.length];
+				if (indexes[owner] < 0) {
+					continue;
+				}
+				if (selectedIdx < 0) {
+					selectedIdx = owner;
+				}
+				if (ServiceStatisticsHolder.getCapacity(addresses[owner]) + 1 <= bound) {
+					selectedIdx = owner;
+					break;
+				}
+			}
+			AtomicLong counter = selected.get(addresses[selectedIdx]);
+			if (counter == null) {
+				AtomicLong newCounter = new AtomicLong();
+				counter = selected.putIfAbsent(addresses[selectedIdx], newCounter);
+				if (counter == null) {
+					counter = newCounter;
+				}
+			}
+			counter.incrementAndGet();
+			return indexes[selectedIdx];
+		}
+
+		/**
+		 * address:share of the ring/requests routed
+		 */
+		@Override
+		public String toString() {
+			double ringSize = Math.pow(2, 64);
+			double[] shares = new double[addresses.length];
+			for (int i = 0; i < points.length; i++) {
+				long previousPoint = i == 0 ? points[points.length - 1] : points[i - 1];
+				// unsigned distance clockwise from the previous point
+				long distance = points[i] - previousPoint;
+				double arc = points.length == 1 ? ringSize : (distance >= 0 ? distance : distance + ringSize);
+				shares[owners[i]] += arc / ringSize;
+			}
+			StringBuilder str = new StringBuilder();
+			for (int i = 0; i < addresses.length; i++) {
+				AtomicLong counter = selected.get(addresses[i]);
+				if (str.length() > 0) {
+					str.append(",");
+				}
+				str.append(addresses[i]).append(":").append(Math.round(shares[i] * 1000) / 10d).append("%/")
+						.append(counter != null ? counter.get() : 0);
+			}
+			return str.toString();
+		}
+	}
+
+	private static class InnerConfigChangeListener implements ConfigChangeListener {
+
+		@Override
+		public void onKeyUpdated(String key, String value) {
+			if (key.endsWith(KEY_HASH_KEYS)) {
+				hashKeys = parseHashKeys(value);
+			}
+		}
+
+		@Override
+		public void onKeyAdded(String key, String value) {
+			onKeyUpdated(key, value);
+		}
+
+		@Override
+		public void onKeyRemoved(String key) {
+			if (key.endsWith(KEY_HASH_KEYS)) {
+				hashKeys = parseHashKeys(null);
+			}
+		}
+
+	}
+
+}
@@ -26,6 +26,7 @@ import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
 import com.dianping.pigeon.remoting.invoker.domain.ConnectInfo;
 import com.dianping.pigeon.remoting.invoker.listener.ClusterListener;
 import com.dianping.pigeon.remoting.invoker.listener.ClusterListenerManager;
+import com.dianping.pigeon.remoting.invoker.route.RouteSnapshot;
 import com.dianping.pigeon.remoting.invoker.route.statistics.CapacityChecker;
 import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
 import com.dianping.pigeon.threadpool.DefaultThreadPool;
@@ -68,6 +69,8 @@ public class LoadBalanceManager {
 		LoadBalanceManager.register(AutoawareLoadBalance.NAME, null, AutoawareLoadBalance.instance);
 		LoadBalanceManager.register(RoundRobinLoadBalance.NAME, null, RoundRobinLoadBalance.instance);
 		LoadBalanceManager.register(WeightedAutoawareLoadBalance.NAME, null, WeightedAutoawareLoadBalance.instance);
+		LoadBalanceManager.register(PeakEwmaLoadBalance.NAME, null, PeakEwmaLoadBalance.instance);
+		LoadBalanceManager.register(ConsistentHashLoadBalance.NAME, null, ConsistentHashLoadBalance.instance);
 	}
 
 	/**
@@ -131,6 +134,7 @@ public class LoadBalanceManager {
 		}
 		if (loadBlanceObj != null) {
 			loadBalanceMap.put(serviceId, loadBlanceObj);
+			RouteSnapshot.invalidateAll();
 		}
 	}
 
@@ -245,6 +249,7 @@ public class LoadBalanceManager {
 		}
 
 		private void adjustFactor() {
+			boolean adjusted = false;
 			Iterator<Entry<String, WeightFactor>> it = weightFactors.entrySet().iterator();
 			while (it.hasNext()) {
 				Entry<String, WeightFactor> entry = it.next();
@@ -260,10 +265,14 @@ public class LoadBalanceManager {
 						int factor = Math.min(defaultFactor, weightFactor.getFactor() + step);
 						weightFactor.setFactor(factor);
 						weightFactor.setCurrentStepTicks(0);
+						adjusted = true;
 					}
 					entry.setValue(weightFactor);
 				}
 			}
+			if (adjusted) {
+				RouteSnapshot.invalidateAll();
+			}
 		}
 
 		@Override
@@ -283,6 +292,7 @@ public class LoadBalanceManager {
 			if ((originalWeight == null || originalWeight.intValue() == 0) && event.getWeight() > 0) {
 				weightFactors.put(event.getConnect(), new WeightFactor(initialFactor));
 			}
+			RouteSnapshot.invalidateAll();
 		}
 
 		@Override
@@ -303,12 +313,14 @@ public class LoadBalanceManager {
 		private void addWeight(String address, int weight) {
 			weights.put(address, weight);
 			weightFactors.put(address, new WeightFactor(initialFactor));
+			RouteSnapshot.invalidateAll();
 		}
 
 		private void removeWeight(String address) {
 			weights.remove(address);
 			weightFactors.remove(address);
 			ServiceStatisticsHolder.removeCapacityBucket(address);
+			RouteSnapshot.invalidateAll();
 		}
 
 	}
@@ -0,0 +1,82 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.invoker.route.balance;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.dianping.pigeon.log.Logger;
+
+import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
+import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
+
+/**
+ * 随机选两个服务端, 路由到 响应时间估计*(未完成请求数+1)/权重 较低的一个,
+ * 响应时间估计为peak ewma, 变慢时立即生效, 变快时逐渐衰减
+ */
+public class PeakEwmaLoadBalance extends AbstractLoadBalance {
+
+	private static final Logger logger = LoggerLoader.getLogger(PeakEwmaLoadBalance.class);
+	public static final String NAME = "peakEwma";
+	public static final LoadBalance instance = new PeakEwmaLoadBalance();
+
+	// 尚无响应时间但已有未完成请求的服务端, 排在所有有响应时间的服务端之后
+	private static final double PENALTY = Long.MAX_VALUE >> 16;
+
+	@Override
+	public Client doSelect(List<Client> clients, InvokerConfig<?> invokerConfig, InvocationRequest request,
+			int[] weights) {
+		assert (clients != null && clients.size() >= 1);
+		int clientSize = clients.size();
+		if (clientSize == 1) {
+			return clients.get(0);
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = random.nextInt(clientSize);
+		int second = random.nextInt(clientSize - 1);
+		if (second >= first) {
+			second++;
+		}
+		Client firstClient = clients.get(first);
+		Client secondClient = clients.get(second);
+		double firstScore = score(firstClient.getAddress(), weights[first]);
+		double secondScore = score(secondClient.getAddress(), weights[second]);
+		Client client = firstScore <= secondScore ? firstClient : secondClient;
+		if (logger.isDebugEnabled()) {
+			logger.debug("score:" + firstScore + " for address:" + firstClient.getAddress() + ", score:"
+					+ secondScore + " for address:" + secondClient.getAddress());
+			logger.debug("select address:" + client.getAddress());
+		}
+		return client;
+	}
+
+	private double score(String address, int weight) {
+		return score(ServiceStatisticsHolder.getLatencyCost(address), ServiceStatisticsHolder.getCapacity(address),
+				weight);
+	}
+
+	/**
+	 * @param cost
+	 *            latency estimate, 0 if unknown
+	 * @param outstanding
+	 *            requests sent and not yet responded
+	 * @param weight
+	 *            effective weight
+	 * @return the lower the better
+	 */
+	public static double score(double cost, float outstanding, int weight) {
+		double load;
+		if (cost == 0 && outstanding > 0) {
+			load = PENALTY + outstanding;
+		} else {
+			load = cost * (outstanding + 1);
+		}
+		return load / Math.max(weight, 1);
+	}
+
+}
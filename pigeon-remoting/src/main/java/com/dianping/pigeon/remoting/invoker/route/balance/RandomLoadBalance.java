@@ -12,6 +12,7 @@ import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.invoker.Client;
 import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
+import com.dianping.pigeon.remoting.invoker.route.RouteSnapshot;
 
 /**
  * 随机负载均衡策略
@@ -59,4 +60,26 @@ public class RandomLoadBalance extends AbstractLoadBalance {
 		return client;
 	}
 
+	/**
+	 * binary search over the prefix sums of the snapshot
+	 */
+	@Override
+	protected Client doSelect(RouteSnapshot snapshot, InvokerConfig<?> invokerConfig, InvocationRequest request) {
+		List<Client> clients = snapshot.getClients();
+		int clientSize = clients.size();
+		if (clientSize == 1) {
+			return clients.get(0);
+		}
+		Client client;
+		if (snapshot.isWeightAllSame()) {
+			client = clients.get(random.nextInt(clientSize));
+		} else {
+			client = clients.get(snapshot.indexOf(random.nextInt(snapshot.getTotalWeight())));
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("select address:" + client.getAddress());
+		}
+		return client;
+	}
+
 }
@@ -25,12 +25,10 @@ public class RoundRobinLoadBalance extends AbstractLoadBalance {
 			int[] weights) {
 		assert (clients != null && clients.size() > 1);
 
-		int[] _weights = new int[weights.length - 1];
-		for (int i = 0; i < weights.length - 1; i++) {
-			_weights[i] = weights[i];
-		}
-		int clientId = roundRobin(_weights);
-		Client client = clientId < 0 ? clients.get(random.nextInt(_weights.length)) : clients.get(clientId);
+		// the last element is the index of the max weight
+		int clientSize = weights.length - 1;
+		int clientId = roundRobin(weights, clientSize);
+		Client client = clientId < 0 ? clients.get(random.nextInt(clientSize)) : clients.get(clientId);
 		if (logger.isDebugEnabled()) {
 			logger.debug("select address:" + client.getAddress());
 		}
@@ -38,9 +36,15 @@ public class RoundRobinLoadBalance extends AbstractLoadBalance {
 	}
 
 	public int roundRobin(int[] weights) {
-		int clientSize = weights.length;
-		int gcdWeights = gcdWeights(weights);
-		int maxWeight = maxWeight(weights);
+		return roundRobin(weights, weights.length);
+	}
+
+	/**
+	 * over the first clientSize weights
+	 */
+	public int roundRobin(int[] weights, int clientSize) {
+		int gcdWeights = gcdN(weights, clientSize);
+		int maxWeight = maxWeight(weights, clientSize);
 
 		if (lastSelected >= clientSize) {
 			lastSelected = clientSize - 1;
@@ -62,20 +66,16 @@ public class RoundRobinLoadBalance extends AbstractLoadBalance {
 		}
 	}
 
-	private int maxWeight(int[] weights) {
+	private int maxWeight(int[] weights, int length) {
 		int max = weights[0];
-		for (int it : weights) {
-			if (it > max) {
-				max = it;
+		for (int i = 1; i < length; i++) {
+			if (weights[i] > max) {
+				max = weights[i];
 			}
 		}
 		return max;
 	}
 
-	private int gcdWeights(int[] weights) {
-		return gcdN(weights, weights.length);
-	}
-
 	private int gcd(int a, int b) {
 		if (0 == b) {
 			return a;
@@ -35,8 +35,9 @@ public class WeightedAutoawareLoadBalance extends AbstractLoadBalance {
         }
         float minCapacity = Float.MAX_VALUE;
         int clientSize = clients.size();
-        Client[] candidates = new Client[clientSize];
-        int candidateIdx = 0;
+        // one of the clients with the least capacity, each with the same chance
+        Client candidate = null;
+        int candidates = 0;
         for (int i = 0; i < clientSize; i++) {
             Client client = clients.get(i);
             float capacity = ServiceStatisticsHolder.getCapacity(client.getAddress());
@@ -51,13 +52,13 @@ public class WeightedAutoawareLoadBalance extends AbstractLoadBalance {
             }
             if (capacity < minCapacity) {
                 minCapacity = capacity;
-                candidateIdx = 0;
-                candidates[candidateIdx++] = client;
-            } else if (Math.abs(capacity - minCapacity) < 1e-6) {
-                candidates[candidateIdx++] = client;
+                candidate = client;
+                candidates = 1;
+            } else if (Math.abs(capacity - minCapacity) < 1e-6 && random.nextInt(++candidates) == 0) {
+                candidate = client;
             }
         }
-        Client client = candidateIdx == 1 ? candidates[0] : candidates[random.nextInt(candidateIdx)];
+        Client client = candidate;
         if (logger.isDebugEnabled()) {
             logger.debug("select address:" + client.getAddress());
         }
@@ -24,6 +24,7 @@ import com.dianping.pigeon.remoting.invoker.Client;
 import com.dianping.pigeon.remoting.invoker.ClientManager;
 import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
 import com.dianping.pigeon.remoting.invoker.exception.RouteException;
+import com.dianping.pigeon.remoting.invoker.route.RouteSnapshot;
 import com.dianping.pigeon.util.ClassUtils;
 import com.dianping.pigeon.util.ServiceUtils;
 
@@ -164,6 +165,7 @@ public enum RegionPolicyManager {
         }
         if (regionPolicyObj != null) {
             regionPolicyMap.put(serviceId, regionPolicyObj);
+            RouteSnapshot.invalidateAll();
         }
     }
 
@@ -180,6 +182,7 @@ public enum RegionPolicyManager {
 
                 } else { // region路由关
                     isEnabled = false;
+                    RouteSnapshot.invalidateAll();
                     logger.info("Region policy is disabled!");
                 }
 
@@ -276,6 +279,7 @@ public enum RegionPolicyManager {
                     localRegion = getRegionByName(localRegionName);
                     clearRegion();
                     isEnabled = true;
+                    RouteSnapshot.invalidateAll();
                     logger.info("Region route policy switch on! Local region is: " + regionArray.get(0));
 
                 } else {
@@ -11,6 +11,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.Logger;
 
 import com.dianping.pigeon.log.LoggerLoader;
@@ -21,6 +22,9 @@ import com.dianping.pigeon.remoting.common.util.Constants;
 public class CapacityBucket implements Serializable {
 	private static final Logger logger = LoggerLoader.getLogger(CapacityBucket.class);
 
+	private static final long latencyDecayNanos = ConfigManagerLoader.getConfigManager().getLongValue(
+			"pigeon.loadbalance.peakewma.decay", 10000) * 1000000L;
+
 	private String address;
 	private volatile float capacity = 0f;
 	private Set<Long> requestSeqs = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
@@ -36,6 +40,9 @@ public class CapacityBucket implements Serializable {
 
 	private transient Lock capacityLock = new ReentrantLock();
 
+	// 响应时间估计, 用于peakEwma负载均衡
+	private transient PeakEwma latency = new PeakEwma(latencyDecayNanos);
+
 	public CapacityBucket(String address) {
 		this.address = address;
 		preFillData(); // 为了更优地计算每秒请求数, 使用预填数据代替同步数据结构
@@ -52,21 +59,29 @@ public class CapacityBucket implements Serializable {
 			refreshCapacity(1f);
 			this.requestSeqs.add(request.getSequence());
 			this.requestSeqDetails.put(request.getSequence(),
-					new Object[] { now.getTimeInMillis(), request.getTimeout(), 1f });
+					new Object[] { now.getTimeInMillis(), request.getTimeout(), 1f, System.nanoTime() });
 		}
 	}
 
 	public void flowOut(InvocationRequest request) {
 		if (request.getCallType() == Constants.CALLTYPE_REPLY) {
-			flowOut(request.getSequence(), 1f);
+			Object[] details = flowOut(request.getSequence(), 1f);
+			if (details != null && details.length > 3) {
+				long now = System.nanoTime();
+				latency.observe(now - (Long) details[3], now);
+			}
 		}
 	}
 
-	public void flowOut(long requestSeq, Float flow) {
+	/**
+	 * @return the details recorded when the request flowed in, null if it
+	 *         already flowed out
+	 */
+	public Object[] flowOut(long requestSeq, Float flow) {
 		if (requestSeqs.remove(requestSeq) && flow != null) {
 			refreshCapacity(-1 * flow);
 		}
-		requestSeqDetails.remove(requestSeq);
+		return requestSeqDetails.remove(requestSeq);
 	}
 
 	public int getLastSecondRequest() {
@@ -124,6 +139,14 @@ public class CapacityBucket implements Serializable {
 		return capacity;
 	}
 
+	/**
+	 * @return decayed peak ewma of the response time in nanos, 0 before the
+	 *         first response
+	 */
+	public double getLatencyCost() {
+		return latency.getCost(System.nanoTime());
+	}
+
 	public AtomicLong getTotalRequest() {
 		return totalRequest;
 	}
@@ -0,0 +1,56 @@
+package com.dianping.pigeon.remoting.invoker.route.statistics;
+
+/**
+ * latency estimate of a server that jumps to a slower sample at once and
+ * decays exponentially towards faster ones, and towards zero while no
+ * response comes back, so that a server is retried after it recovered.
+ * times are passed in, in nanos, for the callers and tests to share a clock.
+ */
+public class PeakEwma {
+
+	private final double decayNanos;
+
+	private double cost;
+
+	private long stamp;
+
+	/**
+	 * @param decayNanos
+	 *            time constant, a sample loses about two thirds of its weight
+	 *            in it
+	 */
+	public PeakEwma(long decayNanos) {
+		if (decayNanos <= 0) {
+			throw new IllegalArgumentException("invalid decay:" + decayNanos);
+		}
+		this.decayNanos = decayNanos;
+	}
+
+	public synchronized void observe(long rttNanos, long nowNanos) {
+		if (rttNanos > cost) {
+			cost = rttNanos;
+		} else {
+			double weight = weight(nowNanos);
+			cost = cost * weight + rttNanos * (1 - weight);
+		}
+		stamp = nowNanos;
+	}
+
+	/**
+	 * @return estimated latency in nanos, 0 before the first sample
+	 */
+	public synchronized double getCost(long nowNanos) {
+		return decay(nowNanos);
+	}
+
+	private double decay(long nowNanos) {
+		if (cost == 0) {
+			return 0;
+		}
+		return cost * weight(nowNanos);
+	}
+
+	private double weight(long nowNanos) {
+		return Math.exp(-Math.max(nowNanos - stamp, 0) / decayNanos);
+	}
+}
@@ -24,6 +24,11 @@ public final class ServiceStatisticsHolder {
 		return barrel != null ? barrel.getCapacity() : 0f;
 	}
 
+	public static double getLatencyCost(String server) {
+		CapacityBucket barrel = serverCapacityBuckets.get(server);
+		return barrel != null ? barrel.getLatencyCost() : 0d;
+	}
+
 	public static void init() {
 	}
 
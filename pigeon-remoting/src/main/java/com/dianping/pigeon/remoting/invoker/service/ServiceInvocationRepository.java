@@ -4,11 +4,12 @@
  */
 package com.dianping.pigeon.remoting.invoker.service;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import com.dianping.pigeon.log.Logger;
 
+import com.dianping.pigeon.config.ConfigManager;
+import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
@@ -19,15 +20,22 @@ import com.dianping.pigeon.remoting.invoker.listener.InvocationTimeoutListener;
 import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
 import com.dianping.pigeon.threadpool.DefaultThreadPool;
 import com.dianping.pigeon.threadpool.ThreadPool;
+import com.dianping.pigeon.timer.HashedWheelTimer;
+import com.dianping.pigeon.timer.Timeout;
+import com.dianping.pigeon.util.StripedLongHashMap;
 import com.dianping.pigeon.util.ThreadPoolUtils;
 
 public class ServiceInvocationRepository {
 
     private static final Logger logger = LoggerLoader.getLogger(ServiceInvocationRepository.class);
-    private static Map<Long, RemoteInvocationBean> invocations = new ConcurrentHashMap<Long, RemoteInvocationBean>();
+    private static StripedLongHashMap<RemoteInvocationBean> invocations = new StripedLongHashMap<RemoteInvocationBean>(
+            ConfigManagerLoader.getConfigManager().getIntValue("pigeon.invoker.invocation.stripes", 64),
+            ConfigManagerLoader.getConfigManager().getIntValue("pigeon.invoker.invocation.capacity", 65536));
     private static ServiceInvocationRepository instance = new ServiceInvocationRepository();
     private static ThreadPool invocatinTimeCheckThreadPool = new DefaultThreadPool(
             "Pigeon-Client-Invoke-Timeout-Check-ThreadPool");
+    private static InvocationTimeoutListener invocationTimeoutListener = new InvocationTimeoutListener(invocations);
+    private static volatile HashedWheelTimer invocationTimeoutTimer;
 
     public static ServiceInvocationRepository getInstance() {
         return instance;
@@ -35,6 +43,20 @@ public class ServiceInvocationRepository {
 
     public void put(long sequence, RemoteInvocationBean invocation) {
         invocations.put(sequence, invocation);
+        HashedWheelTimer timer = invocationTimeoutTimer;
+        InvocationRequest request = invocation.request;
+        if (timer != null && request != null && request.getTimeout() > 0) {
+            long delay = request.getTimeout();
+            if (request.getCreateMillisTime() > 0) {
+                delay = request.getCreateMillisTime() + request.getTimeout() - System.currentTimeMillis();
+            }
+            try {
+                invocation.timeout = timer.newTimeout(invocationTimeoutListener.newTimerTask(sequence),
+                        delay > 0 ? delay : 0, TimeUnit.MILLISECONDS);
+            } catch (IllegalStateException e) {
+                // stopped by destroy, the invocation is left without a timeout
+            }
+        }
     }
 
     public InvocationRequest get(long sequence) {
@@ -43,38 +65,82 @@ public class ServiceInvocationRepository {
     }
 
     public void remove(long sequence) {
-        invocations.remove(sequence);
+        cancelTimeout(invocations.remove(sequence));
+    }
+
+    /**
+     * removes an invocation whose response is no longer waited for, the
+     * response is dropped when it arrives
+     */
+    public void cancel(long sequence) {
+        RemoteInvocationBean invocationBean = invocations.remove(sequence);
+        if (invocationBean != null) {
+            cancelTimeout(invocationBean);
+            Callback callback = invocationBean.callback;
+            if (callback != null && callback.getClient() != null) {
+                ServiceStatisticsHolder.flowOut(invocationBean.request, callback.getClient().getAddress());
+            }
+        }
+    }
+
+    private void cancelTimeout(RemoteInvocationBean invocationBean) {
+        if (invocationBean != null) {
+            Timeout timeout = invocationBean.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
     }
 
     public void receiveResponse(InvocationResponse response) {
-        RemoteInvocationBean invocationBean = invocations.get(response.getSequence());
+        RemoteInvocationBean invocationBean = invocations.remove(response.getSequence());
         if (invocationBean != null) {
+            cancelTimeout(invocationBean);
             if (logger.isDebugEnabled()) {
                 logger.debug("received response:" + response);
             }
             InvocationRequest request = invocationBean.request;
-            try {
-                Callback callback = invocationBean.callback;
-                if (callback != null) {
-                    Client client = callback.getClient();
-                    if (client != null) {
-                        ServiceStatisticsHolder.flowOut(request, client.getAddress());
-                    }
-                    callback.callback(response);
-                    callback.run();
+            Callback callback = invocationBean.callback;
+            if (callback != null) {
+                Client client = callback.getClient();
+                if (client != null) {
+                    ServiceStatisticsHolder.flowOut(request, client.getAddress());
                 }
-            } finally {
-                invocations.remove(response.getSequence());
+                callback.callback(response);
+                callback.run();
             }
         }
     }
 
     public void init() {
-        Runnable invocationTimeoutCheck = new InvocationTimeoutListener(invocations);
-        invocatinTimeCheckThreadPool.execute(invocationTimeoutCheck);
+        ConfigManager configManager = ConfigManagerLoader.getConfigManager();
+        if (configManager.getBooleanValue("pigeon.invoker.timeout.wheel.enable", true)) {
+            HashedWheelTimer timer = new HashedWheelTimer("Pigeon-Client-Invoke-Timeout-Timer",
+                    configManager.getLongValue("pigeon.invoker.timeout.wheel.tick", 10), TimeUnit.MILLISECONDS,
+                    configManager.getIntValue("pigeon.invoker.timeout.wheel.size", 512));
+            timer.start();
+            invocationTimeoutTimer = timer;
+        } else {
+            invocatinTimeCheckThreadPool.execute(invocationTimeoutListener);
+        }
+    }
+
+    public String getTimeoutStatistics() {
+        HashedWheelTimer timer = invocationTimeoutTimer;
+        StringBuilder stats = new StringBuilder();
+        stats.append("invocations:[").append(invocations.getStatistics()).append("]");
+        if (timer != null) {
+            stats.append(",timer:[").append(timer.getStatistics()).append("]");
+        }
+        return stats.toString();
     }
 
     public void destroy() throws Exception {
+        HashedWheelTimer timer = invocationTimeoutTimer;
+        if (timer != null) {
+            invocationTimeoutTimer = null;
+            timer.stop();
+        }
         ThreadPoolUtils.shutdown(invocatinTimeCheckThreadPool.getExecutor());
     }
 }
@@ -11,8 +11,10 @@ import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.channel.Channel;
 import com.dianping.pigeon.remoting.common.domain.generic.GenericRequest;
+import com.dianping.pigeon.remoting.common.domain.generic.UnifiedResponse;
 import com.dianping.pigeon.remoting.common.exception.ApplicationException;
 import com.dianping.pigeon.remoting.common.exception.NetworkException;
+import com.dianping.pigeon.remoting.common.exception.RateLimitedException;
 import com.dianping.pigeon.remoting.common.exception.RpcException;
 import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.common.util.InvocationUtils;
@@ -159,10 +161,43 @@ public class InvokerUtils {
 		} else {
 			e = new RemoteInvocationException(responseReturn.toString());
 		}
-		if (!(e instanceof RpcException)) {
-			return new RemoteInvocationException(e);
+		RpcException rpcException = e instanceof RpcException ? (RpcException) e : new RemoteInvocationException(e);
+		if (!(rpcException instanceof RateLimitedException)) {
+			// the exception was translated or sent as text, the hint comes with the response
+			long retryAfter = getRetryAfterMillis(response);
+			if (retryAfter > 0) {
+				RateLimitedException rateLimited = new RateLimitedException(rpcException.getMessage(), retryAfter);
+				rateLimited.setStackTrace(rpcException.getStackTrace());
+				return rateLimited;
+			}
+		}
+		return rpcException;
+	}
+
+	/**
+	 * the delay hinted by a provider rate limit, 0 if the response has none
+	 */
+	public static long getRetryAfterMillis(InvocationResponse response) {
+		Object retryAfter = null;
+		if (response instanceof UnifiedResponse) {
+			Map<String, String> localContext = ((UnifiedResponse) response).getLocalContext();
+			if (localContext != null) {
+				retryAfter = localContext.get(Constants.CONTEXT_KEY_RETRY_AFTER);
+			}
+		} else {
+			Map<String, Serializable> responseValues = response.getResponseValues();
+			if (responseValues != null) {
+				retryAfter = responseValues.get(Constants.CONTEXT_KEY_RETRY_AFTER);
+			}
+		}
+		if (retryAfter != null) {
+			try {
+				return Long.parseLong(retryAfter.toString());
+			} catch (NumberFormatException e) {
+				logger.warn("invalid retry after:" + retryAfter);
+			}
 		}
-		return (RpcException) e;
+		return 0;
 	}
 
 	static class NoReturnResponse implements InvocationResponse {
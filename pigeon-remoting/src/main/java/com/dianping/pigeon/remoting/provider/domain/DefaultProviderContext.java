@@ -23,8 +23,8 @@ public class DefaultProviderContext extends AbstractInvocationContext implements
 	public DefaultProviderContext(InvocationRequest request, ProviderChannel channel) {
 		super(request);
 		this.channel = channel;
-		getTimeline().add(new TimePoint(TimePhase.R, request.getCreateMillisTime()));
-		getTimeline().add(new TimePoint(TimePhase.R, System.currentTimeMillis()));
+		addTimePoint(TimePhase.R, request.getCreateMillisTime());
+		addTimePoint(TimePhase.R);
 	}
 
 	public Throwable getServiceError() {
@@ -4,19 +4,16 @@
  */
 package com.dianping.pigeon.remoting.provider.listener;
 
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import com.dianping.pigeon.remoting.common.domain.generic.UnifiedRequest;
-import com.google.common.collect.Maps;
 import org.apache.commons.lang.StringUtils;
 import com.dianping.pigeon.log.Logger;
-import org.springframework.util.CollectionUtils;
 
 import com.dianping.pigeon.config.ConfigManager;
 import com.dianping.pigeon.config.ConfigManagerLoader;
@@ -25,15 +22,25 @@ import com.dianping.pigeon.monitor.Monitor;
 import com.dianping.pigeon.monitor.MonitorLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.common.util.InvocationUtils;
 import com.dianping.pigeon.remoting.provider.ProviderBootStrap;
 import com.dianping.pigeon.remoting.provider.Server;
 import com.dianping.pigeon.remoting.provider.domain.ProviderContext;
 import com.dianping.pigeon.remoting.provider.exception.ProcessTimeoutException;
 import com.dianping.pigeon.remoting.provider.exception.RequestAbortedException;
 import com.dianping.pigeon.remoting.provider.process.RequestProcessor;
+import com.dianping.pigeon.timer.HashedWheelTimer;
+import com.dianping.pigeon.timer.Timeout;
+import com.dianping.pigeon.timer.TimerTask;
 import com.dianping.pigeon.util.ContextUtils;
 
-public class RequestTimeoutListener implements Runnable {
+/**
+ * requests are indexed by deadline in a timer wheel when they are accepted
+ * and taken out when they complete, so only the expired ones are visited.
+ * started and timed out requests are counted per method, and per app or
+ * parameters when isolated, as they happen.
+ */
+public class RequestTimeoutListener {
 
 	private static final Logger logger = LoggerLoader.getLogger(RequestTimeoutListener.class);
 	private static final Monitor monitor = MonitorLoader.getMonitor();
@@ -41,9 +48,11 @@ public class RequestTimeoutListener implements Runnable {
 	private RequestProcessor requestProcessor;
 	private static final ConfigManager configManager = ConfigManagerLoader.getConfigManager();
 	private static int requestQueueSize = configManager.getIntValue("pigeon.provider.timeout.requestqueue.size", 100);
-	private Queue<Map<String, Count>> timeoutRequestQueue = new ArrayBlockingQueue<Map<String, Count>>(
-			requestQueueSize);
-	private volatile Map<String, Count> timeoutRequestCountMap = Maps.newConcurrentMap();
+	// service#method --> app, parameters or parameters#app --> count
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, Count>> timeoutRequestCountMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, Count>>();
+	private final HashedWheelTimer timer;
+	private final int windowSeconds;
+	private volatile RequestProcessor defaultProcessor;
 	private static final String KEY_TIMEOUT_SLOW_PCT_THRESHOLD = "pigeon.provider.timeout.slow.pct.threshold";
 	private static final String KEY_TIMEOUT_SLOW_COUNT_THRESHOLD = "pigeon.provider.timeout.slow.count.threshold";
 	private static final String KEY_TIMEOUT_ISOLATION_APP = "pigeon.provider.timeout.isolation.app";
@@ -52,12 +61,13 @@ public class RequestTimeoutListener implements Runnable {
 	private static final String KEY_TIMEOUT_INTERRUPT = "pigeon.provider.timeout.interruptbusy";
 	private static final String KEY_TIMEOUT_INTERVAL = "pigeon.provider.timeout.interval";
 	private static final String KEY_TIMEOUT_LOG_ENABLE = "pigeon.provider.timeout.log.enable";
+	private static final String KEY_TIMEOUT_WHEEL_SIZE = "pigeon.provider.timeout.wheel.size";
 
 	public RequestTimeoutListener(RequestProcessor requestProcessor,
 			Map<InvocationRequest, ProviderContext> requestContextMap) {
 		this.requestProcessor = requestProcessor;
 		this.requestContextMap = requestContextMap;
-		configManager.getIntValue(KEY_TIMEOUT_INTERVAL, 100);
+		int interval = configManager.getIntValue(KEY_TIMEOUT_INTERVAL, 100);
 		configManager.getFloatValue(KEY_TIMEOUT_SLOW_PCT_THRESHOLD, 5);
 		configManager.getIntValue(KEY_TIMEOUT_SLOW_COUNT_THRESHOLD, 300);
 		configManager.getBooleanValue(KEY_TIMEOUT_ISOLATION_APP, true);
@@ -65,217 +75,282 @@ public class RequestTimeoutListener implements Runnable {
 		configManager.getBooleanValue(KEY_TIMEOUT_CANCEL, Constants.DEFAULT_TIMEOUT_CANCEL);
 		configManager.getBooleanValue(KEY_TIMEOUT_INTERRUPT, true);
 		configManager.getBooleanValue(KEY_TIMEOUT_LOG_ENABLE, true);
+		// the counts cover as long as the queue of per interval counts used to
+		this.windowSeconds = Math.max(1, requestQueueSize * interval / 1000);
+		this.timer = new HashedWheelTimer("Pigeon-Provider-Timeout-Timer", interval, TimeUnit.MILLISECONDS,
+				configManager.getIntValue(KEY_TIMEOUT_WHEEL_SIZE, 512));
+	}
+
+	public void start() {
+		timer.start();
+	}
+
+	public void stop() {
+		timer.stop();
+	}
+
+	/**
+	 * the key within the counts of a method, only isolating by parameters
+	 * builds a string
+	 */
+	private String getIsolationKey(InvocationRequest request) {
+		boolean isolateApp = configManager.getBooleanValue(KEY_TIMEOUT_ISOLATION_APP, true);
+		if (!configManager.getBooleanValue(KEY_TIMEOUT_ISOLATION_PARAMETERS, false)) {
+			return isolateApp ? String.valueOf(request.getApp()) : "";
+		}
+		String parameters = StringUtils.join(request.getParamClassName(), ",");
+		return isolateApp ? parameters + "#" + request.getApp() : parameters;
+	}
+
+	private Count getCount(InvocationRequest request) {
+		String requestMethod = InvocationUtils.getRequestMethod(request);
+		ConcurrentHashMap<String, Count> counts = timeoutRequestCountMap.get(requestMethod);
+		if (counts == null) {
+			ConcurrentHashMap<String, Count> newCounts = new ConcurrentHashMap<String, Count>();
+			counts = timeoutRequestCountMap.putIfAbsent(requestMethod, newCounts);
+			if (counts == null) {
+				counts = newCounts;
+			}
+		}
+		String isolationKey = getIsolationKey(request);
+		Count count = counts.get(isolationKey);
+		if (count == null) {
+			Count newCount = new Count(windowSeconds);
+			count = counts.putIfAbsent(isolationKey, newCount);
+			if (count == null) {
+				count = newCount;
+			}
+		}
+		return count;
 	}
 
-	private String getRequestUrl(InvocationRequest request) {
-		StringBuilder url = new StringBuilder();
-		url.append(request.getServiceName()).append("#").append(request.getMethodName());
-		if (configManager.getBooleanValue(KEY_TIMEOUT_ISOLATION_PARAMETERS, false)) {
-			url.append("#").append(StringUtils.join(request.getParamClassName(), ","));
+	/**
+	 * counts the request and indexes it by its deadline
+	 *
+	 * @return to be cancelled when the request completes, null if the request
+	 *         has no deadline
+	 */
+	public Timeout add(InvocationRequest request, ProviderContext providerContext) {
+		Count count = null;
+		if (request.getMessageType() != Constants.MESSAGE_TYPE_HEART) {
+			count = getCount(request);
+			count.incTotal();
 		}
-		if (configManager.getBooleanValue(KEY_TIMEOUT_ISOLATION_APP, true)) {
-			url.append("#").append(request.getApp());
+		if (request.getTimeout() <= 0 || request.getCreateMillisTime() <= 0) {
+			return null;
 		}
-		return url.toString();
+		long delay = request.getCreateMillisTime() + request.getTimeout() - System.currentTimeMillis();
+		return timer.newTimeout(new RequestTimeoutTask(request, providerContext, count), delay > 0 ? delay : 0,
+				TimeUnit.MILLISECONDS);
 	}
 
 	public boolean isSlowRequest(InvocationRequest request) {
-		if (!CollectionUtils.isEmpty(timeoutRequestCountMap)) {
-			String requestUrl = getRequestUrl(request);
-			Count count = timeoutRequestCountMap.get(requestUrl);
-			if (count != null && (count.getTimeoutPercent() >= configManager
-					.getFloatValue(KEY_TIMEOUT_SLOW_PCT_THRESHOLD, 5)
-					|| count.getTimeout() >= configManager.getIntValue(KEY_TIMEOUT_SLOW_COUNT_THRESHOLD, 300))) {
-				return true;
+		if (!timeoutRequestCountMap.isEmpty()) {
+			Map<String, Count> counts = timeoutRequestCountMap.get(InvocationUtils.getRequestMethod(request));
+			if (counts != null) {
+				Count count = counts.get(getIsolationKey(request));
+				if (count != null && count.isSlow()) {
+					return true;
+				}
 			}
 		}
 		return false;
 	}
 
-	public void run() {
-		try {
-			Thread.sleep(5000);
-		} catch (InterruptedException e1) {
-		}
-		Map<String, Server> servers = ProviderBootStrap.getServersMap();
-		RequestProcessor processor = null;
-		for (Server server : servers.values()) {
-			if (Constants.PROTOCOL_DEFAULT.equals(server.getProtocol())) {
-				processor = server.getRequestProcessor();
+	public String getStatistics() {
+		return timer.getStatistics();
+	}
+
+	private RequestProcessor getDefaultProcessor() {
+		RequestProcessor processor = defaultProcessor;
+		if (processor == null) {
+			Map<String, Server> servers = ProviderBootStrap.getServersMap();
+			for (Server server : servers.values()) {
+				if (Constants.PROTOCOL_DEFAULT.equals(server.getProtocol())) {
+					processor = server.getRequestProcessor();
+				}
 			}
+			defaultProcessor = processor;
 		}
-		int i = 0;
-		while (true) {
-			int interval = configManager.getIntValue(KEY_TIMEOUT_INTERVAL, 100);
-			try {
-				Thread.sleep(interval);
-				i++;
-				if (timeoutRequestQueue.size() >= requestQueueSize) {
-					Map<String, Count> reqMap = timeoutRequestQueue.poll();
-					if (reqMap != null) {
-						reqMap.clear();
-					}
+		return processor;
+	}
+
+	private void processTimeout(InvocationRequest request, ProviderContext rc, Count timeoutCount) {
+		boolean cancelTimeout = configManager.getBooleanValue(KEY_TIMEOUT_CANCEL, Constants.DEFAULT_TIMEOUT_CANCEL);
+		RequestProcessor processor = getDefaultProcessor();
+		if (configManager.getBooleanValue(KEY_TIMEOUT_INTERRUPT, true) && processor != null) {
+			cancelTimeout = processor.needCancelRequest(request);
+		}
+		if (request.getMessageType() == Constants.MESSAGE_TYPE_HEART) {
+			Future<?> future = rc.getFuture();
+			if (future != null && !future.isCancelled()) {
+				future.cancel(cancelTimeout);
+			}
+		} else {
+			timeoutCount.incTimeout();
+			// one sample per url and second, each comes with a stack trace
+			if (timeoutCount.needLog()) {
+				StringBuilder msg = new StringBuilder();
+				msg.append("timeout while processing request, from:")
+						.append(rc.getChannel() == null ? "" : rc.getChannel().getRemoteAddress()).append(", to:")
+						.append(ConfigManagerLoader.getConfigManager().getLocalIp()).append(", process time:")
+						.append(System.currentTimeMillis()).append("\r\nrequest:").append(request)
+						.append("\r\nprocessor stats:interrupt:").append(cancelTimeout).append(",")
+						.append(this.requestProcessor.getProcessorStatistics(request));
+				Exception te = null;
+				Thread t = rc.getThread();
+				if (t == null) {
+					msg.append("\r\nthe request has not been executed");
+					te = new RequestAbortedException(msg.toString());
+					te.setStackTrace(new StackTraceElement[] {});
+				} else {
+					te = new ProcessTimeoutException(msg.toString());
+					te.setStackTrace(t.getStackTrace());
 				}
-				long currentTime = System.currentTimeMillis();
-				Map<String, Count> timeoutRequests = new HashMap<String, Count>();
-				for (InvocationRequest request : requestContextMap.keySet()) {
-					String requestUrl = getRequestUrl(request);
-					Count timeoutCount = timeoutRequests.get(requestUrl);
-					if (timeoutCount == null) {
-						timeoutCount = new Count();
-						timeoutRequests.put(requestUrl, timeoutCount);
-					}
-					if (request.getMessageType() != Constants.MESSAGE_TYPE_HEART) {
-						timeoutCount.incTotal();
-					}
-					if (request.getTimeout() > 0 && request.getCreateMillisTime() > 0
-							&& (request.getCreateMillisTime() + request.getTimeout()) < currentTime) {
-						try {
-							ProviderContext rc = requestContextMap.get(request);
-							if (rc != null) {
-								boolean cancelTimeout = configManager.getBooleanValue(KEY_TIMEOUT_CANCEL,
-										Constants.DEFAULT_TIMEOUT_CANCEL);
-								if (configManager.getBooleanValue(KEY_TIMEOUT_INTERRUPT, true) && processor != null) {
-									cancelTimeout = processor.needCancelRequest(request);
-								}
-								if (request.getMessageType() == Constants.MESSAGE_TYPE_HEART) {
-									Future<?> future = rc.getFuture();
-									if (future != null && !future.isCancelled()) {
-										future.cancel(cancelTimeout);
-									}
-								} else {
-									timeoutCount.incTimeout();
-									if (i % (1000 / interval) == 0) {
-										StringBuilder msg = new StringBuilder();
-										msg.append("timeout while processing request, from:")
-												.append(rc.getChannel() == null ? ""
-														: rc.getChannel().getRemoteAddress())
-												.append(", to:")
-												.append(ConfigManagerLoader.getConfigManager().getLocalIp())
-												.append(", process time:").append(System.currentTimeMillis())
-												.append("\r\nrequest:").append(request)
-												.append("\r\nprocessor stats:interrupt:").append(cancelTimeout)
-												.append(",")
-												.append(this.requestProcessor.getProcessorStatistics(request));
-										Exception te = null;
-										Thread t = rc.getThread();
-										if (t == null) {
-											msg.append("\r\nthe request has not been executed");
-											te = new RequestAbortedException(msg.toString());
-											te.setStackTrace(new StackTraceElement[] {});
-										} else {
-											te = new ProcessTimeoutException(msg.toString());
-											te.setStackTrace(t.getStackTrace());
-										}
-										if (!(request instanceof UnifiedRequest)) {
-											ContextUtils.setContext(request.getContext());
-										}
-										if (configManager.getBooleanValue(KEY_TIMEOUT_LOG_ENABLE, true)) {
-											logger.error(te.getMessage(), te);
-											if (monitor != null) {
-												monitor.logError(te);
-											}
-										}
-									}
-									Future<?> future = rc.getFuture();
-									if (future != null && !future.isCancelled()) {
-										if (future.cancel(cancelTimeout)) {
-										}
-									}
-								}
-							} else {
-								// logger.error("provider context is null with
-								// request:" + request);
-							}
-						} finally {
-							requestContextMap.remove(request);
-						}
+				if (!(request instanceof UnifiedRequest)) {
+					ContextUtils.setContext(request.getContext());
+				}
+				if (configManager.getBooleanValue(KEY_TIMEOUT_LOG_ENABLE, true)) {
+					logger.error(te.getMessage(), te);
+					if (monitor != null) {
+						monitor.logError(te);
 					}
 				}
-				timeoutRequestQueue.offer(timeoutRequests);
-				countTotalTimeoutRequests();
-			} catch (Throwable e) {
-				logger.warn(e.getMessage(), e);
+			}
+			Future<?> future = rc.getFuture();
+			if (future != null && !future.isCancelled()) {
+				future.cancel(cancelTimeout);
 			}
 		}
 	}
 
-	private void countTotalTimeoutRequests() {
-		Map<String, Count> countMap = Maps.newConcurrentMap();
-		Iterator<Map<String, Count>> ir = timeoutRequestQueue.iterator();
-		while (ir.hasNext()) {
-			Map<String, Count> element = ir.next();
-			for (String key : element.keySet()) {
-				Count count = element.get(key);
-				Count last = countMap.get(key);
-				if (last == null) {
-					countMap.put(key, count);
-				} else {
-					countMap.put(key, last.merge(count));
-				}
+	/**
+	 * runs on the timer thread when a request outlives its deadline
+	 */
+	private class RequestTimeoutTask implements TimerTask {
+
+		private final InvocationRequest request;
+
+		private final ProviderContext providerContext;
+
+		private final Count count;
+
+		RequestTimeoutTask(InvocationRequest request, ProviderContext providerContext, Count count) {
+			this.request = request;
+			this.providerContext = providerContext;
+			this.count = count;
+		}
+
+		@Override
+		public void run(Timeout timeout) throws Exception {
+			if (requestContextMap.get(request) != providerContext) {
+				return;
+			}
+			try {
+				processTimeout(request, providerContext, count);
+			} catch (Throwable e) {
+				logger.warn(e.getMessage(), e);
+			} finally {
+				requestContextMap.remove(request);
 			}
 		}
-		timeoutRequestCountMap = countMap;
 	}
 
+	/**
+	 * started and timed out requests of a url over the last seconds, one slot
+	 * per second. each slot is striped by thread and the stripes are a cache
+	 * line apart, request threads do not contend on a counter. a slot is
+	 * cleared when its second comes around again, increments racing with that
+	 * may be lost.
+	 */
 	private static class Count {
-		private int total;
-		private int timeout;
 
-		public Count(int total, int timeout) {
-			this.total = total;
-			this.timeout = timeout;
-		}
+		private static final int STRIPES = 4;
 
-		public Count() {
-		}
+		// ints per stripe, a 64 byte cache line
+		private static final int PAD = 16;
 
-		public int getTotal() {
-			return total;
-		}
+		private static final int TOTAL = 0;
 
-		public void setTotal(int total) {
-			this.total = total;
-		}
+		private static final int TIMEOUT = 1;
 
-		public int getTimeout() {
-			return timeout;
-		}
+		private final int window;
 
-		public void setTimeout(int timeout) {
-			this.timeout = timeout;
-		}
+		private final AtomicLongArray seconds;
 
-		public float getTimeoutPercent() {
-			if (total > 0) {
-				return timeout * 100 / total;
-			} else {
-				return 0;
-			}
+		private final AtomicIntegerArray counters;
+
+		private volatile long evaluatedSecond = -1;
+
+		private volatile boolean slow;
+
+		private volatile long loggedSecond = -1;
+
+		Count(int window) {
+			this.window = window;
+			this.seconds = new AtomicLongArray(window);
+			this.counters = new AtomicIntegerArray(window * STRIPES * PAD);
 		}
 
-		public Count merge(Count count) {
-			Count n = new Count();
-			n.total = this.total + count.total;
-			n.timeout = this.timeout + count.timeout;
-			return n;
+		void incTotal() {
+			increment(TOTAL);
 		}
 
-		public void clear() {
-			timeout = 0;
-			total = 0;
+		void incTimeout() {
+			increment(TIMEOUT);
 		}
 
-		public void incTotal() {
-			total++;
+		private void increment(int offset) {
+			long second = System.currentTimeMillis() / 1000;
+			int slot = (int) (second % window);
+			long held = seconds.get(slot);
+			if (held != second && seconds.compareAndSet(slot, held, second)) {
+				for (int stripe = 0; stripe < STRIPES; stripe++) {
+					int index = (slot * STRIPES + stripe) * PAD;
+					counters.set(index + TOTAL, 0);
+					counters.set(index + TIMEOUT, 0);
+				}
+			}
+			int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+			counters.incrementAndGet((slot * STRIPES + stripe) * PAD + offset);
 		}
 
-		public void incTimeout() {
-			timeout++;
+		/**
+		 * evaluated at most once a second
+		 */
+		boolean isSlow() {
+			long second = System.currentTimeMillis() / 1000;
+			if (evaluatedSecond != second) {
+				int total = 0;
+				int timeout = 0;
+				for (int slot = 0; slot < window; slot++) {
+					if (seconds.get(slot) <= second - window) {
+						continue;
+					}
+					for (int stripe = 0; stripe < STRIPES; stripe++) {
+						int index = (slot * STRIPES + stripe) * PAD;
+						total += counters.get(index + TOTAL);
+						timeout += counters.get(index + TIMEOUT);
+					}
+				}
+				float percent = total > 0 ? timeout * 100 / total : 0;
+				slow = percent >= configManager.getFloatValue(KEY_TIMEOUT_SLOW_PCT_THRESHOLD, 5)
+						|| timeout >= configManager.getIntValue(KEY_TIMEOUT_SLOW_COUNT_THRESHOLD, 300);
+				evaluatedSecond = second;
+			}
+			return slow;
 		}
 
-		public String toString() {
-			return timeout + "/" + total + "=" + getTimeoutPercent();
+		/**
+		 * only called on the timer thread
+		 */
+		boolean needLog() {
+			long second = System.currentTimeMillis() / 1000;
+			if (loggedSecond == second) {
+				return false;
+			}
+			loggedSecond = second;
+			return true;
 		}
 	}
 }
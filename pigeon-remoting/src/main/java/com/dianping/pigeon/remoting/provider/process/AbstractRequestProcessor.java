@@ -18,14 +18,9 @@ import com.dianping.pigeon.remoting.provider.domain.ProviderContext;
 import com.dianping.pigeon.remoting.provider.listener.RequestTimeoutListener;
 import com.dianping.pigeon.remoting.provider.process.threadpool.RequestThreadPoolProcessor;
 import com.dianping.pigeon.remoting.provider.util.ProviderUtils;
-import com.dianping.pigeon.threadpool.DefaultThreadPool;
-import com.dianping.pigeon.threadpool.ThreadPool;
-import com.dianping.pigeon.util.ThreadPoolUtils;
 
 public abstract class AbstractRequestProcessor implements RequestProcessor {
 
-	private static ThreadPool timeCheckThreadPool = new DefaultThreadPool("Pigeon-Provider-Timeout-Checker");
-
 	protected Map<InvocationRequest, ProviderContext> requestContextMap = new ConcurrentHashMap<InvocationRequest, ProviderContext>();
 
 	protected static final Logger logger = LoggerLoader.getLogger(RequestThreadPoolProcessor.class);
@@ -42,14 +37,16 @@ public abstract class AbstractRequestProcessor implements RequestProcessor {
 
 	public void start() {
 		requestTimeoutListener = new RequestTimeoutListener(this, requestContextMap);
-		timeCheckThreadPool.execute(requestTimeoutListener);
+		requestTimeoutListener.start();
 		doStart();
 	}
 
 	public abstract void doStop();
 
 	public void stop() {
-		ThreadPoolUtils.shutdown(timeCheckThreadPool.getExecutor());
+		if (requestTimeoutListener != null) {
+			requestTimeoutListener.stop();
+		}
 		doStop();
 	}
 
@@ -7,14 +7,15 @@ package com.dianping.pigeon.remoting.provider.process;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.dianping.pigeon.remoting.provider.process.filter.*;
 import com.dianping.pigeon.log.Logger;
 
 import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.Disposable;
-import com.dianping.pigeon.remoting.common.domain.InvocationContext;
-import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.process.ServiceInvocationChain;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationFilter;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
 import com.dianping.pigeon.remoting.common.util.Constants;
@@ -40,6 +41,20 @@ public final class ProviderProcessHandlerFactory {
 
 	private static ServiceInvocationHandler scannerHeartBeatInvocationHandler = null;
 
+	// service url --> handler compiled from its own filters
+	private static ConcurrentHashMap<String, ServiceInvocationHandler> serviceInvocationHandlers = new ConcurrentHashMap<String, ServiceInvocationHandler>();
+
+	public static ServiceInvocationHandler selectInvocationHandler(InvocationRequest request) {
+		if (Constants.MESSAGE_TYPE_SERVICE == request.getMessageType() && !serviceInvocationHandlers.isEmpty()
+				&& request.getServiceName() != null) {
+			ServiceInvocationHandler handler = serviceInvocationHandlers.get(request.getServiceName());
+			if (handler != null) {
+				return handler;
+			}
+		}
+		return selectInvocationHandler(request.getMessageType());
+	}
+
 	public static ServiceInvocationHandler selectInvocationHandler(int messageType) {
 		if (Constants.MESSAGE_TYPE_HEART == messageType) {
 			return heartBeatInvocationHandler;
@@ -53,9 +68,7 @@ public final class ProviderProcessHandlerFactory {
 	}
 
 	public static void init() {
-		if (Constants.MONITOR_ENABLE) {
-			registerBizProcessFilter(new MonitorProcessFilter());
-		}
+		registerBizProcessFilter(new MonitorProcessFilter());
 		registerBizProcessFilter(new WriteResponseProcessFilter());
 		registerBizProcessFilter(new ContextTransferProcessFilter());
 		registerBizProcessFilter(new ExceptionProcessFilter());
@@ -77,24 +90,34 @@ public final class ProviderProcessHandlerFactory {
 		scannerHeartBeatInvocationHandler = createInvocationHandler(scannerHeartBeatProcessFilters);
 	}
 
-	@SuppressWarnings({ "rawtypes" })
-	private static <K, V extends ServiceInvocationFilter> ServiceInvocationHandler createInvocationHandler(
-			List<V> internalFilters) {
-		ServiceInvocationHandler last = null;
-		List<V> filterList = new ArrayList<V>();
-		filterList.addAll(internalFilters);
-		for (int i = filterList.size() - 1; i >= 0; i--) {
-			final V filter = filterList.get(i);
-			final ServiceInvocationHandler next = last;
-			last = new ServiceInvocationHandler() {
-				@SuppressWarnings("unchecked")
-				@Override
-				public InvocationResponse handle(InvocationContext invocationContext) throws Throwable {
-					return filter.invoke(next, invocationContext);
-				}
-			};
+	private static ServiceInvocationHandler createInvocationHandler(
+			List<ServiceInvocationFilter<ProviderContext>> filters) {
+		return ServiceInvocationChain.compile(filters);
+	}
+
+	/**
+	 * @return a copy of the default filters of service requests, to build the
+	 *         filters of a single service from
+	 */
+	public static List<ServiceInvocationFilter<ProviderContext>> getBizProcessFilters() {
+		return new ArrayList<ServiceInvocationFilter<ProviderContext>>(bizProcessFilters);
+	}
+
+	/**
+	 * service requests for url go through these filters instead of the
+	 * default ones, the caller owns and destroys the filters it adds
+	 */
+	public static void setServiceProcessFilters(String url, List<ServiceInvocationFilter<ProviderContext>> filters) {
+		ServiceInvocationHandler handler = createInvocationHandler(filters);
+		if (handler != null) {
+			serviceInvocationHandlers.put(url, handler);
+		} else {
+			serviceInvocationHandlers.remove(url);
 		}
-		return last;
+	}
+
+	public static void removeServiceProcessFilters(String url) {
+		serviceInvocationHandlers.remove(url);
 	}
 
 	private static void registerBizProcessFilter(ServiceInvocationFilter<ProviderContext> filter) {
@@ -132,5 +155,6 @@ public final class ProviderProcessHandlerFactory {
 		}
 		bizProcessFilters.clear();
 		heartBeatProcessFilters.clear();
+		serviceInvocationHandlers.clear();
 	}
 }
@@ -10,7 +10,6 @@ import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.Logger;
 import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePhase;
-import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePoint;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.exception.BadRequestException;
@@ -41,7 +40,7 @@ public class BusinessProcessFilter implements ServiceInvocationFilter<ProviderCo
 	@Override
 	public InvocationResponse invoke(ServiceInvocationHandler handler, ProviderContext invocationContext)
 			throws Throwable {
-		invocationContext.getTimeline().add(new TimePoint(TimePhase.U));
+		invocationContext.addTimePoint(TimePhase.U);
 		InvocationRequest request = invocationContext.getRequest();
 		if (request.getMessageType() == Constants.MESSAGE_TYPE_SERVICE) {
 			if (ConfigManagerLoader.getConfigManager().getBooleanValue(KEY_TIMEOUT_RESET, true)
@@ -72,7 +71,7 @@ public class BusinessProcessFilter implements ServiceInvocationFilter<ProviderCo
 			if (Constants.REPLY_MANUAL) {
 				ProviderHelper.setContext(invocationContext);
 			}
-			invocationContext.getTimeline().add(new TimePoint(TimePhase.M, System.currentTimeMillis()));
+			invocationContext.addTimePoint(TimePhase.M);
 			Object returnObj = null;
 			try {
 				returnObj = method.invoke(request.getParameters());
@@ -80,7 +79,7 @@ public class BusinessProcessFilter implements ServiceInvocationFilter<ProviderCo
 				ProviderHelper.clearContext();
 			}
 
-			invocationContext.getTimeline().add(new TimePoint(TimePhase.M, System.currentTimeMillis()));
+			invocationContext.addTimePoint(TimePhase.M);
 			if (request.getCallType() == Constants.CALLTYPE_REPLY) {
 				response = ProviderUtils.createSuccessResponse(request, returnObj);
 			}
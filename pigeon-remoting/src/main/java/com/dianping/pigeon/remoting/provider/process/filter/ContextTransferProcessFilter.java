@@ -16,7 +16,6 @@ import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePhase;
-import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePoint;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationFilter;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
 import com.dianping.pigeon.remoting.provider.domain.ProviderContext;
@@ -29,7 +28,7 @@ public class ContextTransferProcessFilter implements ServiceInvocationFilter<Pro
     @Override
     public InvocationResponse invoke(ServiceInvocationHandler handler, ProviderContext invocationContext)
             throws Throwable {
-		invocationContext.getTimeline().add(new TimePoint(TimePhase.C));
+		invocationContext.addTimePoint(TimePhase.C);
         InvocationRequest request = invocationContext.getRequest();
         transferContextValueToProcessor(invocationContext, request);
         InvocationResponse response = null;
@@ -114,7 +113,13 @@ public class ContextTransferProcessFilter implements ServiceInvocationFilter<Pro
             }
             response.setContext(contextHolder);
         }
-        response.setResponseValues(ContextUtils.getResponseContext());
+        Map<String, Serializable> responseValues = response.getResponseValues();
+        if (responseValues == null) {
+            response.setResponseValues(ContextUtils.getResponseContext());
+        } else if (ContextUtils.getResponseContext() != null) {
+            // keeps the values the framework set on the response, like the retry after of a rate limit
+            responseValues.putAll(ContextUtils.getResponseContext());
+        }
     }
 
     private void transferContextValueToResponse0(final ProviderContext processContext, final UnifiedResponse response) {
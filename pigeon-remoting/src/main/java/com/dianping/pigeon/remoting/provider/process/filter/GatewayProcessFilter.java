@@ -19,33 +19,32 @@ import com.dianping.pigeon.config.ConfigChangeListener;
 import com.dianping.pigeon.config.ConfigManager;
 import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.LoggerLoader;
-import com.dianping.pigeon.remoting.common.domain.Disposable;
 import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePhase;
-import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePoint;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.exception.RateLimitedException;
 import com.dianping.pigeon.remoting.common.exception.RejectedException;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationFilter;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
 import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.common.util.InvocationUtils;
 import com.dianping.pigeon.remoting.provider.config.ProviderConfig;
 import com.dianping.pigeon.remoting.provider.domain.ProviderContext;
-import com.dianping.pigeon.remoting.provider.process.statistics.ProviderStatisticsChecker;
+import com.dianping.pigeon.remoting.provider.process.limit.AdaptiveConcurrencyLimiter;
+import com.dianping.pigeon.remoting.provider.process.limit.RateLimiter;
+import com.dianping.pigeon.remoting.provider.process.limit.RateLimiterTable;
 import com.dianping.pigeon.remoting.provider.process.statistics.ProviderStatisticsHolder;
 import com.dianping.pigeon.remoting.provider.publish.ServiceChangeListener;
 import com.dianping.pigeon.remoting.provider.publish.ServiceChangeListenerContainer;
 import com.dianping.pigeon.remoting.provider.service.method.ServiceMethodCache;
 import com.dianping.pigeon.remoting.provider.service.method.ServiceMethodFactory;
-import com.dianping.pigeon.threadpool.DefaultThreadPool;
-import com.dianping.pigeon.threadpool.ThreadPool;
 import com.dianping.pigeon.util.CollectionUtils;
-import com.dianping.pigeon.util.ThreadPoolUtils;
 
 /**
  * @author xiangwu
  * 
  */
-public class GatewayProcessFilter implements ServiceInvocationFilter<ProviderContext>, Disposable {
+public class GatewayProcessFilter implements ServiceInvocationFilter<ProviderContext> {
 
 	private static final Logger logger = LoggerLoader.getLogger(GatewayProcessFilter.class);
 	private static final ConfigManager configManager = ConfigManagerLoader.getConfigManager();
@@ -54,35 +53,47 @@ public class GatewayProcessFilter implements ServiceInvocationFilter<ProviderCon
 	private static final String KEY_METHODLIMIT_ENABLE = "pigeon.provider.methodlimit.enable";
 	private static final String KEY_APPLIMIT = "pigeon.provider.applimit";
 	private static final String KEY_METHODAPPLIMIT = "pigeon.provider.methodapplimit";
+	private static final String KEY_LIMIT_BURST_RATIO = "pigeon.provider.limit.burst.ratio";
+	private static final String KEY_METHODLIMIT_ADAPTIVE_ENABLE = "pigeon.provider.methodlimit.adaptive.enable";
 	private static volatile Map<String, Long> appLimitMap = new ConcurrentHashMap<String, Long>();
 	// api#method --> {app1 --> qpslimit, app2 --> qpslimit}
 	private static volatile Map<String, Map<String, Long>> methodAppLimitMap = Maps.newConcurrentMap();
+	private static volatile boolean appLimitEnable;
+	private static volatile boolean methodAppLimitEnable;
+	private static volatile boolean methodLimitEnable;
+	private static volatile boolean adaptiveMethodLimitEnable;
+	private static volatile double limitBurstRatio;
+	private static volatile RateLimiterTable limiterTable = RateLimiterTable.EMPTY;
 	private static final JacksonSerializer jacksonSerializer = new JacksonSerializer();
-	private static ThreadPool statisticsCheckerPool = new DefaultThreadPool("Pigeon-Server-Statistics-Checker");
 	private static final ConcurrentHashMap<String, AtomicInteger> methodActives = new ConcurrentHashMap<String, AtomicInteger>();
 	private static final AtomicInteger total = new AtomicInteger();
 	private static final int MAX_THREADS = ConfigManagerLoader.getConfigManager().getIntValue(
 			"pigeon.provider.pool.method.maxthreads", 100);
+	private static final ConcurrentHashMap<String, AdaptiveConcurrencyLimiter> methodLimiters = new ConcurrentHashMap<String, AdaptiveConcurrencyLimiter>();
+	private static final int ADAPTIVE_INITIAL_LIMIT = configManager.getIntValue(
+			"pigeon.provider.methodlimit.adaptive.initial", 20);
+	private static final int ADAPTIVE_MIN_LIMIT = configManager.getIntValue("pigeon.provider.methodlimit.adaptive.min",
+			4);
+	private static final int ADAPTIVE_MAX_LIMIT = Math.max(ADAPTIVE_MIN_LIMIT,
+			configManager.getIntValue("pigeon.provider.methodlimit.adaptive.max", MAX_THREADS));
 
 	static {
 		String methodAppLimitConfig = configManager.getStringValue(KEY_METHODAPPLIMIT);
 		parseMethodAppLimitConfig(methodAppLimitConfig);
-		configManager.getBooleanValue(KEY_METHODAPPLIMIT_ENABLE, false);
+		methodAppLimitEnable = configManager.getBooleanValue(KEY_METHODAPPLIMIT_ENABLE, false);
 
 		String appLimitConfig = configManager.getStringValue(KEY_APPLIMIT);
 		parseAppLimitConfig(appLimitConfig);
-		configManager.getBooleanValue(KEY_APPLIMIT_ENABLE, false);
-		configManager.getBooleanValue(KEY_METHODLIMIT_ENABLE, true);
+		appLimitEnable = configManager.getBooleanValue(KEY_APPLIMIT_ENABLE, false);
+		methodLimitEnable = configManager.getBooleanValue(KEY_METHODLIMIT_ENABLE, true);
+		adaptiveMethodLimitEnable = configManager.getBooleanValue(KEY_METHODLIMIT_ADAPTIVE_ENABLE, false);
+		// a tenth of a second of burst, raise it for callers that send in batches
+		limitBurstRatio = configManager.getDoubleValue(KEY_LIMIT_BURST_RATIO, 0.1);
+		compileLimiters();
 		ConfigManagerLoader.getConfigManager().registerConfigChangeListener(new InnerConfigChangeListener());
-		ProviderStatisticsChecker appStatisticsChecker = new ProviderStatisticsChecker();
-		statisticsCheckerPool.execute(appStatisticsChecker);
 		ServiceChangeListenerContainer.addServiceChangeListener(new InnerServiceChangeListener());
 	}
 
-	public void destroy() throws Exception {
-		ThreadPoolUtils.shutdown(statisticsCheckerPool.getExecutor());
-	}
-
 	private static void parseMethodAppLimitConfig(String methodAppLimitConfig) {
 		if (StringUtils.isNotBlank(methodAppLimitConfig)) {
 			Map<String, Map<String, Long>> map = Maps.newConcurrentMap();
@@ -117,15 +128,32 @@ public class GatewayProcessFilter implements ServiceInvocationFilter<ProviderCon
 		}
 	}
 
+	/**
+	 * rebuilds the limiter table, called only when the limit configuration
+	 * changes
+	 */
+	private static synchronized void compileLimiters() {
+		try {
+			limiterTable = RateLimiterTable.compile(appLimitEnable ? appLimitMap : null,
+					methodAppLimitEnable ? methodAppLimitMap : null, limitBurstRatio, limiterTable);
+		} catch (RuntimeException e) {
+			logger.error("error while compiling rate limiters, app limit:" + appLimitMap + ", method app limit:"
+					+ methodAppLimitMap, e);
+		}
+	}
+
 	@Override
 	public InvocationResponse invoke(ServiceInvocationHandler handler, ProviderContext invocationContext)
 			throws Throwable {
-		invocationContext.getTimeline().add(new TimePoint(TimePhase.G));
+		invocationContext.addTimePoint(TimePhase.G);
 		InvocationRequest request = invocationContext.getRequest();
 		String fromApp = request.getApp();
 		InvocationResponse response = null;
-		final String requestMethod = request.getServiceName() + "#" + request.getMethodName();
-		final boolean enableMethodLimit = configManager.getBooleanValue(KEY_METHODLIMIT_ENABLE, true);
+		final String requestMethod = InvocationUtils.getRequestMethod(request);
+		final AdaptiveConcurrencyLimiter concurrencyLimiter = methodLimitEnable && adaptiveMethodLimitEnable ? methodLimiters
+				.get(requestMethod) : null;
+		final boolean enableMethodLimit = methodLimitEnable && concurrencyLimiter == null;
+		long acquiredTime = 0;
 		try {
 			ProviderStatisticsHolder.flowIn(request);
 			if (Constants.MESSAGE_TYPE_SERVICE == request.getMessageType()) {
@@ -133,37 +161,47 @@ public class GatewayProcessFilter implements ServiceInvocationFilter<ProviderCon
 					incrementRequest(requestMethod);
 				}
 
-				if (configManager.getBooleanValue(KEY_METHODAPPLIMIT_ENABLE, false)
-						&& methodAppLimitMap.containsKey(requestMethod) && StringUtils.isNotBlank(fromApp)) {
-					Long limit = methodAppLimitMap.get(requestMethod).get(fromApp);
-
-					if(limit != null && limit >= 0) {
-						long requests = ProviderStatisticsHolder
-								.getMethodAppCapacityBucket(request).getRequestsInCurrentSecond();
-						if (requests + 1 > limit) {
-							throw new RejectedException(String.format(
-									"Max requests limit %s reached for request %s from app:%s"
-									, limit, requestMethod, fromApp));
+				if (StringUtils.isNotBlank(fromApp)) {
+					RateLimiterTable limiters = limiterTable;
+					// the app limit first, so that calls it rejects do not use up
+					// the permits of the method
+					RateLimiter limiter = limiters.getAppLimiter(fromApp);
+					if (limiter != null) {
+						long retryAfter = limiter.tryAcquire();
+						if (retryAfter > 0) {
+							throw new RateLimitedException(String.format(
+									"Max requests limit %s reached for request from app:%s, retry after %sms",
+									limiter.getLimit(), fromApp, retryAfter), retryAfter);
 						}
 					}
-				}
 
-				if (configManager.getBooleanValue(KEY_APPLIMIT_ENABLE, false) && StringUtils.isNotBlank(fromApp)
-						&& appLimitMap.containsKey(fromApp)) {
-					Long limit = appLimitMap.get(fromApp);
-					if (limit >= 0) {
-						long requests = ProviderStatisticsHolder.getCapacityBucket(request)
-								.getRequestsInCurrentSecond();
-						if (requests + 1 > limit) {
-							throw new RejectedException(String.format(
-									"Max requests limit %s reached for request from app:%s", limit, fromApp));
+					limiter = limiters.getMethodAppLimiter(requestMethod, fromApp);
+					if (limiter != null) {
+						long retryAfter = limiter.tryAcquire();
+						if (retryAfter > 0) {
+							throw new RateLimitedException(String.format(
+									"Max requests limit %s reached for request %s from app:%s, retry after %sms",
+									limiter.getLimit(), requestMethod, fromApp, retryAfter), retryAfter);
 						}
 					}
 				}
+
+				// after the rate limits so that rejections do not count as latency samples
+				if (concurrencyLimiter != null) {
+					if (!concurrencyLimiter.tryAcquire()) {
+						throw new RejectedException(String.format(
+								"Reached the adaptive limit %s for method: %s, current: %s",
+								concurrencyLimiter.getLimit(), requestMethod, concurrencyLimiter.getInflight()));
+					}
+					acquiredTime = System.nanoTime();
+				}
 			}
 			response = handler.handle(invocationContext);
 			return response;
 		} finally {
+			if (acquiredTime != 0) {
+				concurrencyLimiter.release(System.nanoTime() - acquiredTime);
+			}
 			if (Constants.MESSAGE_TYPE_SERVICE == request.getMessageType() && enableMethodLimit) {
 				decrementRequest(requestMethod);
 			}
@@ -182,13 +220,33 @@ public class GatewayProcessFilter implements ServiceInvocationFilter<ProviderCon
 			}
 			stats.append("]");
 		}
+		if (adaptiveMethodLimitEnable && !CollectionUtils.isEmpty(methodLimiters)) {
+			stats.append(",[method limits=[");
+			for (Map.Entry<String, AdaptiveConcurrencyLimiter> entry : methodLimiters.entrySet()) {
+				stats.append("[").append(entry.getKey()).append("=").append(entry.getValue()).append("]");
+			}
+			stats.append("]");
+		}
 		return stats.toString();
 	}
 
+	public static Map<String, AdaptiveConcurrencyLimiter> getMethodLimiters() {
+		return methodLimiters;
+	}
+
 	public static void checkRequest(final InvocationRequest request) {
-		if (Constants.MESSAGE_TYPE_SERVICE == request.getMessageType()
-				&& configManager.getBooleanValue(KEY_METHODLIMIT_ENABLE, true)) {
-			final String requestMethod = request.getServiceName() + "#" + request.getMethodName();
+		if (Constants.MESSAGE_TYPE_SERVICE == request.getMessageType() && methodLimitEnable) {
+			final String requestMethod = InvocationUtils.getRequestMethod(request);
+			AdaptiveConcurrencyLimiter concurrencyLimiter = adaptiveMethodLimitEnable ? methodLimiters
+					.get(requestMethod) : null;
+			if (concurrencyLimiter != null) {
+				if (concurrencyLimiter.getInflight() >= concurrencyLimiter.getLimit()) {
+					throw new RejectedException(String.format(
+							"Reached the adaptive limit %s for method: %s, current: %s",
+							concurrencyLimiter.getLimit(), requestMethod, concurrencyLimiter.getInflight()));
+				}
+				return;
+			}
 			AtomicInteger count = methodActives.get(requestMethod);
 			if (count != null) {
 				int limit = getMaxThreadsForMethod(requestMethod, count.get());
@@ -237,16 +295,33 @@ public class GatewayProcessFilter implements ServiceInvocationFilter<ProviderCon
 		public void onKeyUpdated(String key, String value) {
 			if (key.endsWith(KEY_APPLIMIT)) {
 				parseAppLimitConfig(value);
-			}
-
-			if(key.endsWith(KEY_METHODAPPLIMIT)) {
+				compileLimiters();
+			} else if (key.endsWith(KEY_METHODAPPLIMIT)) {
 				parseMethodAppLimitConfig(value);
+				compileLimiters();
+			} else if (key.endsWith(KEY_APPLIMIT_ENABLE)) {
+				appLimitEnable = Boolean.valueOf(value);
+				compileLimiters();
+			} else if (key.endsWith(KEY_METHODAPPLIMIT_ENABLE)) {
+				methodAppLimitEnable = Boolean.valueOf(value);
+				compileLimiters();
+			} else if (key.endsWith(KEY_LIMIT_BURST_RATIO)) {
+				try {
+					limitBurstRatio = Double.valueOf(value);
+					compileLimiters();
+				} catch (RuntimeException e) {
+					logger.error("invalid value for " + key + ":" + value, e);
+				}
+			} else if (key.endsWith(KEY_METHODLIMIT_ENABLE)) {
+				methodLimitEnable = Boolean.valueOf(value);
+			} else if (key.endsWith(KEY_METHODLIMIT_ADAPTIVE_ENABLE)) {
+				adaptiveMethodLimitEnable = Boolean.valueOf(value);
 			}
 		}
 
 		@Override
 		public void onKeyAdded(String key, String value) {
-
+			onKeyUpdated(key, value);
 		}
 
 		@Override
@@ -281,6 +356,8 @@ public class GatewayProcessFilter implements ServiceInvocationFilter<ProviderCon
 			Set<String> methodNames = methodCache.getMethodMap().keySet();
 			for (String method : methodNames) {
 				methodActives.put(url + "#" + method, new AtomicInteger());
+				methodLimiters.put(url + "#" + method, new AdaptiveConcurrencyLimiter(ADAPTIVE_INITIAL_LIMIT,
+						ADAPTIVE_MIN_LIMIT, ADAPTIVE_MAX_LIMIT));
 			}
 		}
 
@@ -291,6 +368,7 @@ public class GatewayProcessFilter implements ServiceInvocationFilter<ProviderCon
 			Set<String> methodNames = methodCache.getMethodMap().keySet();
 			for (String method : methodNames) {
 				methodActives.remove(url + "#" + method);
+				methodLimiters.remove(url + "#" + method);
 			}
 		}
 
@@ -20,8 +20,8 @@ import com.dianping.pigeon.monitor.MonitorTransaction;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePhase;
-import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePoint;
 import com.dianping.pigeon.remoting.common.monitor.SizeMonitor;
+import com.dianping.pigeon.remoting.common.process.ConditionalFilter;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationFilter;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
 import com.dianping.pigeon.remoting.common.util.Constants;
@@ -32,7 +32,7 @@ import com.dianping.pigeon.remoting.provider.service.method.ServiceMethod;
 import com.dianping.pigeon.remoting.provider.service.method.ServiceMethodFactory;
 import com.dianping.pigeon.util.ContextUtils;
 
-public class MonitorProcessFilter implements ServiceInvocationFilter<ProviderContext> {
+public class MonitorProcessFilter implements ServiceInvocationFilter<ProviderContext>, ConditionalFilter {
 
 	private static final Logger logger = LoggerLoader.getLogger(MonitorProcessFilter.class);
 
@@ -49,10 +49,15 @@ public class MonitorProcessFilter implements ServiceInvocationFilter<ProviderCon
 		ConfigManagerLoader.getConfigManager().getBooleanValue(KEY_LOG_SERVICE_EXCEPTION, true);
 	}
 
+	@Override
+	public boolean isEnabled() {
+		return Constants.MONITOR_ENABLE;
+	}
+
 	@Override
 	public InvocationResponse invoke(ServiceInvocationHandler handler, ProviderContext invocationContext)
 			throws Throwable {
-		invocationContext.getTimeline().add(new TimePoint(TimePhase.O));
+		invocationContext.addTimePoint(TimePhase.O);
 		InvocationRequest request = invocationContext.getRequest();
 		ProviderChannel channel = invocationContext.getChannel();
 		MonitorTransaction transaction = null;
@@ -160,7 +165,7 @@ public class MonitorProcessFilter implements ServiceInvocationFilter<ProviderCon
 				transaction.setStatusError(frameworkError);
 			}
 			if (transaction != null) {
-				invocationContext.getTimeline().add(new TimePoint(TimePhase.E, System.currentTimeMillis()));
+				invocationContext.addTimePoint(TimePhase.E);
 				try {
 					transaction.complete();
 					if (isAccessLogEnabled) {
@@ -18,7 +18,6 @@ import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.Logger;
 import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePhase;
-import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePoint;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.domain.generic.UnifiedRequest;
@@ -209,7 +208,7 @@ public class SecurityFilter implements ServiceInvocationFilter<ProviderContext>
 	public InvocationResponse invoke(ServiceInvocationHandler handler, ProviderContext invocationContext)
 			throws Throwable {
 		if (configManager.getBooleanValue(KEY_TOKEN_ENABLE, false)) {
-			invocationContext.getTimeline().add(new TimePoint(TimePhase.A));
+			invocationContext.addTimePoint(TimePhase.A);
 			InvocationRequest request = invocationContext.getRequest();
 			if (request.getMessageType() == Constants.MESSAGE_TYPE_SERVICE) {
 				boolean isAuth = false;
@@ -12,7 +12,6 @@ import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePhase;
-import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePoint;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationFilter;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
 import com.dianping.pigeon.remoting.common.util.Constants;
@@ -35,9 +34,9 @@ public class WriteResponseProcessFilter implements ServiceInvocationFilter<Provi
 			InvocationRequest request = invocationContext.getRequest();
 			InvocationResponse response = handler.handle(invocationContext);
 			if (request.getCallType() == Constants.CALLTYPE_REPLY) {
-				invocationContext.getTimeline().add(new TimePoint(TimePhase.P));
+				invocationContext.addTimePoint(TimePhase.P);
 				channel.write(response);
-				invocationContext.getTimeline().add(new TimePoint(TimePhase.P));
+				invocationContext.addTimePoint(TimePhase.P);
 			}
 			if (request.getMessageType() == Constants.MESSAGE_TYPE_SERVICE) {
 				List<ProviderProcessInterceptor> interceptors = ProviderProcessInterceptorFactory.getInterceptors();
@@ -0,0 +1,149 @@
+package com.dianping.pigeon.remoting.provider.process.limit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * in-flight limit following latency, gradient style: after every window of
+ * samples the limit is scaled by no-load latency / window latency, clamped to
+ * [0.5, 1], plus sqrt(limit) of headroom, and smoothed into the current
+ * limit. so it shrinks while latency rises above the no-load latency and
+ * grows by the headroom while it does not. it only grows when the window used
+ * at least half of the limit.
+ *
+ * the no-load latency is the lowest window latency, re-probed every
+ * PROBE_WINDOWS windows so that it follows lasting changes.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+	private static final int MIN_WINDOW_SAMPLES = 10;
+
+	private static final int PROBE_WINDOWS = 200;
+
+	private static final double SMOOTHING = 0.2;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private volatile int limit;
+
+	private final AtomicInteger inflight = new AtomicInteger();
+
+	private final AtomicLong rttSum = new AtomicLong();
+
+	private final AtomicInteger samples = new AtomicInteger();
+
+	private final AtomicInteger maxInflight = new AtomicInteger();
+
+	private final ReentrantLock updateLock = new ReentrantLock();
+
+	/**
+	 * nanos, guarded by updateLock
+	 */
+	private long minRtt = Long.MAX_VALUE;
+
+	/**
+	 * guarded by updateLock
+	 */
+	private int windows;
+
+	private volatile long lastRtt;
+
+	public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+		if (minLimit <= 0 || maxLimit < minLimit) {
+			throw new IllegalArgumentException("invalid limits, min:" + minLimit + ", max:" + maxLimit);
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+	}
+
+	/**
+	 * @return false if the limit is reached, otherwise release must follow
+	 */
+	public boolean tryAcquire() {
+		for (;;) {
+			int current = inflight.get();
+			if (current >= limit) {
+				return false;
+			}
+			if (inflight.compareAndSet(current, current + 1)) {
+				int max = maxInflight.get();
+				while (current + 1 > max && !maxInflight.compareAndSet(max, current + 1)) {
+					max = maxInflight.get();
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @param rttNanos
+	 *            how long the request was in flight
+	 */
+	public void release(long rttNanos) {
+		inflight.decrementAndGet();
+		rttSum.addAndGet(rttNanos);
+		if (samples.incrementAndGet() >= Math.max(MIN_WINDOW_SAMPLES, limit) && updateLock.tryLock()) {
+			try {
+				update();
+			} finally {
+				updateLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * caller holds updateLock
+	 */
+	private void update() {
+		int count = samples.getAndSet(0);
+		long sum = rttSum.getAndSet(0);
+		int used = maxInflight.getAndSet(inflight.get());
+		if (count <= 0) {
+			return;
+		}
+		long rtt = Math.max(1, sum / count);
+		lastRtt = rtt;
+		if (++windows >= PROBE_WINDOWS) {
+			windows = 0;
+			minRtt = rtt;
+		} else if (rtt < minRtt) {
+			minRtt = rtt;
+		}
+
+		int current = limit;
+		double gradient = Math.max(0.5, Math.min(1.0, (double) minRtt / rtt));
+		double newLimit = current * gradient + Math.sqrt(current);
+		if (used < current / 2) {
+			newLimit = Math.min(newLimit, current);
+		}
+		newLimit = current * (1 - SMOOTHING) + newLimit * SMOOTHING;
+		// round away from the current limit, small limits would not move otherwise
+		newLimit = newLimit > current ? Math.ceil(newLimit) : Math.floor(newLimit);
+		limit = (int) Math.max(minLimit, Math.min(maxLimit, newLimit));
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getInflight() {
+		return inflight.get();
+	}
+
+	@Override
+	public String toString() {
+		updateLock.lock();
+		try {
+			return "limit:" + limit + ",inflight:" + inflight.get() + ",minRtt:"
+					+ (minRtt == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(minRtt)) + "ms,rtt:"
+					+ TimeUnit.NANOSECONDS.toMillis(lastRtt) + "ms";
+		} finally {
+			updateLock.unlock();
+		}
+	}
+}
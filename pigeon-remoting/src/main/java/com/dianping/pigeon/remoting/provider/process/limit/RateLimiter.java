@@ -0,0 +1,81 @@
+package com.dianping.pigeon.remoting.provider.process.limit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * requests per second with a burst allowance, checked by the generic cell
+ * rate algorithm: every permit pushes a theoretical arrival time one interval
+ * ahead, a request is let in while that time is at most burst - 1 intervals
+ * in the future. the only state is that time, acquiring is a single cas.
+ */
+public class RateLimiter {
+
+	private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final long limit;
+
+	private final int burst;
+
+	/**
+	 * nanos per permit
+	 */
+	private final long interval;
+
+	/**
+	 * nanos the theoretical arrival time may run ahead of now
+	 */
+	private final long tolerance;
+
+	private final AtomicLong theoretical = new AtomicLong(System.nanoTime());
+
+	/**
+	 * @param limit
+	 *            requests per second, 0 rejects all
+	 * @param burst
+	 *            requests let in at once after a quiet period
+	 */
+	public RateLimiter(long limit, int burst) {
+		if (limit < 0 || burst <= 0) {
+			throw new IllegalArgumentException("limit must not be negative and burst must be greater than 0");
+		}
+		this.limit = limit;
+		this.burst = burst;
+		this.interval = limit > 0 ? Math.max(1, SECOND_NANOS / limit) : 0;
+		this.tolerance = (burst - 1) * interval;
+	}
+
+	/**
+	 * @return 0 if acquired, otherwise the millis until a permit is due
+	 */
+	public long tryAcquire() {
+		if (interval == 0) {
+			return TimeUnit.SECONDS.toMillis(1);
+		}
+		for (;;) {
+			long now = System.nanoTime();
+			long tat = theoretical.get();
+			long start = tat - now > 0 ? tat : now;
+			long wait = start - now - tolerance;
+			if (wait > 0) {
+				return Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+			}
+			if (theoretical.compareAndSet(tat, start + interval)) {
+				return 0;
+			}
+		}
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	@Override
+	public String toString() {
+		return "limit:" + limit + ",burst:" + burst;
+	}
+}
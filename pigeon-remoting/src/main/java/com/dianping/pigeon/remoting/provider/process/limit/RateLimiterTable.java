@@ -0,0 +1,106 @@
+package com.dianping.pigeon.remoting.provider.process.limit;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * immutable app and method app rate limiters compiled from the limit
+ * configuration, a disabled limit compiles to no limiters. limiters whose
+ * limit and burst did not change are carried over from the previous table
+ * with their state.
+ */
+public class RateLimiterTable {
+
+	public static final RateLimiterTable EMPTY = new RateLimiterTable(Collections.<String, RateLimiter> emptyMap(),
+			Collections.<String, Map<String, RateLimiter>> emptyMap());
+
+	private final Map<String, RateLimiter> appLimiters;
+
+	// api#method --> {app1 --> limiter, app2 --> limiter}
+	private final Map<String, Map<String, RateLimiter>> methodAppLimiters;
+
+	private RateLimiterTable(Map<String, RateLimiter> appLimiters, Map<String, Map<String, RateLimiter>> methodAppLimiters) {
+		this.appLimiters = appLimiters;
+		this.methodAppLimiters = methodAppLimiters;
+	}
+
+	/**
+	 * @param appLimits
+	 *            app --> qps limit, null if disabled
+	 * @param methodAppLimits
+	 *            api#method --> {app --> qps limit}, null if disabled
+	 * @param burstRatio
+	 *            burst as a share of the limit, at least one request
+	 */
+	public static RateLimiterTable compile(Map<String, ? extends Number> appLimits,
+			Map<String, ? extends Map<String, ? extends Number>> methodAppLimits, double burstRatio,
+			RateLimiterTable previous) {
+		Map<String, RateLimiter> apps = new HashMap<String, RateLimiter>();
+		if (appLimits != null) {
+			for (Map.Entry<String, ? extends Number> entry : appLimits.entrySet()) {
+				RateLimiter limiter = newLimiter(entry.getValue(), burstRatio,
+						previous.appLimiters.get(entry.getKey()));
+				if (limiter != null) {
+					apps.put(entry.getKey(), limiter);
+				}
+			}
+		}
+		Map<String, Map<String, RateLimiter>> methodApps = new HashMap<String, Map<String, RateLimiter>>();
+		if (methodAppLimits != null) {
+			for (Map.Entry<String, ? extends Map<String, ? extends Number>> method : methodAppLimits.entrySet()) {
+				if (method.getValue() == null) {
+					continue;
+				}
+				Map<String, RateLimiter> previousApps = previous.methodAppLimiters.get(method.getKey());
+				Map<String, RateLimiter> limiters = new HashMap<String, RateLimiter>();
+				for (Map.Entry<String, ? extends Number> entry : method.getValue().entrySet()) {
+					RateLimiter limiter = newLimiter(entry.getValue(), burstRatio,
+							previousApps == null ? null : previousApps.get(entry.getKey()));
+					if (limiter != null) {
+						limiters.put(entry.getKey(), limiter);
+					}
+				}
+				if (!limiters.isEmpty()) {
+					methodApps.put(method.getKey(), Collections.unmodifiableMap(limiters));
+				}
+			}
+		}
+		return new RateLimiterTable(Collections.unmodifiableMap(apps), Collections.unmodifiableMap(methodApps));
+	}
+
+	/**
+	 * @return null for no limit
+	 */
+	private static RateLimiter newLimiter(Number value, double burstRatio, RateLimiter previous) {
+		if (value == null || value.longValue() < 0) {
+			return null;
+		}
+		long limit = value.longValue();
+		int burst = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (long) (limit * burstRatio)));
+		if (previous != null && previous.getLimit() == limit && previous.getBurst() == burst) {
+			return previous;
+		}
+		return new RateLimiter(limit, burst);
+	}
+
+	/**
+	 * @return null if the app is not limited
+	 */
+	public RateLimiter getAppLimiter(String app) {
+		return appLimiters.get(app);
+	}
+
+	/**
+	 * @return null if the app is not limited on the method
+	 */
+	public RateLimiter getMethodAppLimiter(String requestMethod, String app) {
+		Map<String, RateLimiter> limiters = methodAppLimiters.get(requestMethod);
+		return limiters == null ? null : limiters.get(app);
+	}
+
+	@Override
+	public String toString() {
+		return "app:" + appLimiters + ",methodapp:" + methodAppLimiters;
+	}
+}
@@ -1,27 +1,21 @@
 package com.dianping.pigeon.remoting.provider.process.statistics;
 
 import java.io.Serializable;
-import java.util.Calendar;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import com.dianping.pigeon.log.Logger;
-
 import com.dianping.pigeon.config.ConfigManagerLoader;
-import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.util.SlidingWindowCounter;
 
 public class ProviderCapacityBucket implements Serializable {
-	private static final Logger logger = LoggerLoader.getLogger(ProviderCapacityBucket.class);
 
 	private AtomicInteger requests = new AtomicInteger();
 
-	private Map<Integer, AtomicInteger> totalRequestsInSecond = new ConcurrentHashMap<Integer, AtomicInteger>();
-
-	private Map<Integer, AtomicInteger> totalRequestsInMinute = new ConcurrentHashMap<Integer, AtomicInteger>();
+	private final SlidingWindowCounter totalRequestsInSecond = new SlidingWindowCounter(60, 1000);
 
-	//private Map<Integer, AtomicInteger> methodActives = new ConcurrentHashMap<Integer, AtomicInteger>();
+	private final SlidingWindowCounter totalRequestsInMinute;
 
 	public static final boolean enableMinuteStats = ConfigManagerLoader.getConfigManager().getBooleanValue(
 			"pigeon.providerstat.minute.enable", true);
@@ -30,17 +24,15 @@ public class ProviderCapacityBucket implements Serializable {
 	}
 
 	public ProviderCapacityBucket(String address) {
-		preFillData();
+		totalRequestsInMinute = enableMinuteStats ? new SlidingWindowCounter(60, 60 * 1000) : null;
 	}
 
 	public void flowIn(InvocationRequest request) {
-		Calendar now = Calendar.getInstance();
 		requests.incrementAndGet();
-		int second = now.get(Calendar.SECOND);
-		incrementTotalRequestsInSecond(second);
-		if (enableMinuteStats) {
-			int minute = now.get(Calendar.MINUTE);
-			incrementTotalRequestsInMinute(minute);
+		long now = System.currentTimeMillis();
+		totalRequestsInSecond.incrementUnit(totalRequestsInSecond.unitOf(now));
+		if (totalRequestsInMinute != null) {
+			totalRequestsInMinute.incrementUnit(totalRequestsInMinute.unitOf(now));
 		}
 	}
 
@@ -52,97 +44,42 @@ public class ProviderCapacityBucket implements Serializable {
 		return requests.get();
 	}
 
+	/**
+	 * a copy, by second of the minute
+	 */
 	public Map<Integer, AtomicInteger> getTotalRequestsInSecond() {
-		return totalRequestsInSecond;
+		Map<Integer, AtomicInteger> counts = new HashMap<Integer, AtomicInteger>();
+		for (int sec = 0; sec < 60; sec++) {
+			counts.put(sec, new AtomicInteger(getRequestsInSecond(sec)));
+		}
+		return counts;
 	}
 
 	public int getRequestsInCurrentSecond() {
-		Calendar cal = Calendar.getInstance();
-		int lastSecond = cal.get(Calendar.SECOND);
-		AtomicInteger counter = totalRequestsInSecond.get(lastSecond);
-		return counter != null ? counter.get() : 0;
+		return (int) totalRequestsInSecond.get(totalRequestsInSecond.currentUnit());
 	}
 
 	public int getRequestsInLastSecond() {
-		Calendar cal = Calendar.getInstance();
-		cal.add(Calendar.SECOND, -1);
-		int lastSecond = cal.get(Calendar.SECOND);
-		AtomicInteger counter = totalRequestsInSecond.get(lastSecond);
-		return counter != null ? counter.get() : 0;
-	}
-
-	public int getRequestsInSecond(int second) {
-		AtomicInteger counter = totalRequestsInSecond.get(second);
-		return counter != null ? counter.get() : 0;
-	}
-
-	public int getRequestsInLastMinute() {
-		Calendar cal = Calendar.getInstance();
-		cal.add(Calendar.MINUTE, -1);
-		int lastMinute = cal.get(Calendar.MINUTE);
-		lastMinute = lastMinute >= 0 ? lastMinute : lastMinute + 60;
-		AtomicInteger counter = totalRequestsInMinute.get(lastMinute);
-		return counter != null ? counter.get() : 0;
-	}
-
-	private void incrementTotalRequestsInSecond(int second) {
-		AtomicInteger counter = totalRequestsInSecond.get(second);
-		if (counter != null) {
-			counter.incrementAndGet();
-		} else {
-			logger.warn("Impossible case happended, second[" + second + "]'s request counter is null.");
-		}
-	}
-
-	private void incrementTotalRequestsInMinute(int minute) {
-		AtomicInteger counter = totalRequestsInMinute.get(minute);
-		if (counter != null) {
-			counter.incrementAndGet();
-		} else {
-			logger.warn("Impossible case happended, minute[" + minute + "]'s request counter is null.");
-		}
+		return (int) totalRequestsInSecond.get(totalRequestsInSecond.currentUnit() - 1);
 	}
 
 	/**
-	 * 重置过期的每秒请求数计数器
+	 * @param second
+	 *            of the minute, within the last 60 seconds
 	 */
-	public void resetRequestsInSecondCounter() {
-		int second = Calendar.getInstance().get(Calendar.SECOND);
-		int prev3Sec = second - 10;
-		for (int i = 1; i <= 30; i++) {
-			int prevSec = prev3Sec - i;
-			prevSec = prevSec >= 0 ? prevSec : prevSec + 60;
-			AtomicInteger counter = totalRequestsInSecond.get(prevSec);
-			if (counter != null) {
-				counter.set(0);
-			}
-		}
-	}
-
-	public void resetRequestsInMinuteCounter() {
-		if (enableMinuteStats) {
-			int min = Calendar.getInstance().get(Calendar.MINUTE);
-			int prev3Sec = min - 10;
-			for (int i = 1; i <= 30; i++) {
-				int prevSec = prev3Sec - i;
-				prevSec = prevSec >= 0 ? prevSec : prevSec + 60;
-				AtomicInteger counter = totalRequestsInMinute.get(prevSec);
-				if (counter != null) {
-					counter.set(0);
-				}
-			}
+	public int getRequestsInSecond(int second) {
+		if (second < 0 || second >= 60) {
+			return 0;
 		}
+		long current = totalRequestsInSecond.currentUnit();
+		return (int) totalRequestsInSecond.get(current - (current % 60 - second + 60) % 60);
 	}
 
-	private void preFillData() {
-		for (int sec = 0; sec < 60; sec++) {
-			totalRequestsInSecond.put(sec, new AtomicInteger());
-		}
-		if (enableMinuteStats) {
-			for (int min = 0; min < 60; min++) {
-				totalRequestsInMinute.put(min, new AtomicInteger());
-			}
+	public int getRequestsInLastMinute() {
+		if (totalRequestsInMinute == null) {
+			return 0;
 		}
+		return (int) totalRequestsInMinute.get(totalRequestsInMinute.currentUnit() - 1);
 	}
 
 	public String toString() {
@@ -0,0 +1,107 @@
+package com.dianping.pigeon.remoting.provider.process.statistics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * service time distribution of a method, in milliseconds from the moment a
+ * worker picks the request up, and the requests shed before execution.
+ *
+ * the histogram has four buckets per power of two, at most a quarter apart.
+ * counts are halved every {@link #DECAY_INTERVAL} samples so the median
+ * follows recent behaviour, it is refreshed every {@link #REFRESH_INTERVAL}
+ * samples and reported as the lower bound of its bucket.
+ */
+public class ProviderServiceTimeBucket {
+
+	private static final int DECAY_INTERVAL = 1024;
+
+	private static final int REFRESH_INTERVAL = 32;
+
+	private static final int MAX_EXPONENT = 20;
+
+	private static final int BUCKETS = 4 + (MAX_EXPONENT - 2) * 4;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong recorded = new AtomicLong();
+
+	private final AtomicLong shed = new AtomicLong();
+
+	private volatile long samples;
+
+	private volatile long median;
+
+	public void record(long millis) {
+		counts.incrementAndGet(indexOf(millis));
+		long n = recorded.incrementAndGet();
+		if (n % DECAY_INTERVAL == 0) {
+			for (int i = 0; i < BUCKETS; i++) {
+				counts.addAndGet(i, -(counts.get(i) >> 1));
+			}
+		}
+		if (n < REFRESH_INTERVAL || n % REFRESH_INTERVAL == 0) {
+			refresh();
+		}
+	}
+
+	private void refresh() {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		long half = (total + 1) / 2;
+		long sum = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			sum += counts.get(i);
+			if (sum >= half) {
+				median = lowerBoundOf(i);
+				break;
+			}
+		}
+		samples = total;
+	}
+
+	static int indexOf(long millis) {
+		if (millis < 4) {
+			return millis < 0 ? 0 : (int) millis;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(millis);
+		if (exponent >= MAX_EXPONENT) {
+			// about 17 minutes and longer share the last bucket
+			return BUCKETS - 1;
+		}
+		return 4 + (exponent - 2) * 4 + (int) ((millis >> (exponent - 2)) & 3);
+	}
+
+	static long lowerBoundOf(int index) {
+		if (index < 4) {
+			return index;
+		}
+		int exponent = (index - 4) / 4 + 2;
+		return (4L + (index - 4) % 4) << (exponent - 2);
+	}
+
+	/**
+	 * samples behind {@link #getMedianMillis()}, decayed
+	 */
+	public long getSamples() {
+		return samples;
+	}
+
+	public long getMedianMillis() {
+		return median;
+	}
+
+	public void incrementShed() {
+		shed.incrementAndGet();
+	}
+
+	public long getShed() {
+		return shed.get();
+	}
+
+	public String toString() {
+		return "p50:" + median + "ms,samples:" + samples + ",shed:" + shed.get();
+	}
+}
@@ -9,6 +9,7 @@ import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.common.util.InvocationUtils;
 
 public final class ProviderStatisticsHolder {
 
@@ -21,6 +22,8 @@ public final class ProviderStatisticsHolder {
 	private static ConcurrentHashMap<String, ConcurrentHashMap<String, ProviderCapacityBucket>>
 			methodAppCapacityBuckets = new ConcurrentHashMap<>();
 
+	private static ConcurrentHashMap<String, ProviderServiceTimeBucket> methodServiceTimeBuckets = new ConcurrentHashMap<String, ProviderServiceTimeBucket>();
+
 	public static final boolean statEnable = ConfigManagerLoader.getConfigManager().getBooleanValue(
 			"pigeon.providerstat.enable", true);
 
@@ -40,7 +43,7 @@ public final class ProviderStatisticsHolder {
 	}
 
 	public static ProviderCapacityBucket getMethodAppCapacityBucket(InvocationRequest request) {
-		final String requestMethod = request.getServiceName() + "#" + request.getMethodName();
+		final String requestMethod = InvocationUtils.getRequestMethod(request);
 		ConcurrentHashMap<String, ProviderCapacityBucket> appBarrelMap = methodAppCapacityBuckets.get(requestMethod);
 		if (appBarrelMap == null) {
 			ConcurrentHashMap<String, ProviderCapacityBucket> newAppBarrelMap = new ConcurrentHashMap<>();
@@ -97,6 +100,22 @@ public final class ProviderStatisticsHolder {
 		return barrel;
 	}
 
+	public static ConcurrentHashMap<String, ProviderServiceTimeBucket> getMethodServiceTimeBuckets() {
+		return methodServiceTimeBuckets;
+	}
+
+	public static ProviderServiceTimeBucket getServiceTimeBucket(String requestMethod) {
+		ProviderServiceTimeBucket bucket = methodServiceTimeBuckets.get(requestMethod);
+		if (bucket == null) {
+			ProviderServiceTimeBucket newBucket = new ProviderServiceTimeBucket();
+			bucket = methodServiceTimeBuckets.putIfAbsent(requestMethod, newBucket);
+			if (bucket == null) {
+				bucket = newBucket;
+			}
+		}
+		return bucket;
+	}
+
 	public static void flowIn(InvocationRequest request) {
 		if (checkRequestNeedStat(request)) {
 			// app level
@@ -106,7 +125,7 @@ public final class ProviderStatisticsHolder {
 			}
 
 			// method level
-			final String requestMethod = request.getServiceName() + "#" + request.getMethodName();
+			final String requestMethod = InvocationUtils.getRequestMethod(request);
 			ProviderCapacityBucket methodBarrel = getCapacityBucket(requestMethod);
 			if (methodBarrel != null) {
 				methodBarrel.flowIn(request);
@@ -129,7 +148,7 @@ public final class ProviderStatisticsHolder {
 			}
 
 			// method level
-			final String requestMethod = request.getServiceName() + "#" + request.getMethodName();
+			final String requestMethod = InvocationUtils.getRequestMethod(request);
 			ProviderCapacityBucket methodBarrel = getCapacityBucket(requestMethod);
 			if (methodBarrel != null) {
 				methodBarrel.flowOut(request);
@@ -0,0 +1,90 @@
+package com.dianping.pigeon.remoting.provider.process.threadpool;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor.AbortPolicy;
+import java.util.concurrent.TimeUnit;
+
+import com.dianping.pigeon.remoting.provider.process.threadpool.LaneQueue.LaneTask;
+import com.dianping.pigeon.threadpool.DefaultThreadFactory;
+import com.dianping.pigeon.threadpool.ThreadPool;
+
+/**
+ * a fixed set of workers shared by bounded per service lanes, see
+ * {@link LaneQueue} for how the workers are divided between the lanes.
+ *
+ * a full lane rejects its own requests only, the other services keep
+ * their queues and their share of the workers.
+ */
+public class BulkheadThreadPool implements ThreadPool {
+
+	public static final String DEFAULT_LANE = "default";
+
+	private final LaneQueue queue;
+
+	private final ThreadPoolExecutor executor;
+
+	public BulkheadThreadPool(String poolName, int workers, int laneCapacity) {
+		this(poolName, workers, laneCapacity, Collections.<String, Integer> emptyMap());
+	}
+
+	/**
+	 * @param weights
+	 *            lane weights by name, lanes not listed weigh 1
+	 */
+	public BulkheadThreadPool(String poolName, int workers, int laneCapacity, Map<String, Integer> weights) {
+		this.queue = new LaneQueue(workers, laneCapacity, weights);
+		this.executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS, queue,
+				new DefaultThreadFactory(poolName), new AbortPolicy());
+		// every task has to pass through the lanes, a new core thread would
+		// run its first task directly
+		this.executor.prestartAllCoreThreads();
+	}
+
+	public void execute(Runnable run) {
+		this.executor.execute(run);
+	}
+
+	public <T> Future<T> submit(Callable<T> call) {
+		return submit(DEFAULT_LANE, call);
+	}
+
+	public Future<?> submit(Runnable run) {
+		LaneTask<Object> task = new LaneTask<Object>(queue.getLane(DEFAULT_LANE), run, null);
+		this.executor.execute(task);
+		return task;
+	}
+
+	public <T> Future<T> submit(String lane, Callable<T> call) {
+		LaneTask<T> task = new LaneTask<T>(queue.getLane(lane), call);
+		this.executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * for heartbeats and health checks, taken before any lane
+	 */
+	public <T> Future<T> submitPriority(Callable<T> call) {
+		LaneTask<T> task = new LaneTask<T>(queue.getPriorityLane(), call);
+		this.executor.execute(task);
+		return task;
+	}
+
+	public ThreadPoolExecutor getExecutor() {
+		return this.executor;
+	}
+
+	/**
+	 * queue depth, active workers and wait time of every lane
+	 */
+	public String getStatistics() {
+		return queue.getStatistics(null);
+	}
+
+	public String getStatistics(String lane) {
+		return queue.getStatistics(lane);
+	}
+}
@@ -0,0 +1,275 @@
+package com.dianping.pigeon.remoting.provider.process.threadpool;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * bounded work queue handing out the task with the earliest deadline first,
+ * tasks without one after all others. equal deadlines keep their arrival
+ * order.
+ */
+class DeadlineQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notEmpty = lock.newCondition();
+
+	private final Condition notFull = lock.newCondition();
+
+	private final int capacity;
+
+	/**
+	 * guarded by lock
+	 */
+	private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+
+	/**
+	 * guarded by lock
+	 */
+	private long sequence;
+
+	DeadlineQueue(int capacity) {
+		this.capacity = capacity;
+	}
+
+	@Override
+	public boolean offer(Runnable runnable) {
+		if (runnable == null) {
+			throw new NullPointerException();
+		}
+		lock.lock();
+		try {
+			if (queue.size() >= capacity) {
+				return false;
+			}
+			enqueue(runnable);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean offer(Runnable runnable, long timeout, TimeUnit unit) throws InterruptedException {
+		if (runnable == null) {
+			throw new NullPointerException();
+		}
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (queue.size() >= capacity) {
+				if (nanos <= 0) {
+					return false;
+				}
+				nanos = notFull.awaitNanos(nanos);
+			}
+			enqueue(runnable);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void put(Runnable runnable) throws InterruptedException {
+		if (runnable == null) {
+			throw new NullPointerException();
+		}
+		lock.lockInterruptibly();
+		try {
+			while (queue.size() >= capacity) {
+				notFull.await();
+			}
+			enqueue(runnable);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * caller holds the lock
+	 */
+	private void enqueue(Runnable runnable) {
+		long deadline = runnable instanceof DeadlineTask ? ((DeadlineTask<?>) runnable).deadline : Long.MAX_VALUE;
+		queue.add(new Entry(runnable, deadline, sequence++));
+		notEmpty.signal();
+	}
+
+	@Override
+	public Runnable take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (queue.isEmpty()) {
+				notEmpty.await();
+			}
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (queue.isEmpty()) {
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable poll() {
+		lock.lock();
+		try {
+			return queue.isEmpty() ? null : dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * caller holds the lock
+	 */
+	private Runnable dequeue() {
+		Runnable runnable = queue.poll().runnable;
+		notFull.signal();
+		if (!queue.isEmpty()) {
+			notEmpty.signal();
+		}
+		return runnable;
+	}
+
+	@Override
+	public Runnable peek() {
+		lock.lock();
+		try {
+			Entry entry = queue.peek();
+			return entry == null ? null : entry.runnable;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		lock.lock();
+		try {
+			for (Iterator<Entry> it = queue.iterator(); it.hasNext();) {
+				if (it.next().runnable == o) {
+					it.remove();
+					notFull.signal();
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return capacity - size();
+	}
+
+	@Override
+	public int drainTo(Collection<? super Runnable> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super Runnable> c, int maxElements) {
+		lock.lock();
+		try {
+			int n = 0;
+			while (n < maxElements && !queue.isEmpty()) {
+				c.add(queue.poll().runnable);
+				n++;
+			}
+			if (n > 0) {
+				notFull.signalAll();
+			}
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Iterator<Runnable> iterator() {
+		lock.lock();
+		try {
+			List<Runnable> tasks = new ArrayList<Runnable>(queue.size());
+			for (Entry entry : queue) {
+				tasks.add(entry.runnable);
+			}
+			return tasks.iterator();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static class Entry implements Comparable<Entry> {
+
+		private final Runnable runnable;
+
+		private final long deadline;
+
+		private final long sequence;
+
+		Entry(Runnable runnable, long deadline, long sequence) {
+			this.runnable = runnable;
+			this.deadline = deadline;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Entry o) {
+			if (deadline != o.deadline) {
+				return deadline < o.deadline ? -1 : 1;
+			}
+			return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+		}
+	}
+
+	static class DeadlineTask<T> extends FutureTask<T> {
+
+		/**
+		 * epoch millis, Long.MAX_VALUE for none
+		 */
+		private final long deadline;
+
+		DeadlineTask(long deadline, Callable<T> callable) {
+			super(callable);
+			this.deadline = deadline;
+		}
+	}
+}
@@ -0,0 +1,470 @@
+package com.dianping.pigeon.remoting.provider.process.threadpool;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * work queue of {@link BulkheadThreadPool}, one bounded lane per service and
+ * a priority lane served before all of them.
+ *
+ * a free worker takes from the lanes by smooth weighted round robin. while
+ * several lanes are busy every lane is held to its share of the workers,
+ * workers * weight / busy weight and at least one, so that a slow service
+ * cannot occupy all of them. when only lanes at their share have work a
+ * free worker takes it anyway, no worker idles while a task is queued.
+ */
+class LaneQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notEmpty = lock.newCondition();
+
+	private final int workers;
+
+	private final int laneCapacity;
+
+	private final Map<String, Integer> weights;
+
+	private final ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<String, Lane>();
+
+	/**
+	 * guarded by lock
+	 */
+	private final List<Lane> laneList = new ArrayList<Lane>();
+
+	private final Lane priorityLane;
+
+	private volatile int count;
+
+	LaneQueue(int workers, int laneCapacity, Map<String, Integer> weights) {
+		this.workers = workers;
+		this.laneCapacity = laneCapacity;
+		this.weights = weights;
+		this.priorityLane = new Lane("priority", 1);
+	}
+
+	Lane getLane(String name) {
+		Lane lane = lanes.get(name);
+		if (lane == null) {
+			lock.lock();
+			try {
+				lane = lanes.get(name);
+				if (lane == null) {
+					Integer weight = weights.get(name);
+					lane = new Lane(name, weight == null || weight <= 0 ? 1 : weight);
+					laneList.add(lane);
+					lanes.put(name, lane);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		return lane;
+	}
+
+	Lane getPriorityLane() {
+		return priorityLane;
+	}
+
+	private LaneTask<?> toTask(Runnable runnable) {
+		if (runnable == null) {
+			throw new NullPointerException();
+		}
+		return runnable instanceof LaneTask ? (LaneTask<?>) runnable : new LaneTask<Object>(
+				getLane(BulkheadThreadPool.DEFAULT_LANE), runnable, null);
+	}
+
+	@Override
+	public boolean offer(Runnable runnable) {
+		LaneTask<?> task = toTask(runnable);
+		Lane lane = task.lane;
+		lock.lock();
+		try {
+			if (lane.queue.size() >= laneCapacity) {
+				lane.rejected++;
+				return false;
+			}
+			enqueue(task);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean offer(Runnable runnable, long timeout, TimeUnit unit) throws InterruptedException {
+		LaneTask<?> task = toTask(runnable);
+		Lane lane = task.lane;
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (lane.queue.size() >= laneCapacity) {
+				if (nanos <= 0) {
+					lane.rejected++;
+					return false;
+				}
+				nanos = lane.notFull.awaitNanos(nanos);
+			}
+			enqueue(task);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void put(Runnable runnable) throws InterruptedException {
+		LaneTask<?> task = toTask(runnable);
+		Lane lane = task.lane;
+		lock.lockInterruptibly();
+		try {
+			while (lane.queue.size() >= laneCapacity) {
+				lane.notFull.await();
+			}
+			enqueue(task);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * caller holds the lock
+	 */
+	private void enqueue(LaneTask<?> task) {
+		task.enqueueNanos = System.nanoTime();
+		task.lane.queue.add(task);
+		count++;
+		notEmpty.signal();
+	}
+
+	@Override
+	public Runnable take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			Runnable task;
+			while ((task = dequeue()) == null) {
+				notEmpty.await();
+			}
+			return task;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			Runnable task;
+			while ((task = dequeue()) == null) {
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return task;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable poll() {
+		lock.lock();
+		try {
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * caller holds the lock
+	 */
+	private LaneTask<?> dequeue() {
+		LaneTask<?> task = next();
+		if (task == null) {
+			return null;
+		}
+		Lane lane = task.lane;
+		lane.active++;
+		task.taken = true;
+		long wait = System.nanoTime() - task.enqueueNanos;
+		lane.taken++;
+		lane.waitNanos += wait;
+		if (wait > lane.maxWaitNanos) {
+			lane.maxWaitNanos = wait;
+		}
+		if (count > 0) {
+			notEmpty.signal();
+		}
+		return task;
+	}
+
+	/**
+	 * takes the next task in the order workers are served, caller holds the
+	 * lock
+	 */
+	private LaneTask<?> next() {
+		if (count == 0) {
+			return null;
+		}
+		Lane lane = priorityLane.queue.isEmpty() ? select() : priorityLane;
+		LaneTask<?> task = lane.queue.poll();
+		count--;
+		lane.notFull.signal();
+		return task;
+	}
+
+	private Lane select() {
+		int busyWeight = 0;
+		for (Lane lane : laneList) {
+			if (lane.active > 0 || !lane.queue.isEmpty()) {
+				busyWeight += lane.weight;
+			}
+		}
+		Lane selected = select(busyWeight, true);
+		if (selected == null) {
+			// every lane with work is at its share, the free worker takes it
+			// rather than idle
+			selected = select(busyWeight, false);
+		}
+		return selected;
+	}
+
+	private Lane select(int busyWeight, boolean withinShare) {
+		Lane selected = null;
+		int totalWeight = 0;
+		for (Lane lane : laneList) {
+			if (lane.queue.isEmpty()
+					|| (withinShare && lane.active >= Math.max(1, workers * lane.weight / busyWeight))) {
+				continue;
+			}
+			lane.currentWeight += lane.weight;
+			totalWeight += lane.weight;
+			if (selected == null || lane.currentWeight > selected.currentWeight) {
+				selected = lane;
+			}
+		}
+		if (selected != null) {
+			selected.currentWeight -= totalWeight;
+		}
+		return selected;
+	}
+
+	@Override
+	public Runnable peek() {
+		lock.lock();
+		try {
+			List<Runnable> tasks = snapshot();
+			return tasks.isEmpty() ? null : tasks.get(0);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (!(o instanceof LaneTask)) {
+			return false;
+		}
+		Lane lane = ((LaneTask<?>) o).lane;
+		lock.lock();
+		try {
+			if (lane.queue.remove(o)) {
+				count--;
+				lane.removed++;
+				lane.notFull.signal();
+				return true;
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * of the lanes created so far, a new lane adds its own capacity
+	 */
+	@Override
+	public int remainingCapacity() {
+		lock.lock();
+		try {
+			int remaining = laneCapacity - priorityLane.queue.size();
+			for (Lane lane : laneList) {
+				remaining += laneCapacity - lane.queue.size();
+			}
+			return remaining;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainTo(Collection<? super Runnable> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * drains in the order the workers would have taken the tasks
+	 */
+	@Override
+	public int drainTo(Collection<? super Runnable> c, int maxElements) {
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+		lock.lock();
+		try {
+			int n = 0;
+			LaneTask<?> task;
+			while (n < maxElements && (task = next()) != null) {
+				task.lane.removed++;
+				c.add(task);
+				n++;
+			}
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Iterator<Runnable> iterator() {
+		lock.lock();
+		try {
+			return snapshot().iterator();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * caller holds the lock
+	 */
+	private List<Runnable> snapshot() {
+		List<Runnable> tasks = new ArrayList<Runnable>(count);
+		tasks.addAll(priorityLane.queue);
+		for (Lane lane : laneList) {
+			tasks.addAll(lane.queue);
+		}
+		return tasks;
+	}
+
+	/**
+	 * @param name
+	 *            null for all lanes
+	 */
+	String getStatistics(String name) {
+		StringBuilder sb = new StringBuilder();
+		lock.lock();
+		try {
+			priorityLane.appendTo(sb);
+			for (Lane lane : laneList) {
+				if (name == null || name.equals(lane.name)) {
+					lane.appendTo(sb.append(","));
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		return sb.toString();
+	}
+
+	class Lane {
+
+		private final String name;
+
+		private final int weight;
+
+		private final ArrayDeque<LaneTask<?>> queue = new ArrayDeque<LaneTask<?>>();
+
+		private final Condition notFull = lock.newCondition();
+
+		private int active;
+
+		private int currentWeight;
+
+		private long taken;
+
+		private long waitNanos;
+
+		private long maxWaitNanos;
+
+		private long rejected;
+
+		private long removed;
+
+		Lane(String name, int weight) {
+			this.name = name;
+			this.weight = weight;
+		}
+
+		void finished() {
+			lock.lock();
+			try {
+				active--;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void appendTo(StringBuilder sb) {
+			sb.append("[").append(name).append(":weight=").append(weight).append(",queue=").append(queue.size())
+					.append(",active=").append(active).append(",taken=").append(taken).append(",avgWait=")
+					.append(taken == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos / taken))
+					.append("ms,maxWait=").append(TimeUnit.NANOSECONDS.toMillis(maxWaitNanos))
+					.append("ms,rejected=").append(rejected).append(",removed=").append(removed).append("]");
+		}
+	}
+
+	static class LaneTask<T> extends FutureTask<T> {
+
+		private final Lane lane;
+
+		private long enqueueNanos;
+
+		/**
+		 * set by the queue when a worker takes the task, guarded by its lock
+		 */
+		private boolean taken;
+
+		LaneTask(Lane lane, Callable<T> callable) {
+			super(callable);
+			this.lane = lane;
+		}
+
+		LaneTask(Lane lane, Runnable runnable, T result) {
+			super(runnable, result);
+			this.lane = lane;
+		}
+
+		@Override
+		public void run() {
+			try {
+				super.run();
+			} finally {
+				if (taken) {
+					lane.finished();
+				}
+			}
+		}
+	}
+}
@@ -8,6 +8,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
@@ -22,12 +23,16 @@ import com.dianping.pigeon.config.ConfigChangeListener;
 import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.Logger;
 import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.monitor.Monitor;
+import com.dianping.pigeon.monitor.MonitorLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePhase;
-import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePoint;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.exception.RejectedException;
+import com.dianping.pigeon.remoting.common.monitor.TimelineStatistics;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.common.util.InvocationUtils;
 import com.dianping.pigeon.remoting.provider.config.ProviderConfig;
 import com.dianping.pigeon.remoting.provider.config.ProviderMethodConfig;
 import com.dianping.pigeon.remoting.provider.config.ServerConfig;
@@ -35,10 +40,15 @@ import com.dianping.pigeon.remoting.provider.domain.ProviderContext;
 import com.dianping.pigeon.remoting.provider.process.AbstractRequestProcessor;
 import com.dianping.pigeon.remoting.provider.process.ProviderProcessHandlerFactory;
 import com.dianping.pigeon.remoting.provider.process.filter.GatewayProcessFilter;
+import com.dianping.pigeon.remoting.provider.process.statistics.ProviderServiceTimeBucket;
+import com.dianping.pigeon.remoting.provider.process.statistics.ProviderStatisticsHolder;
+import com.dianping.pigeon.remoting.provider.process.threadpool.DeadlineQueue.DeadlineTask;
 import com.dianping.pigeon.remoting.provider.service.method.ServiceMethodCache;
 import com.dianping.pigeon.remoting.provider.service.method.ServiceMethodFactory;
+import com.dianping.pigeon.remoting.provider.util.ProviderUtils;
 import com.dianping.pigeon.threadpool.DefaultThreadPool;
 import com.dianping.pigeon.threadpool.ThreadPool;
+import com.dianping.pigeon.timer.Timeout;
 import com.dianping.pigeon.util.CollectionUtils;
 
 public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
@@ -48,8 +58,13 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
     private static final String poolStrategy = ConfigManagerLoader.getConfigManager().getStringValue(
             "pigeon.provider.pool.strategy", "shared");
 
+    private static final Monitor monitor = MonitorLoader.getMonitor();
+
     private static ThreadPool sharedRequestProcessThreadPool = null;
 
+    private static final boolean enableDeadlineQueue = ConfigManagerLoader.getConfigManager().getBooleanValue(
+            "pigeon.provider.pool.queue.edf.enable", false);
+
     private static final int SLOW_POOL_CORESIZE = ConfigManagerLoader.getConfigManager().getIntValue(
             "pigeon.provider.pool.slow.coresize", 30);
 
@@ -61,7 +76,7 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
 
     private static ThreadPool slowRequestProcessThreadPool = new DefaultThreadPool(
             "Pigeon-Server-Slow-Request-Processor", SLOW_POOL_CORESIZE, SLOW_POOL_MAXSIZE,
-            new LinkedBlockingQueue<Runnable>(SLOW_POOL_QUEUESIZE));
+            createWorkQueue(SLOW_POOL_QUEUESIZE));
 
     private ThreadPool requestProcessThreadPool = null;
 
@@ -89,42 +104,108 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
     private static boolean enableSlowPool = ConfigManagerLoader.getConfigManager().getBooleanValue(
             "pigeon.provider.pool.slow.enable", true);
 
+    // off by default like the edf queue, the deadline is taken from the invoker clock
+    private static boolean enableDeadlineShed = ConfigManagerLoader.getConfigManager().getBooleanValue(
+            "pigeon.provider.deadline.shed.enable", false);
+
+    private static int deadlineShedMinSamples = ConfigManagerLoader.getConfigManager().getIntValue(
+            "pigeon.provider.deadline.shed.minsamples", 100);
+
+    private BulkheadThreadPool bulkheadThreadPool = null;
+
     public RequestThreadPoolProcessor(ServerConfig serverConfig) {
         ConfigManagerLoader.getConfigManager().registerConfigChangeListener(new InnerConfigChangeListener());
         if ("server".equals(poolStrategy)) {
             requestProcessThreadPool = new DefaultThreadPool("Pigeon-Server-Request-Processor-"
                     + serverConfig.getProtocol() + "-" + serverConfig.getActualPort(), serverConfig.getCorePoolSize(),
-                    serverConfig.getMaxPoolSize(), new LinkedBlockingQueue<Runnable>(serverConfig.getWorkQueueSize()));
+                    serverConfig.getMaxPoolSize(), createWorkQueue(serverConfig.getWorkQueueSize()));
+        } else if ("bulkhead".equals(poolStrategy)) {
+            int workers = ConfigManagerLoader.getConfigManager().getIntValue("pigeon.provider.pool.bulkhead.workers",
+                    serverConfig.getMaxPoolSize());
+            int laneSize = ConfigManagerLoader.getConfigManager().getIntValue(
+                    "pigeon.provider.pool.bulkhead.lanesize", serverConfig.getWorkQueueSize());
+            bulkheadThreadPool = new BulkheadThreadPool("Pigeon-Server-Request-Processor-bulkhead", workers,
+                    laneSize, getLaneWeights());
+            requestProcessThreadPool = bulkheadThreadPool;
         } else {
             sharedRequestProcessThreadPool = new DefaultThreadPool("Pigeon-Server-Request-Processor",
-                    serverConfig.getCorePoolSize(), serverConfig.getMaxPoolSize(), new LinkedBlockingQueue<Runnable>(
+                    serverConfig.getCorePoolSize(), serverConfig.getMaxPoolSize(), createWorkQueue(
                     serverConfig.getWorkQueueSize()));
             requestProcessThreadPool = sharedRequestProcessThreadPool;
         }
     }
 
+    /**
+     * pigeon.provider.pool.bulkhead.weights, service url:weight pairs
+     * separated by commas
+     */
+    private static Map<String, Integer> getLaneWeights() {
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        String config = ConfigManagerLoader.getConfigManager().getStringValue("pigeon.provider.pool.bulkhead.weights",
+                "");
+        for (String pair : StringUtils.split(config, ',')) {
+            int index = pair.lastIndexOf(':');
+            if (index > 0) {
+                try {
+                    weights.put(pair.substring(0, index).trim(), Integer.valueOf(pair.substring(index + 1).trim()));
+                } catch (NumberFormatException e) {
+                    logger.warn("invalid bulkhead lane weight:" + pair);
+                }
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * earliest deadline first when pigeon.provider.pool.queue.edf.enable is
+     * on, fifo otherwise
+     */
+    private static BlockingQueue<Runnable> createWorkQueue(int size) {
+        if (enableDeadlineQueue) {
+            return new DeadlineQueue(size);
+        }
+        return new LinkedBlockingQueue<Runnable>(size);
+    }
+
     public void doStop() {
     }
 
     public Future<InvocationResponse> doProcessRequest(final InvocationRequest request,
                                                        final ProviderContext providerContext) {
         requestContextMap.put(request, providerContext);
+        final Timeout timeout = requestTimeoutListener.add(request, providerContext);
         Callable<InvocationResponse> requestExecutor = new Callable<InvocationResponse>() {
 
             @Override
             public InvocationResponse call() throws Exception {
-                providerContext.getTimeline().add(new TimePoint(TimePhase.T));
+                providerContext.addTimePoint(TimePhase.T);
                 try {
+                    if (shedRequest(request, providerContext)) {
+                        return null;
+                    }
                     ServiceInvocationHandler invocationHandler = ProviderProcessHandlerFactory
-                            .selectInvocationHandler(providerContext.getRequest().getMessageType());
+                            .selectInvocationHandler(providerContext.getRequest());
                     if (invocationHandler != null) {
                         providerContext.setThread(Thread.currentThread());
-                        return invocationHandler.handle(providerContext);
+                        if (request.getMessageType() != Constants.MESSAGE_TYPE_SERVICE) {
+                            return invocationHandler.handle(providerContext);
+                        }
+                        long start = System.currentTimeMillis();
+                        try {
+                            return invocationHandler.handle(providerContext);
+                        } finally {
+                            ProviderStatisticsHolder.getServiceTimeBucket(InvocationUtils.getRequestMethod(request))
+                                    .record(System.currentTimeMillis() - start);
+                            if (TimelineStatistics.isSampled()) {
+                                TimelineStatistics.record(providerContext);
+                            }
+                        }
                     }
                 } catch (Throwable t) {
                     logger.error("Process request failed with invocation handler, you should never be here.", t);
                 } finally {
                     requestContextMap.remove(request);
+                    cancelTimeout(timeout);
                 }
                 return null;
             }
@@ -136,11 +217,21 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
         // transaction.setStatusOk();
         try {
             checkRequest(pool, request);
-            providerContext.getTimeline().add(new TimePoint(TimePhase.T));
+            providerContext.addTimePoint(TimePhase.T);
+            if (pool == bulkheadThreadPool) {
+                return submitToLane(request, requestExecutor);
+            }
+            if (enableDeadlineQueue) {
+                DeadlineTask<InvocationResponse> task = new DeadlineTask<InvocationResponse>(getDeadline(request),
+                        requestExecutor);
+                pool.execute(task);
+                return task;
+            }
             return pool.submit(requestExecutor);
         } catch (RejectedExecutionException e) {
             // transaction.setStatusError(e);
             requestContextMap.remove(request);
+            cancelTimeout(timeout);
             throw new RejectedException(getProcessorStatistics(request), e);
         }
         // finally {
@@ -148,6 +239,58 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
         // }
     }
 
+    private static void cancelTimeout(Timeout timeout) {
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    private static long getDeadline(InvocationRequest request) {
+        if (request.getTimeout() > 0 && request.getCreateMillisTime() > 0) {
+            return request.getCreateMillisTime() + request.getTimeout();
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * called when a worker takes the request. a request whose caller gives up
+     * before the method's median service time is over gets a rejection
+     * instead of the worker, the median counts once enough samples are in.
+     */
+    private boolean shedRequest(InvocationRequest request, ProviderContext providerContext) {
+        if (!enableDeadlineShed || request.getMessageType() != Constants.MESSAGE_TYPE_SERVICE) {
+            return false;
+        }
+        long deadline = getDeadline(request);
+        if (deadline == Long.MAX_VALUE) {
+            return false;
+        }
+        long remaining = deadline - System.currentTimeMillis();
+        String requestMethod = InvocationUtils.getRequestMethod(request);
+        ProviderServiceTimeBucket bucket = ProviderStatisticsHolder.getServiceTimeBucket(requestMethod);
+        long serviceTime = bucket.getSamples() >= deadlineShedMinSamples ? bucket.getMedianMillis() : 0;
+        if (remaining > 0 && remaining >= serviceTime) {
+            return false;
+        }
+        bucket.incrementShed();
+        monitor.logEvent("PigeonService.shed", requestMethod, "");
+        if (request.getCallType() == Constants.CALLTYPE_REPLY) {
+            providerContext.getChannel().write(ProviderUtils.createFailResponse(request, new RejectedException(
+                    String.format("Request shed for method: %s, remaining: %sms of timeout %sms, median service "
+                            + "time: %sms", requestMethod, remaining, request.getTimeout(), serviceTime))));
+        }
+        return true;
+    }
+
+    private Future<InvocationResponse> submitToLane(InvocationRequest request,
+                                                   Callable<InvocationResponse> requestExecutor) {
+        if (request.getMessageType() == Constants.MESSAGE_TYPE_HEART
+                || request.getMessageType() == Constants.MESSAGE_TYPE_HEALTHCHECK) {
+            return bulkheadThreadPool.submitPriority(requestExecutor);
+        }
+        return bulkheadThreadPool.submit(request.getServiceName(), requestExecutor);
+    }
+
     private void checkRequest(final ThreadPool pool, final InvocationRequest request) {
         GatewayProcessFilter.checkRequest(request);
     }
@@ -155,7 +298,7 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
     private ThreadPool selectThreadPool(final InvocationRequest request) {
         ThreadPool pool = null;
         if (!CollectionUtils.isEmpty(methodThreadPools)) {
-            pool = methodThreadPools.get(request.getServiceName() + "#" + request.getMethodName());
+            pool = methodThreadPools.get(InvocationUtils.getRequestMethod(request));
         }
         if (!CollectionUtils.isEmpty(serviceThreadPools)) {
             pool = serviceThreadPools.get(request.getServiceName());
@@ -164,7 +307,7 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
             if (enableSlowPool && requestTimeoutListener.isSlowRequest(request)) {
                 pool = slowRequestProcessThreadPool;
             } else {
-                if ("server".equals(poolStrategy)) {
+                if ("server".equals(poolStrategy) || "bulkhead".equals(poolStrategy)) {
                     pool = requestProcessThreadPool;
                 } else {
                     pool = sharedRequestProcessThreadPool;
@@ -179,6 +322,9 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
         StringBuilder stats = new StringBuilder();
         if ("server".equals(poolStrategy)) {
             stats.append("[server=").append(getThreadPoolStatistics(requestProcessThreadPool)).append("]");
+        } else if ("bulkhead".equals(poolStrategy)) {
+            stats.append("[bulkhead=").append(getThreadPoolStatistics(bulkheadThreadPool)).append(",lanes:")
+                    .append(bulkheadThreadPool.getStatistics()).append("]");
         } else {
             stats.append("[shared=").append(getThreadPoolStatistics(sharedRequestProcessThreadPool)).append("]");
         }
@@ -196,6 +342,9 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
             }
         }
         stats.append(GatewayProcessFilter.getStatistics());
+        if (requestTimeoutListener != null) {
+            stats.append(",[timeout=").append(requestTimeoutListener.getStatistics()).append("]");
+        }
         return stats.toString();
     }
 
@@ -226,7 +375,7 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
                     int maxSize = actives;
                     int queueSize = actives;
                     pool = new DefaultThreadPool("Pigeon-Server-Request-Processor-service", coreSize, maxSize,
-                            new LinkedBlockingQueue<Runnable>(queueSize));
+                            createWorkQueue(queueSize));
                     serviceThreadPools.putIfAbsent(key, pool);
                 }
             } else if (!CollectionUtils.isEmpty(methodConfigs)) {
@@ -247,7 +396,7 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
                         int maxSize = actives;
                         int queueSize = actives;
                         pool = new DefaultThreadPool("Pigeon-Server-Request-Processor-method", coreSize, maxSize,
-                                new LinkedBlockingQueue<Runnable>(queueSize));
+                                createWorkQueue(queueSize));
                         methodThreadPools.putIfAbsent(key, pool);
                     }
                 }
@@ -258,6 +407,9 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
     @Override
     public String getProcessorStatistics(InvocationRequest request) {
         ThreadPool pool = selectThreadPool(request);
+        if (pool == bulkheadThreadPool) {
+            return getThreadPoolStatistics(pool) + ",lanes:" + bulkheadThreadPool.getStatistics(request.getServiceName());
+        }
         return getThreadPoolStatistics(pool);
     }
 
@@ -298,6 +450,10 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
     @Override
     public boolean needCancelRequest(InvocationRequest request) {
         ThreadPool pool = selectThreadPool(request);
+        if (pool == bulkheadThreadPool) {
+            // the workers are started up front, only busy ones count
+            return pool.getExecutor().getActiveCount() >= pool.getExecutor().getMaximumPoolSize() * cancelRatio;
+        }
         return pool.getExecutor().getPoolSize() >= pool.getExecutor().getMaximumPoolSize() * cancelRatio;
     }
 
@@ -305,7 +461,7 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
     public ThreadPool getRequestProcessThreadPool() {
         ThreadPool pool;
 
-        if ("server".equals(poolStrategy)) {
+        if ("server".equals(poolStrategy) || "bulkhead".equals(poolStrategy)) {
             pool = requestProcessThreadPool;
         } else {
             pool = sharedRequestProcessThreadPool;
@@ -341,6 +497,10 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
         public void onKeyUpdated(String key, String value) {
             if (key.endsWith("pigeon.provider.pool.slow.enable")) {
                 enableSlowPool = Boolean.valueOf(value);
+            } else if (key.endsWith("pigeon.provider.deadline.shed.enable")) {
+                enableDeadlineShed = Boolean.valueOf(value);
+            } else if (key.endsWith("pigeon.provider.deadline.shed.minsamples")) {
+                deadlineShedMinSamples = Integer.valueOf(value);
             } else if (key.endsWith("pigeon.timeout.cancelratio")) {
                 cancelRatio = Float.valueOf(value);
             } else if (key.endsWith("pigeon.provider.pool.ratio.core")) {
@@ -354,7 +514,7 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
                                 + oldPool.getExecutor().getQueue().size();
                         try {
                             ThreadPool newPool = new DefaultThreadPool("Pigeon-Server-Request-Processor-method", size,
-                                    oldPool.getExecutor().getMaximumPoolSize(), new LinkedBlockingQueue<Runnable>(
+                                    oldPool.getExecutor().getMaximumPoolSize(), createWorkQueue(
                                     queueSize));
                             sharedRequestProcessThreadPool = newPool;
                             oldPool.getExecutor().shutdown();
@@ -379,7 +539,7 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
                                 + oldPool.getExecutor().getQueue().size();
                         try {
                             ThreadPool newPool = new DefaultThreadPool("Pigeon-Server-Request-Processor-method",
-                                    oldPool.getExecutor().getCorePoolSize(), size, new LinkedBlockingQueue<Runnable>(
+                                    oldPool.getExecutor().getCorePoolSize(), size, createWorkQueue(
                                     queueSize));
                             sharedRequestProcessThreadPool = newPool;
                             oldPool.getExecutor().shutdown();
@@ -405,7 +565,7 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
                         try {
                             ThreadPool newPool = new DefaultThreadPool("Pigeon-Server-Request-Processor-method",
                                     oldPool.getExecutor().getCorePoolSize(),
-                                    oldPool.getExecutor().getMaximumPoolSize(), new LinkedBlockingQueue<Runnable>(size));
+                                    oldPool.getExecutor().getMaximumPoolSize(), createWorkQueue(size));
                             sharedRequestProcessThreadPool = newPool;
                             oldPool.getExecutor().shutdown();
                             oldPool.getExecutor().awaitTermination(5, TimeUnit.SECONDS);
@@ -440,7 +600,7 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
                                         try {
                                             ThreadPool newPool = new DefaultThreadPool(
                                                     "Pigeon-Server-Request-Processor-method", coreSize, maxSize,
-                                                    new LinkedBlockingQueue<Runnable>(queueSize));
+                                                    createWorkQueue(queueSize));
                                             methodThreadPools.put(serviceKey, newPool);
                                             pool.getExecutor().shutdown();
                                             pool.getExecutor().awaitTermination(5, TimeUnit.SECONDS);
@@ -105,6 +105,9 @@ public final class ServicePublisher {
 			((InitializingService) service).initialize();
 		}
 		ServiceMethodFactory.init(url);
+		if (!StringUtils.isBlank(version)) {
+			ServiceMethodFactory.init(getServiceUrlWithVersion(url, version));
+		}
 	}
 
 	public static <T> void publishService(ProviderConfig<T> providerConfig) throws RegistryException {
@@ -350,6 +353,7 @@ public final class ServicePublisher {
 		}
 		for (String key : toRemovedUrls) {
 			serviceCache.remove(key);
+			ServiceMethodFactory.remove(key);
 		}
 	}
 
@@ -24,14 +24,32 @@ public class ServiceMethod {
 
 	private boolean needCastParameterClasses = false;
 
+	private volatile ServiceMethodInvoker invoker;
+
 	public boolean isNeedCastParameterClasses() {
 		return needCastParameterClasses;
 	}
 
 	public void setNeedCastParameterClasses(boolean needCastParameterClasses) {
+		if (needCastParameterClasses && !this.needCastParameterClasses && invoker != null
+				&& ServiceMethodInvoker.needCast(method)) {
+			invoker = ServiceMethodInvoker.create(method, true);
+		}
 		this.needCastParameterClasses = needCastParameterClasses;
 	}
 
+	/**
+	 * replaces reflection with a method handle, methods that cannot be bound
+	 * keep using reflection
+	 */
+	public void generateInvoker() {
+		this.invoker = ServiceMethodInvoker.create(method, needCastParameterClasses);
+	}
+
+	public ServiceMethodInvoker getInvoker() {
+		return invoker;
+	}
+
 	public Class<?>[] getParameterClasses() {
 		return parameterClasses;
 	}
@@ -98,6 +116,17 @@ public class ServiceMethod {
 
 	public Object invoke(Object[] arguments) throws IllegalArgumentException, IllegalAccessException,
 			InvocationTargetException {
+		ServiceMethodInvoker invoker = this.invoker;
+		if (invoker != null && (arguments == null ? parameterLength == 0 : arguments.length == parameterLength)) {
+			try {
+				return invoker.invoke(this.getService(), arguments);
+			} catch (RuntimeException e) {
+				// the service's own exceptions arrive wrapped, this failed
+				// unboxing or casting an argument
+				throw new IllegalArgumentException("invalid parameter types:"
+						+ InvocationUtils.getRemoteCallFullName(this.getMethod().getName(), arguments), e);
+			}
+		}
 		if (needCastParameterClasses && arguments != null && parameterClasses != null) {
 			if (parameterClasses.length == arguments.length) {
 				Object[] argumentsCast = new Object[arguments.length];
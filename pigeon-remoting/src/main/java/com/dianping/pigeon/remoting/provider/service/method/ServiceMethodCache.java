@@ -5,10 +5,11 @@
 package com.dianping.pigeon.remoting.provider.service.method;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.dianping.pigeon.remoting.common.exception.BadRequestException;
 import com.dianping.pigeon.remoting.common.util.Constants;
@@ -20,9 +21,12 @@ public class ServiceMethodCache {
 	/**
 	 * 根据方法名和参数个数Map方法集合
 	 */
-	private Map<String, Map<Integer, List<ServiceMethod>>> methods = new ConcurrentHashMap<String, Map<Integer, List<ServiceMethod>>>();
+	private Map<String, Map<Integer, List<ServiceMethod>>> methods = new HashMap<String, Map<Integer, List<ServiceMethod>>>();
 
-	private Map<String, Map<ServiceParam, ServiceMethod>> bestMacthMethod = new ConcurrentHashMap<String, Map<ServiceParam, ServiceMethod>>();
+	/**
+	 * immutable once built, see {@link #buildIndex()}
+	 */
+	private Map<String, MethodIndex> index = Collections.emptyMap();
 
 	private ServiceMethod currentMethod;
 
@@ -59,31 +63,93 @@ public class ServiceMethodCache {
 		methodSize++;
 	}
 
-	public ServiceMethod getMethod(String methodName, ServiceParam paramNames) throws InvocationFailureException {
-		if (methodSize == 1) {
-			return this.currentMethod;
-		} else {
-			ServiceMethod method = getBestMatchMethodForCache(methodName, paramNames);
-			if (method == null) {
-				synchronized (this) {
-					method = getBestMatchMethodForCache(methodName, paramNames);
-					if (method == null) {
-						method = getBestMatchMethod(methodName, paramNames);
-						this.bestMacthMethod.get(methodName).put(paramNames, method);
+	/**
+	 * called once all methods are added and before the cache is shared, every
+	 * overload is indexed under its declared parameter classes so that
+	 * requests whose arguments match a declaration exactly resolve without
+	 * class loading
+	 */
+	void buildIndex() {
+		Map<String, Map<Integer, List<ServiceMethod>>> frozenMethods = new HashMap<String, Map<Integer, List<ServiceMethod>>>();
+		Map<String, MethodIndex> newIndex = new HashMap<String, MethodIndex>();
+		for (Map.Entry<String, Map<Integer, List<ServiceMethod>>> entry : methods.entrySet()) {
+			Map<Integer, List<ServiceMethod>> frozenMethodMap = new HashMap<Integer, List<ServiceMethod>>();
+			Map<ServiceParam, ServiceMethod> declared = new HashMap<ServiceParam, ServiceMethod>();
+			for (Map.Entry<Integer, List<ServiceMethod>> arity : entry.getValue().entrySet()) {
+				List<ServiceMethod> methodList = arity.getValue();
+				frozenMethodMap.put(arity.getKey(), Collections.unmodifiableList(new ArrayList<ServiceMethod>(
+						methodList)));
+				// the first overload wins, as in getBestMatchMethod
+				for (ServiceMethod method : methodList) {
+					ServiceParam param = new ServiceParam(getClassNames(method.getParameterClasses()));
+					if (!declared.containsKey(param)) {
+						declared.put(param, method);
 					}
 				}
 			}
-			return method;
+			frozenMethods.put(entry.getKey(), Collections.unmodifiableMap(frozenMethodMap));
+			newIndex.put(entry.getKey(), new MethodIndex(declared));
+		}
+		this.methods = Collections.unmodifiableMap(frozenMethods);
+		this.index = newIndex;
+	}
+
+	private static String[] getClassNames(Class<?>[] classes) {
+		String[] names = new String[classes.length];
+		for (int i = 0; i < classes.length; i++) {
+			names[i] = classes[i].getName();
 		}
+		return names;
 	}
 
-	private ServiceMethod getBestMatchMethodForCache(String methodName, ServiceParam paramNames) {
-		Map<ServiceParam, ServiceMethod> paramMethodMap = this.bestMacthMethod.get(methodName);
-		if (paramMethodMap == null) {
-			paramMethodMap = new HashMap<ServiceParam, ServiceMethod>();
-			this.bestMacthMethod.put(methodName, paramMethodMap);
+	public ServiceMethod getMethod(String methodName, ServiceParam paramNames) throws InvocationFailureException {
+		if (methodSize == 1) {
+			return this.currentMethod;
+		}
+		MethodIndex methodIndex = this.index.get(methodName);
+		if (methodIndex == null) {
+			throw new BadRequestException("the service " + this.service + " is not matched with method:"
+					+ methodName);
+		}
+		ServiceMethod method = methodIndex.get(paramNames);
+		if (method == null) {
+			// argument classes not seen before, resolved once with class
+			// loading
+			method = getBestMatchMethod(methodName, paramNames);
+			methodIndex.put(paramNames, method);
+		}
+		return method;
+	}
+
+	/**
+	 * resolved parameter signatures of one method name, replaced copy on
+	 * write so that lookups take no lock and never see a map being modified
+	 */
+	private static final class MethodIndex {
+
+		private final AtomicReference<Map<ServiceParam, ServiceMethod>> resolved;
+
+		MethodIndex(Map<ServiceParam, ServiceMethod> declared) {
+			this.resolved = new AtomicReference<Map<ServiceParam, ServiceMethod>>(declared);
+		}
+
+		ServiceMethod get(ServiceParam paramNames) {
+			return resolved.get().get(paramNames);
+		}
+
+		void put(ServiceParam paramNames, ServiceMethod method) {
+			for (;;) {
+				Map<ServiceParam, ServiceMethod> current = resolved.get();
+				if (current.containsKey(paramNames)) {
+					return;
+				}
+				Map<ServiceParam, ServiceMethod> updated = new HashMap<ServiceParam, ServiceMethod>(current);
+				updated.put(paramNames, method);
+				if (resolved.compareAndSet(current, updated)) {
+					return;
+				}
+			}
 		}
-		return paramMethodMap.get(paramNames);
 	}
 
 	private ServiceMethod getBestMatchMethod(String methodName, ServiceParam paramNames)
@@ -12,6 +12,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.StringUtils;
 
+import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.Logger;
 import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.CompactRequest;
@@ -28,10 +29,15 @@ public final class ServiceMethodFactory {
 
 	private static final Logger logger = LoggerLoader.getLogger(ContextTransferProcessFilter.class);
 
-	private static Map<String, ServiceMethodCache> methods = new ConcurrentHashMap<String, ServiceMethodCache>();
+	private static ConcurrentHashMap<String, ServiceMethodCache> methods = new ConcurrentHashMap<String, ServiceMethodCache>();
 
 	private static Set<String> ingoreMethods = new HashSet<String>();
 
+	// off by default: the method handle is held in an instance field, which the jit of java 7 and 8 does not
+	// inline, so it is not shown to be faster than reflection there
+	private static final boolean generateInvoker = ConfigManagerLoader.getConfigManager().getBooleanValue(
+			"pigeon.provider.method.invoker.generate.enable", false);
+
 	static {
 		Method[] objectMethodArray = Object.class.getMethods();
 		for (Method method : objectMethodArray) {
@@ -73,33 +79,66 @@ public final class ServiceMethodFactory {
 	public static ServiceMethodCache getServiceMethodCache(String url) {
 		ServiceMethodCache serviceMethodCache = methods.get(url);
 		if (serviceMethodCache == null) {
-			Map<String, ProviderConfig<?>> services = ServicePublisher.getAllServiceProviders();
-			ProviderConfig<?> providerConfig = services.get(url);
-			if (providerConfig != null) {
-				Object service = providerConfig.getService();
-				Method[] methodArray = service.getClass().getMethods();
-				serviceMethodCache = new ServiceMethodCache(url, service);
-				for (Method method : methodArray) {
-					if (!ingoreMethods.contains(method.getName())) {
-						method.setAccessible(true);
-						serviceMethodCache.addMethod(method.getName(), new ServiceMethod(service, method));
-						int id = LangUtils.hash(url + "#" + method.getName(), 0, Integer.MAX_VALUE);
-						ServiceId serviceId = new ServiceId(url, method.getName());
-						ServiceId lastId = CompactRequest.PROVIDER_ID_MAP.putIfAbsent(id, serviceId);
-						if (lastId != null && !serviceId.equals(lastId)) {
-							throw new IllegalArgumentException("same id for service:" + url + ", method:"
-									+ method.getName());
-						}
-					}
+			serviceMethodCache = createServiceMethodCache(url);
+			if (serviceMethodCache != null) {
+				ServiceMethodCache old = methods.putIfAbsent(url, serviceMethodCache);
+				if (old != null) {
+					serviceMethodCache = old;
+				}
+			}
+		}
+		return serviceMethodCache;
+	}
+
+	private static ServiceMethodCache createServiceMethodCache(String url) {
+		Map<String, ProviderConfig<?>> services = ServicePublisher.getAllServiceProviders();
+		ProviderConfig<?> providerConfig = services.get(url);
+		if (providerConfig == null) {
+			return null;
+		}
+		return createServiceMethodCache(url, providerConfig.getService());
+	}
+
+	public static ServiceMethodCache createServiceMethodCache(String url, Object service) {
+		Method[] methodArray = service.getClass().getMethods();
+		ServiceMethodCache serviceMethodCache = new ServiceMethodCache(url, service);
+		for (Method method : methodArray) {
+			if (!ingoreMethods.contains(method.getName())) {
+				method.setAccessible(true);
+				ServiceMethod serviceMethod = new ServiceMethod(service, method);
+				if (generateInvoker) {
+					serviceMethod.generateInvoker();
+				}
+				serviceMethodCache.addMethod(method.getName(), serviceMethod);
+				int id = LangUtils.hash(url + "#" + method.getName(), 0, Integer.MAX_VALUE);
+				ServiceId serviceId = new ServiceId(url, method.getName());
+				ServiceId lastId = CompactRequest.PROVIDER_ID_MAP.putIfAbsent(id, serviceId);
+				if (lastId != null && !serviceId.equals(lastId)) {
+					throw new IllegalArgumentException("same id for service:" + url + ", method:"
+							+ method.getName());
 				}
-				methods.put(url, serviceMethodCache);
 			}
 		}
+		serviceMethodCache.buildIndex();
 		return serviceMethodCache;
 	}
 
+	/**
+	 * builds the methods of the service currently published under the url
+	 * and swaps them in, requests in flight keep the cache they resolved
+	 * against
+	 */
 	public static void init(String url) {
-		getServiceMethodCache(url);
+		ServiceMethodCache serviceMethodCache = createServiceMethodCache(url);
+		if (serviceMethodCache != null) {
+			methods.put(url, serviceMethodCache);
+		} else {
+			methods.remove(url);
+		}
+	}
+
+	public static void remove(String url) {
+		methods.remove(url);
 	}
 
 	public static Map<String, ServiceMethodCache> getAllMethods() {
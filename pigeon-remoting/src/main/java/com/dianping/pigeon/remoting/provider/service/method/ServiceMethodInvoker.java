@@ -0,0 +1,131 @@
+package com.dianping.pigeon.remoting.provider.service.method;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import com.dianping.pigeon.log.Logger;
+import com.dianping.pigeon.log.LoggerLoader;
+
+/**
+ * call of one service method through a method handle spread over the argument
+ * array, which saves the access checks and argument copies of
+ * {@link Method#invoke}.
+ *
+ * the arguments are unboxed with the widening conversions of reflection.
+ * exceptions thrown by the service are wrapped in an
+ * {@link InvocationTargetException} as {@link Method#invoke} does, anything
+ * else thrown by {@link #invoke(Object, Object[])} is a bad argument.
+ */
+public final class ServiceMethodInvoker {
+
+	private static final Logger logger = LoggerLoader.getLogger(ServiceMethodInvoker.class);
+
+	private static final MethodHandle WRAP;
+
+	private static final MethodHandle CAST_SHORT;
+
+	private static final MethodHandle CAST_FLOAT;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			WRAP = lookup.findStatic(ServiceMethodInvoker.class, "wrap",
+					MethodType.methodType(Object.class, Throwable.class));
+			CAST_SHORT = lookup.findStatic(ServiceMethodInvoker.class, "castShort",
+					MethodType.methodType(Object.class, Object.class));
+			CAST_FLOAT = lookup.findStatic(ServiceMethodInvoker.class, "castFloat",
+					MethodType.methodType(Object.class, Object.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	// (Object service, Object[] arguments)Object
+	private final MethodHandle handle;
+
+	private ServiceMethodInvoker(MethodHandle handle) {
+		this.handle = handle;
+	}
+
+	/**
+	 * @param cast
+	 *            also accept the Double to Float and Integer to Short casts of
+	 *            {@link ServiceMethod}
+	 * @return null if the method cannot be bound, it stays on reflection
+	 */
+	static ServiceMethodInvoker create(Method method, boolean cast) {
+		try {
+			MethodHandle target = MethodHandles.lookup().unreflect(method);
+			if (Modifier.isStatic(method.getModifiers())) {
+				target = MethodHandles.dropArguments(target, 0, Object.class);
+			}
+			target = target.asType(target.type().changeReturnType(Object.class));
+			// only what the service throws is wrapped, the conversions below
+			// fail outside of it
+			target = MethodHandles.catchException(target, Throwable.class,
+					MethodHandles.dropArguments(WRAP, 1, target.type().parameterList()));
+
+			int parameterCount = method.getParameterTypes().length;
+			MethodHandle generic = target.asType(MethodType.genericMethodType(parameterCount + 1));
+			if (cast) {
+				Class<?>[] types = method.getParameterTypes();
+				for (int i = 0; i < types.length; i++) {
+					if (types[i] == short.class || types[i] == Short.class) {
+						generic = MethodHandles.filterArguments(generic, i + 1, CAST_SHORT);
+					} else if (types[i] == float.class || types[i] == Float.class) {
+						generic = MethodHandles.filterArguments(generic, i + 1, CAST_FLOAT);
+					}
+				}
+			}
+			return new ServiceMethodInvoker(generic.asSpreader(Object[].class, parameterCount));
+		} catch (Throwable t) {
+			logger.warn("unable to bind invoker for method:" + method + ", use reflection instead", t);
+			return null;
+		}
+	}
+
+	static boolean needCast(Method method) {
+		for (Class<?> type : method.getParameterTypes()) {
+			if (type == float.class || type == short.class || type == Float.class || type == Short.class) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public Object invoke(Object service, Object[] arguments) throws InvocationTargetException {
+		try {
+			return (Object) handle.invokeExact(service, arguments);
+		} catch (InvocationTargetException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
+	}
+
+	private static Object wrap(Throwable t) throws InvocationTargetException {
+		throw new InvocationTargetException(t);
+	}
+
+	private static Object castShort(Object arg) {
+		if (arg instanceof Integer) {
+			return ((Integer) arg).shortValue();
+		}
+		return arg;
+	}
+
+	private static Object castFloat(Object arg) {
+		if (arg instanceof Double) {
+			return ((Double) arg).floatValue();
+		}
+		return arg;
+	}
+}
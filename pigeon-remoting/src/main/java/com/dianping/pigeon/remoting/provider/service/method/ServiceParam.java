@@ -4,6 +4,8 @@
  */
 package com.dianping.pigeon.remoting.provider.service.method;
 
+import java.util.Arrays;
+
 import org.apache.commons.lang.builder.ReflectionToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 
@@ -15,12 +17,7 @@ public class ServiceParam {
 
 	public ServiceParam(String[] paramNames) {
 		this.paramNames = paramNames;
-
-		StringBuilder sb = new StringBuilder();
-		for (String paramName : paramNames) {
-			sb.append(paramName).append("@");
-		}
-		this.hashCode = sb.toString().hashCode();
+		this.hashCode = Arrays.hashCode(paramNames);
 	}
 
 	public int getLength() {
@@ -40,7 +37,9 @@ public class ServiceParam {
 			return true;
 		}
 		if (obj instanceof ServiceParam) {
-			return this.hashCode == obj.hashCode();
+			// equal hash codes alone would resolve colliding signatures to the
+			// same method
+			return this.hashCode == obj.hashCode() && Arrays.equals(this.paramNames, ((ServiceParam) obj).paramNames);
 		}
 		return false;
 	}
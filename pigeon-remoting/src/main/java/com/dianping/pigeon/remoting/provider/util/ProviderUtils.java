@@ -4,6 +4,7 @@
  */
 package com.dianping.pigeon.remoting.provider.util;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -15,6 +16,7 @@ import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.domain.generic.UnifiedRequest;
 import com.dianping.pigeon.remoting.common.domain.generic.UnifiedResponse;
 import com.dianping.pigeon.remoting.common.exception.BadRequestException;
+import com.dianping.pigeon.remoting.common.exception.RateLimitedException;
 import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.common.util.InvocationUtils;
 import com.dianping.pigeon.remoting.provider.domain.ProviderContext;
@@ -67,6 +69,12 @@ public final class ProviderUtils {
         } else {
             response.setReturn(exceptionTranslator.translate(e));
         }
+        if (e instanceof RateLimitedException) {
+            Map<String, Serializable> responseValues = new HashMap<String, Serializable>();
+            responseValues.put(Constants.CONTEXT_KEY_RETRY_AFTER,
+                    String.valueOf(((RateLimitedException) e).getRetryAfterMillis()));
+            response.setResponseValues(responseValues);
+        }
         return response;
     }
 
@@ -84,6 +92,12 @@ public final class ProviderUtils {
         } else {
             response.setReturn(exceptionTranslator.translate(e));
         }
+        if (e instanceof RateLimitedException) {
+            Map<String, String> localContext = new HashMap<String, String>();
+            localContext.put(Constants.CONTEXT_KEY_RETRY_AFTER,
+                    String.valueOf(((RateLimitedException) e).getRetryAfterMillis()));
+            response.setLocalContext(localContext);
+        }
         response.setSeqId(request.getSeqId());
         return response;
     }
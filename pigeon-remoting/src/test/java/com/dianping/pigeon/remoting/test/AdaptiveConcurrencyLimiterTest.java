@@ -0,0 +1,63 @@
+package com.dianping.pigeon.remoting.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.provider.process.limit.AdaptiveConcurrencyLimiter;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+	private static final long MILLIS = 1000 * 1000;
+
+	/**
+	 * fills the limit and releases everything with the given latency
+	 */
+	private static void round(AdaptiveConcurrencyLimiter limiter, long rttNanos) {
+		int acquired = 0;
+		while (limiter.tryAcquire()) {
+			acquired++;
+		}
+		for (int i = 0; i < acquired; i++) {
+			limiter.release(rttNanos);
+		}
+	}
+
+	@Test
+	public void testRejectsOverLimit() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(5, 1, 100);
+		for (int i = 0; i < 5; i++) {
+			Assert.assertTrue(limiter.tryAcquire());
+		}
+		Assert.assertFalse(limiter.tryAcquire());
+		limiter.release(MILLIS);
+		Assert.assertTrue(limiter.tryAcquire());
+		Assert.assertEquals(5, limiter.getInflight());
+	}
+
+	@Test
+	public void testFollowsLatency() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 4, 200);
+		for (int i = 0; i < 50; i++) {
+			round(limiter, 10 * MILLIS);
+		}
+		int grown = limiter.getLimit();
+		Assert.assertTrue(String.valueOf(grown), grown > 10);
+
+		for (int i = 0; i < 50; i++) {
+			round(limiter, 40 * MILLIS);
+		}
+		int shrunk = limiter.getLimit();
+		Assert.assertTrue(grown + "->" + shrunk, shrunk < grown);
+		Assert.assertTrue(limiter.toString(), limiter.toString().startsWith("limit:" + shrunk + ",inflight:0"));
+	}
+
+	@Test
+	public void testDoesNotGrowWhenIdle() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 4, 200);
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertTrue(limiter.tryAcquire());
+			limiter.release(MILLIS);
+		}
+		Assert.assertEquals(20, limiter.getLimit());
+	}
+}
@@ -0,0 +1,225 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.provider.process.threadpool.BulkheadThreadPool;
+
+public class BulkheadThreadPoolTest {
+
+	private static final int WORKERS = 4;
+
+	private static Callable<Object> sleep(final long millis) {
+		return new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				Thread.sleep(millis);
+				return null;
+			}
+		};
+	}
+
+	private static Callable<Object> await(final CountDownLatch latch) {
+		return new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				latch.await();
+				return null;
+			}
+		};
+	}
+
+	private static Callable<Object> record(final List<String> order, final String name) {
+		return new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				order.add(name);
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * by the lane statistics, the executor counts a prestarted worker as
+	 * active before it takes a task
+	 */
+	private static void awaitActive(BulkheadThreadPool pool, String lane, int active) throws InterruptedException {
+		String expected = ",active=" + active + ",";
+		for (int i = 0; i < 200 && !pool.getStatistics(lane).contains(expected); i++) {
+			Thread.sleep(5);
+		}
+		Assert.assertTrue(pool.getStatistics(lane), pool.getStatistics(lane).contains(expected));
+	}
+
+	@Test
+	public void testSlowServiceKeepsToItsShare() throws Exception {
+		BulkheadThreadPool pool = new BulkheadThreadPool("bulkhead-test", WORKERS, 1000);
+		final AtomicInteger slowDone = new AtomicInteger();
+		for (int i = 0; i < 100; i++) {
+			pool.submit("slow", new Callable<Object>() {
+
+				@Override
+				public Object call() throws Exception {
+					Thread.sleep(20);
+					slowDone.incrementAndGet();
+					return null;
+				}
+			});
+		}
+		awaitActive(pool, "slow", WORKERS);
+
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < 20; i++) {
+			futures.add(pool.submit("fast", new Callable<Integer>() {
+
+				@Override
+				public Integer call() throws Exception {
+					return slowDone.get();
+				}
+			}));
+		}
+		int maxSlowDone = 0;
+		for (Future<Integer> future : futures) {
+			maxSlowDone = Math.max(maxSlowDone, future.get());
+		}
+		// behind a single fifo queue every slow request would finish first,
+		// here the fast lane gets its share of the workers as soon as slow
+		// requests finish
+		Assert.assertTrue("slow requests done before the fast lane:" + maxSlowDone, maxSlowDone < 50);
+		pool.getExecutor().shutdownNow();
+	}
+
+	@Test
+	public void testPutWaitsForRoomInTheLane() throws Exception {
+		BulkheadThreadPool pool = new BulkheadThreadPool("bulkhead-test", 1, 1);
+		CountDownLatch latch = new CountDownLatch(1);
+		pool.submit(await(latch));
+		awaitActive(pool, BulkheadThreadPool.DEFAULT_LANE, 1);
+		final BlockingQueue<Runnable> queue = pool.getExecutor().getQueue();
+		final CountDownLatch ran = new CountDownLatch(2);
+		Runnable task = new Runnable() {
+
+			@Override
+			public void run() {
+				ran.countDown();
+			}
+		};
+		queue.put(task);
+		// only the empty priority lane has room
+		Assert.assertEquals(1, queue.remainingCapacity());
+
+		final CountDownLatch put = new CountDownLatch(1);
+		Thread producer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					queue.put(new Runnable() {
+
+						@Override
+						public void run() {
+							ran.countDown();
+						}
+					});
+					put.countDown();
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+		producer.start();
+		Assert.assertFalse(put.await(50, TimeUnit.MILLISECONDS));
+		Assert.assertFalse(queue.offer(task, 10, TimeUnit.MILLISECONDS));
+
+		latch.countDown();
+		Assert.assertTrue(put.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(ran.await(5, TimeUnit.SECONDS));
+		pool.getExecutor().shutdown();
+		Assert.assertTrue(pool.getExecutor().awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testDrainUpdatesLanes() throws Exception {
+		BulkheadThreadPool pool = new BulkheadThreadPool("bulkhead-test", 1, 2);
+		CountDownLatch latch = new CountDownLatch(1);
+		pool.submit("a", await(latch));
+		awaitActive(pool, "a", 1);
+		pool.submit("a", sleep(0));
+		pool.submit("a", sleep(0));
+		List<Runnable> drained = new ArrayList<Runnable>();
+		Assert.assertEquals(2, pool.getExecutor().getQueue().drainTo(drained));
+		Assert.assertEquals(0, pool.getExecutor().getQueue().size());
+		Assert.assertTrue(pool.getStatistics("a"), pool.getStatistics("a").contains("removed=2"));
+		// the lane has room again
+		pool.submit("a", sleep(0));
+		pool.submit("a", sleep(0));
+		latch.countDown();
+		pool.getExecutor().shutdown();
+		Assert.assertTrue(pool.getExecutor().awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testIdleLaneWorkersAreUsed() throws Exception {
+		BulkheadThreadPool pool = new BulkheadThreadPool("bulkhead-test", WORKERS, 1000);
+		// lanes without work leave their share to the busy one
+		pool.submit("idle", sleep(0)).get();
+		CountDownLatch latch = new CountDownLatch(1);
+		for (int i = 0; i < WORKERS * 2; i++) {
+			pool.submit("busy", await(latch));
+		}
+		awaitActive(pool, "busy", WORKERS);
+		latch.countDown();
+		pool.getExecutor().shutdown();
+		Assert.assertTrue(pool.getExecutor().awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testPriorityLaneFirst() throws Exception {
+		BulkheadThreadPool pool = new BulkheadThreadPool("bulkhead-test", 1, 1000);
+		CountDownLatch latch = new CountDownLatch(1);
+		pool.submit("service", await(latch));
+		awaitActive(pool, "service", 1);
+
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		pool.submit("service", record(order, "request"));
+		Future<Object> heartbeat = pool.submitPriority(record(order, "heartbeat"));
+		latch.countDown();
+		heartbeat.get();
+		pool.getExecutor().shutdown();
+		Assert.assertTrue(pool.getExecutor().awaitTermination(5, TimeUnit.SECONDS));
+		Assert.assertEquals("heartbeat", order.get(0));
+	}
+
+	@Test
+	public void testFullLaneRejectsItsOwnRequests() throws Exception {
+		BulkheadThreadPool pool = new BulkheadThreadPool("bulkhead-test", 1, 2);
+		CountDownLatch latch = new CountDownLatch(1);
+		pool.submit("a", await(latch));
+		awaitActive(pool, "a", 1);
+		pool.submit("a", sleep(0));
+		pool.submit("a", sleep(0));
+		try {
+			pool.submit("a", sleep(0));
+			Assert.fail();
+		} catch (RejectedExecutionException e) {
+		}
+		pool.submit("b", sleep(0));
+		Assert.assertTrue(pool.getStatistics("a").contains("rejected=1"));
+		latch.countDown();
+		pool.getExecutor().shutdown();
+		Assert.assertTrue(pool.getExecutor().awaitTermination(5, TimeUnit.SECONDS));
+	}
+}
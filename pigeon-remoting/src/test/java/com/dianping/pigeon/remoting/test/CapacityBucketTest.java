@@ -0,0 +1,98 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.provider.process.statistics.ProviderCapacityBucket;
+import com.dianping.pigeon.util.SlidingWindowCounter;
+
+public class CapacityBucketTest {
+
+	@Test
+	public void testSlidingWindow() {
+		SlidingWindowCounter counter = new SlidingWindowCounter(60, 1000);
+		for (int i = 0; i < 5; i++) {
+			counter.incrementUnit(1000);
+		}
+		counter.incrementUnit(1001);
+		Assert.assertEquals(5, counter.get(1000));
+		Assert.assertEquals(1, counter.get(1001));
+		Assert.assertEquals(0, counter.get(1002));
+
+		// the unit a minute later takes over the slot
+		counter.incrementUnit(1060);
+		Assert.assertEquals(0, counter.get(1000));
+		Assert.assertEquals(1, counter.get(1060));
+
+		// a late increment for a unit already gone is dropped
+		counter.incrementUnit(1000);
+		Assert.assertEquals(1, counter.get(1060));
+		Assert.assertEquals(0, counter.get(1000));
+	}
+
+	@Test
+	public void testConcurrentIncrements() throws Exception {
+		final SlidingWindowCounter counter = new SlidingWindowCounter(60, 1000);
+		for (int i = 0; i < 5; i++) {
+			counter.incrementUnit(7);
+		}
+		// the threads race to take the slot over from the unit a minute earlier
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int n = 0; n < 10000; n++) {
+						counter.incrementUnit(67);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(80000, counter.get(67));
+		Assert.assertEquals(0, counter.get(7));
+	}
+
+	@Test
+	public void testProviderBucket() {
+		ProviderCapacityBucket bucket = new ProviderCapacityBucket("test");
+		for (int i = 0; i < 100; i++) {
+			bucket.flowIn(null);
+		}
+		Assert.assertEquals(100, bucket.getCurrentRequests());
+		// the second may just have turned
+		Assert.assertEquals(100, bucket.getRequestsInCurrentSecond() + bucket.getRequestsInLastSecond());
+		int total = 0;
+		for (AtomicInteger count : bucket.getTotalRequestsInSecond().values()) {
+			total += count.get();
+		}
+		Assert.assertEquals(100, total);
+		bucket.flowOut(null);
+		Assert.assertEquals(99, bucket.getCurrentRequests());
+	}
+
+	@Test
+	public void testConcurrentFlow() throws Exception {
+		final ProviderCapacityBucket bucket = new ProviderCapacityBucket("test");
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int n = 0; n < 10000; n++) {
+						bucket.flowIn(null);
+						bucket.flowOut(null);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(0, bucket.getCurrentRequests());
+	}
+}
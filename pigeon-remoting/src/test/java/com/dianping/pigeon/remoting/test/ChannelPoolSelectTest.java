@@ -0,0 +1,190 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.channel.Channel;
+import com.dianping.pigeon.remoting.common.channel.ChannelFactory;
+import com.dianping.pigeon.remoting.common.exception.NetworkException;
+import com.dianping.pigeon.remoting.common.pool.DefaultChannelPool;
+import com.dianping.pigeon.remoting.common.pool.PoolProperties;
+
+/**
+ * four connections to one provider, one of them drains six times slower
+ * than the others while the offered load stays below the total capacity.
+ */
+public class ChannelPoolSelectTest {
+
+	private static final int CHANNELS = 4;
+
+	private static final int TICKS = 2000;
+
+	private static final int REQUESTS_PER_TICK = 40;
+
+	private static final int FAST_RATE = 13;
+
+	private static final int SLOW_RATE = 2;
+
+	private static class SimulatedChannel implements Channel {
+
+		private final int rate;
+
+		private int pending;
+
+		private boolean writable = true;
+
+		SimulatedChannel(int rate) {
+			this.rate = rate;
+		}
+
+		void tick() {
+			pending = Math.max(0, pending - rate);
+		}
+
+		@Override
+		public void connect() throws NetworkException {
+		}
+
+		@Override
+		public void disConnect() {
+		}
+
+		@Override
+		public void write(Object message) throws NetworkException {
+			pending++;
+		}
+
+		@Override
+		public boolean isWritable() {
+			return writable;
+		}
+
+		@Override
+		public boolean isAvaliable() {
+			return true;
+		}
+
+		@Override
+		public InetSocketAddress getLocalAddress() {
+			return null;
+		}
+
+		@Override
+		public InetSocketAddress getRemoteAddress() {
+			return null;
+		}
+
+		@Override
+		public String getRemoteAddressString() {
+			return "127.0.0.1:4040";
+		}
+
+		@Override
+		public int getPendingRequests() {
+			return pending;
+		}
+
+		@Override
+		public long getPendingBytes() {
+			return pending * 1024L;
+		}
+	}
+
+	private static class SimulatedChannelFactory implements ChannelFactory<SimulatedChannel> {
+
+		private int created;
+
+		@Override
+		public SimulatedChannel createChannel() {
+			return new SimulatedChannel(created++ == 0 ? SLOW_RATE : FAST_RATE);
+		}
+	}
+
+	private static PoolProperties properties(String selectStrategy) {
+		PoolProperties properties = new PoolProperties(CHANNELS, CHANNELS, CHANNELS, 0, 60000);
+		properties.setSelectStrategy(selectStrategy);
+		return properties;
+	}
+
+	/**
+	 * @return mean number of requests queued per tick, proportional to the
+	 *         mean queueing delay
+	 */
+	private static double simulate(DefaultChannelPool<SimulatedChannel> pool) throws Exception {
+		List<SimulatedChannel> channels = pool.getChannels();
+		Assert.assertEquals(CHANNELS, channels.size());
+		long queued = 0;
+		for (int tick = 0; tick < TICKS; tick++) {
+			for (int i = 0; i < REQUESTS_PER_TICK; i++) {
+				pool.selectChannel().write(null);
+			}
+			for (SimulatedChannel channel : channels) {
+				channel.tick();
+				queued += channel.getPendingRequests();
+			}
+		}
+		pool.close();
+		return (double) queued / TICKS;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSlowConnection() throws Exception {
+		double roundRobin = simulate(new DefaultChannelPool<SimulatedChannel>(
+				properties(PoolProperties.SELECT_STRATEGY_ROUND_ROBIN), new SimulatedChannelFactory()));
+		double leastPending = simulate(new DefaultChannelPool<SimulatedChannel>(
+				properties(PoolProperties.SELECT_STRATEGY_LEAST_PENDING), new SimulatedChannelFactory()));
+
+		// round robin sends a quarter of the load to the slow connection and
+		// its queue grows without bound
+		Assert.assertTrue(roundRobin > 1000);
+		Assert.assertTrue(leastPending < 100);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSkipUnwritable() throws Exception {
+		DefaultChannelPool<SimulatedChannel> pool = new DefaultChannelPool<SimulatedChannel>(
+				properties(PoolProperties.SELECT_STRATEGY_LEAST_PENDING), new SimulatedChannelFactory());
+		List<SimulatedChannel> channels = pool.getChannels();
+		for (int i = 1; i < CHANNELS; i++) {
+			channels.get(i).writable = false;
+			channels.get(i).pending = 0;
+		}
+		channels.get(0).pending = 1000;
+		for (int i = 0; i < 100; i++) {
+			Assert.assertSame(channels.get(0), pool.selectChannel());
+		}
+		pool.close();
+	}
+
+	private static void await(DefaultChannelPool<SimulatedChannel> pool, int size) throws InterruptedException {
+		for (int i = 0; i < 200 && pool.getSize() != size; i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(size, pool.getSize());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testResize() throws Exception {
+		PoolProperties properties = new PoolProperties(1, 1, CHANNELS, 0, 10);
+		properties.setGrowPendingThreshold(100);
+		properties.setShrinkIdleMillis(50);
+		DefaultChannelPool<SimulatedChannel> pool = new DefaultChannelPool<SimulatedChannel>(properties,
+				new SimulatedChannelFactory());
+		SimulatedChannel first = pool.getChannels().get(0);
+
+		// only the first channel is loaded, the average drops as channels are added
+		first.pending = 1000;
+		await(pool, CHANNELS);
+
+		first.pending = 0;
+		await(pool, 1);
+		Assert.assertSame(first, pool.getChannels().get(0));
+		pool.close();
+	}
+}
@@ -0,0 +1,152 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.route.balance.ConsistentHashLoadBalance;
+import com.dianping.pigeon.remoting.invoker.route.statistics.CapacityBucket;
+import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
+
+public class ConsistentHashTest {
+
+	private final ConsistentHashLoadBalance loadBalance = new ConsistentHashLoadBalance();
+
+	private static Client newClient(final String address) {
+		return (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class<?>[] { Client.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("getAddress".equals(method.getName()) || "toString".equals(method.getName())) {
+							return address;
+						}
+						return null;
+					}
+				});
+	}
+
+	private static InvocationRequest newRequest(final String serviceName, final Object key) {
+		return (InvocationRequest) Proxy.newProxyInstance(InvocationRequest.class.getClassLoader(),
+				new Class<?>[] { InvocationRequest.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("getServiceName".equals(method.getName())) {
+							return serviceName;
+						} else if ("getMethodName".equals(method.getName())) {
+							return "get";
+						} else if ("getParameters".equals(method.getName())) {
+							return new Object[] { key };
+						}
+						return null;
+					}
+				});
+	}
+
+	private static List<Client> newClients(int size) {
+		List<Client> clients = new ArrayList<Client>();
+		for (int i = 0; i < size; i++) {
+			clients.add(newClient("10.0.0." + i + ":4040"));
+		}
+		return clients;
+	}
+
+	private Map<String, String> route(String serviceName, List<Client> clients, int keys) {
+		Map<String, String> routes = new HashMap<String, String>();
+		for (int i = 0; i < keys; i++) {
+			String key = "user" + i;
+			routes.put(key, loadBalance.doSelect(clients, null, newRequest(serviceName, key), null).getAddress());
+		}
+		return routes;
+	}
+
+	@Test
+	public void testSameKeySameClient() {
+		List<Client> clients = newClients(5);
+		Map<String, String> routes = route("hash.same", clients, 1000);
+		Assert.assertEquals(routes, route("hash.same", new ArrayList<Client>(clients), 1000));
+		Assert.assertEquals(5, new HashSet<String>(routes.values()).size());
+		Assert.assertTrue(ConsistentHashLoadBalance.getStatistics().get("hash.same").contains("10.0.0.0:4040:"));
+	}
+
+	@Test
+	public void testOnlyKeysOfRemovedClientMove() {
+		List<Client> clients = newClients(5);
+		Map<String, String> before = route("hash.remove", clients, 1000);
+		List<Client> remaining = new ArrayList<Client>(clients);
+		String removed = remaining.remove(2).getAddress();
+		Map<String, String> after = route("hash.remove", remaining, 1000);
+		int moved = 0;
+		for (Map.Entry<String, String> entry : before.entrySet()) {
+			if (entry.getValue().equals(removed)) {
+				moved++;
+				Assert.assertFalse(after.get(entry.getKey()).equals(removed));
+			} else {
+				Assert.assertEquals(entry.getValue(), after.get(entry.getKey()));
+			}
+		}
+		Assert.assertTrue(moved > 0);
+
+		Map<String, String> restored = route("hash.remove", clients, 1000);
+		Assert.assertEquals(before, restored);
+	}
+
+	@Test
+	public void testExcludedClientsKeepTheRing() {
+		List<Client> clients = newClients(5);
+		Map<String, String> before = route("hash.exclude", clients, 1000);
+		for (int round = 0; round < 2; round++) {
+			for (int excluded : new int[] { 1, 3 }) {
+				List<Client> remaining = new ArrayList<Client>(clients);
+				String address = remaining.remove(excluded).getAddress();
+				Map<String, String> after = route("hash.exclude", remaining, 1000);
+				for (Map.Entry<String, String> entry : before.entrySet()) {
+					if (entry.getValue().equals(address)) {
+						Assert.assertFalse(after.get(entry.getKey()).equals(address));
+					} else {
+						Assert.assertEquals(entry.getValue(), after.get(entry.getKey()));
+					}
+				}
+				// still the ring of all the clients
+				Assert.assertTrue(ConsistentHashLoadBalance.getStatistics().get("hash.exclude").contains(address));
+			}
+		}
+	}
+
+	@Test
+	public void testKeyWithoutToString() {
+		List<Client> clients = newClients(5);
+		Set<String> addresses = new HashSet<String>();
+		for (int i = 0; i < 200; i++) {
+			addresses.add(loadBalance.doSelect(clients, null, newRequest("hash.identity", new Object()), null)
+					.getAddress());
+		}
+		Assert.assertTrue(addresses.size() > 1);
+		Assert.assertNull(ConsistentHashLoadBalance.getStatistics().get("hash.identity"));
+	}
+
+	@Test
+	public void testHotClientSpillsOver() {
+		List<Client> clients = newClients(5);
+		String home = route("hash.bounded", clients, 1).get("user0");
+		CapacityBucket bucket = ServiceStatisticsHolder.getCapacityBucket(home);
+		bucket.refreshCapacity(20);
+		try {
+			Set<String> spilled = new HashSet<String>(route("hash.bounded", clients, 1).values());
+			Assert.assertFalse(spilled.contains(home));
+		} finally {
+			bucket.refreshCapacity(-20);
+		}
+		Assert.assertEquals(home, route("hash.bounded", clients, 1).get("user0"));
+	}
+}
@@ -0,0 +1,134 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.DefaultResponse;
+import com.dianping.pigeon.remoting.common.domain.InvocationContext;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.cluster.ForkingCluster;
+import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
+import com.dianping.pigeon.remoting.invoker.domain.DefaultInvokerContext;
+import com.dianping.pigeon.remoting.invoker.process.filter.RemoteCallInvokeFilter;
+import com.dianping.pigeon.remoting.invoker.service.ServiceInvocationRepository;
+import com.dianping.pigeon.remoting.invoker.util.InvokerUtils;
+
+public class ForkingClusterTest {
+
+	private static final AtomicLong sequences = new AtomicLong(1 << 20);
+
+	private static final ServiceInvocationRepository repository = ServiceInvocationRepository.getInstance();
+
+	/**
+	 * each client acts by its address: pending is sent without a response,
+	 * win and error are answered right after being sent, fail is not sent
+	 */
+	private static class Handler implements ServiceInvocationHandler {
+
+		// address --> sequence of the request sent
+		final Map<String, Long> sent = new LinkedHashMap<String, Long>();
+
+		@Override
+		public InvocationResponse handle(InvocationContext invocationContext) throws Throwable {
+			DefaultInvokerContext context = (DefaultInvokerContext) invocationContext;
+			String address = context.getClient().getAddress();
+			if (address.startsWith("fail")) {
+				throw new IllegalStateException("failed to send to " + address);
+			}
+			InvocationRequest request = context.getRequest();
+			request.setSequence(sequences.incrementAndGet());
+			InvokerUtils.sendRequest(context.getClient(), request, context.getCallback());
+			sent.put(address, request.getSequence());
+			if (address.startsWith("win")) {
+				repository.receiveResponse(new DefaultResponse(request.getSerialize(), request.getSequence(),
+						Constants.MESSAGE_TYPE_SERVICE, address));
+			} else if (address.startsWith("error")) {
+				repository.receiveResponse(new DefaultResponse(request.getSerialize(), request.getSequence(),
+						Constants.MESSAGE_TYPE_EXCEPTION, new IllegalStateException(address)));
+			}
+			return RemoteCallInvokeFilter.NO_RETURN_RESPONSE;
+		}
+	}
+
+	private static Client newClient(final String address) {
+		return (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class<?>[] { Client.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("getAddress".equals(method.getName()) || "toString".equals(method.getName())) {
+							return address;
+						} else if (method.getReturnType() == boolean.class) {
+							return false;
+						} else if (method.getReturnType() == int.class) {
+							return 0;
+						}
+						return null;
+					}
+				});
+	}
+
+	private static InvocationResponse invoke(Handler handler, String... addresses) throws Throwable {
+		final List<Client> clients = new ArrayList<Client>();
+		for (String address : addresses) {
+			clients.add(newClient(address));
+		}
+		ForkingCluster cluster = new ForkingCluster() {
+			@Override
+			protected List<Client> selectClients(InvokerConfig<?> invokerConfig, InvocationRequest request) {
+				return clients;
+			}
+		};
+		InvokerConfig<Runnable> invokerConfig = new InvokerConfig<Runnable>("forking.test", Runnable.class);
+		invokerConfig.setTimeout(1000);
+		return cluster.invoke(handler, new DefaultInvokerContext(invokerConfig, "run", new Class<?>[0],
+				new Object[0]));
+	}
+
+	@Test
+	public void testFirstResponseCancelsOthers() throws Throwable {
+		Handler handler = new Handler();
+		InvocationResponse response = invoke(handler, "pending:1", "win:2", "pending:3");
+		Assert.assertEquals(Constants.MESSAGE_TYPE_SERVICE, response.getMessageType());
+		Assert.assertEquals("win:2", response.getReturn());
+		// sending stops once the call is completed
+		Assert.assertFalse(handler.sent.containsKey("pending:3"));
+		Assert.assertNull(repository.get(handler.sent.get("pending:1")));
+	}
+
+	@Test
+	public void testSendFailsPartWay() throws Throwable {
+		Handler handler = new Handler();
+		InvocationResponse response = invoke(handler, "pending:1", "fail:2", "win:3");
+		Assert.assertEquals("win:3", response.getReturn());
+		Assert.assertFalse(handler.sent.containsKey("fail:2"));
+		Assert.assertNull(repository.get(handler.sent.get("pending:1")));
+	}
+
+	@Test
+	public void testAllForksFail() throws Throwable {
+		Handler handler = new Handler();
+		InvocationResponse response = invoke(handler, "error:1", "fail:2", "error:3");
+		Assert.assertEquals(Constants.MESSAGE_TYPE_EXCEPTION, response.getMessageType());
+		Assert.assertEquals(2, handler.sent.size());
+
+		try {
+			invoke(new Handler(), "fail:1", "fail:2");
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("failed to send to fail:2", e.getMessage());
+		}
+	}
+}
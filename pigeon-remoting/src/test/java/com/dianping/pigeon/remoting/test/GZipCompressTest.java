@@ -0,0 +1,93 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.compress.GZipCompress;
+
+public class GZipCompressTest {
+
+	private static final int PAYLOAD_SIZE = 1 << 20;
+
+	private final GZipCompress compress = new GZipCompress();
+
+	private static byte[] payload() {
+		// compressible but not trivial
+		byte[] payload = new byte[PAYLOAD_SIZE];
+		Random random = new Random(7);
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = (byte) ('a' + random.nextInt(8));
+		}
+		return payload;
+	}
+
+	private static byte[] readFully(InputStream is) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = is.read(buffer)) >= 0) {
+			out.write(buffer, 0, n);
+		}
+		is.close();
+		return out.toByteArray();
+	}
+
+	private static long drain(InputStream is, byte[] buffer) throws IOException {
+		long total = 0;
+		int n;
+		while ((n = is.read(buffer)) >= 0) {
+			total += n;
+		}
+		is.close();
+		return total;
+	}
+
+	@Test
+	public void testStreamingRoundTrip() throws IOException {
+		byte[] payload = payload();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[] { 1, 2, 3 });
+		compress.compress(payload, 16, payload.length - 32, out);
+		byte[] compressed = out.toByteArray();
+
+		byte[] expected = Arrays.copyOfRange(payload, 16, payload.length - 16);
+		Assert.assertArrayEquals(expected, compress.unCompress(Arrays.copyOfRange(compressed, 3, compressed.length)));
+		Assert.assertArrayEquals(expected, readFully(compress.unCompress(compressed, 3, compressed.length - 3)));
+	}
+
+	@Test
+	public void testStreamingHeap() throws IOException {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return;
+		}
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+		long threadId = Thread.currentThread().getId();
+		byte[] compressed = compress.compress(payload());
+		byte[] buffer = new byte[4096];
+
+		for (int i = 0; i < 5; i++) {
+			compress.unCompress(compressed);
+			drain(compress.unCompress(compressed, 0, compressed.length), buffer);
+		}
+
+		long start = threadBean.getThreadAllocatedBytes(threadId);
+		byte[] uncompressed = compress.unCompress(compressed);
+		long arrayAllocated = threadBean.getThreadAllocatedBytes(threadId) - start;
+
+		start = threadBean.getThreadAllocatedBytes(threadId);
+		long streamed = drain(compress.unCompress(compressed, 0, compressed.length), buffer);
+		long streamAllocated = threadBean.getThreadAllocatedBytes(threadId) - start;
+
+		Assert.assertEquals(uncompressed.length, streamed);
+		Assert.assertTrue(arrayAllocated > 2L * PAYLOAD_SIZE);
+		Assert.assertTrue(streamAllocated < PAYLOAD_SIZE / 16);
+	}
+}
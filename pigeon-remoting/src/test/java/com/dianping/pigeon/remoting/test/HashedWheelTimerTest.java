@@ -0,0 +1,85 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.timer.HashedWheelTimer;
+import com.dianping.pigeon.timer.Timeout;
+import com.dianping.pigeon.timer.TimerTask;
+
+public class HashedWheelTimerTest {
+
+	@Test
+	public void testExpire() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("Test-Timer", 10, TimeUnit.MILLISECONDS, 64);
+		try {
+			final CountDownLatch latch = new CountDownLatch(1);
+			long start = System.currentTimeMillis();
+			timer.newTimeout(new TimerTask() {
+
+				@Override
+				public void run(Timeout timeout) throws Exception {
+					latch.countDown();
+				}
+			}, 100, TimeUnit.MILLISECONDS);
+			Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+			Assert.assertTrue(System.currentTimeMillis() - start >= 90);
+			Assert.assertEquals(1, timer.getExpiredTimeouts());
+			Assert.assertEquals(0, timer.getPendingTimeouts());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("Test-Timer", 10, TimeUnit.MILLISECONDS, 8);
+		try {
+			final AtomicInteger counter = new AtomicInteger();
+			TimerTask task = new TimerTask() {
+
+				@Override
+				public void run(Timeout timeout) throws Exception {
+					counter.incrementAndGet();
+				}
+			};
+			// longer than one round of the wheel
+			Timeout cancelled = timer.newTimeout(task, 200, TimeUnit.MILLISECONDS);
+			Timeout expired = timer.newTimeout(task, 200, TimeUnit.MILLISECONDS);
+			Thread.sleep(50);
+			Assert.assertTrue(cancelled.cancel());
+			Assert.assertFalse(cancelled.cancel());
+			Thread.sleep(400);
+			Assert.assertEquals(1, counter.get());
+			Assert.assertTrue(cancelled.isCancelled());
+			Assert.assertTrue(expired.isExpired());
+			Assert.assertFalse(expired.cancel());
+			Assert.assertEquals(0, timer.getPendingTimeouts());
+			Assert.assertEquals(1, timer.getCancelledTimeouts());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	@Test
+	public void testNewTimeoutWhenStopped() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("Test-Timer", 10, TimeUnit.MILLISECONDS, 8);
+		timer.start();
+		timer.stop();
+		try {
+			timer.newTimeout(new TimerTask() {
+
+				@Override
+				public void run(Timeout timeout) throws Exception {
+				}
+			}, 100, TimeUnit.MILLISECONDS);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("cannot be started once stopped", e.getMessage());
+		}
+	}
+}
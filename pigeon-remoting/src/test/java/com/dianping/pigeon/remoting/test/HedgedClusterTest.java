@@ -0,0 +1,185 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.config.ConfigChangeListener;
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.remoting.common.domain.DefaultResponse;
+import com.dianping.pigeon.remoting.common.domain.InvocationContext;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.cluster.HedgedCluster;
+import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
+import com.dianping.pigeon.remoting.invoker.domain.DefaultInvokerContext;
+import com.dianping.pigeon.remoting.invoker.process.filter.RemoteCallInvokeFilter;
+import com.dianping.pigeon.remoting.invoker.service.ServiceInvocationRepository;
+import com.dianping.pigeon.remoting.invoker.util.InvokerUtils;
+
+public class HedgedClusterTest {
+
+	private static final AtomicLong sequences = new AtomicLong(1 << 21);
+
+	private static final ServiceInvocationRepository repository = ServiceInvocationRepository.getInstance();
+
+	private static final String METHOD_KEY = "hedged.test#run";
+
+	/**
+	 * each client acts by its address: pending is sent without a response, win
+	 * is answered right after being sent, slow is answered 100ms later
+	 */
+	private static class Handler implements ServiceInvocationHandler {
+
+		// address --> sequence of the request sent
+		final Map<String, Long> sent = new LinkedHashMap<String, Long>();
+
+		@Override
+		public InvocationResponse handle(InvocationContext invocationContext) throws Throwable {
+			DefaultInvokerContext context = (DefaultInvokerContext) invocationContext;
+			String address = context.getClient().getAddress();
+			InvocationRequest request = context.getRequest();
+			request.setSequence(sequences.incrementAndGet());
+			InvokerUtils.sendRequest(context.getClient(), request, context.getCallback());
+			sent.put(address, request.getSequence());
+			final InvocationResponse response = new DefaultResponse(request.getSerialize(), request.getSequence(),
+					Constants.MESSAGE_TYPE_SERVICE, address);
+			if (address.startsWith("win")) {
+				repository.receiveResponse(response);
+			} else if (address.startsWith("slow")) {
+				new Thread() {
+					@Override
+					public void run() {
+						try {
+							Thread.sleep(100);
+						} catch (InterruptedException e) {
+							return;
+						}
+						repository.receiveResponse(response);
+					}
+				}.start();
+			}
+			return RemoteCallInvokeFilter.NO_RETURN_RESPONSE;
+		}
+	}
+
+	private static Client newClient(final String address) {
+		return (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class<?>[] { Client.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("getAddress".equals(method.getName()) || "toString".equals(method.getName())) {
+							return address;
+						} else if ("equals".equals(method.getName())) {
+							return proxy == args[0];
+						} else if (method.getReturnType() == boolean.class) {
+							return false;
+						} else if (method.getReturnType() == int.class) {
+							return 0;
+						}
+						return null;
+					}
+				});
+	}
+
+	private static InvocationResponse invoke(Handler handler, String... addresses) throws Throwable {
+		final List<Client> clients = new ArrayList<Client>();
+		for (String address : addresses) {
+			clients.add(newClient(address));
+		}
+		HedgedCluster cluster = new HedgedCluster() {
+			@Override
+			protected Client selectClient(InvokerConfig<?> invokerConfig, InvocationRequest request,
+					List<Client> excludeClients) {
+				for (Client client : clients) {
+					if (excludeClients == null || !excludeClients.contains(client)) {
+						return client;
+					}
+				}
+				return null;
+			}
+		};
+		InvokerConfig<Runnable> invokerConfig = new InvokerConfig<Runnable>("hedged.test", Runnable.class);
+		invokerConfig.setTimeout(1000);
+		return cluster.invoke(handler, new DefaultInvokerContext(invokerConfig, "run", new Class<?>[0],
+				new Object[0]));
+	}
+
+	private static void setConfig(String key, String value) {
+		// loads the cluster so that its listener is registered
+		new HedgedCluster();
+		for (ConfigChangeListener listener : ConfigManagerLoader.getConfigManager().getConfigChangeListeners()) {
+			listener.onKeyUpdated(key, value);
+		}
+	}
+
+	private static long statistic(String name) {
+		for (String item : HedgedCluster.getStatistics().get("total").split(",")) {
+			if (item.startsWith(name + ":")) {
+				return Long.parseLong(item.substring(name.length() + 1));
+			}
+		}
+		throw new IllegalArgumentException(name);
+	}
+
+	private static long samples() {
+		String bucket = HedgedCluster.getStatistics().get(METHOD_KEY);
+		return bucket == null ? 0 : Long.parseLong(bucket.substring(bucket.indexOf("samples:") + 8));
+	}
+
+	@Test
+	public void testBackupAfterDelay() throws Throwable {
+		setConfig("pigeon.invoker.hedged.delay", "50");
+		setConfig("pigeon.invoker.hedged.budget", "1");
+		long hedges = statistic("hedges");
+		long samples = samples();
+		Handler handler = new Handler();
+		long start = System.currentTimeMillis();
+		InvocationResponse response = invoke(handler, "pending:1", "win:2");
+		Assert.assertTrue(System.currentTimeMillis() - start >= 50);
+		Assert.assertEquals("win:2", response.getReturn());
+		Assert.assertEquals(hedges + 1, statistic("hedges"));
+		// the losing request is cancelled
+		Assert.assertNull(repository.get(handler.sent.get("pending:1")));
+		// a hedged call is no sample of the delay
+		Assert.assertEquals(samples, samples());
+	}
+
+	@Test
+	public void testNoBackupWithinDelay() throws Throwable {
+		setConfig("pigeon.invoker.hedged.delay", "200");
+		setConfig("pigeon.invoker.hedged.budget", "1");
+		long hedges = statistic("hedges");
+		long samples = samples();
+		Handler handler = new Handler();
+		InvocationResponse response = invoke(handler, "slow:1", "win:2");
+		Assert.assertEquals("slow:1", response.getReturn());
+		Assert.assertEquals(1, handler.sent.size());
+		Assert.assertEquals(hedges, statistic("hedges"));
+		Assert.assertEquals(samples + 1, samples());
+	}
+
+	@Test
+	public void testBudgetRefundedWithoutBackup() throws Throwable {
+		setConfig("pigeon.invoker.hedged.delay", "20");
+		setConfig("pigeon.invoker.hedged.budget", "1");
+		long hedges = statistic("hedges");
+		long budget = statistic("budget");
+		InvocationResponse response = invoke(new Handler(), "slow:1");
+		Assert.assertEquals("slow:1", response.getReturn());
+		Assert.assertEquals(hedges, statistic("hedges"));
+		// the call deposits one request, the one taken for the backup is refunded
+		Assert.assertEquals(budget + 1, statistic("budget"));
+	}
+}
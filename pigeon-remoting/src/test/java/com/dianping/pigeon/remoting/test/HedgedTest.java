@@ -0,0 +1,80 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.concurrent.Callback;
+import com.dianping.pigeon.remoting.invoker.concurrent.FirstResponseFuture;
+import com.dianping.pigeon.remoting.invoker.process.statistics.InvokerLatencyBucket;
+
+public class HedgedTest {
+
+	private static <T> T newProxy(Class<T> type, final String getter, final Object value) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (getter.equals(method.getName())) {
+							return value;
+						}
+						return method.getReturnType() == long.class ? Long.valueOf(0) : null;
+					}
+				}));
+	}
+
+	private static void respond(Callback callback, long sequence, int messageType) {
+		callback.setRequest(newProxy(InvocationRequest.class, "getSequence", sequence));
+		callback.callback(newProxy(InvocationResponse.class, "getMessageType", messageType));
+		callback.run();
+	}
+
+	@Test
+	public void testFirstResponseWins() throws Exception {
+		FirstResponseFuture future = new FirstResponseFuture(2);
+		Callback primary = future.newCallback();
+		Callback backup = future.newCallback();
+		Assert.assertFalse(future.await(1));
+
+		respond(backup, -2, Constants.MESSAGE_TYPE_SERVICE);
+		Assert.assertTrue(future.await(1));
+		Assert.assertEquals(1, future.getWinnerIndex());
+
+		respond(primary, -1, Constants.MESSAGE_TYPE_SERVICE);
+		Assert.assertEquals(1, future.getWinnerIndex());
+	}
+
+	@Test
+	public void testFailureWaitsForOtherRequest() throws Exception {
+		FirstResponseFuture future = new FirstResponseFuture(2);
+		Callback primary = future.newCallback();
+		Callback backup = future.newCallback();
+
+		respond(primary, -1, Constants.MESSAGE_TYPE_EXCEPTION);
+		Assert.assertFalse(future.isDone());
+		respond(backup, -2, Constants.MESSAGE_TYPE_EXCEPTION);
+		Assert.assertTrue(future.isDone());
+		Assert.assertEquals(1, future.getWinnerIndex());
+	}
+
+	@Test
+	public void testPercentile() {
+		InvokerLatencyBucket bucket = new InvokerLatencyBucket(0.95);
+		for (int i = 0; i < 1000; i++) {
+			bucket.record(i % 100 < 95 ? 10 : 200);
+		}
+		Assert.assertTrue(bucket.getSamples() > 900);
+		// upper bound of the bucket of 10ms
+		Assert.assertEquals(12, bucket.getPercentileMillis());
+		for (int i = 0; i < 1000; i++) {
+			bucket.record(i % 100 < 90 ? 10 : 200);
+		}
+		Assert.assertTrue(bucket.getPercentileMillis() >= 200);
+	}
+}
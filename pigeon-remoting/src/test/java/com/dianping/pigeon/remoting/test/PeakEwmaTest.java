@@ -0,0 +1,127 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.invoker.route.balance.PeakEwmaLoadBalance;
+import com.dianping.pigeon.remoting.invoker.route.statistics.PeakEwma;
+
+public class PeakEwmaTest {
+
+	private static final long MS = 1000000L;
+
+	private static final long DECAY = 10000 * MS;
+
+	@Test
+	public void testPeakAndDecay() {
+		PeakEwma ewma = new PeakEwma(100 * MS);
+		Assert.assertEquals(0, ewma.getCost(0), 0);
+		ewma.observe(10 * MS, 0);
+		ewma.observe(50 * MS, 1 * MS);
+		Assert.assertEquals(50 * MS, ewma.getCost(1 * MS), 1);
+		ewma.observe(10 * MS, 101 * MS);
+		double cost = ewma.getCost(101 * MS);
+		Assert.assertTrue(cost > 10 * MS && cost < 50 * MS);
+		Assert.assertTrue(ewma.getCost(1001 * MS) < cost / 1000);
+	}
+
+	private static class Completion implements Comparable<Completion> {
+
+		final long time;
+		final int server;
+		final long rtt;
+
+		Completion(long time, int server, long rtt) {
+			this.time = time;
+			this.server = server;
+			this.rtt = rtt;
+		}
+
+		@Override
+		public int compareTo(Completion o) {
+			return time < o.time ? -1 : (time == o.time ? 0 : 1);
+		}
+	}
+
+	/**
+	 * poisson arrivals to servers of several fifo workers and exponential
+	 * service times, four fast and one ten times slower
+	 *
+	 * @return latencies in nanos, sorted
+	 */
+	private long[] simulate(boolean peakEwma, long seed) {
+		long[] meanServiceTimes = { 5 * MS, 5 * MS, 5 * MS, 5 * MS, 50 * MS };
+		int servers = meanServiceTimes.length;
+		int workers = 4;
+		int requests = 20000;
+		double arrivalsPerMs = 0.35;
+
+		Random random = new Random(seed);
+		long[][] workerFreeTimes = new long[servers][workers];
+		PeakEwma[] ewmas = new PeakEwma[servers];
+		int[] outstanding = new int[servers];
+		for (int i = 0; i < servers; i++) {
+			ewmas[i] = new PeakEwma(DECAY);
+		}
+		PriorityQueue<Completion> completions = new PriorityQueue<Completion>();
+		long[] latencies = new long[requests];
+		long now = 0;
+		for (int n = 0; n < requests; n++) {
+			now += (long) (-Math.log(1 - random.nextDouble()) / arrivalsPerMs * MS);
+			while (!completions.isEmpty() && completions.peek().time <= now) {
+				Completion completion = completions.poll();
+				outstanding[completion.server]--;
+				ewmas[completion.server].observe(completion.rtt, completion.time);
+			}
+
+			int server;
+			if (peakEwma) {
+				int first = random.nextInt(servers);
+				int second = random.nextInt(servers - 1);
+				if (second >= first) {
+					second++;
+				}
+				double firstScore = PeakEwmaLoadBalance.score(ewmas[first].getCost(now), outstanding[first], 100);
+				double secondScore = PeakEwmaLoadBalance.score(ewmas[second].getCost(now), outstanding[second], 100);
+				server = firstScore <= secondScore ? first : second;
+			} else {
+				server = random.nextInt(servers);
+			}
+
+			long[] freeTimes = workerFreeTimes[server];
+			int worker = 0;
+			for (int i = 1; i < workers; i++) {
+				if (freeTimes[i] < freeTimes[worker]) {
+					worker = i;
+				}
+			}
+			long serviceTime = (long) (-Math.log(1 - random.nextDouble()) * meanServiceTimes[server]);
+			long finish = Math.max(now, freeTimes[worker]) + serviceTime;
+			freeTimes[worker] = finish;
+			outstanding[server]++;
+			completions.add(new Completion(finish, server, finish - now));
+			latencies[n] = finish - now;
+		}
+		Arrays.sort(latencies);
+		return latencies;
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		return sorted[(int) (sorted.length * p) - 1];
+	}
+
+	@Test
+	public void testTailLatencyAgainstRandom() {
+		long[] random = simulate(false, 7);
+		long[] peakEwma = simulate(true, 7);
+		System.out.println("random p50:" + percentile(random, 0.5) / MS + "ms, p99:" + percentile(random, 0.99) / MS
+				+ "ms");
+		System.out.println("peakEwma p50:" + percentile(peakEwma, 0.5) / MS + "ms, p99:"
+				+ percentile(peakEwma, 0.99) / MS + "ms");
+		Assert.assertTrue(percentile(peakEwma, 0.99) * 2 < percentile(random, 0.99));
+	}
+}
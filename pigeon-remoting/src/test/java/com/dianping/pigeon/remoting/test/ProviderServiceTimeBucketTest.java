@@ -0,0 +1,47 @@
+package com.dianping.pigeon.remoting.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.provider.process.statistics.ProviderServiceTimeBucket;
+
+public class ProviderServiceTimeBucketTest {
+
+	@Test
+	public void testMedian() {
+		ProviderServiceTimeBucket bucket = new ProviderServiceTimeBucket();
+		for (int i = 0; i < 1000; i++) {
+			bucket.record(i % 2 == 0 ? 3 : 100 + i % 7);
+			bucket.record(100 + i % 7);
+		}
+		// the lower bound of the bucket, at most a quarter below
+		long median = bucket.getMedianMillis();
+		Assert.assertTrue(String.valueOf(median), median >= 75 && median <= 106);
+		Assert.assertTrue(bucket.getSamples() > 0);
+	}
+
+	@Test
+	public void testFollowsRecentSamples() {
+		ProviderServiceTimeBucket bucket = new ProviderServiceTimeBucket();
+		for (int i = 0; i < 5000; i++) {
+			bucket.record(2000);
+		}
+		Assert.assertTrue(bucket.getMedianMillis() >= 1500);
+		for (int i = 0; i < 5000; i++) {
+			bucket.record(5);
+		}
+		Assert.assertTrue(String.valueOf(bucket.getMedianMillis()), bucket.getMedianMillis() <= 5);
+	}
+
+	@Test
+	public void testExtremes() {
+		ProviderServiceTimeBucket bucket = new ProviderServiceTimeBucket();
+		bucket.record(-1);
+		Assert.assertEquals(0, bucket.getMedianMillis());
+		bucket.record(Long.MAX_VALUE);
+		bucket.record(Long.MAX_VALUE);
+		Assert.assertTrue(bucket.getMedianMillis() > 1000 * 60);
+		bucket.incrementShed();
+		Assert.assertTrue(bucket.toString().endsWith("shed:1"));
+	}
+}
@@ -0,0 +1,71 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.provider.process.limit.RateLimiter;
+import com.dianping.pigeon.remoting.provider.process.limit.RateLimiterTable;
+
+public class RateLimiterTest {
+
+	@Test
+	public void testBurstThenRate() throws Exception {
+		RateLimiter limiter = new RateLimiter(10, 3);
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals(0, limiter.tryAcquire());
+		}
+		long retryAfter = limiter.tryAcquire();
+		Assert.assertTrue(String.valueOf(retryAfter), retryAfter > 0 && retryAfter <= 100);
+		Thread.sleep(retryAfter + 10);
+		Assert.assertEquals(0, limiter.tryAcquire());
+		Assert.assertTrue(limiter.tryAcquire() > 0);
+	}
+
+	@Test
+	public void testNoneOverLimitWithinSecond() {
+		RateLimiter limiter = new RateLimiter(100, 10);
+		int acquired = 0;
+		long start = System.nanoTime();
+		while (System.nanoTime() - start < 500L * 1000 * 1000) {
+			if (limiter.tryAcquire() == 0) {
+				acquired++;
+			}
+		}
+		// half a second of rate plus the burst
+		Assert.assertTrue(String.valueOf(acquired), acquired <= 50 + 10 + 1);
+		Assert.assertTrue(String.valueOf(acquired), acquired >= 40);
+	}
+
+	@Test
+	public void testZeroLimitRejectsAll() {
+		Assert.assertTrue(new RateLimiter(0, 1).tryAcquire() > 0);
+	}
+
+	@Test
+	public void testTableKeepsUnchangedLimiters() {
+		Map<String, Long> apps = new HashMap<String, Long>();
+		apps.put("a", 100L);
+		apps.put("b", -1L);
+		Map<String, Map<String, Integer>> methodApps = new HashMap<String, Map<String, Integer>>();
+		Map<String, Integer> methodApp = new HashMap<String, Integer>();
+		methodApp.put("a", 5);
+		methodApps.put("http://service/test#echo", methodApp);
+
+		RateLimiterTable table = RateLimiterTable.compile(apps, methodApps, 0.1, RateLimiterTable.EMPTY);
+		Assert.assertEquals(10, table.getAppLimiter("a").getBurst());
+		Assert.assertNull(table.getAppLimiter("b"));
+		Assert.assertEquals(1, table.getMethodAppLimiter("http://service/test#echo", "a").getBurst());
+		Assert.assertNull(table.getMethodAppLimiter("http://service/test#echo", "b"));
+
+		apps.put("a", 200L);
+		RateLimiterTable next = RateLimiterTable.compile(apps, methodApps, 0.1, table);
+		Assert.assertNotSame(table.getAppLimiter("a"), next.getAppLimiter("a"));
+		Assert.assertSame(table.getMethodAppLimiter("http://service/test#echo", "a"),
+				next.getMethodAppLimiter("http://service/test#echo", "a"));
+
+		Assert.assertNull(RateLimiterTable.compile(null, methodApps, 0.1, next).getAppLimiter("a"));
+	}
+}
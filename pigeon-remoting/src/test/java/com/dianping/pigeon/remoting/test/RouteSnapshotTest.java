@@ -0,0 +1,53 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.route.RouteSnapshot;
+
+public class RouteSnapshotTest {
+
+	private static Client newClient(final String address) {
+		return (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class<?>[] { Client.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("getAddress".equals(method.getName()) || "toString".equals(method.getName())) {
+							return address;
+						}
+						return null;
+					}
+				});
+	}
+
+	@Test
+	public void testIndexOfPrefixSums() {
+		List<Client> clients = new ArrayList<Client>();
+		for (int i = 0; i < 5; i++) {
+			clients.add(newClient("127.0.0." + i + ":4040"));
+		}
+		RouteSnapshot snapshot = new RouteSnapshot(clients, 0, Long.MAX_VALUE, clients, null, null);
+		int weight = snapshot.getWeights()[0];
+		Assert.assertTrue(weight > 0);
+		Assert.assertTrue(snapshot.isWeightAllSame());
+		Assert.assertEquals(5 * weight, snapshot.getTotalWeight());
+		Assert.assertEquals(6, snapshot.getWeights().length);
+		for (int point = 0; point < snapshot.getTotalWeight(); point++) {
+			Assert.assertEquals(point / weight, snapshot.indexOf(point));
+		}
+	}
+
+	@Test
+	public void testVersion() {
+		int version = RouteSnapshot.getCurrentVersion();
+		RouteSnapshot.invalidateAll();
+		Assert.assertEquals(version + 1, RouteSnapshot.getCurrentVersion());
+	}
+}
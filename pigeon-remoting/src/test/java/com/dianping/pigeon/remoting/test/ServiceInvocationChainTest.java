@@ -0,0 +1,97 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.InvocationContext;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.process.ConditionalFilter;
+import com.dianping.pigeon.remoting.common.process.ServiceInvocationChain;
+import com.dianping.pigeon.remoting.common.process.ServiceInvocationFilter;
+import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
+
+public class ServiceInvocationChainTest {
+
+	private static class RecordingFilter implements ServiceInvocationFilter<InvocationContext> {
+
+		private final List<String> calls;
+
+		private final String name;
+
+		RecordingFilter(List<String> calls, String name) {
+			this.calls = calls;
+			this.name = name;
+		}
+
+		@Override
+		public InvocationResponse invoke(ServiceInvocationHandler handler, InvocationContext invocationContext)
+				throws Throwable {
+			calls.add(name);
+			return handler == null ? null : handler.handle(invocationContext);
+		}
+	}
+
+	private static class DisabledFilter extends RecordingFilter implements ConditionalFilter {
+
+		DisabledFilter(List<String> calls, String name) {
+			super(calls, name);
+		}
+
+		@Override
+		public boolean isEnabled() {
+			return false;
+		}
+	}
+
+	@Test
+	public void testOrderAndDisabledFilters() throws Throwable {
+		List<String> calls = new ArrayList<String>();
+		List<ServiceInvocationFilter<InvocationContext>> filters = new ArrayList<ServiceInvocationFilter<InvocationContext>>();
+		filters.add(new DisabledFilter(calls, "monitor"));
+		for (int i = 0; i < 10; i++) {
+			filters.add(new RecordingFilter(calls, "f" + i));
+		}
+		filters.add(5, new DisabledFilter(calls, "off"));
+
+		ServiceInvocationChain.compile(filters).handle(null);
+		Assert.assertEquals("[f0, f1, f2, f3, f4, f5, f6, f7, f8, f9]", calls.toString());
+	}
+
+	@Test
+	public void testEmptyChain() {
+		List<String> calls = new ArrayList<String>();
+		List<ServiceInvocationFilter<InvocationContext>> filters = new ArrayList<ServiceInvocationFilter<InvocationContext>>();
+		Assert.assertNull(ServiceInvocationChain.compile(filters));
+		filters.add(new DisabledFilter(calls, "monitor"));
+		Assert.assertNull(ServiceInvocationChain.compile(filters));
+	}
+
+	private static class PassFilter implements ServiceInvocationFilter<InvocationContext> {
+
+		@Override
+		public InvocationResponse invoke(ServiceInvocationHandler handler, InvocationContext invocationContext)
+				throws Throwable {
+			return handler == null ? null : handler.handle(invocationContext);
+		}
+	}
+
+	private static class PassFilter1 extends PassFilter {
+	}
+
+	private static class PassFilter2 extends PassFilter {
+	}
+
+	@Test
+	public void testChainLinksEnabledFilters() {
+		List<String> calls = new ArrayList<String>();
+		List<ServiceInvocationFilter<InvocationContext>> filters = new ArrayList<ServiceInvocationFilter<InvocationContext>>();
+		filters.add(new PassFilter());
+		filters.add(new DisabledFilter(calls, "monitor"));
+		filters.add(new PassFilter1());
+		filters.add(new PassFilter2());
+		Assert.assertEquals("PassFilter->PassFilter1->PassFilter2", ServiceInvocationChain.compile(filters).toString());
+	}
+}
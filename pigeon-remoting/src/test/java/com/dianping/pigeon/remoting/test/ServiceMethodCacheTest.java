@@ -0,0 +1,143 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.provider.service.method.ServiceMethod;
+import com.dianping.pigeon.remoting.provider.service.method.ServiceMethodCache;
+import com.dianping.pigeon.remoting.provider.service.method.ServiceMethodFactory;
+import com.dianping.pigeon.remoting.provider.service.method.ServiceParam;
+
+public class ServiceMethodCacheTest {
+
+	private static final int THREADS = 16;
+
+	private static final int LOOKUPS = 20000;
+
+	public static class OverloadedService {
+
+		public String echo(String value) {
+			return value;
+		}
+
+		public String echo(Integer value) {
+			return String.valueOf(value);
+		}
+
+		public String echo(Object value) {
+			return String.valueOf(value);
+		}
+
+		public String echo(String value, int times) {
+			return value;
+		}
+
+		public int size(List<?> list) {
+			return list.size();
+		}
+
+		public int size(Map<?, ?> map) {
+			return map.size();
+		}
+
+		public float scale(float value) {
+			return value;
+		}
+	}
+
+	/**
+	 * method name, argument class names and the declared parameter classes
+	 * of the overload they resolve to
+	 */
+	private static final Object[][] CASES = new Object[][] {
+			{ "echo", new String[] { "java.lang.String" }, new Class<?>[] { String.class } },
+			{ "echo", new String[] { "java.lang.Integer" }, new Class<?>[] { Integer.class } },
+			{ "echo", new String[] { "java.lang.Long" }, new Class<?>[] { Object.class } },
+			{ "echo", new String[] { "java.lang.String", "java.lang.Integer" },
+					new Class<?>[] { String.class, int.class } },
+			{ "size", new String[] { "java.util.ArrayList" }, new Class<?>[] { List.class } },
+			{ "size", new String[] { "java.util.LinkedList" }, new Class<?>[] { List.class } },
+			{ "size", new String[] { "java.util.HashMap" }, new Class<?>[] { Map.class } },
+			{ "size", new String[] { "java.util.TreeMap" }, new Class<?>[] { Map.class } },
+			{ "scale", new String[] { "java.lang.Double" }, new Class<?>[] { float.class } },
+			{ "echo", new String[] { "NULL" }, null } };
+
+	@Test
+	public void testResolve() throws Exception {
+		ServiceMethodCache cache = ServiceMethodFactory.createServiceMethodCache("test.overloaded.resolve",
+				new OverloadedService());
+		for (Object[] c : CASES) {
+			ServiceMethod method = cache.getMethod((String) c[0], new ServiceParam((String[]) c[1]));
+			if (c[2] != null) {
+				Assert.assertTrue(Arrays.equals((Class<?>[]) c[2], method.getMethod().getParameterTypes()));
+			}
+			// resolved once, the same method afterwards
+			Assert.assertSame(method, cache.getMethod((String) c[0], new ServiceParam((String[]) c[1])));
+		}
+		Assert.assertTrue(cache.getMethod("scale", new ServiceParam(new String[] { "java.lang.Double" }))
+				.isNeedCastParameterClasses());
+	}
+
+	@Test
+	public void testCollidingSignatures() {
+		// "Aa" and "BB" share a hash code
+		Assert.assertEquals("Aa".hashCode(), "BB".hashCode());
+		Assert.assertFalse(new ServiceParam(new String[] { "Aa" }).equals(new ServiceParam(new String[] { "BB" })));
+	}
+
+	@Test
+	public void testConcurrentResolve() throws Exception {
+		for (int round = 0; round < 20; round++) {
+			final ServiceMethodCache cache = ServiceMethodFactory.createServiceMethodCache(
+					"test.overloaded.concurrent", new OverloadedService());
+			final ConcurrentHashMap<Integer, ServiceMethod> first = new ConcurrentHashMap<Integer, ServiceMethod>();
+			final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+			final CountDownLatch start = new CountDownLatch(1);
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int t = 0; t < THREADS; t++) {
+				final Random random = new Random(round * THREADS + t);
+				Thread thread = new Thread() {
+
+					@Override
+					public void run() {
+						try {
+							start.await();
+							for (int i = 0; i < LOOKUPS; i++) {
+								int index = random.nextInt(CASES.length);
+								Object[] c = CASES[index];
+								ServiceMethod method = cache.getMethod((String) c[0], new ServiceParam(
+										((String[]) c[1]).clone()));
+								if (c[2] != null) {
+									Assert.assertTrue(Arrays.equals((Class<?>[]) c[2], method.getMethod()
+											.getParameterTypes()));
+								}
+								ServiceMethod previous = first.putIfAbsent(index, method);
+								Assert.assertSame(previous == null ? method : previous, method);
+							}
+						} catch (Throwable e) {
+							failure.compareAndSet(null, e);
+						}
+					}
+				};
+				thread.start();
+				threads.add(thread);
+			}
+			start.countDown();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			if (failure.get() != null) {
+				throw new AssertionError(failure.get());
+			}
+		}
+	}
+}
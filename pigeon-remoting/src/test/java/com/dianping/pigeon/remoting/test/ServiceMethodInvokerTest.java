@@ -0,0 +1,135 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.provider.service.method.ServiceMethod;
+
+public class ServiceMethodInvokerTest {
+
+	public static class CalculatorService {
+
+		public long add(int a, long b) {
+			return a + b;
+		}
+
+		public float scale(float value, Short factor) {
+			return value * factor;
+		}
+
+		public String[] echo(String[] values, Object extra) {
+			return values;
+		}
+
+		public void fail(String message) {
+			throw new IllegalStateException(message);
+		}
+
+		public void failWith(Throwable t) throws Throwable {
+			throw t;
+		}
+
+		public static int twice(int value) {
+			return value * 2;
+		}
+	}
+
+	static class HiddenService {
+
+		public int one() {
+			return 1;
+		}
+	}
+
+	private static ServiceMethod serviceMethod(Object service, String name) {
+		for (Method method : service.getClass().getMethods()) {
+			if (method.getName().equals(name)) {
+				method.setAccessible(true);
+				ServiceMethod serviceMethod = new ServiceMethod(service, method);
+				serviceMethod.generateInvoker();
+				return serviceMethod;
+			}
+		}
+		throw new IllegalArgumentException(name);
+	}
+
+	@Test
+	public void testInvoke() throws Exception {
+		CalculatorService service = new CalculatorService();
+		ServiceMethod add = serviceMethod(service, "add");
+		Assert.assertNotNull(add.getInvoker());
+		Assert.assertEquals(5L, add.invoke(new Object[] { 2, 3L }));
+		// widening like reflection
+		Assert.assertEquals(5L, add.invoke(new Object[] { (short) 2, 3 }));
+
+		String[] values = new String[] { "a" };
+		Assert.assertSame(values, serviceMethod(service, "echo").invoke(new Object[] { values, null }));
+		Assert.assertEquals(8, serviceMethod(service, "twice").invoke(new Object[] { 4 }));
+
+		try {
+			serviceMethod(service, "fail").invoke(new Object[] { "boom" });
+			Assert.fail();
+		} catch (InvocationTargetException e) {
+			Assert.assertTrue(e.getTargetException() instanceof IllegalStateException);
+			Assert.assertEquals("boom", e.getTargetException().getMessage());
+		}
+	}
+
+	@Test
+	public void testInvalidArguments() throws Exception {
+		ServiceMethod add = serviceMethod(new CalculatorService(), "add");
+		Object[][] invalid = new Object[][] { { null, 3L }, { 2, 3.0d }, { 2 } };
+		for (Object[] arguments : invalid) {
+			try {
+				add.invoke(arguments);
+				Assert.fail();
+			} catch (IllegalArgumentException e) {
+			}
+		}
+		try {
+			serviceMethod(new CalculatorService(), "echo").invoke(new Object[] { "a", null });
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testCast() throws Exception {
+		ServiceMethod scale = serviceMethod(new CalculatorService(), "scale");
+		Object[] arguments = new Object[] { 1.5d, 2 };
+		try {
+			scale.invoke(arguments);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+		scale.setNeedCastParameterClasses(true);
+		Assert.assertNotNull(scale.getInvoker());
+		Assert.assertEquals(3.0f, scale.invoke(arguments));
+		Assert.assertEquals(3.0f, scale.invoke(new Object[] { 1.5f, (short) 2 }));
+	}
+
+	@Test
+	public void testServiceExceptionsWrapped() throws Exception {
+		ServiceMethod fail = serviceMethod(new CalculatorService(), "failWith");
+		Throwable[] thrown = new Throwable[] { new ClassCastException("service"),
+				new IllegalArgumentException("service"), new NoClassDefFoundError("service") };
+		for (Throwable t : thrown) {
+			try {
+				fail.invoke(new Object[] { t });
+				Assert.fail();
+			} catch (InvocationTargetException e) {
+				Assert.assertSame(t, e.getTargetException());
+			}
+		}
+	}
+
+	@Test
+	public void testNonPublicService() throws Exception {
+		ServiceMethod one = serviceMethod(new HiddenService(), "one");
+		Assert.assertNotNull(one.getInvoker());
+		Assert.assertEquals(1, one.invoke(null));
+	}
+}
@@ -0,0 +1,59 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.util.StripedLongHashMap;
+
+public class StripedLongHashMapTest {
+
+	@Test
+	public void testAgainstHashMap() {
+		StripedLongHashMap<Long> map = new StripedLongHashMap<Long>(4, 16);
+		Map<Long, Long> expected = new HashMap<Long, Long>();
+		Random random = new Random(7);
+		for (int i = 0; i < 200000; i++) {
+			long key = random.nextInt(5000) - 2500;
+			switch (random.nextInt(3)) {
+			case 0:
+				Assert.assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+				break;
+			case 1:
+				Assert.assertEquals(expected.remove(key), map.remove(key));
+				break;
+			default:
+				Assert.assertEquals(expected.get(key), map.get(key));
+			}
+		}
+		Assert.assertEquals(expected.size(), map.size());
+		long[] keys = map.keys();
+		Arrays.sort(keys);
+		Assert.assertEquals(expected.size(), keys.length);
+		for (long key : keys) {
+			Assert.assertTrue(expected.containsKey(key));
+		}
+	}
+
+	@Test
+	public void testSequentialKeys() {
+		StripedLongHashMap<String> map = new StripedLongHashMap<String>(16, 1024);
+		int capacity = map.capacity();
+		for (long i = 1; i <= 500; i++) {
+			map.put(i, "v" + i);
+		}
+		for (long i = 1; i <= 500; i += 2) {
+			Assert.assertEquals("v" + i, map.remove(i));
+		}
+		Assert.assertEquals(250, map.size());
+		Assert.assertEquals(capacity, map.capacity());
+		for (long i = 2; i <= 500; i += 2) {
+			Assert.assertEquals("v" + i, map.get(i));
+		}
+		Assert.assertNull(map.get(1));
+	}
+}
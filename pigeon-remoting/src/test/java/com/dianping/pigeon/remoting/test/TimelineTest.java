@@ -0,0 +1,73 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.AbstractInvocationContext;
+import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePhase;
+import com.dianping.pigeon.remoting.common.domain.InvocationContext.TimePoint;
+import com.dianping.pigeon.remoting.common.monitor.TimelineStatistics;
+
+public class TimelineTest {
+
+	private static class TestContext extends AbstractInvocationContext {
+
+		TestContext() {
+			super(null);
+		}
+
+		@Override
+		public String getMethodUri() {
+			return null;
+		}
+
+		@Override
+		public void setMethodUri(String uri) {
+		}
+	}
+
+	@Test
+	public void testElapsedBetweenFirstAndLastMark() throws Exception {
+		TestContext context = new TestContext();
+		context.addTimePoint(TimePhase.M);
+		Assert.assertEquals(-1, context.getElapsedNanos(TimePhase.M));
+		Thread.sleep(5);
+		context.addTimePoint(TimePhase.M);
+		context.addTimePoint(TimePhase.M);
+		Assert.assertTrue(context.getElapsedNanos(TimePhase.M) >= 5 * 1000 * 1000);
+		Assert.assertEquals(-1, context.getElapsedNanos(TimePhase.T));
+	}
+
+	@Test
+	public void testTimelineOrderedByTime() {
+		TestContext context = new TestContext();
+		long now = System.currentTimeMillis();
+		context.addTimePoint(TimePhase.T);
+		context.addTimePoint(TimePhase.R, now - 100);
+		context.addTimePoint(TimePhase.R, now - 50);
+
+		List<TimePoint> timeline = context.getTimeline();
+		Assert.assertEquals(3, timeline.size());
+		Assert.assertEquals(TimePhase.R, timeline.get(0).getPhase());
+		Assert.assertEquals(now - 100, timeline.get(0).getTime(), 1);
+		Assert.assertEquals(now - 50, timeline.get(1).getTime(), 1);
+		Assert.assertEquals(TimePhase.T, timeline.get(2).getPhase());
+	}
+
+	@Test
+	public void testPhaseStatistics() throws Exception {
+		TestContext context = new TestContext();
+		context.addTimePoint(TimePhase.M);
+		Thread.sleep(2);
+		context.addTimePoint(TimePhase.M);
+		TimelineStatistics.record(context);
+		TimelineStatistics.record(TimelineStatistics.Phase.DECODE, 3000);
+
+		Assert.assertTrue(TimelineStatistics.getStatistics().get("business").startsWith("samples:1,"));
+		Assert.assertEquals("samples:1,avg:3us,p50:<4us,p99:<4us",
+				TimelineStatistics.getStatistics().get("decode"));
+		Assert.assertEquals("samples:0", TimelineStatistics.getStatistics().get("queue"));
+	}
+}